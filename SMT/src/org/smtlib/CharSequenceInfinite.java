@@ -19,6 +19,15 @@ import java.nio.CharBuffer;
  * whether this will cause problems
  * in some uses of the CharSequenceReader is unknown.  The user should not use the value of length()
  * directly; it seems to work in the ways it is called from Pattern.matcher.
+ * <P>
+ * If slidingWindow is true, characters before the position given to release() may be discarded
+ * rather than retained; character positions remain absolute (counted from the beginning
+ * of input), but the discarded characters can no longer be retrieved. The discarding is done
+ * when the buffer is full, in place of expanding it, so that a long stream of input that is
+ * consumed as it is read (e.g. a server session) is held in a buffer of constant size.
+ * Since positions are ints, even a sliding window holds at most Integer.MAX_VALUE-2 characters
+ * of input in all; reading past that throws a RuntimeException rather than letting the
+ * positions wrap around.
  * @author David R. Cok
  *
  */
@@ -66,7 +75,7 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	/** The internal char array that holds characters as they are read */
 	protected char /*@NonNull*/[] buf;
 
-	/** The number of characters read so far (and in the char array) */
+	/** The number of characters held in the char array; buf[i] is the character at position base+i */
 	//@ invariant amountRead >= 0 && amountRead <= buf.length;
 	protected int amountRead;
 
@@ -74,11 +83,26 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	//@ invariant length >= 0 && length >= amountRead;
 	protected int length;
 
+	/** If true, characters before the position given to release() are discarded when the buffer is full;
+	 * memory use is then bounded, but the total input is still limited to Integer.MAX_VALUE-2 characters,
+	 * since positions are absolute and are ints */
+	public boolean slidingWindow = false;
+
+	/** The absolute position of the character in buf[0]; nonzero only once characters have been discarded */
+	//@ invariant base >= 0;
+	protected int base = 0;
+
+	/** The absolute position before which characters may be discarded */
+	private int releasePos = 0;
+
+	/** The number of line terminations (\n, \r or \r\n) in the characters that have been discarded */
+	private int discardedLines = 0;
+
 	/** The character to use to mark the end of input */
 	final public static char endChar = (char)25;
 
-	//@ constraint (\forall int i; 0 <= i < \old(amountRead); \old(buf[i]) == buf[i]);
-	//@ constraint amountRead >= \old(amountRead);
+	//@ constraint base == \old(base) ==> (\forall int i; 0 <= i < \old(amountRead); \old(buf[i]) == buf[i]);
+	//@ constraint base + amountRead >= \old(base + amountRead);
 	
 	/** Returns the char at the given index; this may block while input is read if the char has
 	 * not been read before.  An IOException that occurs while reading input is converted to an
@@ -89,18 +113,30 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	//@ ensures index < amountRead;
 	@Override
 	public char charAt(int index) {
-		if (index >= amountRead) {
-			if (index >= buf.length) {
+		int i = index - base;
+		if (i >= amountRead) {
+			if (i >= buf.length) {
+				discard();
+				i = index - base;
+			}
+			if (i >= buf.length) {
 				// We need +1 because one needs a buffer of at least size 2 to include index=1
 				// We add an additional +1 so that there is room to hold an End-of-input character if necessary
-				expandBuffer(index+2);
+				expandBuffer(i+2);
 			}
 			try {
-				while (amountRead <= index) {
-					if (!readChars()){
+				while (amountRead <= i) {
+					boolean more = readChars();
+					// Positions (including that of the end of input character) must fit in an int,
+					// below the Integer.MAX_VALUE used as the length while the end is not known
+					if (base > Integer.MAX_VALUE - 2 - amountRead) {
+						throw new RuntimeException("The input is longer than " + (Integer.MAX_VALUE - 2)
+								+ " characters, which is the most that can be read from one source, even with a sliding window");
+					}
+					if (!more){
 						//SMT.out.println("END OF INPUT READ");
 						buf[amountRead++] = endChar;
-						length = amountRead;
+						length = base + amountRead;
 						return endChar;
 					}
 				}
@@ -111,7 +147,48 @@ public abstract class CharSequenceInfinite implements CharSequence {
 				throw new RuntimeException(e);
 			}
 		}
-		return buf[index];
+		if (i < 0) throw new IndexOutOfBoundsException("Input at position " + index + " has been discarded");
+		return buf[i];
+	}
+
+	/** Declares that the characters before the given absolute position are no longer needed; if
+	 * slidingWindow is true, they may be discarded. Has no effect if slidingWindow is false.
+	 */
+	public void release(int pos) {
+		if (slidingWindow && pos > releasePos) releasePos = pos;
+	}
+
+	/** The absolute position of the first character that is still retained */
+	public int windowBase() {
+		return base;
+	}
+
+	/** The number of line terminations in the characters that have been discarded, so that
+	 * line numbers can be computed from windowBase() onwards
+	 */
+	public int discardedLines() {
+		return discardedLines;
+	}
+
+	/** Discards the released characters at the beginning of the buffer, moving the remaining
+	 * characters to the front of the buffer.
+	 */
+	private void discard() {
+		int k = Math.min(releasePos - base, amountRead);
+		// A trailing \r is kept, so that a following \n is counted with it as one line termination
+		if (k > 0 && buf[k-1] == '\r') --k;
+		if (k <= 0) return;
+		for (int j = 0; j < k; ++j) {
+			char c = buf[j];
+			if (c == '\n') ++discardedLines;
+			else if (c == '\r') {
+				++discardedLines;
+				if (buf[j+1] == '\n') ++j;
+			}
+		}
+		System.arraycopy(buf, k, buf, 0, amountRead - k);
+		amountRead -= k;
+		base += k;
 	}
 	
 	/** Reads more characters into the buffer; may block until some are read;
@@ -168,7 +245,10 @@ public abstract class CharSequenceInfinite implements CharSequence {
 	@Override
 	public CharSequence subSequence(int start, int end) {
 		charAt(end-1); // Just to be sure it has been read
-		return CharBuffer.wrap(buf,start,end-start);
+		if (start < base) throw new IndexOutOfBoundsException("Input at position " + start + " has been discarded");
+		// The retained characters move within buf when others are discarded, so make a copy in that case
+		if (slidingWindow) return new String(buf,start-base,end-start);
+		return CharBuffer.wrap(buf,start-base,end-start);
 	}
 	
 }
@@ -0,0 +1,279 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/** This class implements a CharSequence whose characters come from a memory-mapped file.
+ * The file contents are not copied onto the heap: a char is decoded from the mapped bytes
+ * when it is asked for. The bytes are presumed to be UTF-8; a byte that does not begin a
+ * well-formed UTF-8 sequence is decoded as U+FFFD.
+ * <P>
+ * As long as the file is plain ASCII (the usual case for SMT-LIB scripts), character
+ * positions are byte positions and charAt is a single read from the mapped buffer. Once a
+ * non-ASCII byte is found, later positions are located by decoding forward from the nearest
+ * of a set of checkpoints (recorded every BLOCK characters as decoding proceeds), or from
+ * the position of the previous call, so that sequential access stays cheap.
+ * <P>
+ * Like a CharSequenceReader, the sequence ends with an end-of-input character (endChar) and
+ * its length() is Integer.MAX_VALUE until decoding has reached the end of the file;
+ * the end of input character is returned for any position past the end.
+ * <P>
+ * Since character positions are ints, files of Integer.MAX_VALUE bytes (2GB) or more cannot be
+ * mapped; useFor declines such files, with a diagnostic, and they are read through a Reader
+ * (decoded as UTF-8, as here) instead.
+ * <P>
+ * The mapping is released by close(), rather than whenever the buffer is garbage collected;
+ * after that the sequence is empty.
+ */
+public class CharSequenceMapped implements CharSequence, Closeable {
+
+	/** The character used to mark the end of input */
+	final public static char endChar = CharSequenceInfinite.endChar;
+
+	/** The number of chars between checkpoints in the non-ASCII part of the file */
+	final private static int BLOCK = 4096;
+
+	/** The number of bytes examined at a time when checking that a prefix of the file is ASCII */
+	final private static int ASCII_CHUNK = 1 << 16;
+
+	/** The mapped contents of the file */
+	final private MappedByteBuffer buf;
+
+	/** The number of bytes in the file; 0 once the mapping has been released */
+	private int size;
+
+	/** True once the mapping has been released */
+	private boolean closed = false;
+
+	/** The implicit length of the CharSequence: Integer.MAX_VALUE until the end of the file has been decoded,
+	 * then the number of chars plus one for the end of input character */
+	private int length = Integer.MAX_VALUE;
+
+	/** Bytes [0,asciiLimit) are known to be ASCII, so char i is byte i for i < asciiLimit */
+	private int asciiLimit = 0;
+
+	/** True once a non-ASCII byte has been found at asciiLimit */
+	private boolean nonAscii = false;
+
+	/** The char positions of the checkpoints in the non-ASCII part of the file;
+	 * checkpoint k is the first code point boundary at or after asciiLimit + k*BLOCK */
+	private int[] cpChar = new int[16];
+	/** The byte positions corresponding to cpChar */
+	private int[] cpByte = new int[16];
+	/** The number of checkpoints recorded so far */
+	private int cpCount = 0;
+
+	/** The char position of the code point boundary at which the previous lookup stopped */
+	private int curChar;
+	/** The byte position corresponding to curChar */
+	private int curByte;
+	/** The code point that starts at curByte, valid only when curLen > 0 */
+	private int curCode;
+	/** The number of bytes in the code point at curByte; 0 if not yet decoded */
+	private int curLen;
+
+	/** Returns true if the given file should be read through a CharSequenceMapped rather than a
+	 * Reader, according to the mappedFileThreshold of the configuration; a file too large to be
+	 * mapped is not, and a diagnostic says so.
+	 */
+	public static boolean useFor(SMT.Configuration smtConfig, File f) {
+		if (smtConfig.mappedFileThreshold < 0 || !f.isFile()) return false;
+		long n = f.length();
+		if (n < smtConfig.mappedFileThreshold) return false;
+		if (n >= Integer.MAX_VALUE) {
+			smtConfig.log.logDiag("The file " + f + " is too large (2GB or more) to be memory-mapped; it is read without mapping");
+			return false;
+		}
+		return true;
+	}
+
+	/** Maps the given file into memory; the file may be closed or changed afterwards,
+	 * but changes to the file may be visible through this object.
+	 * @param f the file to map
+	 * @throws IOException if the file cannot be opened or mapped, or is too large
+	 */
+	public CharSequenceMapped(File f) throws IOException {
+		try (FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			long n = ch.size();
+			if (n >= Integer.MAX_VALUE) throw new IOException("File too large to map: " + f);
+			size = (int)n;
+			buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, n);
+		}
+	}
+
+	/** Releases the mapping of the file; the sequence is then empty (charAt returns endChar for
+	 * any position). It must not be used by another thread while it is being closed.
+	 */
+	@Override
+	public void close() {
+		if (closed) return;
+		closed = true;
+		size = 0;
+		length = 1;
+		asciiLimit = 0;
+		nonAscii = true;
+		curChar = 0;
+		curByte = 0;
+		curLen = 0;
+		cpChar[0] = 0;
+		cpByte[0] = 0;
+		cpCount = 1;
+		unmap(buf);
+	}
+
+	/** Unmaps the buffer now, where the runtime allows it (through the cleaner of the buffer,
+	 * which sun.misc.Unsafe exposes from Java 9 on); otherwise the mapping is released when
+	 * the buffer is garbage collected.
+	 */
+	private static void unmap(MappedByteBuffer b) {
+		try {
+			Class<?> c = Class.forName("sun.misc.Unsafe");
+			Field f = c.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			c.getMethod("invokeCleaner", ByteBuffer.class).invoke(f.get(null), b);
+		} catch (Exception e) {
+			// Not supported by this runtime - leave it to the garbage collector
+		}
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < asciiLimit) return (char)(buf.get(index) & 0x7f);
+		if (!nonAscii) {
+			extendAscii(index);
+			if (index < asciiLimit) return (char)(buf.get(index) & 0x7f);
+			if (!nonAscii) return endChar; // the whole file is ASCII and index is past its end
+		}
+		return decodedCharAt(index);
+	}
+
+	/** Extends the known ASCII prefix of the file up to at least index+1 bytes, stopping at
+	 * the end of the file or at the first non-ASCII byte.
+	 */
+	private void extendAscii(int index) {
+		int limit = (int)Math.min((long)size, Math.max((long)index + 1, (long)asciiLimit + ASCII_CHUNK));
+		int p = asciiLimit;
+		while (p < limit && buf.get(p) >= 0) ++p;
+		asciiLimit = p;
+		if (p < limit) {
+			nonAscii = true;
+			curChar = p;
+			curByte = p;
+			curLen = 0;
+			cpChar[0] = p;
+			cpByte[0] = p;
+			cpCount = 1;
+		} else if (p == size) {
+			length = size + 1;
+		}
+	}
+
+	/** Returns the char at the given index, which is in (or past) the non-ASCII part of the file */
+	private char decodedCharAt(int index) {
+		if (index < curChar || index - curChar > BLOCK) {
+			// Restart from the last checkpoint at or before index, if that is closer than the current position
+			int k = (index - asciiLimit) / BLOCK;
+			if (k >= cpCount) k = cpCount - 1;
+			while (cpChar[k] > index) --k;
+			if (index < curChar || cpChar[k] > curChar) {
+				curChar = cpChar[k];
+				curByte = cpByte[k];
+				curLen = 0;
+			}
+		}
+		while (true) {
+			if (curByte >= size) {
+				if (length == Integer.MAX_VALUE) length = curChar + 1;
+				return endChar;
+			}
+			if (curLen == 0) decode();
+			int n = Character.charCount(curCode);
+			if (index < curChar + n) {
+				if (n == 1) return (char)curCode;
+				return index == curChar ? Character.highSurrogate(curCode) : Character.lowSurrogate(curCode);
+			}
+			curChar += n;
+			curByte += curLen;
+			curLen = 0;
+			int k = (curChar - asciiLimit) / BLOCK;
+			if (k == cpCount) {
+				if (k == cpChar.length) {
+					cpChar = java.util.Arrays.copyOf(cpChar, 2*k);
+					cpByte = java.util.Arrays.copyOf(cpByte, 2*k);
+				}
+				cpChar[k] = curChar;
+				cpByte[k] = curByte;
+				cpCount = k+1;
+			}
+		}
+	}
+
+	/** Decodes the UTF-8 sequence at curByte into curCode and curLen; an ill-formed sequence
+	 * becomes one U+FFFD covering its longest well-formed prefix, as the JDK decoder does */
+	private void decode() {
+		int b = buf.get(curByte) & 0xff;
+		int n;
+		int c;
+		int lo = 0x80, hi = 0xbf; // the allowed range of the second byte
+		if (b < 0x80) { curCode = b; curLen = 1; return; }
+		else if (b >= 0xc2 && b < 0xe0) { n = 2; c = b & 0x1f; }
+		else if (b >= 0xe0 && b < 0xf0) {
+			n = 3; c = b & 0x0f;
+			if (b == 0xe0) lo = 0xa0; else if (b == 0xed) hi = 0x9f; // no overlong forms or surrogates
+		} else if (b >= 0xf0 && b < 0xf5) {
+			n = 4; c = b & 0x07;
+			if (b == 0xf0) lo = 0x90; else if (b == 0xf4) hi = 0x8f; // no overlong forms or values past U+10FFFF
+		} else { curCode = 0xfffd; curLen = 1; return; }
+		for (int i = 1; i < n; ++i) {
+			int bb = curByte + i < size ? buf.get(curByte + i) & 0xff : -1;
+			if (bb < lo || bb > hi) { curCode = 0xfffd; curLen = i; return; }
+			c = (c << 6) | (bb & 0x3f);
+			lo = 0x80; hi = 0xbf;
+		}
+		curCode = c;
+		curLen = n;
+	}
+
+	/** Returns the length of the CharSequence; for this implementation, the return value is
+	 * Integer.MAX_VALUE until the end of the file has been reached; it is then the number of
+	 * characters in the file plus one for the end of input character.
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+
+	/** Returns the characters from start to end as a String */
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (end <= start) return "";
+		charAt(end-1); // Extends the known ASCII prefix, if possible
+		if (end <= asciiLimit) {
+			byte[] b = new byte[end-start];
+			for (int i = start; i < end; ++i) b[i-start] = buf.get(i);
+			return new String(b, StandardCharsets.US_ASCII);
+		}
+		StringBuilder sb = new StringBuilder(end-start);
+		for (int i = start; i < end; ++i) sb.append(charAt(i));
+		return sb.toString();
+	}
+
+	/** Returns the whole content of the file, including the terminating end of input character */
+	@Override
+	public String toString() {
+		charAt(Integer.MAX_VALUE-1); // Decodes through to the end of the file, so that length is known
+		return subSequence(0, length).toString();
+	}
+}
@@ -55,10 +55,13 @@ public class CharSequenceReader extends CharSequenceInfinite implements CharSequ
 		if (!rdr.ready() && prompter != null) {
 			prompter.prompt();
 		}
+		int start = amountRead;
 		do {
 			nread = rdr.read(buf,amountRead,buf.length-amountRead);
 			if (nread == -1) {
-				return false;
+				// Only report the end of input if this call did not read anything;
+				// otherwise the characters just read would be hidden by the end-of-input character
+				return amountRead > start;
 			}
 			amountRead += nread;
 		} while (amountRead < buf.length && rdr.ready());
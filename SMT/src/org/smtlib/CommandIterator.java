@@ -0,0 +1,153 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.smtlib.IParser.AbortParseException;
+import org.smtlib.IParser.ParserException;
+
+/** An iterator over the commands of a source, parsed lazily: commands are parsed only when the
+ * consumer asks for one (through hasNext or next) and none is buffered, and then at most 'lookahead'
+ * of them are parsed, so a script of any length can be passed from a file to a solver in
+ * constant memory. As in SMT.doParser, commands that cannot be parsed are skipped, with their
+ * errors logged to the parser's configuration, and the iteration ends after an exit command.
+ * An unrecoverable parsing or IO error is also logged and ends the iteration; it is then available
+ * from failure().
+ * <P>
+ * Input consumed by the parser is released (for sliding-window sources) only once all the commands
+ * parsed so far have been returned, so the positions of a command remain valid until the consumer
+ * asks for the next one.
+ */
+public class CommandIterator implements Iterator<ICommand> {
+
+	/** The parser that produces the commands */
+	final protected IParser parser;
+
+	/** The maximum number of commands parsed but not yet returned */
+	final protected int lookahead;
+
+	/** The commands parsed but not yet returned, in order */
+	final protected Deque<ICommand> buffer;
+
+	/** True once the end of input (or an exit command or unrecoverable error) has been reached */
+	protected boolean done = false;
+
+	/** The number of commands that could not be parsed */
+	protected int errors = 0;
+
+	/** The exception that ended the iteration early, if any */
+	/*@Nullable*/ protected Exception failure = null;
+
+	/** Creates an iterator over the commands parsed by the given parser, parsing up to
+	 * lookahead (at least 1) commands at a time */
+	public CommandIterator(IParser parser, int lookahead) {
+		this.parser = parser;
+		this.lookahead = Math.max(1, lookahead);
+		this.buffer = new ArrayDeque<ICommand>(this.lookahead);
+	}
+
+	/** Creates an iterator that parses one command at a time */
+	public CommandIterator(IParser parser) {
+		this(parser, 1);
+	}
+
+	/** Creates an iterator over the commands of the given source, parsed with a parser made by
+	 * the configuration's factory */
+	public CommandIterator(SMT.Configuration smtConfig, ISource source) {
+		this(smtConfig.smtFactory.createParser(smtConfig, source));
+	}
+
+	/** Parses commands until the buffer holds lookahead of them or the input is done; called only
+	 * when the buffer is empty, so that with a lookahead of 1 each command is parsed only when asked for */
+	protected void fill() {
+		while (!done && buffer.size() < lookahead) {
+			try {
+				if (parser.isEOD()) {
+					done = true;
+					break;
+				}
+				if (buffer.isEmpty()) parser.releaseConsumedInput();
+				ICommand command = parser.parseCommand();
+				if (command == null) {
+					errors++;
+					continue;
+				}
+				buffer.add(command);
+				if (command instanceof ICommand.Iexit) done = true;
+			} catch (AbortParseException e) {
+				// The input to the current command was killed (with a control-X); parsing continues with the next one
+			} catch (ParserException e) {
+				parser.smt().log.logError(parser.smt().responseFactory.error(e.getMessage(), e.pos()));
+				failure = e;
+				done = true;
+			} catch (IOException e) {
+				parser.smt().log.logError("IOException reading input: " + e);
+				failure = e;
+				done = true;
+			}
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (buffer.isEmpty()) fill();
+		return !buffer.isEmpty();
+	}
+
+	@Override
+	public ICommand next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return buffer.poll();
+	}
+
+	/** The number of commands skipped because they could not be parsed */
+	public int errors() {
+		return errors;
+	}
+
+	/** The ParserException or IOException that ended the iteration before the end of input, or null */
+	public /*@Nullable*/ Exception failure() {
+		return failure;
+	}
+
+	/** Returns a sequential, ordered spliterator over the remaining commands; it does not split,
+	 * since each command can be parsed only after the ones before it */
+	public Spliterator<ICommand> spliterator() {
+		return new Spliterators.AbstractSpliterator<ICommand>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super ICommand> action) {
+				if (!hasNext()) return false;
+				action.accept(next());
+				return true;
+			}
+
+			@Override
+			public /*@Nullable*/ Spliterator<ICommand> trySplit() {
+				return null;
+			}
+		};
+	}
+
+	/** Returns a sequential stream of the remaining commands, parsed as the stream is consumed */
+	public Stream<ICommand> stream() {
+		return StreamSupport.stream(spliterator(), false);
+	}
+
+	/** Returns a stream of the commands of the given source */
+	public static Stream<ICommand> stream(SMT.Configuration smtConfig, ISource source) {
+		return new CommandIterator(smtConfig, source).stream();
+	}
+}
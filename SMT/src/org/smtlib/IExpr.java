@@ -80,6 +80,10 @@ public interface IExpr extends IAccept, IPosable, IAttributeValue {
 
 		/** Creates an error expression */
 		IError error(String text);
+		
+		/** True if the given node is shared by all the occurrences of an expression (as the nodes of
+		 * a hash-consing factory are), and so is not given the position of any one occurrence */
+		boolean isShared(IExpr e);
 
 	}
 	
@@ -98,6 +102,13 @@ public interface IExpr extends IAccept, IPosable, IAttributeValue {
 		/*@ pure */
 		int intValue();
 		
+		/** True if the value fits in a long, as returned by longValue() */
+		/*@ pure */
+		boolean fitsInLong();
+		
+		/** The value, if fitsInLong() is true */
+		/*@ pure */
+		long longValue();
 	}
 	
 	/** This interface represents non-negative decimal numbers of arbitrary size
@@ -149,6 +160,12 @@ public interface IExpr extends IAccept, IPosable, IAttributeValue {
 		/** The binary value as an unsigned integer */
 		BigInteger intValue();
 		
+		/** True if the value fits in a long, as returned by longValue() */
+		boolean fitsInLong();
+		
+		/** The value, if fitsInLong() is true */
+		long longValue();
+		
 		/** Number of binary bits */
 		int length();
 	}
@@ -161,6 +178,12 @@ public interface IExpr extends IAccept, IPosable, IAttributeValue {
 		/** The hex value as an unsigned integer */
 		BigInteger intValue();
 		
+		/** True if the value fits in a long, as returned by longValue() */
+		boolean fitsInLong();
+		
+		/** The value, if fitsInLong() is true */
+		long longValue();
+		
 		/** Number of hex digits */
 		int length();
 	}
@@ -33,6 +33,9 @@ public interface IParser {
 	
 	/** Skips remainder of current line */
 	void abortLine();
+	/** Tells the source of input that the characters before the lookahead token (or, if there is
+	 * none, the next character to be read) are no longer needed, so that they may be discarded */
+	void releaseConsumedInput();
 	
 	/** Parse an attribute (keyword with optional value), returning null with error messages
 	 * if an error occurs.
@@ -237,5 +237,12 @@ public interface ISort extends IAccept, IPosable {
 		
 		/** Returns the Bool Sort */
 		IApplication Bool();
+		
+		/** Returns the canonical sort equal to the given (type-checked) sort: the one instance of
+		 * that sort, with all abbreviations expanded, so that canonical sorts are equal only if they
+		 * are the same object; returns null if the sort has no canonical form (because it has
+		 * sort parameters or has not been resolved against its definition)
+		 */
+		/*@Nullable*/ IApplication canonical(ISort sort);
 	}
 }
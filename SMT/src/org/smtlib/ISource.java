@@ -30,7 +30,9 @@ public interface ISource {
 	char charAt(int pos);
 	
 	/** Returns the character position of the beginning of the line containing the given position. 
-	 * Character positions begin at 0.*/
+	 * Character positions begin at 0. The line number methods are meant to be cheap enough to
+	 * call for each of many error messages (e.g. logarithmic in the number of lines), so that
+	 * consumers of IPos positions need not cache their results.*/
 	//@ requires pos >= 0;
 	//@ ensures 0 <= \result && \result <= pos;
 	int lineBeginning(int pos);
@@ -47,4 +49,10 @@ public interface ISource {
 	//@ requires pos >= 0;
 	//@ ensures \result > 0;
 	int lineNumber(int pos);
+	
+	/** Returns the column (beginning with 0, counting each character, including tabs, as one) of the
+	 * given character position (which begins at 0), that is, its distance from lineBeginning(pos). */
+	//@ requires pos >= 0;
+	//@ ensures \result >= 0;
+	int column(int pos);
 }
\ No newline at end of file
@@ -5,6 +5,7 @@
  */
 package org.smtlib;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -110,6 +111,51 @@ public class Log {
 		
 	}
 	
+	/** This listener records the messages sent to it, so that they can later be sent, in the same
+	 * order, to another Log (e.g. once a file processed concurrently with others is complete).
+	 */
+	static public class Recorder implements IListener {
+		/** A recorded message */
+		static protected interface Message {
+			/** Sends the message to the given log */
+			public void sendTo(Log log);
+		}
+		
+		/** The messages recorded so far */
+		final protected List<Message> messages = new ArrayList<Message>();
+		
+		/** Sends all the recorded messages to the given log (and so to its listeners), and forgets them */
+		public void replay(Log log) {
+			for (Message m: messages) m.sendTo(log);
+			messages.clear();
+		}
+		
+		@Override
+		public void indent(final String chars) {
+			messages.add(new Message() { public void sendTo(Log log) { log.indent(chars); }});
+		}
+		@Override
+		public void logOut(final String msg) {
+			messages.add(new Message() { public void sendTo(Log log) { log.logOut(msg); }});
+		}
+		@Override
+		public void logOut(final /*@ReadOnly*/ IResponse response) {
+			messages.add(new Message() { public void sendTo(Log log) { log.logOut(response); }});
+		}
+		@Override
+		public void logError(final String msg) {
+			messages.add(new Message() { public void sendTo(Log log) { log.logError(msg); }});
+		}
+		@Override
+		public void logError(final /*@ReadOnly*/ IResponse.IError result) {
+			messages.add(new Message() { public void sendTo(Log log) { log.logError(result); }});
+		}
+		@Override
+		public void logDiag(final String msg) {
+			messages.add(new Message() { public void sendTo(Log log) { log.logDiag(msg); }});
+		}
+	}
+
 	/** The list of listeners to send log messages to */
 	protected List<IListener> listeners = new LinkedList<IListener>();
 	
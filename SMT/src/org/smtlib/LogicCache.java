@@ -0,0 +1,159 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.io.File;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** This class is a process-wide, thread-safe cache of parsed logic and theory definitions, and of
+ * the symbol table background frames that result from loading a logic, so that a set-logic command
+ * need not re-read and re-parse the logic and theory files and rebuild the symbol table each time.
+ * <P>
+ * Definitions are cached by name, logic path and the factories used to create them; a definition
+ * (and any background frame built from it) is discarded when the modification time of the file it
+ * was read from changes. Definitions read from a jar file are never invalidated. Only definitions
+ * that are parsed without errors (and, for a logic, loaded successfully) are cached, so that the errors
+ * in a faulty definition are reported each time it is used.
+ */
+public class LogicCache {
+
+	/** The cache used by Utils.loadLogic and Utils.findTheory (when smtConfig.cacheLogics is true) */
+	static public final LogicCache cache = new LogicCache();
+
+	/** A parsed logic or theory definition, and the file (if known) from which it was read */
+	static public class Definition {
+		/** The key under which the definition is cached */
+		final protected List<Object> key;
+		/** The file from which the definition was read, if it is a file */
+		final protected /*@Nullable*/ File file;
+		/** The modification time of the file, before the definition was read */
+		final protected long modified;
+		/** The parsed ILogic or ITheory; null until it is stored in the cache */
+		protected /*@Nullable*/ Object ast = null;
+
+		protected Definition(List<Object> key, /*@Nullable*/ File file) {
+			this.key = key;
+			this.file = file;
+			this.modified = file == null ? 0 : file.lastModified();
+		}
+
+		/** The parsed definition, or null if it has not been parsed yet */
+		public /*@Nullable*/ Object ast() {
+			return ast;
+		}
+
+		/** False if the file from which the definition was read has been changed since */
+		public boolean isCurrent() {
+			return file == null || file.lastModified() == modified;
+		}
+	}
+
+	/** A symbol table background frame, and the definitions from which it was built */
+	static protected class BackgroundEntry {
+		final protected SymbolTable.Background background;
+		final protected List<Definition> sources;
+
+		protected BackgroundEntry(SymbolTable.Background background, List<Definition> sources) {
+			this.background = background;
+			this.sources = sources;
+		}
+	}
+
+	/** The cached definitions */
+	final protected Map<List<Object>,Definition> definitions = new HashMap<List<Object>,Definition>();
+
+	/** The cached background frames, by logic */
+	final protected Map<List<Object>,BackgroundEntry> backgrounds = new HashMap<List<Object>,BackgroundEntry>();
+
+	/** The key for a logic or theory with the given name in the given configuration */
+	protected List<Object> key(SMT.Configuration config, String name) {
+		return Arrays.<Object>asList(name, config.logicPath, SMT.logicFinder,
+				config.exprFactory.getClass(), config.sortFactory.getClass(), SMT.Configuration.smtlib);
+	}
+
+	/** Returns the cached definition for the given name, if there is one and it is still current;
+	 * otherwise returns a new Definition with no ast, to be given to store() once the definition
+	 * is parsed.
+	 */
+	public synchronized Definition lookup(SMT.Configuration config, String name) {
+		List<Object> k = key(config, name);
+		Definition d = definitions.get(k);
+		if (d != null && d.isCurrent()) return d;
+		return new Definition(k, locate(config, name));
+	}
+
+	/** Caches the given parsed definition, obtained from lookup() */
+	public synchronized void store(Definition d, Object ast) {
+		d.ast = ast;
+		definitions.put(d.key, d);
+	}
+
+	/** Returns the cached background frame for the given logic, or null if there is none or if any of
+	 * the definitions it was built from has changed */
+	public synchronized /*@Nullable*/ SymbolTable.Background background(SMT.Configuration config, String logicName) {
+		List<Object> k = key(config, logicName);
+		BackgroundEntry b = backgrounds.get(k);
+		if (b == null) return null;
+		for (Definition d: b.sources) {
+			if (definitions.get(d.key) != d || !d.isCurrent()) {
+				backgrounds.remove(k);
+				return null;
+			}
+		}
+		return b.background;
+	}
+
+	/** Caches the background frame that results from loading the given logic, which uses the
+	 * theories with the given names; nothing is cached if any of the definitions is not cached.
+	 */
+	public synchronized void storeBackground(SMT.Configuration config, String logicName, List<String> theoryNames, SymbolTable.Background background) {
+		List<Definition> sources = new ArrayList<Definition>(theoryNames.size() + 1);
+		Definition d = definitions.get(key(config, logicName));
+		if (d == null) return;
+		sources.add(d);
+		for (String name: theoryNames) {
+			d = definitions.get(key(config, name));
+			if (d == null) return;
+			sources.add(d);
+		}
+		backgrounds.put(key(config, logicName), new BackgroundEntry(background, sources));
+	}
+
+	/** Empties the cache */
+	public synchronized void clear() {
+		definitions.clear();
+		backgrounds.clear();
+	}
+
+	/** Finds the file from which SMT.logicFinder reads the definition with the given name,
+	 * returning null if it is not a file (e.g. it is in a jar file) */
+	protected /*@Nullable*/ File locate(SMT.Configuration config, String name) {
+		String path = config.logicPath;
+		String filename = name + Utils.SUFFIX;
+		URL url;
+		if (path == null) {
+			url = ClassLoader.getSystemResource(filename);
+		} else {
+			for (String dir: path.split(File.pathSeparator)) {
+				File f = new File(dir + File.separator + filename);
+				if (f.exists()) return f;
+			}
+			url = getClass().getClassLoader().getResource(filename);
+		}
+		if (url == null || !"file".equals(url.getProtocol())) return null;
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			return null;
+		}
+	}
+}
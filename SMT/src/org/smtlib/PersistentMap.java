@@ -0,0 +1,200 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** An immutable hash map: put returns a new map that shares all but O(log n) of its structure
+ * with the receiver, so that any number of versions of a map can be kept cheaply. The map is a
+ * hash array mapped trie, using successive 5-bit slices of the keys' hash codes at successive levels.
+ * Null keys and values are not permitted.
+ */
+public final class PersistentMap<K,V> {
+
+	/** The empty map */
+	static final private PersistentMap<Object,Object> EMPTY = new PersistentMap<Object,Object>(null, 0);
+
+	/** The root of the trie, null for an empty map */
+	final private /*@Nullable*/ Node root;
+
+	/** The number of keys in the map */
+	final private int size;
+
+	private PersistentMap(/*@Nullable*/ Node root, int size) {
+		this.root = root;
+		this.size = size;
+	}
+
+	/** Returns the empty map */
+	@SuppressWarnings("unchecked")
+	static public <K,V> PersistentMap<K,V> empty() {
+		return (PersistentMap<K,V>)EMPTY;
+	}
+
+	/** The number of keys in the map */
+	public int size() {
+		return size;
+	}
+
+	/** Returns the value for the given key, or null if there is none */
+	@SuppressWarnings("unchecked")
+	public /*@Nullable*/ V get(Object key) {
+		return root == null ? null : (V)root.get(key, hash(key), 0);
+	}
+
+	/** Returns a map that is the same as this one, except that the given key has the given value */
+	public PersistentMap<K,V> put(K key, V value) {
+		boolean[] added = new boolean[1];
+		Node r = (root == null ? BitmapNode.EMPTY : root).put(key, value, hash(key), 0, added);
+		if (r == root) return this;
+		return new PersistentMap<K,V>(r, added[0] ? size+1 : size);
+	}
+
+	/** Returns a new list of the values in the map, in no particular order */
+	@SuppressWarnings("unchecked")
+	public List<V> values() {
+		List<Object> result = new ArrayList<Object>(size);
+		if (root != null) root.values(result);
+		return (List<V>)result;
+	}
+
+	static private int hash(Object key) {
+		int h = key.hashCode();
+		return h ^ (h >>> 16);
+	}
+
+	/** A node of the trie */
+	static private abstract class Node {
+		/** Returns the value for the key, which has the given hash, in the subtrie at the given level */
+		abstract /*@Nullable*/ Object get(Object key, int hash, int shift);
+		/** Returns the node with the key mapped to the value; added[0] is set if the key is new */
+		abstract Node put(Object key, Object value, int hash, int shift, boolean[] added);
+		/** Adds the values in the subtrie to the list */
+		abstract void values(List<Object> result);
+	}
+
+	/** An interior node: the bitmap has a bit for each 5-bit hash slice that is present at this level;
+	 * the array holds two elements for each bit in order: either a key and its value, or null and
+	 * the Node for the keys with that slice.
+	 */
+	static private final class BitmapNode extends Node {
+		static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+		final int bitmap;
+		final Object[] array;
+
+		BitmapNode(int bitmap, Object[] array) {
+			this.bitmap = bitmap;
+			this.array = array;
+		}
+
+		@Override
+		/*@Nullable*/ Object get(Object key, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			if ((bitmap & bit) == 0) return null;
+			int i = 2*Integer.bitCount(bitmap & (bit-1));
+			Object k = array[i];
+			if (k == null) return ((Node)array[i+1]).get(key, hash, shift+5);
+			return key.equals(k) ? array[i+1] : null;
+		}
+
+		@Override
+		Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+			int bit = 1 << ((hash >>> shift) & 31);
+			int i = 2*Integer.bitCount(bitmap & (bit-1));
+			if ((bitmap & bit) == 0) {
+				Object[] a = new Object[array.length+2];
+				System.arraycopy(array, 0, a, 0, i);
+				a[i] = key;
+				a[i+1] = value;
+				System.arraycopy(array, i, a, i+2, array.length-i);
+				added[0] = true;
+				return new BitmapNode(bitmap | bit, a);
+			}
+			Object k = array[i];
+			Object v = array[i+1];
+			Object n;
+			if (k == null) {
+				n = ((Node)v).put(key, value, hash, shift+5, added);
+			} else if (key.equals(k)) {
+				if (value == v) return this;
+				n = value;
+			} else {
+				n = pair(k, v, hash(k), key, value, hash, shift+5);
+				added[0] = true;
+				k = null;
+			}
+			if (n == v) return this;
+			Object[] a = array.clone();
+			a[i] = k;
+			a[i+1] = n;
+			return new BitmapNode(bitmap, a);
+		}
+
+		@Override
+		void values(List<Object> result) {
+			for (int i = 0; i < array.length; i += 2) {
+				if (array[i] == null) ((Node)array[i+1]).values(result);
+				else result.add(array[i+1]);
+			}
+		}
+
+		/** A node holding two different keys, whose hashes agree below the given level */
+		static Node pair(Object k1, Object v1, int h1, Object k2, Object v2, int h2, int shift) {
+			if (h1 == h2) return new CollisionNode(h1, new Object[]{ k1, v1, k2, v2 });
+			boolean[] added = new boolean[1];
+			return EMPTY.put(k1, v1, h1, shift, added).put(k2, v2, h2, shift, added);
+		}
+	}
+
+	/** A leaf holding keys (alternating with their values) that all have the same hash */
+	static private final class CollisionNode extends Node {
+		final int hash;
+		final Object[] array;
+
+		CollisionNode(int hash, Object[] array) {
+			this.hash = hash;
+			this.array = array;
+		}
+
+		@Override
+		/*@Nullable*/ Object get(Object key, int hash, int shift) {
+			if (hash != this.hash) return null;
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) return array[i+1];
+			}
+			return null;
+		}
+
+		@Override
+		Node put(Object key, Object value, int hash, int shift, boolean[] added) {
+			if (hash != this.hash) {
+				Node n = new BitmapNode(1 << ((this.hash >>> shift) & 31), new Object[]{ null, this });
+				return n.put(key, value, hash, shift, added);
+			}
+			for (int i = 0; i < array.length; i += 2) {
+				if (key.equals(array[i])) {
+					if (value == array[i+1]) return this;
+					Object[] a = array.clone();
+					a[i+1] = value;
+					return new CollisionNode(hash, a);
+				}
+			}
+			Object[] a = new Object[array.length+2];
+			System.arraycopy(array, 0, a, 0, array.length);
+			a[array.length] = key;
+			a[array.length+1] = value;
+			added[0] = true;
+			return new CollisionNode(hash, a);
+		}
+
+		@Override
+		void values(List<Object> result) {
+			for (int i = 1; i < array.length; i += 2) result.add(array[i]);
+		}
+	}
+}
@@ -12,7 +12,15 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.ServerSocket;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import org.smtlib.IExpr.IKeyword;
 import org.smtlib.IParser.AbortParseException;
@@ -93,12 +101,15 @@ public class SMT {
 			//c.commandExtensionPrefixes = Array.copy(commandExtensionPrefixes);
 			c.commands = new HashMap<String,Class<? extends ICommand>>();
 			c.commands.putAll(commands);
+			c.commandRegistry = new org.smtlib.sexpr.CommandRegistry(commandRegistry);
 			// FIXME - ok to have a reference copy of Log ?
 			c.reservedWords = new HashSet<String>();
 			c.reservedWords.addAll(reservedWords);
 			c.reservedWordsNotCommands = new HashSet<String>();
 			c.reservedWordsNotCommands.addAll(reservedWordsNotCommands);
-			utils.smtConfig = this;
+			c.symbolPool = new SymbolPool();
+			// The copy's logic and theory loading must report to, and use the state of, the copy
+			c.utils = utils instanceof org.smtlib.sexpr.Utils ? new org.smtlib.sexpr.Utils(c) : new Utils(c);
 			return c;
 		}
 		
@@ -201,6 +212,22 @@ public class SMT {
 		 */
 		public boolean relax = false;
 		
+		/** When true, the lexer uses a hand-coded scanner instead of a regular expression
+		 * Matcher; the tokens produced are the same, but scanning is faster on large inputs.
+		 */
+		public boolean fastLexer = false;
+		
+		/** When true, the lexer and parser do not record source positions: tokens and parsed
+		 * expressions and commands have null positions, so no IPos objects are allocated and the
+		 * parsed trees do not hold on to the source. Error messages then carry no location, so this
+		 * is meant for input that is already known to be well-formed.
+		 */
+		public boolean noPositions = false;
+		
+		/** The canonical strings for the symbols and keywords read by the lexer (only; see SymbolPool);
+		 * not shared by copies of the configuration, since a pool is used by one thread at a time */
+		public SymbolPool symbolPool = new SymbolPool();
+		
 		/** An array of fully-qualified class name prefixes; a command name (with hyphen
 		 * replaced by underscore) is appended to the prefix to obtain a fully-qualified class name that
 		 * implements the command.
@@ -230,7 +257,70 @@ public class SMT {
 		
 		// FIXME - document
 		public int initialInputBufferSize = 1000000;
+
+		/** Input files of at least this many bytes are memory-mapped (see CharSequenceMapped) rather than
+		 * read into a growing char buffer; a negative value disables mapping.
+		 */
+		public long mappedFileThreshold = 1000000;
+
+		/** If true, input read from standard input, a socket or a (not memory-mapped) file is held in a
+		 * sliding window: the text of commands that have been processed is discarded, so that a long
+		 * session runs in constant memory. Character positions are still ints counted from the start of
+		 * the input, so one input is limited to Integer.MAX_VALUE-2 (about 2 billion) characters;
+		 * reading beyond that is an error.
+		 */
+		public boolean slidingWindow = false;
+
+		/** If positive, the solvers for the files processed by SMT.exec are taken from a SolverPool
+		 * that keeps up to this many started solvers, instead of starting a new solver for each file;
+		 * the pool is filled with started solvers before the first file is processed.
+		 */
+		public int solverPoolSize = 0;
+
+		/** The number of files that SMT.exec processes concurrently; each file is processed with its own
+		 * copy of the configuration and its own solver, and the output for each file is emitted, in the
+		 * order in which the files are listed, once that file is complete.
+		 */
+		public int jobs = 1;
+
+		/** If greater than 1, each script file is parsed by a ParallelParser on this many threads:
+		 * the file is split into chunks of commands that are parsed concurrently (while the commands
+		 * are still executed one at a time, in order).
+		 */
+		public int parseThreads = 1;
+
+		/** If not null, the directory of a ScriptCache: the commands of each script file are parsed
+		 * only once and stored there, and later runs on the same file (with the same parsing
+		 * settings) load them from the cache instead of parsing the text again.
+		 */
+		public /*@Nullable*/ String parseCache = null;
+
+		/** If true, the solver adapters send each asserted term with its repeated (identical)
+		 * subterms bound once by let, so that the text sent is linear in the size of the term's DAG
+		 * (see org.smtlib.sexpr.Sharing).
+		 */
+		public boolean shareSubterms = false;
+
+		/** If true, as shareSubterms, but structurally equal subterms, not just identical ones, are
+		 * bound once.
+		 */
+		public boolean shareStructurally = false;
+
+		/** If positive, the z3 adapters keep the translations of repeated terms in a TranslationCache
+		 * holding up to this many characters, and reuse them rather than translating the terms again.
+		 */
+		public int translationCacheSize = 0;
+
+		/** If true, parsed logic and theory definitions, and the symbol table contents that result
+		 * from loading a logic, are kept in the process-wide LogicCache and reused by later set-logic commands.
+		 */
+		public boolean cacheLogics = true;
 		
+		/** Holds the functions that parse each command, by command name; the parser uses these
+		 * in preference to the commandFinder below, which is consulted only for names that are
+		 * not in the registry or (if relax is true) that are in the commands map */
+		public org.smtlib.sexpr.CommandRegistry commandRegistry;
+
 		/** Holds a mapping from command name to the class implementing the command */
 		public Map<String,Class<? extends ICommand>> commands = new HashMap<String,Class<? extends ICommand>>();
 		/** A class that implements ICommandFinder, whose one method returns the class 
@@ -283,7 +373,17 @@ public class SMT {
 	}
 	
 	/** The set of configuration settings for this instance of the SMT object */
-	public Configuration smtConfig = new Configuration();
+	public Configuration smtConfig;
+	
+	/** Creates an SMT object with a new default configuration */
+	public SMT() {
+		smtConfig = new Configuration();
+	}
+	
+	/** Creates an SMT object that uses the given configuration */
+	public SMT(Configuration smtConfig) {
+		this.smtConfig = smtConfig;
+	}
 	
 	/** The main method of the SMT application */
 	public static void main(String[] args) {
@@ -429,6 +529,7 @@ public class SMT {
 
 			CharSequenceSocket csq = new CharSequenceSocket(smtConfig,serverSocket,100000,0,2);
 			csq.prompter = new Prompter(smtConfig);
+			csq.slidingWindow = smtConfig.slidingWindow;
 			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Start parsing");
 			src = smtConfig.smtFactory.createSource(csq, null);
 			p = smtConfig.smtFactory.createParser(smtConfig,src);
@@ -441,6 +542,7 @@ public class SMT {
 			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Start parsing standard input");
 			CharSequenceReader csr = new CharSequenceReader(rdr,100000,0,2);
 			csr.prompter = new Prompter(smtConfig);
+			csr.slidingWindow = smtConfig.slidingWindow;
 			src = smtConfig.smtFactory.createSource(csr, null);
 			p = smtConfig.smtFactory.createParser(smtConfig,src);
 			return doParser(p);
@@ -448,20 +550,169 @@ public class SMT {
 		} else {
 			// Otherwise, iterate over all the files
 			smtConfig.interactive = false;
+			if (smtConfig.jobs > 1 && smtConfig.files.size() > 1) return execParallel(smtConfig.files);
+			boolean ownPool = solverPool == null && smtConfig.solverPoolSize > 0 && smtConfig.files.size() > 1;
+			if (ownPool) {
+				solverPool = new SolverPool(this, smtConfig.solverPoolSize);
+				solverPool.prestart(smtConfig.solvername, smtConfig.executable, smtConfig.solverPoolSize);
+			}
 			for (String file: smtConfig.files) {
+				int e = execFile(file);
+				if (e != 0) retcode = e;
+			}
+			if (ownPool) {
+				solverPool.close();
+				solverPool = null;
+			}
+			return retcode;
+		}
+	}
+	
+	/** Processes the commands in the given file, with a restarted solver */
+	protected int execFile(String file) {
+		/*@Nullable*/ CharSequenceMapped mapped = null;
+		try {
+			File f = new File(file);
+			CharSequence csr;
+			if (CharSequenceMapped.useFor(smtConfig, f)) {
+				csr = mapped = new CharSequenceMapped(f);
+			} else {
+				// Decoded as UTF-8, as a mapped file is, whatever the platform default
+				Reader rdr = new BufferedReader(new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8));
+				CharSequenceReader csrdr = new CharSequenceReader(rdr,100000,0,2);
+				// A ParallelParser, and a script that may be parsed twice to be cached, need the whole text
+				csrdr.slidingWindow = smtConfig.slidingWindow && smtConfig.parseThreads <= 1 && smtConfig.parseCache == null;
+				csr = csrdr;
+			}
+			ISource src = smtConfig.smtFactory.createSource(csr, file);
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Starting file " + file);
+			if (smtConfig.parseCache != null) {
+				List<ICommand> commands = cachedCommands(f, src);
+				if (commands != null) return doParser(new ScriptCache.Replay(smtConfig, src, commands));
+			}
+			if (smtConfig.parseThreads > 1) {
+				ForkJoinPool pool = new ForkJoinPool(smtConfig.parseThreads);
 				try {
-					Reader rdr = new BufferedReader(new FileReader(file));
-					CharSequenceReader csr = new CharSequenceReader(rdr,100000,0,2);
-					src = smtConfig.smtFactory.createSource(csr, file);
-					p = smtConfig.smtFactory.createParser(smtConfig,src);
-					if (smtConfig.verbose != 0) smtConfig.log.logDiag("Starting file " + file);
-					int e = doParser(p);
-					if (e != 0) retcode = e;
-				} catch (FileNotFoundException e) {
-					smtConfig.log.logError("Could not find file: " + file + " Exception: " + e);
+					return doParser(new org.smtlib.sexpr.ParallelParser(smtConfig,src,pool));
+				} finally {
+					pool.shutdownNow();
 				}
 			}
-			return retcode;
+			IParser p = smtConfig.smtFactory.createParser(smtConfig,src);
+			return doParser(p);
+		} catch (FileNotFoundException e) {
+			smtConfig.log.logError("Could not find file: " + file + " Exception: " + e);
+		} catch (IOException e) {
+			smtConfig.log.logError("Could not read file: " + file + " Exception: " + e);
+		} finally {
+			if (mapped != null) mapped.close(); // Release the mapping now rather than when it is collected
+		}
+		return 0;
+	}
+	
+	/** Returns the commands of the given script file, from smtConfig.parseCache if they are there,
+	 * and otherwise parsed from the source and stored there; returns null if the script cannot
+	 * be parsed without errors, in which case it is parsed again as it is executed.
+	 */
+	protected /*@Nullable*/ List<ICommand> cachedCommands(File f, ISource src) throws IOException {
+		ScriptCache cache = new ScriptCache(new File(smtConfig.parseCache));
+		String key = cache.key(smtConfig, f);
+		List<ICommand> commands = cache.load(smtConfig, key, src);
+		if (commands != null) {
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Loaded the parsed commands from " + cache.file(key));
+			return commands;
+		}
+		commands = cache.parse(smtConfig, src);
+		if (commands != null && cache.store(smtConfig, key, commands, src)) {
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Stored the parsed commands in " + cache.file(key));
+		}
+		return commands;
+	}
+	
+	/** Processes the given files concurrently, on up to smtConfig.jobs threads. Each file is processed
+	 * by its own SMT object, with its own solver and a copy of this configuration whose log records
+	 * the output rather than writing it; the recorded output of each file is replayed to this
+	 * object's log, in the order of the files, once that file and all the files before it are done.
+	 * A SolverPool is not used in this mode.
+	 */
+	protected int execParallel(List<String> files) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(smtConfig.jobs, files.size()), new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "SMT-job");
+				t.setDaemon(true); // So that a hung solver does not keep the application alive
+				return t;
+			}
+		});
+		int retcode = 0;
+		try {
+			List<Job> jobs = new ArrayList<Job>(files.size());
+			List<Future<Integer>> results = new ArrayList<Future<Integer>>(files.size());
+			for (String file: files) {
+				Job job = new Job(file);
+				jobs.add(job);
+				results.add(executor.submit(job));
+			}
+			for (int i = 0; i < jobs.size(); i++) {
+				Job job = jobs.get(i);
+				int e;
+				try {
+					e = results.get(i).get();
+				} catch (ExecutionException ex) {
+					job.recorder.logError("Failed to process file " + job.file + ": " + ex.getCause());
+					e = 2;
+				}
+				job.recorder.replay(smtConfig.log);
+				if (e != 0) retcode = e;
+				checkSatStatus = job.smt.checkSatStatus;
+				lastResponse = job.smt.lastResponse;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			smtConfig.log.logError("Interrupted while processing files");
+			retcode = 2;
+		} catch (CloneNotSupportedException e) {
+			// Does not happen - Configuration is Cloneable
+			smtConfig.log.logError("Could not copy the configuration: " + e);
+			retcode = 2;
+		} finally {
+			executor.shutdownNow();
+		}
+		return retcode;
+	}
+	
+	/** The processing of one file by execParallel */
+	protected class Job implements Callable<Integer> {
+		/** The file to process */
+		final public String file;
+		/** Records the output produced in processing the file */
+		final public Log.Recorder recorder = new Log.Recorder();
+		/** The SMT object that processes the file */
+		final public SMT smt;
+		
+		/** Creates a job for the given file, using a copy of the enclosing SMT object's
+		 * configuration whose log sends everything to the recorder */
+		public Job(String file) throws CloneNotSupportedException {
+			this.file = file;
+			Configuration config = smtConfig.clone();
+			config.log = new Log(config);
+			config.log.clearListeners();
+			config.log.addListener(recorder);
+			config.files = null;
+			config.jobs = 1;
+			// The text of an erroneous line must still be available when its error is replayed
+			config.slidingWindow = false;
+			// Interned terms are shared, positions and all, so concurrent jobs each need their own table
+			if (config.exprFactory instanceof org.smtlib.impl.HashConsingFactory) {
+				config.exprFactory = new org.smtlib.impl.HashConsingFactory();
+			}
+			smt = new SMT(config);
+			smt.props = props;
+		}
+		
+		@Override
+		public Integer call() {
+			return smt.execFile(file);
 		}
 	}
 	
@@ -479,17 +730,26 @@ public class SMT {
 	
 	protected /*@Nullable*/ ISolver solver = null;
 	
+	/** If not null, the solver for each script (file) processed by exec() is taken from and
+	 * returned to this pool, rather than started and exited; exec() creates a pool for
+	 * multi-file processing if smtConfig.solverPoolSize is positive. */
+	public /*@Nullable*/ SolverPool solverPool = null;
+	
 	public IResponse lastResponse = null; // FIXME - quick hack to export the result of an interactive command
 	
 	protected int doParser(IParser p, boolean restart) { 
 		boolean checkMode = Utils.TEST_SOLVER.equals(smtConfig.solvername);
 		boolean abortMode = smtConfig.abort && !checkMode;
+		boolean pooled = restart && solverPool != null;
 
 		if (restart && solver != null) {
-		    solver.exit();
+		    // The previous solver was already force-exited at the end of the previous call;
+		    // an exit() would fail for a solver process that is no longer running
+		    solver.forceExit();
 		    solver = null;
 		}
-		if (restart || solver == null) solver = startSolver(smtConfig, smtConfig.solvername, smtConfig.executable);
+		if (pooled) solver = solverPool.acquire(smtConfig.solvername, smtConfig.executable);
+		else if (restart || solver == null) solver = startSolver(smtConfig, smtConfig.solvername, smtConfig.executable);
 		if (solver == null) return 1;
 		IKeyword printSuccessKW = smtConfig.exprFactory.keyword(Utils.PRINT_SUCCESS);
 		if (smtConfig.nosuccess) {
@@ -503,6 +763,7 @@ public class SMT {
 			ICommand command = null;
 			while (!(command instanceof ICommand.Iexit) && !p.isEOD()) {
 				try {
+					p.releaseConsumedInput();
 					command = p.parseCommand();
 					if (command == null) {
 						retcode = 1;
@@ -521,7 +782,9 @@ public class SMT {
 						smtConfig.log.logDiag(smtConfig.defaultPrinter.toString(command));
 					}
 					else if (smtConfig.verbose != 0) smtConfig.log.logDiag("Command to execute: " +  command);
-					result = command.execute(solver);
+					// A pooled solver is not exited; it is returned to the pool below
+					// (C_echo also implements Iexit, so the test is for the exit command itself)
+					result = pooled && command instanceof org.smtlib.command.C_exit ? smtConfig.responseFactory.success() : command.execute(solver);
 					if (result.isError()) {
 						IResponse.IError eresult = (IResponse.IError)result;
 						if (eresult.pos() == null && command instanceof IPosable) {
@@ -570,7 +833,12 @@ public class SMT {
 			error("Out of memory while processing input");
 			retcode = 2;
 		}
-		solver.forceExit();  // Just in case the solver was not explicitly exited
+		if (pooled) {
+			solverPool.release(solver);
+			solver = null;
+		} else {
+			solver.forceExit();  // Just in case the solver was not explicitly exited
+		}
 		if (smtConfig.verbose != 0) smtConfig.log.logDiag("Exiting program");
 		return retcode;
 	}
@@ -672,6 +940,100 @@ public class SMT {
 				options.abort = true;
 			} else if ("--relax".equals(s)) {
 				options.relax = true;
+			} else if ("--fastlexer".equals(s)) {
+				options.fastLexer = true;
+			} else if ("--slidingwindow".equals(s)) {
+				options.slidingWindow = true;
+			} else if ("--nopositions".equals(s)) {
+				options.noPositions = true;
+			} else if ("--nologiccache".equals(s)) {
+				options.cacheLogics = false;
+			} else if ("--share".equals(s)) {
+				options.shareSubterms = true;
+			} else if ("--sharestructural".equals(s)) {
+				options.shareStructurally = true;
+			} else if ("--translationcache".equals(s)) {
+				if (i >= args.length) {
+					error("The --translationcache option expects an integer argument");
+					usage();
+					return 1;
+				}
+				try {
+					options.translationCacheSize = Integer.valueOf(args[i++]);
+				} catch (NumberFormatException e) {
+					error("The --translationcache option expects an integer argument");
+					usage();
+					return 1;
+				}
+				if (options.translationCacheSize < 0) {
+					error("The argument to --translationcache must be non-negative");
+					usage();
+					return 1;
+				}
+			} else if ("--hashcons".equals(s)) {
+				options.exprFactory = new org.smtlib.impl.HashConsingFactory();
+			} else if ("--solverpool".equals(s)) {
+				if (i >= args.length) {
+					error("The --solverpool option expects an integer argument");
+					usage();
+					return 1;
+				}
+				try {
+					options.solverPoolSize = Integer.valueOf(args[i++]);
+				} catch (NumberFormatException e) {
+					error("The --solverpool option expects an integer argument");
+					usage();
+					return 1;
+				}
+				if (options.solverPoolSize < 0) {
+					error("The argument to --solverpool must be non-negative");
+					usage();
+					return 1;
+				}
+			} else if ("--jobs".equals(s) || "-j".equals(s)) {
+				if (i >= args.length) {
+					error("The --jobs option expects an integer argument");
+					usage();
+					return 1;
+				}
+				try {
+					options.jobs = Integer.valueOf(args[i++]);
+				} catch (NumberFormatException e) {
+					error("The --jobs option expects an integer argument");
+					usage();
+					return 1;
+				}
+				if (options.jobs < 1) {
+					error("The argument to --jobs must be positive");
+					usage();
+					return 1;
+				}
+			} else if ("--parsethreads".equals(s)) {
+				if (i >= args.length) {
+					error("The --parsethreads option expects an integer argument");
+					usage();
+					return 1;
+				}
+				try {
+					options.parseThreads = Integer.valueOf(args[i++]);
+				} catch (NumberFormatException e) {
+					error("The --parsethreads option expects an integer argument");
+					usage();
+					return 1;
+				}
+				if (options.parseThreads < 1) {
+					error("The argument to --parsethreads must be positive");
+					usage();
+					return 1;
+				}
+			} else if ("--parsecache".equals(s)) {
+				if (i >= args.length) {
+					error("The --parsecache option expects an argument");
+					usage();
+					return 1;
+				}
+				options.parseCache = args[i++];
+				if (options.parseCache.trim().length() == 0) options.parseCache = null;
             } else if ("--noshow".equals(s)) {
                 options.noshow = true;
             } else if ("--seed".equals(s)) {
@@ -877,6 +1239,18 @@ public class SMT {
 		System.out.println("       --noshow");
 		System.out.println("       --nosuccess   [-q]");
 		System.out.println("       --relax  [-r]");
+		System.out.println("       --fastlexer");
+		System.out.println("       --slidingwindow");
+		System.out.println("       --nopositions");
+		System.out.println("       --nologiccache");
+		System.out.println("       --hashcons");
+		System.out.println("       --share");
+		System.out.println("       --sharestructural");
+		System.out.println("       --translationcache <int>");
+		System.out.println("       --solverpool  <int>");
+		System.out.println("       --jobs   [-j] <int>");
+		System.out.println("       --parsethreads <int>");
+		System.out.println("       --parsecache <dir>");
 
 	}
 	
@@ -914,6 +1288,18 @@ public class SMT {
 		System.out.println("        --noshow: if enabled, error location information is not shown");
 		System.out.println("    -q, --nosuccess: if enabled, 'success' responses are suppressed");
 		System.out.println("        --relax: if enabled, extensions to strict SMT-LIB are permitted");
+		System.out.println("        --fastlexer: if enabled, input is scanned with a hand-coded lexer rather than a regular expression");
+		System.out.println("        --slidingwindow: if enabled, the text of processed commands is discarded, keeping memory use bounded (one input is still limited to about 2 billion characters)");
+		System.out.println("        --nopositions: if enabled, source positions are not recorded (so errors are reported without locations)");
+		System.out.println("        --nologiccache: if enabled, logic and theory files are re-read for each set-logic command");
+		System.out.println("        --hashcons: if enabled, structurally equal terms are represented by a single shared object");
+		System.out.println("        --share: if enabled, repeated subterms of asserted terms are sent to the solver once, bound by let");
+		System.out.println("        --sharestructural: as --share, but structurally equal subterms are recognized as repeated, not just identical ones");
+		System.out.println("        --translationcache <int>: the z3 adapters keep up to this many characters of translations of repeated terms, for reuse");
+		System.out.println("        --solverpool <int>: when processing several files, reuse up to this many started solvers (reset between files)");
+		System.out.println("    -j, --jobs <int>: process up to this many files concurrently, each with its own solver; output is in file order");
+		System.out.println("        --parsethreads <int>: parse each file on this many threads, in chunks of commands; commands still execute in order");
+		System.out.println("        --parsecache <dir>: keep the parsed commands of each file in this directory, and load them from there instead of parsing the file again");
 		System.out.println("This software is Copyright 2010 by David R. Cok. The accompanying LICENSE ");
 		System.out.println("    file describes the conditions under which it may be used.");
 	}
@@ -0,0 +1,221 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.smtlib.IParser.AbortParseException;
+import org.smtlib.IParser.ParserException;
+import org.smtlib.impl.Command;
+import org.smtlib.sexpr.ASTCodec;
+import org.smtlib.sexpr.Parser;
+
+/** An on-disk cache of parsed scripts, so that a script that is run many times (with different
+ * solvers or options) is lexed and parsed only the first time. The commands of a script are
+ * stored in a file (in the binary form written by ASTCodec) whose name is a hash of the
+ * content of the script and of the settings that affect its parsing; later runs memory-map that
+ * file and decode the commands instead of parsing the text. The text is still needed, for the
+ * positions in error messages.
+ * <P>
+ * Only scripts that parse without any error (or message) are cached; so that the messages of
+ * an erroneous script are reported interleaved with the results of its commands, as usual, such
+ * a script is parsed again as it is executed. As with SMT.doParser, the commands after an exit
+ * command are not parsed. Cache files are written under a temporary name and then renamed, so
+ * that concurrent processes sharing a cache directory never see a partial file.
+ */
+public class ScriptCache {
+
+	/** The suffix of the names of cache files */
+	static public final String SUFFIX = ".smtb";
+
+	/** The directory holding the cache files */
+	final protected File directory;
+
+	/** Creates a cache whose files are in the given directory (created when needed) */
+	public ScriptCache(File directory) {
+		this.directory = directory;
+	}
+
+	/** The key for the given script file: a SHA-256 hash, in hex, of the file's content and of
+	 * the configuration settings and versions that affect how it is parsed and encoded */
+	public String key(SMT.Configuration smtConfig, File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e); // Does not happen - every Java platform has SHA-256
+		}
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			for (long p = 0; p < size; p += Integer.MAX_VALUE) {
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, p, Math.min(size - p, Integer.MAX_VALUE)));
+			}
+		} finally {
+			channel.close();
+		}
+		String settings = "|" + ASTCodec.VERSION + "|" + SMT.Configuration.smtlib + "|" + smtConfig.relax + "|" + smtConfig.noPositions;
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+		StringBuilder sb = new StringBuilder();
+		for (byte b: digest.digest()) sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return sb.toString();
+	}
+
+	/** The cache file for the given key */
+	public File file(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+
+	/** Returns the cached commands for the given key, with positions in the given source, or null
+	 * if there are none or the cache file cannot be read or decoded */
+	public /*@Nullable*/ List<ICommand> load(SMT.Configuration smtConfig, String key, /*@Nullable*/ ISource source) {
+		File f = file(key);
+		if (!f.isFile()) return null;
+		try {
+			FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ);
+			MappedByteBuffer buffer;
+			try {
+				if (channel.size() > Integer.MAX_VALUE) return null;
+				buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			} finally {
+				channel.close(); // The mapping remains valid
+			}
+			return new ASTCodec.Decoder(smtConfig, source, buffer).decode();
+		} catch (IOException e) {
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ignoring unreadable cache file " + f + ": " + e.getMessage());
+			return null;
+		} catch (RuntimeException e) {
+			// Any failure to decode the file (which the decoder should have reported as an IOException) is a miss
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Ignoring unreadable cache file " + f + ": " + e);
+			return null;
+		}
+	}
+
+	/** Stores the given commands under the given key, returning false (with nothing stored) if
+	 * they cannot be encoded or written */
+	public boolean store(SMT.Configuration smtConfig, String key, List<ICommand> commands, /*@Nullable*/ ISource source) {
+		File tmp = null;
+		try {
+			ByteBuffer bytes = new ASTCodec.Encoder(source).encode(commands);
+			if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+				throw new IOException("Could not create the directory " + directory);
+			}
+			tmp = File.createTempFile(key, ".tmp", directory);
+			FileChannel channel = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE);
+			try {
+				while (bytes.hasRemaining()) channel.write(bytes);
+			} finally {
+				channel.close();
+			}
+			try {
+				Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} catch (ASTCodec.EncodingException e) {
+			if (smtConfig.verbose != 0) smtConfig.log.logDiag("Not caching the parsed script: " + e.getMessage());
+			return false;
+		} catch (IOException e) {
+			smtConfig.log.logError("Could not write the cache file " + file(key) + ": " + e);
+			if (tmp != null) tmp.delete();
+			return false;
+		}
+	}
+
+	/** Parses the commands of the given source, up to its end or an exit command, with a copy of
+	 * the configuration; returns null, with no message logged, if any message is produced in doing so */
+	public /*@Nullable*/ List<ICommand> parse(SMT.Configuration smtConfig, ISource source) {
+		SMT.Configuration config;
+		try {
+			config = smtConfig.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e); // Does not happen - Configuration is Cloneable
+		}
+		config.log = new Log(config);
+		config.log.clearListeners();
+		config.symbolPool = smtConfig.symbolPool; // Used on this thread only
+		List<ICommand> commands = new ArrayList<ICommand>();
+		// Any message means an error (or something to be reported as the script executes)
+		final boolean[] clean = { true };
+		config.log.addListener(new Log.IListener() {
+			@Override
+			public void logOut(String msg) { clean[0] = false; }
+			@Override
+			public void logOut(IResponse result) { clean[0] = false; }
+			@Override
+			public void logError(String msg) { clean[0] = false; }
+			@Override
+			public void logError(IResponse.IError result) { clean[0] = false; }
+			@Override
+			public void logDiag(String msg) { clean[0] = false; }
+			@Override
+			public void indent(String chars) {}
+		});
+		IParser p = config.smtFactory.createParser(config, source);
+		try {
+			while (clean[0] && !p.isEOD()) {
+				ICommand c = p.parseCommand();
+				if (c == null) return null;
+				commands.add(c);
+				if (c instanceof ICommand.Iexit) break;
+			}
+		} catch (AbortParseException e) {
+			return null;
+		} catch (ParserException e) {
+			return null;
+		} catch (IOException e) {
+			return null;
+		}
+		return clean[0] ? commands : null;
+	}
+
+	/** A parser that returns the given, already parsed, commands */
+	static public class Replay extends Parser {
+		/** The commands not yet returned */
+		final protected Iterator<ICommand> commands;
+
+		/** Creates a parser of the given source that returns the given commands */
+		public Replay(SMT.Configuration smtConfig, ISource source, List<ICommand> commands) {
+			super(smtConfig, source);
+			this.commands = commands.iterator();
+		}
+
+		@Override
+		public boolean isEOD() {
+			return !commands.hasNext();
+		}
+
+		@Override
+		public /*@Nullable*/ Command parseCommand() {
+			return commands.hasNext() ? (Command)commands.next() : null;
+		}
+
+		/** Does nothing, since the source is not read */
+		@Override
+		public void abortLine() {
+		}
+
+		/** Does nothing, since the text of the whole source is retained for error messages */
+		@Override
+		public void releaseConsumedInput() {
+		}
+	}
+}
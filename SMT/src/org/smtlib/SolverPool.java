@@ -0,0 +1,222 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** This class holds a pool of started solvers, so that a sequence of scripts (or of verification
+ * conditions posed through the API) can each be given a solver in a fresh state without launching
+ * and initializing a new solver process each time.
+ * <P>
+ * Solvers are obtained with acquire() and handed back with release(); a released solver is
+ * returned to a clean state (see Isolation) and kept, up to maxIdle solvers for each kind of solver.
+ * A solver that does not respond properly when it is cleaned, or that has been used maxUses times,
+ * is exited rather than kept. The kinds of solvers are distinguished by the solver name, the
+ * executable, and the configuration options that are fixed when a solver process is launched.
+ * <P>
+ * All solvers in a pool are created with (and so report through) the configuration of the SMT
+ * object given to the constructor.
+ */
+public class SolverPool {
+
+	/** The ways in which a solver is returned to a clean state when it is released */
+	public static enum Isolation {
+		/** A (reset) command is issued on release; the user of the solver sets the logic as usual */
+		RESET,
+		/** The logic is set (from smtConfig.logic, which must not be null) when the solver is started,
+		 * a (push 1) is issued on acquire and a (pop 1) on release; the user of the solver must not
+		 * set the logic or pop below the pushed frame */
+		PUSH_POP
+	}
+
+	/** The SMT object used to start solvers */
+	final protected SMT smt;
+
+	/** The configuration with which all solvers in this pool are created */
+	final protected SMT.Configuration smtConfig;
+
+	/** How solvers are cleaned between uses */
+	final public Isolation isolation;
+
+	/** The maximum number of idle solvers kept for each kind of solver */
+	public int maxIdle;
+
+	/** The number of times a solver is handed out before it is exited and replaced; 0 means no limit */
+	public int maxUses = 0;
+
+	/** The idle solvers, for each kind of solver */
+	final protected Map<List<Object>,ArrayDeque<ISolver>> idle = new HashMap<List<Object>,ArrayDeque<ISolver>>();
+
+	/** The kind of each solver that has been handed out (and not yet released) */
+	final protected Map<ISolver,List<Object>> inUse = new IdentityHashMap<ISolver,List<Object>>();
+
+	/** The number of times each solver (in use or idle) has been handed out */
+	final protected Map<ISolver,Integer> uses = new IdentityHashMap<ISolver,Integer>();
+
+	/** Creates a pool that starts solvers using the given SMT object and its configuration
+	 * @param smt the SMT object whose startSolver method and configuration are used
+	 * @param maxIdle the maximum number of idle solvers kept for each kind of solver
+	 * @param isolation how solvers are cleaned between uses
+	 */
+	public SolverPool(SMT smt, int maxIdle, Isolation isolation) {
+		this.smt = smt;
+		this.smtConfig = smt.smtConfig;
+		this.maxIdle = maxIdle;
+		this.isolation = isolation;
+	}
+
+	/** Creates a pool that cleans solvers with a (reset) command */
+	public SolverPool(SMT smt, int maxIdle) {
+		this(smt, maxIdle, Isolation.RESET);
+	}
+
+	/** The key identifying the kind of solver for the given name and executable, under the
+	 * current values of the configuration options that affect how a solver is launched */
+	protected List<Object> key(String solvername, /*@Nullable*/String executable) {
+		return Arrays.<Object>asList(solvername, executable, smtConfig.timeout, smtConfig.seed,
+				smtConfig.solverVerbosity, smtConfig.logfile,
+				isolation == Isolation.PUSH_POP ? smtConfig.logic : null);
+	}
+
+	/** Starts the given number of solvers of the given kind (in addition to any idle ones, but not
+	 * beyond maxIdle), so that later calls of acquire do not wait for a solver to start.
+	 * @return the number of idle solvers of this kind
+	 */
+	public synchronized int prestart(String solvername, /*@Nullable*/String executable, int number) {
+		List<Object> k = key(solvername, executable);
+		ArrayDeque<ISolver> q = idleQueue(k);
+		while (number-- > 0 && q.size() < maxIdle) {
+			ISolver s = start(solvername, executable);
+			if (s == null) break;
+			uses.put(s, 0);
+			q.add(s);
+		}
+		return q.size();
+	}
+
+	/** Returns a solver of the given kind in a clean state, either an idle one or a newly started one;
+	 * returns null (with errors logged) if a new solver cannot be started.
+	 */
+	public synchronized /*@Nullable*/ ISolver acquire(String solvername, /*@Nullable*/String executable) {
+		List<Object> k = key(solvername, executable);
+		ArrayDeque<ISolver> q = idleQueue(k);
+		ISolver s = q.poll();
+		if (s == null) {
+			s = start(solvername, executable);
+			if (s == null) return null;
+		}
+		if (isolation == Isolation.PUSH_POP && !ok(s.push(1))) {
+			discard(s);
+			s = start(solvername, executable);
+			if (s == null) return null;
+			if (!ok(s.push(1))) {
+				discard(s);
+				smtConfig.log.logError(smtConfig.responseFactory.error("A newly started solver " + solvername + " could not execute a push command"));
+				return null;
+			}
+		}
+		Integer n = uses.get(s);
+		uses.put(s, n == null ? 1 : n+1);
+		inUse.put(s, k);
+		return s;
+	}
+
+	/** Returns a solver obtained from acquire to the pool; the solver is cleaned and kept,
+	 * or exited if it does not respond properly, has been used maxUses times, or there are
+	 * already maxIdle solvers of its kind. The caller must not use the solver afterwards.
+	 */
+	public synchronized void release(ISolver solver) {
+		List<Object> k = inUse.remove(solver);
+		if (k == null) throw new IllegalArgumentException("The solver was not obtained from this pool or was already released");
+		ArrayDeque<ISolver> q = idleQueue(k);
+		Integer n = uses.get(solver);
+		if (q.size() >= maxIdle || (maxUses > 0 && n != null && n >= maxUses) || !clean(solver)) {
+			discard(solver);
+		} else {
+			q.add(solver);
+		}
+	}
+
+	/** Exits all idle solvers; solvers that are in use are exited when released */
+	public synchronized void close() {
+		for (ArrayDeque<ISolver> q: idle.values()) {
+			for (ISolver s: q) discard(s);
+			q.clear();
+		}
+		maxIdle = 0;
+	}
+
+	/** The number of idle solvers of the given kind */
+	public synchronized int idleCount(String solvername, /*@Nullable*/String executable) {
+		ArrayDeque<ISolver> q = idle.get(key(solvername, executable));
+		return q == null ? 0 : q.size();
+	}
+
+	protected ArrayDeque<ISolver> idleQueue(List<Object> k) {
+		ArrayDeque<ISolver> q = idle.get(k);
+		if (q == null) idle.put(k, q = new ArrayDeque<ISolver>());
+		return q;
+	}
+
+	/** Starts a new solver, setting the logic if the isolation requires it; returns null if
+	 * the solver could not be started (the errors are logged) */
+	protected /*@Nullable*/ ISolver start(String solvername, /*@Nullable*/String executable) {
+		ISolver s = smt.startSolver(smtConfig, solvername, executable);
+		if (s == null) return null;
+		if (isolation == Isolation.PUSH_POP) {
+			IResponse r = s.set_logic(smtConfig.logic, null);
+			if (r.isError()) {
+				smtConfig.log.logError((IResponse.IError)r);
+				s.forceExit();
+				return null;
+			}
+		}
+		return s;
+	}
+
+	/** Returns the solver to a clean state; returns false if the solver did not respond properly.
+	 * Resetting a solver also resets the output channels and verbosity of the configuration, per the
+	 * SMT-LIB semantics of (reset), so those are restored afterwards.
+	 */
+	protected boolean clean(ISolver solver) {
+		try {
+			if (isolation == Isolation.PUSH_POP) return ok(solver.pop(1));
+			PrintStream out = smtConfig.log.out;
+			PrintStream diag = smtConfig.log.diag;
+			int verbose = smtConfig.verbose;
+			boolean globalDeclarations = smtConfig.globalDeclarations;
+			IResponse r = solver.reset();
+			smtConfig.log.out = out;
+			smtConfig.log.diag = diag;
+			smtConfig.verbose = verbose;
+			smtConfig.globalDeclarations = globalDeclarations;
+			return ok(r);
+		} catch (RuntimeException e) {
+			return false;
+		}
+	}
+
+	/** True if the response indicates that a command was carried out */
+	protected boolean ok(IResponse r) {
+		return !r.isError() && !r.equals(smtConfig.responseFactory.unsupported());
+	}
+
+	/** Exits the given solver and forgets it */
+	protected void discard(ISolver solver) {
+		uses.remove(solver);
+		try {
+			solver.forceExit();
+		} catch (RuntimeException e) {
+			// ignore - the solver is not used again anyway
+		}
+	}
+}
@@ -6,6 +6,7 @@
 package org.smtlib;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -22,8 +23,6 @@ import java.util.List;
  */
 public class SolverProcess {
     
-    static public int sleepTime = 1;
-    static public boolean useNotifyWait = false; // TOOD: Not sure that true works
     static public boolean useShutdownHooks = true;
     static public boolean useMultiThreading = true;
 	
@@ -60,6 +59,12 @@ public class SolverProcess {
 	/** A place (e.g., log file), if non-null, to write all outbound communications for diagnostic purposes */
 	public /*@Nullable*/Writer log;
 	
+	/** Whether the commands sent to the process are also written to the log (if there is one) */
+	public boolean teeToLog = true;
+	
+	/** Collects the text of the command being written, until it is sent (see writer()) */
+	final protected Channel channel = new Channel();
+	
 	/** Constructs a SolverProcess object, without actually starting the process as yet.
 	 * @param cmd the command-line that will launch the desired process
 	 * @param endMarker text that marks the end of text returned from the process, e.g. the end of the 
@@ -112,44 +117,106 @@ public class SolverProcess {
 //    		    shutdownThread = new Thread() { public void run() { process.destroyForcibly(); }};
 //    		    Runtime.getRuntime().addShutdownHook( shutdownThread );
 //    		}
-    		toProcess = new OutputStreamWriter(process.getOutputStream());
+    		toProcess = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()),Channel.INITIAL_SIZE);
     		if (useMultiThreading) {
                 errorOut = new StreamGobbler(process.getErrorStream(), null);
-                standardOut = new StreamGobbler(process.getInputStream(), s->endsWith(s,endMarker));
+                standardOut = new StreamGobbler(process.getInputStream(), new ResponseEnd(endMarker));
                 errorOut.start();
                 standardOut.start();
     		} else {
     		    fromProcess = new BufferedReader(new InputStreamReader(process.getInputStream()));
     		    errors = new InputStreamReader(process.getErrorStream());
     		}
-    		Thread.sleep(1000);
+    		// No need to wait for the process to get going: anything sent to it is buffered until it reads it,
+    		// and if a prompt is expected, listen() waits for it.
     		if (listen) listen();
     	} catch (IOException e) {
     		throw new ProverException(e.getMessage());
-    	} catch (RuntimeException|InterruptedException e) {
+    	} catch (RuntimeException e) {
     		throw new ProverException(e.getMessage());
     	}
     }
     
-    boolean endsWith(StringBuilder sb, String endMarker) {
-        int sblen = sb.length();
-        int len = endMarker.length();
-        int i = len;
-        while (i > 0 && endMarker.charAt(len-i) == sb.charAt(sblen-i)) --i;
-        if (i != 0) return false;
-        // In some cases, the endMarker is just an eol, but the ojutput can be a long
-        // S-expression broken up with eols. SO we must recognize an end of input only
-        // if the parentheses are balanced.
-        i = sb.indexOf("(");
-        if (i < 0) return true;
-        int count = 1;
-        i++;
-        for (; i < sblen; ++i) {
-            char c = sb.charAt(i);
-            if (c == '(') count++;
-            else if (c == ')') count--;
+    /** Recognizes the end of a response from a process: the text read ends with the end marker
+     * and, if it contains a left parenthesis, the parentheses from the first left parenthesis on
+     * are balanced. (In some cases the end marker is just an eol, but the output can be a long
+     * S-expression broken up with eols.) Parentheses inside string literals and |quoted| symbols
+     * are not counted, and the end marker does not count inside them either.
+     * <P>
+     * The text is scanned incrementally: each character is looked at once, as it arrives,
+     * so recognizing the end of a long response takes time linear in its length.
+     */
+    public static class ResponseEnd implements java.util.function.Function<StringBuilder,Boolean> {
+        
+        /** The text that marks the end of a response */
+        final protected String endMarker;
+        
+        /** The number of characters of the current response scanned so far */
+        protected int scanned = 0;
+        
+        /** The number of unmatched left parentheses seen so far */
+        protected int depth = 0;
+        
+        /** True once a left parenthesis has been seen (outside literals) */
+        protected boolean sawParen = false;
+        
+        /** True if the text so far ends inside a string literal */
+        protected boolean inString = false;
+        
+        /** True if the text so far ends inside a |quoted| symbol */
+        protected boolean inQuoted = false;
+        
+        public ResponseEnd(String endMarker) {
+            this.endMarker = endMarker;
+        }
+        
+        /** Prepares for the next response */
+        public void reset() {
+            scanned = 0;
+            depth = 0;
+            sawParen = false;
+            inString = false;
+            inQuoted = false;
+        }
+        
+        /** Updates the state for one more character of the response */
+        protected void scan(char c) {
+            // A doubled quote within a string is an escaped quote; toggling twice handles that too
+            if (inString) { if (c == '"') inString = false; }
+            else if (inQuoted) { if (c == '|') inQuoted = false; }
+            else if (c == '(') { ++depth; sawParen = true; }
+            else if (c == ')') { if (sawParen) --depth; }
+            else if (c == '"') inString = true;
+            else if (c == '|') inQuoted = true;
+        }
+        
+        /** Updates the state for the characters buf[from..to-1], which follow those already scanned */
+        public void scan(char[] buf, int from, int to) {
+            for (int i = from; i < to; ++i) scan(buf[i]);
+            scanned += to - from;
+        }
+        
+        /** True if the text scanned so far is balanced and not within a literal */
+        public boolean balanced() {
+            return depth == 0 && !inString && !inQuoted;
+        }
+        
+        /** Scans the characters of sb not yet scanned and returns true if sb is a complete response;
+         * in that case the state is reset, since the caller is expected to remove the response from sb.
+         */
+        @Override
+        public Boolean apply(StringBuilder sb) {
+            int sblen = sb.length();
+            for (int i = scanned; i < sblen; ++i) scan(sb.charAt(i));
+            scanned = sblen;
+            int len = endMarker.length();
+            if (sblen < len || !balanced()) return false;
+            for (int i = 0; i < len; ++i) {
+                if (endMarker.charAt(i) != sb.charAt(sblen-len+i)) return false;
+            }
+            reset();
+            return true;
         }
-        return count == 0;
     }
 
     /** Listens to the process's standard output until the designated endMarker is read 
@@ -175,13 +242,10 @@ public class SolverProcess {
 	            return out;
 	        }
 		} else {
-		    // FIXME - should not have to busy wait with sleep command and the watsch on a field in another thread
-            String out;
-            if (useNotifyWait) {
-                out = standardOut.getString();  // may block until output is available
-            } else {
-                try { do { Thread.sleep(sleepTime); } while (standardOut.output == null && process.isAlive()); } catch (InterruptedException e) {}
-                out = standardOut.getString();
+            String out = standardOut.getString();  // blocks until a complete response is read or the output ends
+            if (standardOut.isFinished()) {
+                // The process has ended or closed its output; give the error stream a moment to be read completely
+                try { errorOut.join(1000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
             }
 		    String err = errorOut.getString(); // errorOut is set up to not block -- presuming error output is ready if standard out has completed, since there is no indication when the error output is completed
             if (err.endsWith("\n") || out.isEmpty()) {
@@ -236,16 +300,97 @@ public class SolverProcess {
 	
 	/** Sends all the given text arguments, then (if listen is true) listens for the designated end marker text */
 	public /*@Nullable*/ String send(boolean listen, String ... args) throws IOException {
+		Writer w = writer();
+		for (String arg: args) w.write(arg);
+		return sendWritten(listen);
+	}
+	
+	/** Returns the writer into which a command may be written (e.g. by a translator, without first
+	 * making a String of it); nothing is sent to the process until sendWritten is called, so a
+	 * partly written command can be abandoned with discardWritten. The writer is reused from
+	 * command to command; its flush method does nothing. */
+	public Writer writer() {
 		if (toProcess == null) throw new ProverException("The solver has not been started");
-		for (String arg: args) {
-			if (log != null) log.write(arg);
-			toProcess.write(arg);
-		}
-		if (log != null) log.flush();
-		toProcess.flush();
+		return channel;
+	}
+	
+	/** Sends the text written to writer() since the last send to the process (and to the log, if
+	 * teeToLog is true), then (if listen is true) listens for the designated end marker text */
+	public /*@Nullable*/ String sendWritten(boolean listen) throws IOException {
+		if (toProcess == null) throw new ProverException("The solver has not been started");
+		channel.transfer(toProcess, teeToLog ? log : null);
 		if (listen) return listen();
 		return null;
 	}
+	
+	/** Abandons the text written to writer() since the last send */
+	public void discardWritten() {
+		channel.clear();
+	}
+	
+	/** A reusable buffer for the text of outgoing commands */
+	static protected class Channel extends Writer {
+		/** The initial (and retained) size of the buffer */
+		static final int INITIAL_SIZE = 1 << 13;
+		
+		/** The text written */
+		protected char[] buf = new char[INITIAL_SIZE];
+		
+		/** The number of characters written */
+		protected int count = 0;
+		
+		/** Makes room for n more characters */
+		protected void reserve(int n) {
+			if (count + n > buf.length) buf = java.util.Arrays.copyOf(buf, Math.max(buf.length * 2, count + n));
+		}
+		
+		@Override
+		public void write(int c) {
+			reserve(1);
+			buf[count++] = (char)c;
+		}
+		
+		@Override
+		public void write(char[] cbuf, int off, int len) {
+			reserve(len);
+			System.arraycopy(cbuf, off, buf, count, len);
+			count += len;
+		}
+		
+		@Override
+		public void write(String str, int off, int len) {
+			reserve(len);
+			str.getChars(off, off + len, buf, count);
+			count += len;
+		}
+		
+		/** Does nothing - the text is only sent by transfer */
+		@Override
+		public void flush() {
+		}
+		
+		/** Does nothing - the buffer is reused */
+		@Override
+		public void close() {
+		}
+		
+		/** Writes the text to the given writers (the second may be null) and flushes them, then clears the buffer */
+		public void transfer(Writer out, /*@Nullable*/ Writer copy) throws IOException {
+			try {
+				if (copy != null) { copy.write(buf, 0, count); copy.flush(); }
+				out.write(buf, 0, count);
+				out.flush();
+			} finally {
+				clear();
+			}
+		}
+		
+		/** Empties the buffer, releasing it if it has grown large */
+		public void clear() {
+			count = 0;
+			if (buf.length > (INITIAL_SIZE << 8)) buf = new char[INITIAL_SIZE];
+		}
+	}
 
 	/** Sends all the given text arguments, then listens for the designated end marker text */
 	public /*@Nullable*/ String sendAndListen(String ... args) throws IOException {
@@ -307,15 +452,12 @@ public class SolverProcess {
 	        try {
 	            int len = end != null ? end.length() : 0;
 	            int p = 0; // Number of characters read
-	            int parens = 0;
+	            ResponseEnd parens = new ResponseEnd(end != null ? end : "");
 	            while (end != null || r.ready()) {
 	                //System.out.println("ABOUT TO READ " + p);
 	                int i = r.read(buf,p,buf.length-p);
 	                if (i == -1) break; // End of Input
-	                for (int ii=0; ii<i; ++ii) {
-	                    if (buf[p+ii] == '(') ++parens; 
-	                    else if (buf[p+ii] == ')') --parens;
-	                }
+	                parens.scan(buf,p,p+i);
 	                p += i;
 	                //System.out.println("HEARD: " + new String(buf,0,p));
 	                if (p>100 && len == 1) {
@@ -329,7 +471,7 @@ public class SolverProcess {
 	                    for (int j=0; j<len; j++) {
 	                        if (end.charAt(j) != buf[k++]) { match = false; break; }
 	                    }
-	                    if (match && (badFormat || parens == 0)) break; // stopping string matched
+	                    if (match && (badFormat || parens.balanced())) break; // stopping string matched
 	                }
 	                if (p == buf.length) { // expand the buffer
 	                    char[] nbuf = new char[2*buf.length];
@@ -348,11 +490,19 @@ public class SolverProcess {
 	
 	public static boolean badFormat = false;
 	
+	/** A thread that reads one output stream of a process, so that the process is never blocked on
+	 * a full output pipe. If an endRecognizer is given, the text read is divided into complete
+	 * responses, each ending where the endRecognizer first returns true; getString() waits for
+	 * the next response. Without an endRecognizer, getString() returns whatever has been read so far.
+	 */
 	public static class StreamGobbler extends Thread {
 	    
 	    /*@ non_null */java.io.InputStream is;
         /*@ non_null */StringBuilder accumulator;
-        /*@ nullable */String output;
+        /** Complete responses that have not yet been retrieved by getString(), oldest first */
+        /*@ non_null */java.util.Queue<String> outputs = new java.util.ArrayDeque<String>();
+        /** Set once the end of the stream has been reached (or reading it failed) */
+        boolean finished = false;
 	    /*@ nullable */ java.util.function.Function<StringBuilder,Boolean> endRecognizer;
 	    
 	    char[] buf = new char[10000];
@@ -371,54 +521,57 @@ public class SolverProcess {
 	            BufferedReader br = new BufferedReader(isr); ){
 	            int n;
 	            while ((n = br.read(buf)) > 0) {
-	                accumulator.append(buf,0,n);
-	                //System.out.println("OUT/ERR: " + accumulator.toString());
-	                if (endRecognizer != null && endRecognizer.apply(accumulator)) {
-	                    putString();
+	                synchronized (this) {
+	                    accumulator.append(buf,0,n);
+	                    //System.out.println("OUT/ERR: " + accumulator.toString());
+	                    if (endRecognizer != null && endRecognizer.apply(accumulator)) {
+	                        putString();
+	                    }
 	                }
 	            }
 	            // if n == -1 then end of stream has been reached and the StreamGobbler exits
 	        } catch (IOException ioe) {
 	            throw new RuntimeException(ioe);
+	        } finally {
+	            synchronized (this) {
+	                finished = true;
+	                notifyAll();
+	            }
 	        }
 	    }
 	    
+	    /** Moves the accumulated text to the queue of complete responses, waking any waiting reader */
 	    public synchronized void putString() {
-	        output = accumulator.toString();
+	        outputs.add(accumulator.toString());
 	        accumulator.setLength(0);
-            if (useNotifyWait) notifyAll();
+	        notifyAll();
 	    }
 	    
-	    public synchronized /*@ nullable */ String getString() {
-	        if (useNotifyWait) {
-	            if (endRecognizer == null) {
-                    String s = accumulator.toString();
-                    accumulator.setLength(0);
-                    return s;
-	            } else {
-	                while (output == null) {
-	                    try {
-	                        wait();
-	                    } catch (InterruptedException e) {}
-	                }
-	                String out = output;
-	                output = null;
-	                return out;
-	            }
-	            
-	        } else {
-	            if (output == null) {
-	                synchronized(accumulator) {
-	                    String s = accumulator.toString();
-	                    accumulator.setLength(0);
-	                    return s;
+	    /** Returns true once the end of the stream has been reached */
+	    public synchronized boolean isFinished() {
+	        return finished;
+	    }
+	    
+	    /** With an endRecognizer, waits for and returns the next complete response, or, if the
+	     * stream ends first, whatever incomplete text was read; without one, returns (without
+	     * waiting) the text read since the last call.
+	     */
+	    public synchronized /*@ non_null */ String getString() {
+	        if (endRecognizer != null) {
+	            while (outputs.isEmpty() && !finished) {
+	                try {
+	                    wait();
+	                } catch (InterruptedException e) {
+	                    Thread.currentThread().interrupt();
+	                    break;
 	                }
-	            } else {
-	                String s = output;
-	                output = null;
-	                return s;
 	            }
+	            String out = outputs.poll();
+	            if (out != null) return out;
 	        }
+	        String s = accumulator.toString();
+	        accumulator.setLength(0);
+	        return s;
 	    }
 	}
 	
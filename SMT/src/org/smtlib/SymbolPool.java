@@ -0,0 +1,107 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+/** A pool of canonical strings for the symbols and keywords of a session, used in place of
+ * String.intern(): the lexer looks up a token by its range of characters in the input, so a
+ * String is created only the first time a symbol is seen, and all occurrences of the symbol share
+ * it. Unlike the JVM string table, the pool belongs to the session (an SMT.Configuration) and is
+ * collected with it.
+ * <P>
+ * The pool is used only by the lexers (and by the decoder of cached scripts, in place of the lexer).
+ * Symbols and keywords made directly through the expression factory are not pooled, since a
+ * factory has no configuration and is shared by copies of a configuration used on other threads;
+ * nor are the names in a logic background, which are read with a copy of the configuration and
+ * shared between sessions (see LogicCache). So comparing two names succeeds on reference equality
+ * only when both were read from the input of the same session; otherwise String.equals compares
+ * the characters, as before.
+ * <P>
+ * The pool is an open-addressing hash table. It is not thread-safe: each copy of a configuration
+ * gets its own pool. Once the pool holds 'limit' strings, further strings are returned without
+ * being pooled.
+ */
+public class SymbolPool {
+
+	/** The maximum number of strings held in the pool */
+	public int limit = 1 << 20;
+
+	/** The pooled strings, null for an empty slot; the length is a power of two */
+	private String[] strings = new String[1024];
+
+	/** The hash codes of the pooled strings */
+	private int[] hashes = new int[1024];
+
+	/** The number of strings in the pool */
+	private int size = 0;
+
+	/** The number of strings in the pool */
+	public int size() {
+		return size;
+	}
+
+	/** Empties the pool */
+	public void clear() {
+		strings = new String[1024];
+		hashes = new int[1024];
+		size = 0;
+	}
+
+	/** Returns the canonical string with the characters of cs from start (inclusive) to end (exclusive) */
+	public String intern(CharSequence cs, int start, int end) {
+		int h = 0;
+		for (int i = start; i < end; i++) h = 31*h + cs.charAt(i);
+		int mask = strings.length - 1;
+		int len = end - start;
+		for (int k = h & mask; ; k = (k+1) & mask) {
+			String s = strings[k];
+			if (s == null) return add(k, h, cs.subSequence(start, end).toString());
+			if (hashes[k] == h && s.length() == len && matches(s, cs, start)) return s;
+		}
+	}
+
+	/** Returns the canonical string equal to the given one */
+	public String intern(String str) {
+		int h = str.hashCode(); // The same hash as computed from the characters above
+		int mask = strings.length - 1;
+		for (int k = h & mask; ; k = (k+1) & mask) {
+			String s = strings[k];
+			if (s == null) return add(k, h, str);
+			if (hashes[k] == h && s.equals(str)) return s;
+		}
+	}
+
+	private static boolean matches(String s, CharSequence cs, int start) {
+		for (int i = s.length() - 1; i >= 0; i--) {
+			if (s.charAt(i) != cs.charAt(start + i)) return false;
+		}
+		return true;
+	}
+
+	/** Adds s, with hash code h, at the empty slot k, unless the pool is full, and returns it */
+	private String add(int k, int h, String s) {
+		if (size >= limit) return s;
+		strings[k] = s;
+		hashes[k] = h;
+		if (++size * 2 > strings.length) grow();
+		return s;
+	}
+
+	/** Doubles the size of the table */
+	private void grow() {
+		String[] oldStrings = strings;
+		int[] oldHashes = hashes;
+		strings = new String[2*oldStrings.length];
+		hashes = new int[2*oldStrings.length];
+		int mask = strings.length - 1;
+		for (int i = 0; i < oldStrings.length; i++) {
+			if (oldStrings[i] == null) continue;
+			int k = oldHashes[i] & mask;
+			while (strings[k] != null) k = (k+1) & mask;
+			strings[k] = oldStrings[i];
+			hashes[k] = oldHashes[i];
+		}
+	}
+}
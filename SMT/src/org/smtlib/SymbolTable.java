@@ -5,9 +5,9 @@
  */
 package org.smtlib;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -22,7 +22,13 @@ import org.smtlib.ISort.IParameter;
 // FIXME - define an interface for symbol table?
 
 /** This class manages a symbol table used for storing definitions and looking up ids in expressions.
- *  The table maps names to Entry objects that hold information about the defined symbol. */
+ *  The table maps names to Entry objects that hold information about the defined symbol.
+ *  <P>
+ *  The table is persistent: each scope holds immutable maps (PersistentMaps) of all the symbols and
+ *  sorts visible in it, which share structure with those of the enclosing scopes. So push and pop take
+ *  constant time, a lookup takes logarithmic time however many scopes there are, and a copy of a
+ *  table (e.g. to seed several solvers from one loaded logic) is made in constant time.
+ */
 public class SymbolTable {
 
 	/** true if the Array theory has been set */
@@ -45,23 +51,86 @@ public class SymbolTable {
 	/** A reference to the Configuration for this instance of SMT. */
 	public SMT.Configuration smtConfig;
 	
-	/* The tops of the stack are at the beginning of the lists.  The table 
-	 * manages a stack of scopes, each stack element holds a scope.  
-	 * Within a scope, a symbol can be defined with various different arities 
-	 * (and multiple mappings for a given arity) and different sort arguments. 
+	/* The table manages a stack of scopes, with a background scope (holding the definitions of the
+	 * logic) at the bottom. Within a scope, a symbol can be defined with various different arities 
+	 * (and multiple mappings for a given arity) and different sort arguments; a symbol defined in a
+	 * scope hides the definitions of that symbol in the scopes beneath it.
+	 * Scopes, the maps they hold, and the arity maps and entry lists in those maps are never changed
+	 * once they are in a table (they may be shared with copies of the table); they are replaced instead.
 	 */
 	
-	//@ private invariant sorts = sortStack.get(0);
-	/** The stack of Sort declaration scopes */
-	private List<Map<IIdentifier,ISort.IDefinition>> sortStack;
-	/** The top-most Sort scope */
-	private Map<IIdentifier,ISort.IDefinition> sorts;
+	/** The definitions of a symbol in one scope, linked to the definitions in enclosing scopes */
+	private static class Binding {
+		/** The depth of the scope holding these definitions */
+		final int depth;
+		/** The definitions, by arity */
+		final Map<Integer,List<Entry>> arityMap;
+		/** The definitions of the same symbol in the nearest enclosing scope that has any (not including the background) */
+		final /*@Nullable*/ Binding next;
+		
+		Binding(int depth, Map<Integer,List<Entry>> arityMap, /*@Nullable*/ Binding next) {
+			this.depth = depth;
+			this.arityMap = arityMap;
+			this.next = next;
+		}
+	}
 	
-	//@ private invariant names == symStack.get(0);
-	/** The stack of Symbol scopes */
-	private List<Map<IIdentifier,Map<Integer,List<Entry>>>> symStack;
-	/** The top-most Symbol scope */
-	private Map<IIdentifier,Map<Integer,List<Entry>>> names;
+	/** A sort definition and the depth of the scope holding it */
+	private static class SortBinding {
+		final int depth;
+		final ISort.IDefinition definition;
+		
+		SortBinding(int depth, ISort.IDefinition definition) {
+			this.depth = depth;
+			this.definition = definition;
+		}
+	}
+	
+	/** An element of an immutable list of identifiers */
+	private static class Link {
+		final IIdentifier id;
+		final /*@Nullable*/ Link next;
+		
+		Link(IIdentifier id, /*@Nullable*/ Link next) {
+			this.id = id;
+			this.next = next;
+		}
+	}
+	
+	/** A scope other than the background scope */
+	private static class Scope {
+		/** The enclosing scope, or null if this is the outermost one */
+		final /*@Nullable*/ Scope enclosing;
+		/** The number of scopes from the outermost one to this one, inclusive */
+		final int depth;
+		/** The innermost definitions of each symbol visible in this scope (other than from the background) */
+		final PersistentMap<IIdentifier,Binding> names;
+		/** The innermost definition of each sort visible in this scope (other than from the background) */
+		final PersistentMap<IIdentifier,SortBinding> sorts;
+		/** The symbols defined in this scope, most recent first */
+		final /*@Nullable*/ Link ownNames;
+		/** The sorts defined in this scope, most recent first */
+		final /*@Nullable*/ Link ownSorts;
+		
+		Scope(/*@Nullable*/ Scope enclosing, int depth, PersistentMap<IIdentifier,Binding> names, PersistentMap<IIdentifier,SortBinding> sorts, 
+				/*@Nullable*/ Link ownNames, /*@Nullable*/ Link ownSorts) {
+			this.enclosing = enclosing;
+			this.depth = depth;
+			this.names = names;
+			this.sorts = sorts;
+			this.ownNames = ownNames;
+			this.ownSorts = ownSorts;
+		}
+	}
+	
+	/** The innermost scope */
+	private Scope top;
+	
+	/** The symbols of the background scope */
+	private PersistentMap<IIdentifier,Map<Integer,List<Entry>>> backgroundNames;
+	
+	/** The sorts of the background scope */
+	private PersistentMap<IIdentifier,ISort.IDefinition> backgroundSorts;
 	
 	/** An object that holds all the information about the defined symbol (or aliased definition). */
 	public static class Entry {
@@ -89,36 +158,31 @@ public class SymbolTable {
 	 * @author David R. Cok
 	 */
 	public static class Iterator implements java.util.Iterator<Entry> {
-		private java.util.Iterator<Map<IIdentifier,Map<Integer,List<Entry>>>> stackIter;
-		private /*@Nullable*/ java.util.Iterator<Map<Integer,List<Entry>>> arityIter = null;
-		private /*@Nullable*/ java.util.Iterator<List<Entry>> symIter = null;
-		private /*@Nullable*/ java.util.Iterator<Entry> entryIter = null;
+		private java.util.Iterator<Entry> entries;
 		
 		/** Constructs a new iterator, initialized at the beginning */
 		public Iterator(SymbolTable sym) {
-			stackIter = sym.symStack.iterator();
+			List<Entry> list = new ArrayList<Entry>();
+			for (Scope s = sym.top; s != null; s = s.enclosing) {
+				for (Link n = s.ownNames; n != null; n = n.next) {
+					for (List<Entry> entrylist: s.names.get(n.id).arityMap.values()) list.addAll(entrylist);
+				}
+			}
+			for (Map<Integer,List<Entry>> arityMap: sym.backgroundNames.values()) {
+				for (List<Entry> entrylist: arityMap.values()) list.addAll(entrylist);
+			}
+			entries = list.iterator();
 		}
 		
-		/*@AssertNonNullIfTrue({"symIter"})*/
 		@Override
 		public boolean hasNext() {
-			while (entryIter == null || !entryIter.hasNext()) {
-				while (symIter == null || !symIter.hasNext()) {
-					while (arityIter == null || !arityIter.hasNext()) {
-						if (!stackIter.hasNext()) return false;
-						arityIter = stackIter.next().values().iterator();
-					}
-					symIter = arityIter.next().values().iterator();
-				}
-				entryIter = symIter.next().iterator();
-			}
-			return true;
+			return entries.hasNext();
 		}
 		
 		@Override
 		public Entry next() {
 			if (!hasNext()) throw new NoSuchElementException();
-			return entryIter.next();
+			return entries.next();
 		}
 		
 		@Override
@@ -133,16 +197,16 @@ public class SymbolTable {
 		clear(false);
 	}
 	
-	/** Makes a copy of the symbol table */
+	/** Makes a copy of the symbol table, in constant time; changes to either table do not affect the other */
 	public SymbolTable(SymbolTable s) {
-		clear(false);
 		this.smtConfig = s.smtConfig;
-		sortStack = new LinkedList<Map<IIdentifier,ISort.IDefinition>>();
-		symStack = new LinkedList<Map<IIdentifier,Map<Integer,List<Entry>>>>();
-		sortStack.addAll(s.sortStack);
-		symStack.addAll(s.symStack);
-		names = symStack.get(0);
-		sorts = sortStack.get(0);
+		top = s.top;
+		backgroundNames = s.backgroundNames;
+		backgroundSorts = s.backgroundSorts;
+		arrayTheorySet = s.arrayTheorySet;
+		bitVectorTheorySet = s.bitVectorTheorySet;
+		realsIntsTheorySet = s.realsIntsTheorySet;
+		logicInUse = s.logicInUse;
 	}
 	
 	/** Returns a fresh iterator over the symbol table's contents */
@@ -150,34 +214,30 @@ public class SymbolTable {
 		return new Iterator(this);
 	}
 	
-	/** Initializes the symbol table with an empty background frame and one empty frame. */
+	/** Initializes the symbol table with one empty scope above the background scope; the background
+	 * scope is emptied as well unless keepBackground is true. */
 	public void clear(boolean keepBackground) {
-		if (keepBackground) {
-			while (sortStack.size() > 1) sortStack.remove(0);
-			while (symStack.size() > 1) symStack.remove(0);
-		} else {
-			sortStack = new LinkedList<Map<IIdentifier,ISort.IDefinition>>();
-			symStack = new LinkedList<Map<IIdentifier,Map<Integer,List<Entry>>>>();
-			push(); // an empty background frame
-			push(); // an empty primary frame
+		if (!keepBackground) {
+			backgroundNames = PersistentMap.empty();
+			backgroundSorts = PersistentMap.empty();
 		}
+		top = new Scope(null, 1, PersistentMap.<IIdentifier,Binding>empty(), PersistentMap.<IIdentifier,SortBinding>empty(), null, null);
 	}
 
 	/** Adds a new empty frame on the top of the symbol table stack. */
 	public void push() {
-		sortStack.add(0,sorts=new HashMap<IIdentifier,ISort.IDefinition>());
-		symStack.add(0,names=new HashMap<IIdentifier,Map<Integer,List<Entry>>>());
+		top = new Scope(top, top.depth+1, top.names, top.sorts, null, null);
 	}
 	
 	/** Combines the top two symbol scopes, removing the current top scope; presumes that there
 	 * is no shadowing of symbols; the top sort scope is discarded.
 	 */ // TODO - say more about why this is used/needed; also review this
 	public void merge() {
-		Map<IIdentifier,Map<Integer,List<SymbolTable.Entry>>> oldnames = names;
+		Scope old = top;
 		pop();
-		// Put everything in oldnames into the current top
-		for (Map<Integer,List<SymbolTable.Entry>> e: oldnames.values()) {
-			for (List<SymbolTable.Entry> ee: e.values()) {
+		// Put everything in the old top scope into the current top
+		for (Link n = old.ownNames; n != null; n = n.next) {
+			for (List<SymbolTable.Entry> ee: old.names.get(n.id).arityMap.values()) {
 				for (SymbolTable.Entry entry: ee) {
 					// We have already checked that there is no shadowing
 					add(entry);
@@ -187,31 +247,77 @@ public class SymbolTable {
 	}
 	
 	/** Removes the top frame from the symbol table stack. 
-	 * The symbol table must have at least one non-background scope or an 
+	 * The symbol table must have at least two non-background scopes or an 
 	 * InternalException will be thrown.
 	 */
 	public void pop() {
-		// The comparison is <= 1 since there is always also the background scope
-		if (symStack.size() <= 1) {
+		if (top.enclosing == null) {
 			// We throw an InternalException (that is, a bug), since pop should not be called if
 			// there are no scopes to pop.
 			throw new SMT.InternalException("Invalid pop - no more symbol table scopes to pop");
 		}
-		sortStack.remove(0);
-		symStack.remove(0);
-		sorts = sortStack.get(0);
-		names = symStack.get(0);
+		top = top.enclosing;
 	}
 	
-	/** Removes the previous background frame, then removes the top frame and 
-	 * inserts it as the bottom (background) frame. */
+	/** Replaces the background frame by the top frame, which is removed from the stack. */
 	public void moveToBackground() {
-		sortStack.remove(sortStack.size()-1);
-		symStack.remove(symStack.size()-1);
-		sortStack.add(sortStack.remove(0));
-		symStack.add(symStack.remove(0));
-		names = symStack.get(0);
-		sorts = sortStack.get(0);
+		PersistentMap<IIdentifier,Map<Integer,List<Entry>>> bnames = PersistentMap.empty();
+		for (Link n = top.ownNames; n != null; n = n.next) {
+			bnames = bnames.put(n.id, top.names.get(n.id).arityMap);
+		}
+		PersistentMap<IIdentifier,ISort.IDefinition> bsorts = PersistentMap.empty();
+		for (Link n = top.ownSorts; n != null; n = n.next) {
+			bsorts = bsorts.put(n.id, top.sorts.get(n.id).definition);
+		}
+		backgroundNames = bnames;
+		backgroundSorts = bsorts;
+		if (top.enclosing != null) top = top.enclosing;
+		else clear(true);
+	}
+	
+	/** The background frame of a symbol table, together with the theory flags and logic,
+	 * as they are after a logic is loaded; it can be installed in any number of symbol tables
+	 * (see LogicCache) and is not changed by them.
+	 */
+	public static class Background {
+		final private PersistentMap<IIdentifier,ISort.IDefinition> sorts;
+		final private PersistentMap<IIdentifier,Map<Integer,List<Entry>>> names;
+		final private boolean arrayTheorySet;
+		final private boolean bitVectorTheorySet;
+		final private boolean realsIntsTheorySet;
+		final private ILogic logicInUse;
+		
+		private Background(SymbolTable s) {
+			sorts = s.backgroundSorts;
+			names = s.backgroundNames;
+			arrayTheorySet = s.arrayTheorySet;
+			bitVectorTheorySet = s.bitVectorTheorySet;
+			realsIntsTheorySet = s.realsIntsTheorySet;
+			logicInUse = s.logicInUse;
+		}
+	}
+	
+	/** Returns the background frame of this symbol table, in constant time */
+	public Background background() {
+		return new Background(this);
+	}
+	
+	/** Replaces the background frame of this symbol table by the given one, with the same result
+	 * as loading the logic from which the Background was made (cf. Utils.loadLogic) */
+	public void setBackground(Background b) {
+		backgroundSorts = b.sorts;
+		backgroundNames = b.names;
+		arrayTheorySet |= b.arrayTheorySet;
+		bitVectorTheorySet |= b.bitVectorTheorySet;
+		realsIntsTheorySet |= b.realsIntsTheorySet;
+		logicInUse = b.logicInUse;
+	}
+	
+	/** Defines the sort in the top scope */
+	private void putSort(IIdentifier identifier, ISort.IDefinition definition) {
+		SortBinding previous = top.sorts.get(identifier);
+		Link own = previous != null && previous.depth == top.depth ? top.ownSorts : new Link(identifier, top.ownSorts);
+		top = new Scope(top.enclosing, top.depth, top.names, top.sorts.put(identifier, new SortBinding(top.depth, definition)), top.ownNames, own);
 	}
 	
 	/** Adds the given symbol as a sort to the top scope of the sort table; 
@@ -221,10 +327,10 @@ public class SymbolTable {
 	 * @return true if successfully added, false if already present
 	 */
 	public boolean addSortParameter(ISymbol symbol) {
-		ISort.IDefinition previous = sorts.put(symbol, smtConfig.sortFactory.createSortParameter(symbol));
-		if (previous == null) return true;
-		sorts.put(symbol, previous);
-		return false;
+		SortBinding previous = top.sorts.get(symbol);
+		if (previous != null && previous.depth == top.depth) return false;
+		putSort(symbol, smtConfig.sortFactory.createSortParameter(symbol));
+		return true;
 	}
 	
 	/** Adds a new sort declaration to the top frame
@@ -240,7 +346,7 @@ public class SymbolTable {
 		if (s != null) return false;
 		
 		ISort.IDefinition def = smtConfig.sortFactory.createSortFamily(identifier,arity);
-		sorts.put(identifier, def);
+		putSort(identifier, def);
 		return true;
 	}
 	
@@ -253,9 +359,9 @@ public class SymbolTable {
 	 * this name in the top scope
 	 */ // FIXME - why is this only the top scope and the previous call is any scope?
 	public boolean addSortDefinition(IIdentifier identifier, List<IParameter> parameters, ISort definition) {
-		ISort.IDefinition s = sorts.get(identifier);
-		if (s != null) return false;
-		sorts.put(identifier, smtConfig.sortFactory.createSortAbbreviation(identifier,parameters,definition));
+		SortBinding s = top.sorts.get(identifier);
+		if (s != null && s.depth == top.depth) return false;
+		putSort(identifier, smtConfig.sortFactory.createSortAbbreviation(identifier,parameters,definition));
 		return true;
 	}
 	
@@ -266,10 +372,10 @@ public class SymbolTable {
 	 */
 	/*@Nullable*/
 	public ISort.IDefinition lookupSort(IIdentifier name) {
-		for (Map<IIdentifier,ISort.IDefinition> set: sortStack) {
-			ISort.IDefinition s = set.get(name);
-			if (s != null) return s;
-		}
+		SortBinding b = top.sorts.get(name);
+		if (b != null) return b.definition;
+		ISort.IDefinition s = backgroundSorts.get(name);
+		if (s != null) return s;
 		
 		// FIXME _ improve so this is not hard coded
 		if (name instanceof IParameterizedIdentifier) {
@@ -284,7 +390,7 @@ public class SymbolTable {
 					return new ISort.ErrorDefinition(name,"A bit-vector sort must have a length of at least 1",pf.numerals().get(0).pos());
 				}
 				ISort.IDefinition def = smtConfig.sortFactory.createSortFamily(name,smtConfig.exprFactory.numeral(0));
-				sorts.put(name, def);
+				putSort(name, def);
 				return def;
 			}
 		}
@@ -299,12 +405,14 @@ public class SymbolTable {
 	 */
 	/*@Nullable*/
 	public IFcnSort lookup(int arity, IIdentifier name) {
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) {
-				List<Entry> entrylist = arityMap.get(arity);
-				if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
-			}
+		for (Binding b = top.names.get(name); b != null; b = b.next) {
+			List<Entry> entrylist = b.arityMap.get(arity);
+			if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
+		}
+		Map<Integer,List<Entry>> arityMap = backgroundNames.get(name);
+		if (arityMap != null) {
+			List<Entry> entrylist = arityMap.get(arity);
+			if (entrylist != null && entrylist.size() > 0) return entrylist.get(0).sort;
 		}
 		return null;
 	}
@@ -312,14 +420,12 @@ public class SymbolTable {
 	/** Lookup the Symbol with the given identifier, returning a Map of arity to List&lt;Entry&gt;.
 	 * @param name the name of the Symbol
 	 * @return null if not found, the corresponding List&lt;Entry&gt from the 
-	 * top-most scope in which the identifier is found
+	 * top-most scope in which the identifier is found; the map must not be modified
 	 */
 	public /*@Nullable*/ Map<Integer,List<Entry>> lookup(IIdentifier name) {
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) return arityMap;
-		}
-		return null;
+		Binding b = top.names.get(name);
+		if (b != null) return b.arityMap;
+		return backgroundNames.get(name);
 	}
 	
 	// FIXME - review
@@ -336,87 +442,86 @@ public class SymbolTable {
 		Entry found = null;
 		boolean foundMatchButNotOnResult = false;
 		int arity = argSorts.size();
-		for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-			Map<Integer,List<Entry>> arityMap = set.get(name);
-			if (arityMap != null) {
-				// We have a name match
-				// First check for an exact match on arity
-				List<Entry> entrylist = arityMap.get(arity);
-				if (entrylist != null) for (Entry entry: entrylist) {
-					java.util.Iterator<ISort> actuals = argSorts.iterator();
-					java.util.Iterator<ISort> defs = Arrays.asList(entry.sort.argSorts()).iterator();
-					while (actuals.hasNext() && defs.hasNext()) {
-						if (!defs.next().equals(actuals.next())) { entry = null; break; }
-					}
-					// Cases to consider
-					//   resultSort != null & just one argument sort match -> error - not supposed to use a qualifier
-					//   resultSort != null & multiple argument sort matches -> pick the one that matches on result sort
-					//   resultSort == null & and just one argument sort match -> return it
-					//   resultSort == null & multiple argument sort matches -> ambiguous
-						
-					if (entry != null) {
-						// Have a match on the arguments, so check for a match on the result
-						if (resultSort != null) {
-							if (resultSort.equals(entry.sort.resultSort())) {
-								if (found != null) {
-									// FIXME - there appear to be two entries that match on all arguments and the result
-									return null;
-								} else {
-									found = entry;
-								}
-							} else {
-								foundMatchButNotOnResult = true;
-							}
-						} else {
-							// No result sort specified - there should not be any overloading
+		// Only the top-most scope in which the name is defined is considered
+		Map<Integer,List<Entry>> arityMap = lookup(name);
+		if (arityMap != null) {
+			// We have a name match
+			// First check for an exact match on arity
+			List<Entry> entrylist = arityMap.get(arity);
+			if (entrylist != null) for (Entry entry: entrylist) {
+				java.util.Iterator<ISort> actuals = argSorts.iterator();
+				java.util.Iterator<ISort> defs = Arrays.asList(entry.sort.argSorts()).iterator();
+				while (actuals.hasNext() && defs.hasNext()) {
+					if (!defs.next().equals(actuals.next())) { entry = null; break; }
+				}
+				// Cases to consider
+				//   resultSort != null & just one argument sort match -> error - not supposed to use a qualifier
+				//   resultSort != null & multiple argument sort matches -> pick the one that matches on result sort
+				//   resultSort == null & and just one argument sort match -> return it
+				//   resultSort == null & multiple argument sort matches -> ambiguous
+					
+				if (entry != null) {
+					// Have a match on the arguments, so check for a match on the result
+					if (resultSort != null) {
+						if (resultSort.equals(entry.sort.resultSort())) {
 							if (found != null) {
-								// Found something previously and now have this match - so ambiguous
-								// FIXME - no place to give an error message that the result sort is ambiguous
+								// FIXME - there appear to be two entries that match on all arguments and the result
 								return null;
+							} else {
+								found = entry;
 							}
-							found = entry;
-							// Otherwise have just one match - keep checking the rest of the list
+						} else {
+							foundMatchButNotOnResult = true;
+						}
+					} else {
+						// No result sort specified - there should not be any overloading
+						if (found != null) {
+							// Found something previously and now have this match - so ambiguous
+							// FIXME - no place to give an error message that the result sort is ambiguous
+							return null;
 						}
+						found = entry;
+						// Otherwise have just one match - keep checking the rest of the list
 					}
 				}
-				if (resultSort != null && found != null && !foundMatchButNotOnResult) {
-					// FIXME - should report unneeded disambiguation
-					return null;
-				}
-				if (found != null) return found;
-				
-					// Check for left-assoc etc.
-				if (argSorts.size() <= 2) return null;
-				entrylist = arityMap.get(2);
-				if (entrylist != null) outer: for (Entry entry: entrylist) {
-					ISort left = entry.sort.argSorts()[0];
-					ISort right = entry.sort.argSorts()[1];
-					java.util.Iterator<ISort> actuals = argSorts.iterator();
-					if (hasAttribute(entry,":left-assoc")) {
-						if (!actuals.next().equals(left)) continue;
-						while (actuals.hasNext()) {
-							if (!actuals.next().equals(right)) continue outer;
-						}
-					} else if (hasAttribute(entry,":right-assoc")) {
+			}
+			if (resultSort != null && found != null && !foundMatchButNotOnResult) {
+				// FIXME - should report unneeded disambiguation
+				return null;
+			}
+			if (found != null) return found;
+			
+				// Check for left-assoc etc.
+			if (argSorts.size() <= 2) return null;
+			entrylist = arityMap.get(2);
+			if (entrylist != null) outer: for (Entry entry: entrylist) {
+				ISort left = entry.sort.argSorts()[0];
+				ISort right = entry.sort.argSorts()[1];
+				java.util.Iterator<ISort> actuals = argSorts.iterator();
+				if (hasAttribute(entry,":left-assoc")) {
+					if (!actuals.next().equals(left)) continue;
+					while (actuals.hasNext()) {
+						if (!actuals.next().equals(right)) continue outer;
+					}
+				} else if (hasAttribute(entry,":right-assoc")) {
+					ISort sort = actuals.next();
+					while (actuals.hasNext()) {
+						if (!sort.equals(left)) continue outer;
+						sort = actuals.next();
+					}
+					if (!sort.equals(right)) continue;
+				} else if (hasAttribute(entry,":chainable") || hasAttribute(entry,":pairwise")) {
+					while (actuals.hasNext()) {
 						ISort sort = actuals.next();
-						while (actuals.hasNext()) {
-							if (!sort.equals(left)) continue outer;
-							sort = actuals.next();
-						}
-						if (!sort.equals(right)) continue;
-					} else if (hasAttribute(entry,":chainable") || hasAttribute(entry,":pairwise")) {
-						while (actuals.hasNext()) {
-							ISort sort = actuals.next();
-							if (!sort.equals(left)) continue outer;
-						}
-					} else {
-						// None of the attributes apply
-						continue;
+						if (!sort.equals(left)) continue outer;
 					}
-					return entry;
+				} else {
+					// None of the attributes apply
+					continue;
 				}
-				return null;
+				return entry;
 			}
+			return null;
 		}
 		return null;
 	}
@@ -429,25 +534,35 @@ public class SymbolTable {
 		return false;
 	}
 	
+	
+	/** Returns a copy of the given arity map (or a new map, if it is null) with the given entry added */
+	static private Map<Integer,List<Entry>> with(/*@Nullable*/ Map<Integer,List<Entry>> arityMap, int arity, Entry entry) {
+		Map<Integer,List<Entry>> result = arityMap == null ? new HashMap<Integer,List<Entry>>() : new HashMap<Integer,List<Entry>>(arityMap);
+		List<Entry> entrylist = result.get(arity);
+		entrylist = entrylist == null ? new ArrayList<Entry>(1) : new ArrayList<Entry>(entrylist);
+		entrylist.add(entry);
+		result.put(arity,entrylist);
+		return result;
+	}
+	
 	/** Adds the given entry to the symbol table.
 	 * @param entry the Entry to add
 	 */
 	public void add(Entry entry) {
-		Map<IIdentifier,Map<Integer,List<Entry>>> lnames = names;
+		int arity = entry.sort.argSorts().length;
 		if (smtConfig.globalDeclarations) {
-			lnames = symStack.get(symStack.size()-1);
-		}
-		Map<Integer,List<Entry>> arityMap = lnames.get(entry.name);
-		if (arityMap == null) {
-			arityMap = new HashMap<Integer,List<Entry>>();
-			lnames.put(entry.name,arityMap);
+			backgroundNames = backgroundNames.put(entry.name, with(backgroundNames.get(entry.name),arity,entry));
+			return;
 		}
-		List<Entry> entrylist = arityMap.get(entry.sort.argSorts().length);
-		if (entrylist == null) {
-				entrylist = new LinkedList<Entry>();
-				arityMap.put(entry.sort.argSorts().length,entrylist);
+		Binding b = top.names.get(entry.name);
+		Link own = top.ownNames;
+		if (b != null && b.depth == top.depth) {
+			b = new Binding(top.depth, with(b.arityMap,arity,entry), b.next);
+		} else {
+			b = new Binding(top.depth, with(null,arity,entry), b);
+			own = new Link(entry.name, own);
 		}
-		entrylist.add(entry);
+		top = new Scope(top.enclosing, top.depth, top.names.put(entry.name, b), top.sorts, own, top.ownSorts);
 	}
 	
 	/** Adds the given entry to the symbol table; if overload is false and the 
@@ -461,12 +576,8 @@ public class SymbolTable {
 	public boolean add(Entry entry, boolean overload) {
 		// Check if the entry is already present in any scope;
 		// return false if it is.  Allow overloading if the second argument is true.
-		if (!overload) {
-			for (Map<IIdentifier,Map<Integer,List<Entry>>> set: symStack) {
-				if (set.get(entry.name) != null) {
-					return false;
-				}
-			}
+		if (!overload && lookup(entry.name) != null) {
+			return false;
 		}
 		// Symbol is not present or overloading is allowed, so add it
 		add(entry);
@@ -7,6 +7,8 @@ package org.smtlib;
 // FIXME- NEEDS REVIEW; use an interface?
 
 import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -50,9 +52,24 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		this(symTable,null);
 	}
 	
-	/** Utility method for recording an error */
-	protected void error(String msg, IPos pos) {
-		result.add(smtConfig.responseFactory.error(msg,pos));
+	/** Utility method for recording an error; an error without a position (such as one in a
+	 * hash-consed term, which is shared by all its occurrences and so has none) is reported at the
+	 * innermost enclosing expression that has one */
+	protected void error(String msg, /*@Nullable*/ IPos pos) {
+		result.add(smtConfig.responseFactory.error(msg,pos == null ? enclosingPos : pos));
+	}
+	
+	/** The position of the innermost expression being checked by checkNested that has one */
+	protected /*@Nullable*/ IPos enclosingPos = null;
+	
+	/** Enters the scope of the given binder in the typemap, if it is a TypeMap */
+	protected void enterScope(Object binder) {
+		if (typemap instanceof TypeMap) ((TypeMap)typemap).enter(binder);
+	}
+	
+	/** Exits the innermost scope entered in the typemap, if it is a TypeMap */
+	protected void exitScope() {
+		if (typemap instanceof TypeMap) ((TypeMap)typemap).exit();
 	}
 	
 	/** Utility method for printing an expression, using the default printer */
@@ -135,7 +152,12 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			if (f.result.isEmpty()) {
 				ISort res = result.accept(f);
 				if (res != null) {
-					res = expr.accept(f);
+					f.enterScope(params);
+					try {
+						res = expr.accept(f);
+					} finally {
+						f.exitScope();
+					}
 				}
 				if (res != null && !res.equals(result)) {
 					f.error("Declared sort of the result does not match the sort of the expression: "
@@ -183,7 +205,9 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		return f.result;
 	}
 	
-	/** The main entry point for type-checking an IExpr (expected to be a Bool)*/
+	/** The main entry point for type-checking an IExpr (expected to be a Bool), recording the sort
+	 * of each subexpression in the typemap, which should be a TypeMap, since a (shared) subexpression
+	 * may have different sorts in different scopes */
 	public static List<IResponse> check(SymbolTable symTable, IExpr expr, Map<IExpr,ISort> typemap) {
 		TypeChecker f = new TypeChecker(symTable,typemap);
 		symTable.push();
@@ -214,7 +238,13 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			for (IExpr.IDeclaration d: decls) {
 				f.currentScope.put(d.parameter(),new Variable(d.parameter(),d.sort(),null));
 			}
-			ISort topsort = expr.accept(f);
+			ISort topsort;
+			f.enterScope(decls);
+			try {
+				topsort = expr.accept(f);
+			} finally {
+				f.exitScope();
+			}
 			if (topsort != null && !topsort.isBool()) {
 				f.error("Expected an expression with Bool sort, not " + topsort, expr.pos());
 			}
@@ -245,25 +275,328 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IFcnExpr e) throws IVisitor.VisitorException {
-		if (e.args().size() == 0) {
-			// Error message already given on parsing
-			// but we'll defensively program
-			error("Unexpected function with no arguments: " + pr(e.head()),e.pos());
-			return null; 
-		}
-
-		// Type check all the arguments
-		boolean anyErrors = false;
-		List<ISort> argSorts = new LinkedList<ISort>();
-		java.util.Iterator<IExpr> iter = e.args().iterator();
-		while (iter.hasNext()) {
-			IExpr sx = iter.next();
-			ISort argSort = sx.accept(this);
+		return checkNested(e);
+	}
+	
+	/** Type-checks an expression whose subexpressions may be nested arbitrarily deeply: rather
+	 * than recursing through the visitor for each level of function applications, let, quantified
+	 * and attributed expressions, the partially checked expressions are kept on an explicit stack
+	 * (of Frame objects); other expressions are checked by visiting them.
+	 */
+	protected /*@Nullable*/ ISort checkNested(IExpr top) throws IVisitor.VisitorException {
+		Deque<Frame> stack = new ArrayDeque<Frame>();
+		try {
+			IExpr next = top;
+			while (true) {
+				// Descend into next, until reaching a subexpression that is checked completely
+				ISort value;
+				Frame f = next == top || isNested(next) ? frame(next) : null;
+				if (f == null) {
+					value = next.accept(this);
+				} else {
+					stack.push(f);
+					f.outerPos = enclosingPos;
+					if (next.pos() != null) enclosingPos = next.pos();
+					next = f.begin();
+					if (next != null) continue;
+					stack.pop();
+					f.exit();
+					value = f.result;
+				}
+				// Return the sort to the enclosing frames, until one asks for another subexpression
+				while (true) {
+					if (stack.isEmpty()) return value;
+					f = stack.peek();
+					next = f.advance(value);
+					if (next != null) break;
+					stack.pop();
+					f.exit();
+					value = f.result;
+				}
+			}
+		} finally {
+			// Restores the scopes if an exception is thrown
+			while (!stack.isEmpty()) stack.pop().exit();
+		}
+	}
+	
+	/** True for the kinds of expressions for which checkNested uses a Frame */
+	protected boolean isNested(IExpr e) {
+		return e instanceof IFcnExpr || e instanceof ILet || e instanceof IForall || e instanceof IExists || e instanceof IAttributedExpr;
+	}
+	
+	/** Creates the Frame for the given expression, if it is one of the nested kinds */
+	protected /*@Nullable*/ Frame frame(IExpr e) {
+		if (e instanceof IFcnExpr) return new FcnFrame((IFcnExpr)e);
+		if (e instanceof ILet) return new LetFrame((ILet)e);
+		if (e instanceof IForall) return new QuantifierFrame(e,((IForall)e).parameters(),((IForall)e).expr());
+		if (e instanceof IExists) return new QuantifierFrame(e,((IExists)e).parameters(),((IExists)e).expr());
+		if (e instanceof IAttributedExpr) return new AttributedFrame((IAttributedExpr)e);
+		return null;
+	}
+	
+	/** An expression being type-checked by checkNested */
+	protected abstract class Frame {
+		/** The sort of the expression (null if there are errors); valid once advance returns null */
+		protected /*@Nullable*/ ISort result = null;
+		
+		/** Starts checking the expression, returning the first subexpression to check, or null if
+		 * the check is complete */
+		abstract protected /*@Nullable*/ IExpr begin() throws IVisitor.VisitorException;
+		
+		/** Continues checking, given the sort of the subexpression last returned; returns the next
+		 * subexpression to check, or null if the check is complete */
+		abstract protected /*@Nullable*/ IExpr advance(/*@Nullable*/ ISort value) throws IVisitor.VisitorException;
+		
+		/** The enclosing position when the frame was created, restored when it is discarded */
+		protected /*@Nullable*/ IPos outerPos = null;
+		
+		/** Called when the frame is discarded, whether or not the check completed normally;
+		 * overriding methods must call this one */
+		protected void exit() {
+			enclosingPos = outerPos;
+		}
+	}
+	
+	/** Checks the arguments of a function application and then the application itself */
+	protected class FcnFrame extends Frame {
+		final protected IFcnExpr e;
+		final protected Iterator<IExpr> iter;
+		final protected List<ISort> argSorts = new LinkedList<ISort>();
+		protected boolean anyErrors = false;
+		
+		protected FcnFrame(IFcnExpr e) {
+			this.e = e;
+			this.iter = e.args().iterator();
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr begin() {
+			if (e.args().size() == 0) {
+				// Error message already given on parsing
+				// but we'll defensively program
+				error("Unexpected function with no arguments: " + pr(e.head()),e.pos());
+				return null; 
+			}
+			return iter.next();
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr advance(/*@Nullable*/ ISort argSort) throws IVisitor.VisitorException {
 			anyErrors = anyErrors || (argSort == null);
-			if (argSort != null) argSorts.add(argSort); 
+			if (argSort != null) argSorts.add(argSort);
+			if (iter.hasNext()) return iter.next();
+			if (!anyErrors) result = checkApplication(e,argSorts);
+			return null;
+		}
+	}
+	
+	/** Checks the bindings of a let expression, and then its body in the extended scope */
+	protected class LetFrame extends Frame {
+		final protected ILet e;
+		final protected Iterator<IExpr.IBinding> iter;
+		final protected Map<ISymbol,Variable> newdecls = new HashMap<ISymbol,Variable>();
+		protected /*@Nullable*/ IExpr.IBinding binding = null;
+		protected boolean anyErrors = false;
+		/** True while the body is being checked, in the scope of the bindings */
+		protected boolean inScope = false;
+		
+		protected LetFrame(ILet e) {
+			this.e = e;
+			this.iter = e.bindings().iterator();
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr begin() {
+			Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
+			saved.putAll(currentScope);
+			parameters.add(0,saved);
+			return nextBinding();
+		}
+		
+		/** Returns the expression of the next binding, or the body if there are no more */
+		protected /*@Nullable*/ IExpr nextBinding() {
+			if (iter.hasNext()) {
+				binding = iter.next();
+				return binding.expr();
+			}
+			binding = null;
+			if (anyErrors) return null;
+			currentScope.putAll(newdecls);
+			enterScope(e);
+			inScope = true;
+			return e.expr();
 		}
-		if (anyErrors) return null;
+		
+		@Override
+		protected /*@Nullable*/ IExpr advance(/*@Nullable*/ ISort s) {
+			if (binding == null) {
+				exitScope();
+				inScope = false;
+				result = save(e,s);
+				return null;
+			}
+			if (s == null) anyErrors = true;
+			else newdecls.put(binding.parameter(),new Variable(binding.parameter(),s,binding.expr()));
+			return nextBinding();
+		}
+		
+		@Override
+		protected void exit() {
+			super.exit();
+			if (inScope) exitScope();
+			inScope = false;
+			currentScope = parameters.remove(0);
+		}
+	}
+	
+	/** Checks the declarations of a forall or exists expression, and then its body in the extended scope */
+	protected class QuantifierFrame extends Frame {
+		final protected IExpr e;
+		final protected List<IExpr.IDeclaration> decls;
+		final protected IExpr body;
+		/** True while the body is being checked, in the scope of the declarations */
+		protected boolean inScope = false;
+		
+		protected QuantifierFrame(IExpr e, List<IExpr.IDeclaration> decls, IExpr body) {
+			this.e = e;
+			this.decls = decls;
+			this.body = body;
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr begin() throws IVisitor.VisitorException {
+			Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
+			saved.putAll(currentScope);
+			parameters.add(0,saved);
+			boolean errors = false;
+			for (IExpr.IDeclaration decl : decls) {
+				ISort res = decl.sort().accept(TypeChecker.this);
+				if (res == null) errors = true;
+				else currentScope.put(decl.parameter(),new Variable(decl.parameter(),decl.sort(),null));
+			}
+			if (errors) return null;
+			enterScope(e);
+			inScope = true;
+			return body;
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr advance(/*@Nullable*/ ISort s) {
+			exitScope();
+			inScope = false;
+			result = save(e,s);
+			return null;
+		}
+		
+		@Override
+		protected void exit() {
+			super.exit();
+			if (inScope) exitScope();
+			inScope = false;
+			currentScope = parameters.remove(0);
+		}
+	}
+	
+	/** Checks the expression of an attributed expression, and then its attributes */
+	protected class AttributedFrame extends Frame {
+		final protected IAttributedExpr e;
+		protected /*@Nullable*/ ISymbol savedIsClosed;
+		
+		protected AttributedFrame(IAttributedExpr e) {
+			this.e = e;
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr begin() {
+			savedIsClosed = isClosed;
+			isClosed = null;
+			return e.expr();
+		}
+		
+		@Override
+		protected /*@Nullable*/ IExpr advance(/*@Nullable*/ ISort s) throws IVisitor.VisitorException {
+			result = checkAttributes(e,save(e,s));
+			return null;
+		}
+		
+		@Override
+		protected void exit() {
+			super.exit();
+			isClosed = isClosed == null ? savedIsClosed : isClosed;
+		}
+	}
 
+	/** The operators that the type checker checks itself, rather than by looking them up in the
+	 * symbol table (mostly because their sorts are parametric); each operator is identified by its
+	 * name, or for an indexed operator such as (_ extract 7 0), by the symbol after the underscore */
+	protected static enum Builtin {
+		EQUALITY(false,"=","distinct"),
+		ITE(false,"ite"),
+		STORE(false,"store"),
+		SELECT(false,"select"),
+		BV_UNARY(false,"bvnot","bvneg"),
+		BV_BINARY(false,"bvand","bvor","bvadd","bvmul","bvudiv","bvurem","bvshl","bvlshr",
+				"bvnand","bvnor","bvxor","bvxnor","bvsub","bvsdiv","bvsrem","bvsmod","bvashr"),
+		BV_COMP(false,"bvcomp"),
+		BV_COMPARISON(false,"bvult","bvule","bvugt","bvuge","bvslt","bvsle","bvsgt","bvsge"),
+		CONCAT(false,"concat"),
+		EXTRACT(true,"extract"),
+		REPEAT(true,"repeat"),
+		EXTEND(true,"zero_extend","sign_extend"),
+		ROTATE(true,"rotate_left","rotate_right");
+
+		/** Whether the operator is an indexed identifier */
+		final boolean indexed;
+
+		/** The names of the operator */
+		final String[] names;
+
+		private Builtin(boolean indexed, String ... names) {
+			this.indexed = indexed;
+			this.names = names;
+		}
+
+		/** The operators with a simple symbol, and the indexed ones, by name */
+		static final private Map<String,Builtin> symbols = new HashMap<String,Builtin>();
+		static final private Map<String,Builtin> indexedSymbols = new HashMap<String,Builtin>();
+		static {
+			for (Builtin op: values()) {
+				for (String n: op.names) (op.indexed ? indexedSymbols : symbols).put(n,op);
+			}
+		}
+
+		/** Returns the operator that the given identifier names, or null if it is not one of these */
+		static public /*@Nullable*/ Builtin of(IIdentifier head) {
+			if (head instanceof IParameterizedIdentifier) return indexedSymbols.get(((IParameterizedIdentifier)head).headSymbol().toString());
+			return symbols.get(head.toString());
+		}
+
+		/** Whether the operator is built in, given the theories in use */
+		public boolean isEnabled(SymbolTable symTable) {
+			switch (this) {
+				case EQUALITY:
+				case ITE:
+					return true;
+				case STORE:
+				case SELECT:
+					return symTable.arrayTheorySet;
+				default:
+					return symTable.bitVectorTheorySet;
+			}
+		}
+	}
+
+	/** Whether s is the sort with the given name and no parameters (e.g. Int), found without
+	 * making any strings */
+	static private boolean isSimpleSort(ISort s, String name) {
+		if (!(s instanceof ISort.IApplication)) return false;
+		ISort.IApplication a = (ISort.IApplication)s;
+		return a.parameters().isEmpty() && a.family() instanceof ISymbol && a.family().toString().equals(name);
+	}
+
+	/** Type-checks the application of the head of the given expression to arguments with the given sorts */
+	protected /*@Nullable*/ ISort checkApplication(IFcnExpr e, List<ISort> argSorts) throws IVisitor.VisitorException {
 		// Now lookup the head in the context of these arguments
 		IQualifiedIdentifier qhead = e.head();
 		IIdentifier head;
@@ -275,9 +608,9 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		} else {
 			head = (IIdentifier)qhead;
 		}
-		boolean bvperhaps = symTable.bitVectorTheorySet && head.toString().startsWith("bv");
-		String name = head.toString();
-		if (name.equals("=") || name.equals("distinct")) {
+		Builtin op = Builtin.of(head);
+		if (op != null && op.isEnabled(symTable)) switch (op) {
+		case EQUALITY: {
 			// FIXME - this is just here until we get par types implemented
 			// FIXME - /= is not part of SMT - put it in relax?
 			ISort ss = null;
@@ -285,10 +618,10 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				if (ss == null) ss = s;
 				else if (!ss.equals(s)) {
 					if (symTable.realsIntsTheorySet &&
-							(ss.toString().equals("Real") && s.toString().equals("Int"))) {
+							(isSimpleSort(ss,"Real") && isSimpleSort(s,"Int"))) {
 						// OK
 					} else if (symTable.realsIntsTheorySet &&
-								(s.toString().equals("Real") && ss.toString().equals("Int"))) {
+								(isSimpleSort(s,"Real") && isSimpleSort(ss,"Int"))) {
 						ss = s;
 					} else {
 						String msg = "Mismatched sorts of arguments: " + 
@@ -302,7 +635,8 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			ISort b = smtConfig.sortFactory.Bool();
 			b.accept(this);
 			return save(e,b);
-		} else if (name.equals("ite")) {
+		}
+		case ITE: {
 			// FIXME - this is just here until we get par types implemented
 			if (!argSorts.get(0).isBool()) {
 				error("The first argument of ite must have sort Bool",e.pos());
@@ -313,7 +647,8 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				return null;
 			}
 			return save(e,argSorts.get(1));
-		} else if (symTable.arrayTheorySet && name.equals("store")) {
+		}
+		case STORE: {
 			if (argSorts.size() != 3) {
 				error(" The store function should have three arguments",head.pos());
 				return null;
@@ -341,7 +676,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			// FIXME - this is just here until we get par types implemented; it also should depend on which theories are installed
 			return save(e,argSorts.get(0));
 		}
-		if (symTable.arrayTheorySet && name.equals("select")) {
+		case SELECT: {
 			// FIXME - this is just here until we get par types implemented; it also should depend on which theories are installed
 			if (argSorts.size() != 2) {
 				error(" The select function should have two arguments",head.pos());
@@ -366,84 +701,71 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			// FIXME - this is just here until we get par types implemented; it also should depend on which theories are installed
 			sort1 = ((ISort.IApplication)sort1).parameters().get(1);
 			return save(e,sort1);
-		} 
-		boolean useext = true;
-		if (bvperhaps) {
-			if (name.equals("bvnot") || name.equals("bvneg")) {
-				if (argSorts.size() != 1) {
-					error(" The " + name + " function should have one argument",head.pos());
-					return null;
-				}
-				ISort s = argSorts.get(0);
-				if (!isBitVec(s)) {
-					error("The argument must have a BitVec sort, not " + smtConfig.defaultPrinter.toString(s),e.args().get(0).pos());
-					return null;
-				}
-				return save(e,s);
-				
-			} else if (name.equals("bvand") || name.equals("bvor") 
-					|| name.equals("bvadd") || name.equals("bvmul")
-					|| name.equals("bvudiv") || name.equals("bvurem")
-					|| name.equals("bvshl") || name.equals("bvlshr") ||
-					(useext && (name.equals("bvnand") || name.equals("bvnor") || name.equals("bvxor") || name.equals("bvxnor")
-							|| name.equals("bvsub") || name.equals("bvsdiv") || name.equals("bvsrem") || name.equals("bvsmod")
-							|| name.equals("bvashr") || name.equals("bvcomp") 
-					))
-					) {
-				if (argSorts.size() != 2) {
-					error(" The " + name + " function should have two arguments",head.pos());
-					return null;
-				}
-				ISort s = argSorts.get(0);
-				if (!isBitVec(s)) {
-					error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
-					return null;
-				}
-				ISort ss = argSorts.get(1);
-				if (!isBitVec(ss)) {
-					error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
-					return null;
-				}
-				if (!s.equals(ss)) {
-					error("The sorts must match: " + pr(s) + " vs. " + pr(ss),e.pos());
-					return null;
-				}
-				if (name.equals("bvcomp")) {
-					s = makeBitVec(1);
-					return save(e,s);
-				}
+		}
+		case BV_UNARY: {
+			if (argSorts.size() != 1) {
+				error(" The " + head + " function should have one argument",head.pos());
+				return null;
+			}
+			ISort s = argSorts.get(0);
+			if (!isBitVec(s)) {
+				error("The argument must have a BitVec sort, not " + smtConfig.defaultPrinter.toString(s),e.args().get(0).pos());
+				return null;
+			}
+			return save(e,s);
+		}
+		case BV_BINARY:
+		case BV_COMP: {
+			if (argSorts.size() != 2) {
+				error(" The " + head + " function should have two arguments",head.pos());
+				return null;
+			}
+			ISort s = argSorts.get(0);
+			if (!isBitVec(s)) {
+				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				return null;
+			}
+			ISort ss = argSorts.get(1);
+			if (!isBitVec(ss)) {
+				error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
+				return null;
+			}
+			if (!s.equals(ss)) {
+				error("The sorts must match: " + pr(s) + " vs. " + pr(ss),e.pos());
+				return null;
+			}
+			if (op == Builtin.BV_COMP) {
+				s = makeBitVec(1);
 				return save(e,s);
-			} else if (name.equals("bvult") || (useext && (name.equals("bvule") || name.equals("bvugt") || name.equals("bvuge")
-					|| name.equals("bvslt") || name.equals("bvsle") || name.equals("bvsgt") || name.equals("bvsge")
-					)
-					)) {
-				if (argSorts.size() != 2) {
-					error(" The " + name + " function should have two arguments",head.pos());
-					return null;
-				}
-				ISort s = argSorts.get(0);
-				if (!isBitVec(s)) {
-					error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
-					return null;
-				}
-				ISort ss = argSorts.get(1);
-				if (!isBitVec(ss)) {
-					error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
-					return null;
-				}
-				if (!s.equals(ss)) {
-					error("The sorts must match: " + pr(s) + " vs. " + pr(ss),e.pos());
-					return null;
-				}
-				ISort b = smtConfig.sortFactory.Bool(); // FIXME - get something from the symbol table?
-				b.accept(this);
-				return save(e,b);
 			}
-					
+			return save(e,s);
+		}
+		case BV_COMPARISON: {
+			if (argSorts.size() != 2) {
+				error(" The " + head + " function should have two arguments",head.pos());
+				return null;
+			}
+			ISort s = argSorts.get(0);
+			if (!isBitVec(s)) {
+				error("The argument must have a BitVec sort, not " + pr(s),e.args().get(0).pos());
+				return null;
+			}
+			ISort ss = argSorts.get(1);
+			if (!isBitVec(ss)) {
+				error("The argument must have a BitVec sort, not " + pr(ss),e.args().get(1).pos());
+				return null;
+			}
+			if (!s.equals(ss)) {
+				error("The sorts must match: " + pr(s) + " vs. " + pr(ss),e.pos());
+				return null;
+			}
+			ISort b = smtConfig.sortFactory.Bool(); // FIXME - get something from the symbol table?
+			b.accept(this);
+			return save(e,b);
 		}
-		if (symTable.bitVectorTheorySet && name.equals("concat")) {
+		case CONCAT: {
 			if (argSorts.size() != 2) {
-				error(" The " + name + " function should have two arguments",head.pos());
+				error(" The " + head + " function should have two arguments",head.pos());
 				return null;
 			}
 			ISort s = argSorts.get(0);
@@ -459,13 +781,9 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			s = makeBitVec(bitvecSize(s)+bitvecSize(ss));
 			return save(e,s);
 		}
-		String pname = null;
-		if (head instanceof IParameterizedIdentifier) pname = ((IParameterizedIdentifier)head).headSymbol().toString();
-		if (symTable.bitVectorTheorySet && 
-				head instanceof IParameterizedIdentifier &&
-				pname.equals("extract")) {
+		case EXTRACT: {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + head + " function should have one argument",head.pos());
 				return null;
 			}
 			ISort s = argSorts.get(0);
@@ -491,14 +809,10 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			}
 			s = makeBitVec(end-start+1);
 			return save(e,s);
-
 		}
-		if (useext && symTable.bitVectorTheorySet && 
-				head instanceof IParameterizedIdentifier &&
-				(pname.equals("repeat")
-				)) {
+		case REPEAT: {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + head + " function should have one argument",head.pos());
 				return null;
 			}
 			ISort s = argSorts.get(0);
@@ -518,15 +832,10 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			}
 			s = makeBitVec(val*bitvecSize(s));
 			return save(e,s);
-
 		}
-		
-		if (useext && symTable.bitVectorTheorySet && 
-				head instanceof IParameterizedIdentifier &&
-				(pname.equals("zero_extend") || pname.equals("sign_extend")
-				)) {
+		case EXTEND: {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + head + " function should have one argument",head.pos());
 				return null;
 			}
 			ISort s = argSorts.get(0);
@@ -542,14 +851,10 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			int val = pid.numerals().get(0).intValue();
 			s = makeBitVec(val+bitvecSize(s));
 			return save(e,s);
-
 		}
-		if (useext && symTable.bitVectorTheorySet && 
-				head instanceof IParameterizedIdentifier &&
-				(pname.equals("rotate_left") || pname.equals("rotate_right")
-				)) {
+		case ROTATE: {
 			if (argSorts.size() != 1) {
-				error(" The " + name + " function should have one argument",head.pos());
+				error(" The " + head + " function should have one argument",head.pos());
 				return null;
 			}
 			ISort s = argSorts.get(0);
@@ -563,19 +868,19 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				return null;
 			}
 			return save(e,s);
-
+		}
 		}
 		
 		SymbolTable.Entry entry = symTable.lookup(head,argSorts,resultSort);
 		if (entry == null && symTable.realsIntsTheorySet) {
 			ISort realSort = null;
 			for (ISort sort: argSorts) {
-				if (sort.toString().equals("Real")) realSort = sort; 
+				if (isSimpleSort(sort,"Real")) realSort = sort; 
 			}
 			if (realSort != null) {
 				List<ISort> newargs = new LinkedList<ISort>();
 				for (ISort sort: argSorts) {
-					if (sort.toString().equals("Int")) {
+					if (isSimpleSort(sort,"Int")) {
 						newargs.add(realSort);
 					} else {
 						newargs.add(sort);
@@ -585,7 +890,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 			}
 		}
 		if (entry == null) {
-			String msg = "Unknown predicate symbol " + name + " with argument types";
+			String msg = "Unknown predicate symbol " + head + " with argument types";
 			for (ISort s: argSorts) {
 				msg = msg + " " + smtConfig.defaultPrinter.toString(s);
 			}
@@ -637,7 +942,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				return save(e,v.sort);
 			}
 			if ((sort=symTable.lookup(0,e))==null) {
-				result.add(smtConfig.responseFactory.error("Unknown constant symbol " + value, e.pos()));
+				error("Unknown constant symbol " + value, e.pos());
 				return null;
 			} else {
 				return save(e,sort.resultSort());
@@ -649,13 +954,13 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	@Override
 	public /*@Nullable*/ISort visit(IDecimal e) {
 		IFcnSort sort = symTable.lookup(0,smtConfig.exprFactory.symbol("DECIMAL")); // FIXME - don't recreate this every time it is used
-		if (sort == null) result.add(smtConfig.responseFactory.error("No sort specified for decimal literal",e.pos()));
+		if (sort == null) error("No sort specified for decimal literal",e.pos());
 		return save(e,sort == null ? null : sort.resultSort());
 	}
 
 	@Override
 	public /*@Nullable*/ISort visit(IBinaryLiteral e) throws IVisitor.VisitorException {
-		if (!symTable.bitVectorTheorySet) result.add(smtConfig.responseFactory.error("No sort specified for a binary literal",e.pos()));
+		if (!symTable.bitVectorTheorySet) error("No sort specified for a binary literal",e.pos());
 		ISort s = makeBitVec(e.length());
 		s.accept(this);
 		return save(e,s);
@@ -663,7 +968,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IHexLiteral e) throws IVisitor.VisitorException {
-		if (!symTable.bitVectorTheorySet) result.add(smtConfig.responseFactory.error("No sort specified for a hex literal",e.pos()));
+		if (!symTable.bitVectorTheorySet) error("No sort specified for a hex literal",e.pos());
 		List<INumeral> nums = new LinkedList<INumeral>();
 		nums.add(smtConfig.exprFactory.numeral(e.length()*4));
 		IIdentifier id = smtConfig.exprFactory.id(smtConfig.exprFactory.symbol(Utils.BITVEC),nums);
@@ -675,14 +980,14 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 	@Override
 	public /*@Nullable*/ ISort visit(IStringLiteral e) {
 		IFcnSort sort = symTable.lookup(0,smtConfig.exprFactory.symbol("STRING")); // FIXME - don't recreate this everytime it is used
-		if (sort == null) result.add(smtConfig.responseFactory.error("No sort specified for string-literal",e.pos()));
+		if (sort == null) error("No sort specified for string-literal",e.pos());
 		return save(e,sort == null ? null : sort.resultSort());
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(IKeyword e) {
 		// Should never be called
-		result.add(smtConfig.responseFactory.error("INTERNAL ERROR: Did not expect to be type-checking a keyword",e.pos()));
+		error("INTERNAL ERROR: Did not expect to be type-checking a keyword",e.pos());
 		return null;
 	}
 
@@ -704,9 +1009,11 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 				return null;
 			}
 			int size = e.numerals().get(0).intValue();
-			BigInteger value = new BigInteger(pname.substring(2));
-			if (value.bitLength() > size) {
-				error("The value of the bitvector constant is too large for the given size (" + value.bitLength() + " vs. " + size + "bits)",e.pos());
+			String digits = pname.substring(2);
+			// 18 decimal digits always fit in a long
+			int bits = digits.length() <= 18 ? 64 - Long.numberOfLeadingZeros(Long.parseLong(digits)) : new BigInteger(digits).bitLength();
+			if (bits > size) {
+				error("The value of the bitvector constant is too large for the given size (" + bits + " vs. " + size + "bits)",e.pos());
 				return null;
 			}
 			ISort s = makeBitVec(size);
@@ -714,7 +1021,7 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		}
 
 		if ((sort=symTable.lookup(0,e))==null) {
-			result.add(smtConfig.responseFactory.error("No sort known for identifier: " + smtConfig.defaultPrinter.toString(e),e.pos()));
+			error("No sort known for identifier: " + smtConfig.defaultPrinter.toString(e),e.pos());
 			return null;
 		} else {
 			return save(e,sort.resultSort());
@@ -731,45 +1038,50 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IAttributedExpr e) throws IVisitor.VisitorException {
-		ISymbol savedIsClosed = isClosed;
-		isClosed = null;
+		return checkNested(e);
+	}
+	
+	/** Checks the attributes of an attributed expression, given the sort of its expression */
+	protected /*@Nullable*/ ISort checkAttributes(IAttributedExpr e, /*@Nullable*/ ISort resultSort) throws IVisitor.VisitorException {
 		boolean errors = false;
-		ISort resultSort = null;
-		try {
-			resultSort = save(e,e.expr().accept(this));
-			for (IAttribute<?> a: e.attributes()) {
-				String name = a.keyword().value();
-				if (name.equals(":named")) { // FIXME - use a canonical representation
-					IAttributeValue v = a.attrValue();
-					if (!(v instanceof ISymbol)) {
-						result.add(smtConfig.responseFactory.error("Expected a symbol after :named",v==null?a.keyword().pos():v.pos()));
-						errors = true;
-					}
-					ISort.IFcnSort fcnSort = smtConfig.sortFactory.createFcnSort(new ISort[0],resultSort);
-					SymbolTable.Entry entry = new SymbolTable.Entry((ISymbol)v,fcnSort,null);
-					if (!symTable.add(entry,false)) { 
-						result.add(smtConfig.responseFactory.error("Symbol " + v.toString() + " is already defined",v.pos())); // FIXME - encode name
-						errors = true;
-					}
-					if (isClosed != null) {
-						result.add(smtConfig.responseFactory.error("The expression being named is not closed - this symbol is a variable: " + smtConfig.defaultPrinter.toString(isClosed),isClosed.pos()));
-						errors = true;
-					}
-				} else if (name.equals(":pattern")) {
-					IAttributeValue v = a.attrValue();
-					if (!(v instanceof ISeq)) {
-						result.add(smtConfig.responseFactory.error("Expected a sequence after :pattern",v==null?a.keyword().pos():v.pos()));
-						errors = true;
-					} else {
+		for (IAttribute<?> a: e.attributes()) {
+			String name = a.keyword().value();
+			if (name.equals(":named")) { // FIXME - use a canonical representation
+				IAttributeValue v = a.attrValue();
+				if (!(v instanceof ISymbol)) {
+					error("Expected a symbol after :named",v==null?a.keyword().pos():v.pos());
+					errors = true;
+				}
+				ISort.IFcnSort fcnSort = smtConfig.sortFactory.createFcnSort(new ISort[0],resultSort);
+				SymbolTable.Entry entry = new SymbolTable.Entry((ISymbol)v,fcnSort,null);
+				if (!symTable.add(entry,false)) { 
+					error("Symbol " + v.toString() + " is already defined",v.pos()); // FIXME - encode name
+					errors = true;
+				}
+				if (isClosed != null) {
+					error("The expression being named is not closed - this symbol is a variable: " + smtConfig.defaultPrinter.toString(isClosed),isClosed.pos());
+					errors = true;
+				}
+			} else if (name.equals(":pattern")) {
+				IAttributeValue v = a.attrValue();
+				if (!(v instanceof ISeq)) {
+					error("Expected a sequence after :pattern",v==null?a.keyword().pos():v.pos());
+					errors = true;
+				} else {
+					// The patterns are converted from s-expressions and have no positions;
+					// their errors are reported at the command rather than at this expression
+					/*@Nullable*/ IPos outer = enclosingPos;
+					enclosingPos = null;
+					try {
 						for (ISexpr ee: ((ISeq)v).sexprs()) {
 							IExpr ex = convert(ee);
 							ex.accept(this);
 						}
+					} finally {
+						enclosingPos = outer;
 					}
 				}
 			}
-		} finally {
-			isClosed = isClosed == null ? savedIsClosed : isClosed;
 		}
 		if (errors) return null;
 		return resultSort;
@@ -798,67 +1110,17 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 
 	@Override
 	public /*@Nullable*/ ISort visit(IForall e) throws IVisitor.VisitorException {
-		Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
-		saved.putAll(currentScope);
-		parameters.add(0,saved);
-		boolean errors = false;
-		for (IExpr.IDeclaration decl : e.parameters()) {
-			ISort res = decl.sort().accept(this);
-			if (res == null) errors = true;
-			else currentScope.put(decl.parameter(),new Variable(decl.parameter(),decl.sort(),null));
-		}
-		try {
-			if (errors) return null;
-			ISort s = e.expr().accept(this);
-			return save(e,s);
-		} finally {
-			currentScope = parameters.remove(0);
-		}
+		return checkNested(e);
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(IExists e) throws IVisitor.VisitorException {
-		Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
-		saved.putAll(currentScope);
-		parameters.add(0,saved);
-		boolean errors = false;
-		for (IExpr.IDeclaration decl : e.parameters()) {
-			ISort res = decl.sort().accept(this);
-			if (res == null) errors = true;
-			else currentScope.put(decl.parameter(),new Variable(decl.parameter(),decl.sort(),null));
-		}
-		try {
-			if (errors) return null;
-			ISort s = e.expr().accept(this);
-			return save(e,s);
-		} finally {
-			currentScope = parameters.remove(0);
-		}
+		return checkNested(e);
 	}
 
 	@Override
 	public /*@Nullable*/ ISort visit(ILet e) throws IVisitor.VisitorException {
-		Map<ISymbol,Variable> newdecls = new HashMap<ISymbol,Variable>();
-		Map<ISymbol,Variable> saved = new HashMap<ISymbol,Variable>();
-		saved.putAll(currentScope);
-		parameters.add(0,saved);
-		try {
-			boolean anyErrors = false;
-			for (IExpr.IBinding decl : e.bindings()) {
-				IExpr expr = decl.expr();
-				ISort s = expr.accept(this);
-				if (s == null) anyErrors = true;
-				else {
-					newdecls.put(decl.parameter(),new Variable(decl.parameter(),s,expr));
-				}
-			}
-			if (anyErrors) return null;
-			currentScope.putAll(newdecls);
-			ISort s = e.expr().accept(this);
-			return save(e,s);
-		} finally {
-			currentScope = parameters.remove(0);
-		}
+		return checkNested(e);
 	}
 	
 	@Override
@@ -890,7 +1152,8 @@ public class TypeChecker extends IVisitor.NullVisitor</*@Nullable*/ ISort> {
 		}
 		if (errors) return null;
 		s.definition(def);
-		return def.eval(newargs);
+		ISort c = smtConfig.sortFactory.canonical(s);
+		return c != null ? c : def.eval(newargs);
 	}
 	
 	@Override
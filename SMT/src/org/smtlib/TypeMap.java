@@ -0,0 +1,81 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/** The sorts that the TypeChecker finds for expressions, keyed by node (by identity) and by scope.
+ * A node may be shared (by a hash-consing factory) between occurrences inside and outside the scope
+ * of a let, a quantifier or the parameters of a defined function, where a symbol may be bound to a
+ * different sort than the global symbol of the same name; so the sorts found within a scope are
+ * recorded separately for that scope. A scope is identified by its binder (the ILet, IForall or IExists
+ * expression, or the list of parameters of a define-fun), which is never shared.
+ * <P>
+ * Whoever reads the sorts while walking an expression must enter and exit its scopes as the type
+ * checker did, so that get returns the sort of the occurrence at hand: the sort recorded for the
+ * innermost entered scope that has one, or else the sort recorded outside any scope.
+ */
+public class TypeMap extends IdentityHashMap<IExpr,ISort> {
+	private static final long serialVersionUID = 1L;
+
+	/** The sorts recorded within each scope, keyed by the binder */
+	final protected Map<Object,Map<IExpr,ISort>> scoped = new IdentityHashMap<Object,Map<IExpr,ISort>>();
+
+	/** The maps of the scopes that have been entered and not exited, innermost first */
+	final protected Deque<Map<IExpr,ISort>> current = new ArrayDeque<Map<IExpr,ISort>>();
+
+	/** Enters the scope of the given binder */
+	public void enter(Object binder) {
+		Map<IExpr,ISort> map = scoped.get(binder);
+		if (map == null) {
+			map = new IdentityHashMap<IExpr,ISort>();
+			scoped.put(binder, map);
+		}
+		current.push(map);
+	}
+
+	/** Exits the innermost scope entered */
+	public void exit() {
+		current.pop();
+	}
+
+	/** Visits the given expression (the body of the binder) within the scope of the binder */
+	public <T> T accept(Object binder, IExpr body, IVisitor<T> v) throws IVisitor.VisitorException {
+		enter(binder);
+		try {
+			return body.accept(v);
+		} finally {
+			exit();
+		}
+	}
+
+	/** Records the sort of an expression in the innermost entered scope, if any */
+	@Override
+	public /*@Nullable*/ ISort put(IExpr e, /*@Nullable*/ ISort s) {
+		Map<IExpr,ISort> map = current.peek();
+		return map == null ? super.put(e, s) : map.put(e, s);
+	}
+
+	/** Returns the sort of the expression in the innermost entered scope that records one */
+	@Override
+	public /*@Nullable*/ ISort get(Object e) {
+		for (Map<IExpr,ISort> map: current) {
+			ISort s = map.get(e);
+			if (s != null) return s;
+		}
+		return super.get(e);
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		scoped.clear();
+		current.clear();
+	}
+}
@@ -12,6 +12,7 @@ import java.io.InputStream;
 import java.lang.reflect.Array;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -450,6 +451,11 @@ public class Utils {
 	public ITheory findTheory(String name, /* @Nullable */ String path) throws SMTLIBException {
 		ISource source;
 		InputStream input = null;
+		LogicCache.Definition cached = null;
+		if (smtConfig.cacheLogics) {
+			cached = LogicCache.cache.lookup(smtConfig, name);
+			if (cached.ast() instanceof ITheory) return (ITheory)cached.ast();
+		}
 		try {
 			SMT.Configuration config = smtConfig.clone();
 			config.interactive = false;
@@ -462,7 +468,11 @@ public class Utils {
 			}
 			source = config.smtFactory.createSource(config, input, null);
 			IParser p = config.smtFactory.createParser(config, source);
-			return p.parseTheory();
+			int errors = smtConfig.log.numErrors;
+			ITheory th = p.parseTheory();
+			// A definition parsed with errors is not cached, so that the errors are reported each time
+			if (cached != null && th != null && smtConfig.log.numErrors == errors) LogicCache.cache.store(cached, th);
+			return th;
 		} catch (IParser.ParserException e) {
 			throw new SMTLIBException(smtConfig.log.logError(smtConfig.responseFactory.error(
 					"Failed to parse the theory file " + name + " in " + path
@@ -494,7 +504,22 @@ public class Utils {
 	public/* @Nullable */IResponse loadLogic(String logicName,
 			SymbolTable symTable, /* @Nullable */IPos pos) {
 		ILogic sx = null; // = findLogic(logicName, smtConfig.logicPath, pos);
-		{
+		LogicCache.Definition cached = null;
+		boolean parsedCleanly = false;
+		if (smtConfig.cacheLogics) {
+			// The verbose diagnostics are produced only when the logic is actually loaded
+			SymbolTable.Background background = smtConfig.verbose != 0 ? null : LogicCache.cache.background(smtConfig, logicName);
+			if (background != null) {
+				symTable.setBackground(background);
+				return null;
+			}
+			cached = LogicCache.cache.lookup(smtConfig, logicName);
+			if (cached.ast() instanceof ILogic) {
+				sx = (ILogic)cached.ast();
+				symTable.logicInUse = sx;
+			}
+		}
+		if (sx == null) {
 			String name = logicName;
 			ISource source;
 			InputStream input = null;
@@ -509,8 +534,10 @@ public class Utils {
 				// ought to be thrown for any problems in find().
 				source = config.smtFactory.createSource(config, input, null);
 				IParser p = config.smtFactory.createParser(config, source);
+				int errors = smtConfig.log.numErrors;
 				sx = p.parseLogic();
 				symTable.logicInUse = sx;
+				parsedCleanly = smtConfig.log.numErrors == errors;
 			} catch (IParser.ParserException e) {
 				return smtConfig.responseFactory.error(
 						"Failed to parse the logic file " + name + ": " + e,
@@ -549,6 +576,12 @@ public class Utils {
 		smtConfig.globalDeclarations = false;
 		IResponse b = loadLogic(sx, symTable);
 		smtConfig.globalDeclarations = g;
+		if (b == null && cached != null) {
+			// Only a definition that parsed without errors and loaded successfully is cached
+			if (parsedCleanly) LogicCache.cache.store(cached, sx);
+			List<String> theories = theoryNames(sx);
+			if (theories != null) LogicCache.cache.storeBackground(smtConfig, logicName, theories, symTable.background());
+		}
 		return b;
 	}
 
@@ -606,6 +639,15 @@ public class Utils {
 				"org.smtlib.Utils.loadLogic must be overridden");
 	}
 
+	/**
+	 * Returns the names of all the theories that loading the given logic loads, or null
+	 * if they are not known; a subclass should override this to interpret the ILogic
+	 * object according to the concrete syntax
+	 */
+	public /* @Nullable */List<String> theoryNames(ILogic logic) {
+		return null;
+	}
+
 	/**
 	 * This method must be overridden by a subclass to interpret the ITheory
 	 * object according to the concrete syntax
@@ -29,6 +29,11 @@ public class C_echo extends Command implements Iexit {
 		this.arg = arg;
 	}
 	
+	/** The string to be echoed */
+	public IStringLiteral arg() {
+		return arg;
+	}
+	
 	/** Parses the arguments of the command, producing a new command instance */
 	static public /*@Nullable*/ C_echo parse(Parser p) throws ParserException {
 //		if (SMT.Configuration.isVersion(SMTLIB.V20)) {
@@ -60,7 +60,7 @@ public class C_get_value extends Command implements Iget_value {
 		if (anyErrors) { return null; }
 		if (list.isEmpty()) {
 			error(p.smt(),"Expected a parenthesized list of at least one term",
-					p.pos(lp.pos().charStart(),rp.pos().charEnd()));
+					p.pos(lp.pos(),rp.pos()));
 			return null;
 		}
 		return new C_get_value(list);
@@ -56,7 +56,7 @@ public class C_what extends Command implements Iwhat {
 		while (!p.isRP()) {
 			if (p.isEOD()) {
 				p.smt().log.logError(p.smt().responseFactory.error("Unexpected end of data while parsing a what command",
-						p.savedlp == null ? null : p.pos(p.savedlp.pos().charStart(),p.currentPos())));
+						p.savedlp == null ? null : p.pos(p.savedlp.pos(),p.currentPos())));
 						// Note: actually p.savedlp should not ever be null - a bit defensive here
 				return null;
 			}
@@ -8,8 +8,10 @@ package org.smtlib.impl;
 import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.IScript;
@@ -127,6 +129,84 @@ public class Factory implements IExpr.IFactory, ISort.IFactory {
 	public IApplication Bool() {
 		return Sort.Bool();
 	}
+
+	/** The identity of a canonical sort: its family and its (canonical) parameters */
+	static final protected class SortKey {
+		final IIdentifier family;
+		final ISort[] parameters;
+		final int hash;
+
+		SortKey(IIdentifier family, ISort[] parameters) {
+			this.family = family;
+			this.parameters = parameters;
+			int h = family.hashCode();
+			for (ISort p: parameters) h = h * 31 + System.identityHashCode(p);
+			this.hash = h;
+		}
+
+		@Override
+		public int hashCode() { return hash; }
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof SortKey)) return false;
+			SortKey k = (SortKey)o;
+			if (hash != k.hash || parameters.length != k.parameters.length || !family.equals(k.family)) return false;
+			for (int i = 0; i < parameters.length; i++) {
+				if (parameters[i] != k.parameters[i]) return false;
+			}
+			return true;
+		}
+	}
+
+	/** The canonical sorts made so far; only sorts without parameters are canonical, so there
+	 * are few of these (one for each distinct sort used), and they are kept for the life of the process.
+	 * The table is shared by all factories, since the sorts of a cached logic background are shared by
+	 * all configurations (see LogicCache); accesses are synchronized on the table. */
+	static final protected Map<SortKey,Application> canonicalSorts = new HashMap<SortKey,Application>();
+	static {
+		canonicalSorts.put(new SortKey(Sort.Bool().family(), new ISort[0]), (Application)Sort.Bool());
+	}
+
+	@Override
+	public /*@Nullable*/ Application canonical(ISort sort) {
+		if (!(sort instanceof Application)) return null;
+		Application a = (Application)sort;
+		Application c = a.canonical;
+		if (c != null) return c;
+		synchronized (canonicalSorts) {
+			return findCanonical(a);
+		}
+	}
+
+	/** Finds (or makes) the canonical sort for the given application; the caller holds the lock on canonicalSorts */
+	protected /*@Nullable*/ Application findCanonical(Application a) {
+		if (a.canonical != null) return a.canonical;
+		// Expand abbreviations at the top level, down to the application of a sort family
+		Application e = a;
+		while (!(e.definition() instanceof ISort.IFamily)) {
+			if (e.canonical != null) return a.canonical = e.canonical;
+			if (e.definition() == null) return null; // Not resolved
+			ISort x = e.definition().eval(e.parameters());
+			if (!(x instanceof Application)) return null; // A sort parameter
+			e = (Application)x;
+		}
+		ISort[] params = new ISort[e.parameters().size()];
+		int i = 0;
+		for (ISort p: e.parameters()) {
+			if (!(p instanceof Application) || (params[i++] = findCanonical((Application)p)) == null) return null;
+		}
+		SortKey key = new SortKey(e.family(), params);
+		Application c = canonicalSorts.get(key);
+		if (c == null) {
+			c = new Application(e.family(), params);
+			c.definition(e.definition());
+			c.canonical = c;
+			canonicalSorts.put(key, c);
+		}
+		e.canonical = c;
+		return a.canonical = c;
+	}
 	
 	// The following methods are those of the IExpr factory
 
@@ -138,12 +218,13 @@ public class Factory implements IExpr.IFactory, ISort.IFactory {
 
 	@Override
 	public INumeral numeral(String v) {
-		return new Numeral(new BigInteger(v));
+		// 18 decimal digits always fit in a long
+		return v.length() <= 18 ? new Numeral(Long.parseLong(v)) : new Numeral(new BigInteger(v));
 	}
 
 	@Override
 	public Numeral numeral(long v) {
-		return setPos(null,new Numeral(BigInteger.valueOf(v)));
+		return setPos(null,new Numeral(v));
 	}
 
 	@Override
@@ -308,4 +389,10 @@ public class Factory implements IExpr.IFactory, ISort.IFactory {
 		return new SMTExpr.Error(text);
 	}
 
+	/** No node made by this factory is shared */
+	@Override
+	public boolean isShared(IExpr e) {
+		return false;
+	}
+
 }
@@ -0,0 +1,184 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.impl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAsIdentifier;
+import org.smtlib.IExpr.IBinaryLiteral;
+import org.smtlib.IExpr.IDecimal;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IHexLiteral;
+import org.smtlib.IExpr.IIdentifier;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.INumeral;
+import org.smtlib.IExpr.IParameterizedIdentifier;
+import org.smtlib.IExpr.IQualifiedIdentifier;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.ISort;
+import org.smtlib.impl.SMTExpr.FcnExpr;
+
+/** An expression factory that hash-conses terms: literals, symbols, keywords, identifiers and
+ * function applications that are structurally equal are represented by the same object, so that
+ * repeated subterms are stored once and may be compared (and used as map keys) by reference.
+ * The canonical objects are held in a weak table, so terms that are no longer used are still
+ * garbage collected. Binders (let, forall, exists), attributed expressions and their parts are not
+ * interned, nor are expressions built by other factories, though they may appear as arguments.
+ * <P>
+ * To use it, set SMT.Configuration.exprFactory to an instance (the --hashcons command-line option).
+ * <P>
+ * Since an interned node is shared by all of its occurrences, it has no position (nodes that become
+ * canonical lose theirs, and the parser does not set them; see isShared), and the sorts found for it
+ * by the type checker are recorded by scope, in a TypeMap, since a symbol bound by a let or quantifier
+ * may have a different sort from the global symbol of the same name. Errors in interned terms are
+ * reported at the innermost enclosing expression that has a position.
+ */
+public class HashConsingFactory extends Factory {
+
+	/** The canonical objects, each mapped to a weak reference to itself */
+	final protected Map<Object,WeakReference<Object>> table = new WeakHashMap<Object,WeakReference<Object>>();
+
+	/** The number of distinct terms in the table (some may be about to be collected) */
+	public synchronized int size() {
+		return table.size();
+	}
+
+	/** Returns the canonical object structurally equal to t, making t canonical if there is none */
+	@SuppressWarnings("unchecked")
+	protected synchronized <T> T intern(T t) {
+		WeakReference<Object> ref = table.get(t);
+		Object c = ref == null ? null : ref.get();
+		if (c != null) return (T)c;
+		table.put(t, new WeakReference<Object>(t));
+		return t;
+	}
+
+	/** Returns the canonical version of an argument (which the parser produces directly from
+	 * its lexer tokens, for literals and symbols); an argument that becomes canonical loses its
+	 * position, which is that of just one occurrence.
+	 */
+	protected IExpr canonical(IExpr e) {
+		if (!(e instanceof SMTExpr.Literal || e instanceof SMTExpr.Symbol
+				|| e instanceof IParameterizedIdentifier || e instanceof IAsIdentifier)) return e;
+		IExpr c = intern(e);
+		if (c == e && e.pos() != null) e.setPos(null);
+		return c;
+	}
+
+	/** True if e is the canonical object for its structure */
+	@Override
+	public synchronized boolean isShared(IExpr e) {
+		WeakReference<Object> ref = table.get(e);
+		return ref != null && ref.get() == e;
+	}
+
+	@Override
+	public INumeral numeral(String v) {
+		return intern(super.numeral(v));
+	}
+
+	@Override
+	public SMTExpr.Numeral numeral(long v) {
+		return intern(super.numeral(v));
+	}
+
+	@Override
+	public IDecimal decimal(String v) {
+		return intern(super.decimal(v));
+	}
+
+	@Override
+	public IStringLiteral unquotedString(String v) {
+		return intern(super.unquotedString(v));
+	}
+
+	@Override
+	public IStringLiteral quotedString(String v) {
+		return intern(super.quotedString(v));
+	}
+
+	@Override
+	public IKeyword keyword(String v) {
+		return intern(super.keyword(v));
+	}
+
+	@Override
+	public IBinaryLiteral binary(String v) {
+		return intern(super.binary(v));
+	}
+
+	@Override
+	public IHexLiteral hex(String v) {
+		return intern(super.hex(v));
+	}
+
+	@Override
+	public ISymbol symbol(String v) {
+		return intern(super.symbol(v));
+	}
+
+	@Override
+	public IParameterizedIdentifier id(ISymbol symbol, List<INumeral> num) {
+		return intern(super.id((ISymbol)canonical(symbol),num));
+	}
+
+	@Override
+	public IAsIdentifier id(IIdentifier identifier, ISort qualifier) {
+		return intern(super.id((IIdentifier)canonical(identifier),qualifier));
+	}
+
+	@Override
+	public IFcnExpr fcn(IQualifiedIdentifier id, List<IExpr> args) {
+		return fcn(id, args.toArray(new IExpr[args.size()]));
+	}
+
+	@Override
+	public IFcnExpr fcn(IQualifiedIdentifier id, IExpr... args) {
+		List<IExpr> arglist = new ArrayList<IExpr>(args.length);
+		for (IExpr a: args) arglist.add(canonical(a));
+		return intern(new Term((IQualifiedIdentifier)canonical(id),Collections.unmodifiableList(arglist)));
+	}
+
+	/** An interned function application; since its arguments are canonical, two applications
+	 * are structurally equal exactly when their heads are equal and their arguments are identical,
+	 * so equals and hashCode take time proportional to the number of arguments, not the size of
+	 * the term.
+	 */
+	static public class Term extends FcnExpr {
+		final private int hash;
+
+		public Term(IQualifiedIdentifier id, List<IExpr> args) {
+			super(id,args);
+			int h = id.hashCode();
+			for (IExpr a: args) h = 31*h + System.identityHashCode(a);
+			hash = h;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (o == this) return true;
+			if (!(o instanceof Term)) return false;
+			Term t = (Term)o;
+			if (hash != t.hash || args.size() != t.args.size() || !id.equals(t.id)) return false;
+			for (int i = 0; i < args.size(); i++) {
+				if (args.get(i) != t.args.get(i)) return false;
+			}
+			return true;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
@@ -6,6 +6,7 @@
 package org.smtlib.impl;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 
 import org.smtlib.*;
 
@@ -76,18 +77,29 @@ public class Pos implements IPos {
 			this.location = location;
 		}
 
-		/** Creates a Source from a File; for these objects, the location is the file path (a String)
+		/** Creates a Source from a File; for these objects, the location is the file path (a String).
+		 * Files of at least smtConfig.mappedFileThreshold bytes are memory-mapped.
 		 * @param smtConfig the SMT Configuration object
 		 * @param f the File object from which to read characters
 		 * @throws java.io.FileNotFoundException if a problem occurred opening or reading the file
 		 */
 		public Source(SMT.Configuration smtConfig, java.io.File f) throws java.io.FileNotFoundException {
-			rdr = new FileReader(f);
+			this.location = f.getPath();
+			if (CharSequenceMapped.useFor(smtConfig, f)) {
+				try {
+					chars = new CharSequenceMapped(f);
+					return;
+				} catch (IOException e) {
+					// Fall through and read the file in the usual way
+					smtConfig.log.logDiag("Could not map " + f + ", reading it instead: " + e);
+				}
+			}
+			// Decoded as UTF-8, as a mapped file is, whatever the platform default
+			rdr = new InputStreamReader(new FileInputStream(f), StandardCharsets.UTF_8);
 			// The numbers in the next call are not magic - they just double the buffer by a factor of 2 if it is not large enough
 			CharSequenceReader csr = new CharSequenceReader(rdr,smtConfig.initialInputBufferSize,0,2);
 			csr.prompter = new SMT.Prompter(smtConfig);
 			chars = csr;
-			this.location = f.getPath();
 		}
 		
 		/** Creates a Source from a File
@@ -107,8 +119,9 @@ public class Pos implements IPos {
 		@Override
 		public void close() {
 			try {
-				rdr.close();
+				if (rdr != null) rdr.close();
 			} catch (IOException e) {}
+			if (chars instanceof CharSequenceMapped) ((CharSequenceMapped)chars).close();
 		}
 		
 		@Override
@@ -116,14 +129,24 @@ public class Pos implements IPos {
 			return this.chars.charAt(pos);
 		}
 		
+		/** The first position whose character is still available; nonzero only for a
+		 * sliding-window CharSequenceInfinite that has discarded some input */
+		protected int windowBase() {
+			return chars instanceof CharSequenceInfinite ? ((CharSequenceInfinite)chars).windowBase() : 0;
+		}
+		
 		@Override
 		public int lineBeginning(int pos) {
 			int p = pos;
+			int lo = windowBase();
 			if (p >= chars().length()) p = chars().length()-1; // If the length is indeterminate, length() should be INT_MAX
-			if (p > 0 && charAt(p) == '\n' && charAt(p-1) == '\r') --p;
-			char c;
-			while (p >= 0 && (c=charAt(p)) != '\n' && c != '\r') --p;
-			return p+1;
+			if (p < lo) return lo;
+			return Math.max(lo, lineStarts[lineIndex(p)]);
+		}
+		
+		@Override
+		public int column(int pos) {
+			return pos - lineBeginning(pos);
 		}
 		
 		private final static String eol = System.getProperty("line.separator");
@@ -144,28 +167,91 @@ public class Pos implements IPos {
 		protected int nextLineTermination(int pos) {
 			char c;
 			if (pos >= chars().length()) return chars().length()-1; // If the length is indeterminate, length() should be INT_MAX
-			while ((c=charAt(pos)) != '\n' && c != '\r' && c != CharSequenceInfinite.endChar) ++pos;
-			if (c == '\r' && charAt(pos+1) == '\n') ++pos;
+			pos = Math.max(pos, windowBase());
+			int last = chars().length()-1; // A finite sequence need not end with a line termination
+			while ((c=charAt(pos)) != '\n' && c != '\r' && c != CharSequenceInfinite.endChar && pos < last) ++pos;
+			if (c == '\r' && pos < last && charAt(pos+1) == '\n') ++pos;
 			else if (c == CharSequenceInfinite.endChar) --pos;
 			return pos;
 		}
 		
-		// Note: this counts lines from the beginning of the character sequence, calling charAt at each
-		// character position; this is not very efficient; the presumption is that this method is called
-		// just for the occasional error message.
+		// Lines in input discarded by a sliding-window source are not scanned, but counted by the source.
 		@Override
 		public int lineNumber(int pos) {
-			int line = 1;
-			char c;
-			for (int i=0; i<pos; i++) {
-				c = charAt(i);
-				if (c == '\n') line++;
-				else if (c == '\r') {
-					line++;
-					if (charAt(i+1) == '\n') i++;
+			int index = lineIndex(pos); // Before reading firstLine, which lineIndex may change
+			return firstLine + index;
+		}
+		
+		/** The (increasing) positions at which lines begin, from the line numbered firstLine through
+		 * the line containing position scanned; the array is extended only as positions further
+		 * into the source are asked about, so the characters are scanned at most once */
+		private int[] lineStarts = new int[64];
+		
+		/** The number of valid entries in lineStarts; 0 until the first use */
+		private int lineCount = 0;
+		
+		/** The line number of lineStarts[0] */
+		private int firstLine = 1;
+		
+		/** The position up to which the characters have been scanned for line terminations */
+		private int scanned = 0;
+		
+		/** Forgets the positions of lines found so far; to be called whenever the characters of the
+		 * source are replaced (other than by a sliding window moving on) */
+		public void reset() {
+			lineCount = 0;
+			scanned = 0;
+		}
+		
+		/** Returns the index in lineStarts of the line containing the given position, first
+		 * extending the index through that position; the index of the first line is returned for
+		 * positions before it.  Lookups take O(log n) time for n lines.
+		 */
+		//@ requires pos >= 0;
+		protected int lineIndex(int pos) {
+			int base = windowBase();
+			if (lineCount == 0 || scanned < base) {
+				// Start (or, if input was discarded before it was scanned, restart) with the first available character
+				lineStarts[0] = base;
+				lineCount = 1;
+				firstLine = 1 + (chars instanceof CharSequenceInfinite ? ((CharSequenceInfinite)chars).discardedLines() : 0);
+				scanned = base;
+			} else if (lineCount > 1 && lineStarts[lineCount/2] <= base) {
+				// Forget most of the lines that a sliding window has discarded
+				int k = find(base);
+				System.arraycopy(lineStarts, k, lineStarts, 0, lineCount - k);
+				lineCount -= k;
+				firstLine += k;
+			}
+			int len = chars.length(); // If the length is indeterminate, length() should be INT_MAX
+			int end = Math.min(pos, len);
+			int i = scanned;
+			while (i < end) {
+				char c = charAt(i++);
+				if (c == '\r' && i < len && charAt(i) == '\n') ++i;
+				if (c == '\n' || c == '\r') {
+					if (lineCount == lineStarts.length) {
+						int[] n = new int[2*lineCount];
+						System.arraycopy(lineStarts, 0, n, 0, lineCount);
+						lineStarts = n;
+					}
+					lineStarts[lineCount++] = i;
 				}
 			}
-			return line;
+			if (i > scanned) scanned = i;
+			return find(pos);
+		}
+		
+		/** The index of the last entry of lineStarts that is no greater than pos (or 0) */
+		private int find(int pos) {
+			int lo = 0;
+			int hi = lineCount - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (lineStarts[mid] <= pos) lo = mid;
+				else hi = mid - 1;
+			}
+			return lo;
 		}
 	}
 }
@@ -31,26 +31,64 @@ public abstract class SMTExpr implements IExpr {
 		public String toString() { return value.toString(); }
 	}
 
-	/** This class represents an SMT Numeral expression or syntax token */
+	/** The BigInteger values of small numbers, created as they are first needed */
+	static final private BigInteger[] smallValues = new BigInteger[1024];
+
+	/** Returns the BigInteger with the given value, shared for small non-negative values */
+	static public BigInteger bigInteger(long v) {
+		if (v < 0 || v >= smallValues.length) return BigInteger.valueOf(v);
+		BigInteger b = smallValues[(int)v];
+		if (b == null) smallValues[(int)v] = b = BigInteger.valueOf(v); // A benign race - BigIntegers are immutable
+		return b;
+	}
+
+	/** This class represents an SMT Numeral expression or syntax token; a value that fits in a long
+	 * is held as a long, and its BigInteger is created only if asked for */
 	static public class Numeral extends Literal<BigInteger> implements INumeral {
 		/** A value equivalent to the BigInteger, when it is in range. */
 		protected int number;
 		
-		/** Constructs a Numeral with the given value. */  // FIXME - test with too big a number
+		/** The value, if it fits in a long */
+		protected long longValue;
+		
+		/** True if the value does not fit in a long, and so is held only as a BigInteger */
+		protected boolean big;
+		
+		/** Constructs a Numeral with the given value. */
 		public Numeral(BigInteger i) {
 			super(i);
+			big = i.bitLength() >= 64;
+			longValue = big ? 0 : i.longValue();
 			number = value.intValue();
 		}
 		
+		/** Constructs a Numeral with the given value. */ 
+		public Numeral(long i) {
+			super(null);
+			longValue = i;
+			number = (int)i;
+		}
+		
 		/** Constructs a Numeral with the given value. */ 
 		public Numeral(int i) {
-			super(BigInteger.valueOf(i));
-			number = i;
+			this((long)i);
+		}
+		
+		@Override
+		public BigInteger value() {
+			if (value == null) value = bigInteger(longValue);
+			return value;
 		}
 		
 		@Override
 		public int intValue() { return number; }
 		
+		@Override
+		public boolean fitsInLong() { return !big; }
+		
+		@Override
+		public long longValue() { return longValue; }
+		
 		@Override
 		public String kind() { return "numeral"; }
 		
@@ -59,11 +97,17 @@ public abstract class SMTExpr implements IExpr {
 		public boolean equals(Object o) {
 			if (this == o) return true;
 			if (!(o instanceof INumeral)) return false;
-			return ((INumeral)o).value().equals(value);
+			INumeral n = (INumeral)o;
+			if (!big && n.fitsInLong()) return longValue == n.longValue();
+			return n.value().equals(value());
 		}
 		
 		@Override
-		public int hashCode() { return value.hashCode(); }
+		public int hashCode() { return big ? value.hashCode() : Long.hashCode(longValue); }
+		
+		/** Just for debugging - use a Printer for proper output */
+		@Override
+		public String toString() { return big ? value.toString() : Long.toString(longValue); }
 		
 		@Override
 		public <T> T accept(org.smtlib.IVisitor<T> v) throws IVisitor.VisitorException { return v.visit(this); }
@@ -136,7 +180,7 @@ public abstract class SMTExpr implements IExpr {
 		
 		public Keyword(String v) {
 			super();
-			value = v.intern();
+			value = v;
 		}
 		
 		@Override
@@ -290,6 +334,12 @@ public abstract class SMTExpr implements IExpr {
 			originalString = v;
 		}
 		
+		/** The arguments are the Symbol string, with or without enclosing bars, and the same string without bars */
+		public Symbol(String v, String value) { 
+			this.value = value;
+			originalString = v;
+		}
+		
 		/** Returns the unique string for this symbol (e.g. modulo enclosing bars) */
 		@Override
 		public String value() { return value; }
@@ -376,19 +426,43 @@ public abstract class SMTExpr implements IExpr {
 		public boolean isError() { throw new RuntimeException(); } // FIXME - should never be called
 	}
 
+	/** Returns the value of the given binary (radix 2) or hex (radix 16) digits if it fits in a
+	 * long, and -1 otherwise */
+	static protected long unsignedLong(String digits, int radix) {
+		int shift = radix == 2 ? 1 : 4;
+		long v = 0;
+		for (int i = 0; i < digits.length(); i++) {
+			if ((v >>> (63 - shift)) != 0) return -1;
+			v = (v << shift) | Character.digit(digits.charAt(i), radix);
+		}
+		return v;
+	}
+	
+	/** This class represents an SMT binary literal expression or syntax token; its value is held
+	 * as a long when it fits, and its BigInteger is created only if asked for */
 	static public class BinaryLiteral extends Literal<String>  implements IBinaryLiteral {
 		
 		public BinaryLiteral(String unquotedValue) {
 			super(unquotedValue);
 			length = unquotedValue.length();
-			intvalue = new BigInteger(unquotedValue,2);
+			longValue = unsignedLong(unquotedValue,2);
 		}
 		
 		int length;
-		BigInteger intvalue;
+		long longValue; // -1 if the value does not fit in a long
+		/*@Nullable*/ BigInteger intvalue;
+		
+		@Override
+		public BigInteger intValue() {
+			if (intvalue == null) intvalue = longValue >= 0 ? bigInteger(longValue) : new BigInteger(value,2);
+			return intvalue;
+		}
+		
+		@Override
+		public boolean fitsInLong() { return longValue >= 0; }
 		
 		@Override
-		public BigInteger intValue() { return intvalue; }
+		public long longValue() { return longValue; }
 		
 		@Override
 		public int length() { return length; }
@@ -396,33 +470,49 @@ public abstract class SMTExpr implements IExpr {
 		@Override
 		public String kind() { return "binary"; }
 
+		/** Equal to any binary literal with the same digits, that is, with the same length and value */
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
 			if (!(o instanceof IBinaryLiteral)) return false;
-			return ((IBinaryLiteral)o).intValue().equals(intvalue);
+			IBinaryLiteral b = (IBinaryLiteral)o;
+			if (length != b.length()) return false;
+			if (longValue >= 0 && b.fitsInLong()) return longValue == b.longValue();
+			return b.intValue().equals(intValue());
 		}
 		
 		@Override
-		public int hashCode() { return intvalue.hashCode(); }
+		public int hashCode() { return longValue >= 0 ? Long.hashCode(longValue) : intValue().hashCode(); }
 		
 		@Override
 		public <T> T accept(org.smtlib.IVisitor<T> v) throws IVisitor.VisitorException { return v.visit(this); }
 	}
 	
+	/** This class represents an SMT hex literal expression or syntax token; its value is held
+	 * as a long when it fits, and its BigInteger is created only if asked for */
 	static public class HexLiteral extends Literal<String>  implements IHexLiteral {
 		
 		public HexLiteral(String unquotedValue) {
 			super(unquotedValue);
 			length = unquotedValue.length();
-			intvalue = new BigInteger(unquotedValue,16);
+			longValue = unsignedLong(unquotedValue,16);
 		}
 		
 		int length; // in hex digits
-		BigInteger intvalue;
+		long longValue; // -1 if the value does not fit in a long
+		/*@Nullable*/ BigInteger intvalue;
 		
 		@Override
-		public BigInteger intValue() { return intvalue; }
+		public BigInteger intValue() {
+			if (intvalue == null) intvalue = longValue >= 0 ? bigInteger(longValue) : new BigInteger(value,16);
+			return intvalue;
+		}
+		
+		@Override
+		public boolean fitsInLong() { return longValue >= 0; }
+		
+		@Override
+		public long longValue() { return longValue; }
 		
 		@Override
 		public int length() { return length; }
@@ -430,15 +520,19 @@ public abstract class SMTExpr implements IExpr {
 		@Override
 		public String kind() { return "hex-literal"; }
 
+		/** Equal to any hex literal with the same digits (in either case), that is, with the same length and value */
 		@Override
 		public boolean equals(Object o) {
 			if (this == o) return true;
 			if (!(o instanceof IHexLiteral)) return false;
-			return ((IHexLiteral)o).intValue().equals(intvalue);
+			IHexLiteral h = (IHexLiteral)o;
+			if (length != h.length()) return false;
+			if (longValue >= 0 && h.fitsInLong()) return longValue == h.longValue();
+			return h.intValue().equals(intValue());
 		}
 		
 		@Override
-		public int hashCode() { return value.hashCode(); }
+		public int hashCode() { return longValue >= 0 ? Long.hashCode(longValue) : intValue().hashCode(); }
 		
 		@Override
 		public <T> T accept(org.smtlib.IVisitor<T> v) throws IVisitor.VisitorException { return v.visit(this); }
@@ -24,7 +24,12 @@ public abstract class Sort extends Pos.Posable implements ISort {
 	/** Returns true iff the receiver is a Sort expression designating the pre-defined Bool sort */
 	@Override
 	public boolean isBool() {
-		return this == Bool || ((this instanceof IApplication) &&  ((IApplication)this).family().toString().equals(BOOL));
+		if (this == Bool) return true;
+		if (this instanceof Application) {
+			ISort c = ((Application)this).canonical;
+			if (c != null) return c == Bool;
+		}
+		return (this instanceof IApplication) &&  ((IApplication)this).family().toString().equals(BOOL);
 	}
 
 	/** Returns the pre-defined Bool sort */
@@ -37,6 +42,9 @@ public abstract class Sort extends Pos.Posable implements ISort {
 	
 	/** A cached instance of the pre-defined Bool sort */
 	static final private Sort.Application Bool = new Sort.Application(new Symbol(BOOL), new LinkedList<ISort>());
+	static {
+		Bool.canonical = Bool;
+	}
 
 	/** Represents a new sort symbol, with a given identifier and arity */
 	static public class Family implements IFamily {
@@ -179,6 +187,12 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		/** Cached value for expanded() */
 		private ISort expanded = null;
 		
+		/** The canonical sort equal to this one (see Factory.canonical), once it has been found;
+		 * a canonical sort is its own canonical sort. It is set while holding the lock of the
+		 * table of canonical sorts, but read without it (by concurrent jobs that share the sorts
+		 * of a cached logic), so it is volatile. */
+		/*@Nullable*/ volatile Application canonical = null;
+		
 		public Application(IIdentifier sortID, List<ISort> sortParameters) {
 			this.sortID = sortID;
 			this.sortParameters = sortParameters;
@@ -204,14 +218,21 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		@Override
 		public IDefinition definition(IDefinition definition) {
 			this.definition = definition;
+			if (canonical != this) canonical = null;
 			return definition;
 		}
 		
+		/** Returns the canonical sort equal to this one, if it has been found, or else null */
+		public /*@Nullable*/ Application canonical() {
+			return canonical;
+		}
+		
 		@Override
 		public ISort expand() {
 			// Note we could call definition().eval(sortParameters) always, but that 
 			// creates a duplicate object in Family.eval
 			
+			if (canonical == this) return this; // Already fully expanded
 			if (expanded == null) {
 				boolean changed = false;
 				ISort ss = this;
@@ -220,8 +241,9 @@ public abstract class Sort extends Pos.Posable implements ISort {
 					if (p != param) changed = true;
 				}
 				while (ss instanceof Application) {
-					if (((Application)ss).definition() instanceof IFamily) return ss;
-					ss = definition().eval(sortParameters);
+					Application a = (Application)ss;
+					if (a.definition() instanceof IFamily) return ss;
+					ss = a.definition().eval(a.parameters()); // An abbreviation may expand to another
 				}
 				expanded = ss;
 			}
@@ -233,6 +255,10 @@ public abstract class Sort extends Pos.Posable implements ISort {
 		public boolean equals(Object sort) {
 			if (this == sort) return true;
 			if (!(sort instanceof ISort)) return false;
+			if (canonical != null && sort instanceof Application) {
+				Application c = ((Application)sort).canonical;
+				if (c != null) return canonical == c;
+			}
 			return expand().equalsNoExpand( ((ISort)sort).expand());
 //			Object esort = sort;
 //			if (sort instanceof IApplication) {
@@ -1,7 +1,10 @@
 package org.smtlib.logic;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.smtlib.*;
 import org.smtlib.IExpr.*;
@@ -15,7 +18,11 @@ public abstract class Logic extends SMTExpr.Logic implements ILanguage {
 		super(name,attributes);
 	}
 	
+	/** Throws an exception if the expression contains a quantified expression; rather than
+	 * recursing, the visitor pushes subexpressions onto an explicit stack, so that deeply nested
+	 * expressions can be checked */
 	public void noQuantifiers(IExpr expression) throws IVisitor.VisitorException {
+		final Deque<IExpr> todo = new ArrayDeque<IExpr>();
 		IVisitor<Void> visitor = new IVisitor.TreeVisitor<Void>() {
 			@Override
 			public Void visit(IForall e) throws IVisitor.VisitorException {
@@ -25,8 +32,35 @@ public abstract class Logic extends SMTExpr.Logic implements ILanguage {
 			public Void visit(IExists e) throws IVisitor.VisitorException {
 				throw new IVisitor.VisitorException("A quantified expression is not allowed in the " + logicName + " logic",e.pos());
 			}
+			@Override
+			public Void visit(IFcnExpr e) {
+				List<IExpr> args = e.args();
+				ListIterator<IExpr> iter = args.listIterator(args.size());
+				while (iter.hasPrevious()) todo.push(iter.previous());
+				return null;
+			}
+			@Override
+			public Void visit(ILet e) {
+				todo.push(e.expr());
+				List<IBinding> bindings = e.bindings();
+				ListIterator<IBinding> iter = bindings.listIterator(bindings.size());
+				while (iter.hasPrevious()) todo.push(iter.previous().expr());
+				return null;
+			}
+			@Override
+			public Void visit(IAttributedExpr e) {
+				List<IAttribute<?>> attributes = e.attributes();
+				ListIterator<IAttribute<?>> iter = attributes.listIterator(attributes.size());
+				while (iter.hasPrevious()) {
+					Object value = iter.previous().attrValue();
+					if (value instanceof IExpr) todo.push((IExpr)value);
+				}
+				todo.push(e.expr());
+				return null;
+			}
 		};
-		expression.accept(visitor);
+		todo.push(expression);
+		while (!todo.isEmpty()) todo.pop().accept(visitor);
 	}
 	
 	public void noFunctions(IExpr.IIdentifier id, List<ISort> argSorts, ISort resultSort, /*@Nullable*/IExpr definition) throws IVisitor.VisitorException {
@@ -62,31 +96,30 @@ public abstract class Logic extends SMTExpr.Logic implements ILanguage {
 	
 	public boolean isLinearInteger(IExpr expr) {
 		// FIXME - should use a visitor; does not check inside quantified expressions
-		if (expr instanceof IExpr.IFcnExpr) {
+		// The subexpressions are traversed with an explicit stack rather than recursively
+		Deque<IExpr> todo = new ArrayDeque<IExpr>();
+		todo.push(expr);
+		while (!todo.isEmpty()) {
+			expr = todo.pop();
+			if (!(expr instanceof IExpr.IFcnExpr)) continue;
 			IExpr.IFcnExpr f = (IExpr.IFcnExpr)expr;
 			if (f.args().size() == 2) {
 				String fcn = f.head().toString();
 				IExpr lhs = f.args().get(0);
 				IExpr rhs = f.args().get(1);
-				if (fcn.equals("+") || fcn.equals("-")) {
-					return isLinearInteger(lhs) && isLinearInteger(rhs);
-				} else if (fcn.equals("*")) {
-					return (isInteger(lhs) && isFreeConstant(rhs)) ||
-							(isFreeConstant(lhs) && isInteger(rhs));
+				if (fcn.equals("*")) {
+					if (!((isInteger(lhs) && isFreeConstant(rhs)) ||
+							(isFreeConstant(lhs) && isInteger(rhs)))) return false;
 				} else if (fcn.equals("div") || fcn.equals("mod") || fcn.equals("abs")) {
 					return false;
-				} else { // Core functions
-					return isLinearInteger(lhs) && isLinearInteger(rhs);
+				} else { // +, - and Core functions
+					todo.push(rhs);
+					todo.push(lhs);
 				}
 			} else {
-				int n = f.args().size();
-				for (IExpr e: f.args()) {
-					if (!isLinearInteger(e)) return false;
-				}
-				return true;
+				for (IExpr e: f.args()) todo.push(e);
 			}
-		} else {
-			return true;
 		}
+		return true;
 	}
 }
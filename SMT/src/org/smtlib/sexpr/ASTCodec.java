@@ -0,0 +1,884 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.smtlib.IAttributeValue;
+import org.smtlib.ICommand;
+import org.smtlib.ICommand.IScript;
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAsIdentifier;
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributedExpr;
+import org.smtlib.IExpr.IBinaryLiteral;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDecimal;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.IHexLiteral;
+import org.smtlib.IExpr.IIdentifier;
+import org.smtlib.IExpr.IKeyword;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.INumeral;
+import org.smtlib.IExpr.IParameterizedIdentifier;
+import org.smtlib.IExpr.IQualifiedIdentifier;
+import org.smtlib.IExpr.IStringLiteral;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.IPos;
+import org.smtlib.IPos.IPosable;
+import org.smtlib.ISort;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.command.*;
+import org.smtlib.ext.C_exec;
+import org.smtlib.ext.C_what;
+import org.smtlib.impl.Command;
+import org.smtlib.impl.Pos;
+import org.smtlib.impl.Script;
+import org.smtlib.impl.Sort;
+
+/** A compact binary form of parsed commands, so that a script need be parsed only once
+ * (see org.smtlib.ScriptCache). The encoding is a sequence of varints (unsigned LEB128): each
+ * AST node is a tag, its position (if it is in the encoded source, as the difference from the
+ * previous position written, which is usually small) and its children, in the order in which the
+ * parser creates them. Strings are written once, when first used, and afterwards
+ * referred to by their index in the string table; a node that has already been written (the very
+ * same object, as happens with hash-consed terms or sort parameters) is written as a reference
+ * to its index in the table of nodes, so sharing is preserved when the commands are decoded.
+ * <P>
+ * Decoding rebuilds the ASTs that the parser would make: literals and symbols are made as the
+ * lexer's tokens and the other nodes with the configuration's factories, so that (for instance)
+ * a hash-consing factory shares the terms it decodes. Both directions walk the trees with explicit
+ * stacks, so terms of any depth can be encoded, and a decoder checks every value it reads, so that
+ * malformed data is reported as an IOException.
+ * Only the commands and nodes that this parser produces can be encoded.
+ */
+public class ASTCodec {
+
+	/** The first four bytes of an encoding ("SMTB") */
+	static public final int MAGIC = 0x534D5442;
+
+	/** The version of the encoding, which is changed whenever the format changes */
+	static public final int VERSION = 1;
+
+	// The node tags
+	static protected final int NULL = 0;
+	static protected final int REF = 1;
+	static protected final int SYMBOL = 2;
+	static protected final int NUMERAL = 3;
+	static protected final int BIG_NUMERAL = 4;
+	static protected final int DECIMAL = 5;
+	static protected final int STRING = 6;
+	static protected final int BINARY = 7;
+	static protected final int HEX = 8;
+	static protected final int KEYWORD = 9;
+	static protected final int PARAMETERIZED_ID = 10;
+	static protected final int AS_ID = 11;
+	static protected final int FCN = 12;
+	static protected final int LET = 13;
+	static protected final int BINDING = 14;
+	static protected final int FORALL = 15;
+	static protected final int EXISTS = 16;
+	static protected final int DECLARATION = 17;
+	static protected final int ATTRIBUTED = 18;
+	static protected final int ATTRIBUTE = 19;
+	static protected final int SEQ = 20;
+	static protected final int SORT = 21;
+	static protected final int SORT_PARAMETER = 22;
+	static protected final int BAR_SYMBOL = 23;
+
+	/** The classes of the commands that can be encoded; the code of a command is its index here */
+	static protected final List<Class<? extends ICommand>> commandClasses = Arrays.<Class<? extends ICommand>>asList(
+			C_assert.class, C_check_sat.class, C_check_sat_assuming.class, C_declare_const.class,
+			C_declare_fun.class, C_declare_sort.class, C_define_fun.class, C_define_sort.class,
+			C_echo.class, C_exit.class, C_get_assertions.class, C_get_assignment.class,
+			C_get_info.class, C_get_model.class, C_get_option.class, C_get_proof.class,
+			C_get_unsat_core.class, C_get_value.class, C_pop.class, C_push.class,
+			C_reset.class, C_reset_assertions.class, C_set_info.class, C_set_logic.class,
+			C_set_option.class, C_exec.class, C_what.class, org.smtlib.ext.C_get_model.class);
+
+	/** Thrown when a command or node cannot be encoded */
+	static public class EncodingException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public EncodingException(String msg) {
+			super(msg);
+		}
+	}
+
+	/** Writes the encoding of a list of commands */
+	static public class Encoder {
+		/** The source of the positions to record; other positions are not recorded */
+		final protected /*@Nullable*/ ISource source;
+
+		/** The encoded bytes */
+		protected byte[] buf = new byte[1 << 16];
+
+		/** The number of bytes in buf */
+		protected int size = 0;
+
+		/** The strings written so far, with their indices */
+		final protected Map<String,Integer> strings = new HashMap<String,Integer>();
+
+		/** The nodes written so far, with their indices */
+		final protected Map<Object,Integer> nodes = new IdentityHashMap<Object,Integer>();
+
+		/** The start of the last position written */
+		protected int lastStart = 0;
+
+		/** Creates an encoder that records the positions of nodes in the given source */
+		public Encoder(/*@Nullable*/ ISource source) {
+			this.source = source;
+		}
+
+		/** Encodes the given commands, returning a buffer that holds the encoding */
+		public ByteBuffer encode(List<ICommand> commands) throws EncodingException {
+			size = 0;
+			lastStart = 0;
+			strings.clear();
+			nodes.clear();
+			ensure(4);
+			for (int shift = 24; shift >= 0; shift -= 8) buf[size++] = (byte)(MAGIC >>> shift);
+			writeVarint(VERSION);
+			writeCommands(commands);
+			return ByteBuffer.wrap(buf, 0, size);
+		}
+
+		protected void ensure(int n) {
+			if (size + n > buf.length) buf = Arrays.copyOf(buf, Math.max(2*buf.length, size + n));
+		}
+
+		/** Writes a non-negative value in 7-bit groups, least significant first, with the high bit
+		 * set on all but the last */
+		protected void writeVarint(long v) {
+			ensure(10);
+			while ((v & ~0x7FL) != 0) {
+				buf[size++] = (byte)((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[size++] = (byte)v;
+		}
+
+		/** Writes a (possibly null) string: 0 for null, the index plus 2 of a string already
+		 * written, or else 1 followed by the length and the UTF-8 bytes of the string */
+		protected void writeString(/*@Nullable*/ String s) {
+			if (s == null) {
+				writeVarint(0);
+				return;
+			}
+			Integer k = strings.get(s);
+			if (k != null) {
+				writeVarint(k + 2);
+				return;
+			}
+			strings.put(s, strings.size());
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			writeVarint(1);
+			writeVarint(bytes.length);
+			ensure(bytes.length);
+			System.arraycopy(bytes, 0, buf, size, bytes.length);
+			size += bytes.length;
+		}
+
+		/** Writes a position as 0 if it is null or in another source, or as 1 plus the zigzag
+		 * encoding of the change in its start from the last position, and its length */
+		protected void writePos(/*@Nullable*/ IPos pos) {
+			if (pos == null || pos.source() != source) {
+				writeVarint(0);
+			} else {
+				long delta = (long)pos.charStart() - lastStart;
+				writeVarint(((delta << 1) ^ (delta >> 63)) + 1);
+				writeVarint(pos.charEnd() - pos.charStart());
+				lastStart = pos.charStart();
+			}
+		}
+
+		/** Writes a (possibly null) list of commands, as its length plus 1 (0 for null) and the commands */
+		protected void writeCommands(/*@Nullable*/ List<ICommand> commands) throws EncodingException {
+			if (commands == null) {
+				writeVarint(0);
+				return;
+			}
+			writeVarint(commands.size() + 1L);
+			for (ICommand c: commands) writeCommand(c);
+		}
+
+		/** Writes a list of nodes, as its length and the nodes */
+		protected void writeList(List<?> list) throws EncodingException {
+			writeVarint(list.size());
+			for (Object n: list) writeNode(n);
+		}
+
+		/** Writes a command: its code, position, prefix comment text and arguments */
+		protected void writeCommand(ICommand c) throws EncodingException {
+			int code = commandClasses.indexOf(c.getClass());
+			if (code < 0) throw new EncodingException("Cannot encode a command of class " + c.getClass().getName());
+			writeVarint(code);
+			writePos(((Command)c).pos());
+			writeString(((Command)c).prefixText);
+			if (c instanceof C_assert) {
+				writeNode(((C_assert)c).expr());
+			} else if (c instanceof C_declare_const) {
+				writeNode(((C_declare_const)c).symbol());
+				writeNode(((C_declare_const)c).resultSort());
+			} else if (c instanceof C_declare_fun) {
+				writeNode(((C_declare_fun)c).symbol());
+				writeList(((C_declare_fun)c).argSorts());
+				writeNode(((C_declare_fun)c).resultSort());
+			} else if (c instanceof C_declare_sort) {
+				writeNode(((C_declare_sort)c).sortSymbol());
+				writeNode(((C_declare_sort)c).arity());
+			} else if (c instanceof C_define_fun) {
+				writeNode(((C_define_fun)c).symbol());
+				writeList(((C_define_fun)c).parameters());
+				writeNode(((C_define_fun)c).resultSort());
+				writeNode(((C_define_fun)c).expression());
+			} else if (c instanceof C_define_sort) {
+				writeNode(((C_define_sort)c).sortSymbol());
+				writeList(((C_define_sort)c).parameters());
+				writeNode(((C_define_sort)c).expression());
+			} else if (c instanceof C_echo) {
+				writeNode(((C_echo)c).arg());
+			} else if (c instanceof C_get_info) {
+				writeNode(((C_get_info)c).infoflag());
+			} else if (c instanceof C_get_option) {
+				writeNode(((C_get_option)c).option());
+			} else if (c instanceof C_get_value) {
+				writeList(((C_get_value)c).exprs());
+			} else if (c instanceof C_pop) {
+				writeNode(((C_pop)c).number());
+			} else if (c instanceof C_push) {
+				writeNode(((C_push)c).number());
+			} else if (c instanceof C_set_info) {
+				writeNode(((C_set_info)c).option());
+				writeNode(((C_set_info)c).value());
+			} else if (c instanceof C_set_logic) {
+				writeNode(((C_set_logic)c).logic());
+			} else if (c instanceof C_set_option) {
+				writeNode(((C_set_option)c).option());
+				writeNode(((C_set_option)c).value());
+			} else if (c instanceof C_exec) {
+				IScript script = ((C_exec)c).script();
+				writeNode(script.filename());
+				writeCommands(script.commands());
+			} else if (c instanceof C_what) {
+				writeList(((C_what)c).ids());
+			}
+			// The other commands have no arguments
+		}
+
+		/** Writes a (possibly null) node: a reference to it, if it has been written already, and
+		 * otherwise its tag, position and children. The nodes whose children are being written are
+		 * kept on an explicit stack (of EncodeFrame objects) rather than by recursion, so that the
+		 * depth of a term is not limited by the size of the Java stack.
+		 */
+		protected void writeNode(/*@Nullable*/ Object n) throws EncodingException {
+			Deque<EncodeFrame> stack = new ArrayDeque<EncodeFrame>();
+			Object next = n == null ? EncodeFrame.NONE : n;
+			while (true) {
+				EncodeFrame f = writeHead(next);
+				if (f != null) stack.push(f);
+				next = null;
+				while (next == null && !stack.isEmpty()) {
+					f = stack.peek();
+					if (f.next < f.items.size()) {
+						next = f.items.get(f.next++);
+						if (next instanceof EncodeFrame.Length) {
+							writeVarint(((EncodeFrame.Length)next).n);
+							next = null;
+						}
+					} else {
+						stack.pop();
+						nodes.put(f.node, nodes.size());
+					}
+				}
+				if (next == null) return;
+			}
+		}
+
+		/** Writes a node, or just its tag and position if it has children, in which case the frame
+		 * listing the children still to be written is returned */
+		protected /*@Nullable*/ EncodeFrame writeHead(Object n) throws EncodingException {
+			if (n == EncodeFrame.NONE) {
+				writeVarint(NULL);
+				return null;
+			}
+			Integer k = nodes.get(n);
+			if (k != null) {
+				writeVarint(REF);
+				writeVarint(k);
+				return null;
+			}
+			// Sequences are checked first, since their tokens are also symbols and literals
+			if (n instanceof ISexpr.ISeq) {
+				writeTag(SEQ, n);
+				return new EncodeFrame(n).list(((ISexpr.ISeq)n).sexprs());
+			} else if (n instanceof ISymbol) {
+				String text = n.toString();
+				String value = ((ISymbol)n).value();
+				if (text.equals(value)) {
+					writeTag(SYMBOL, n);
+					writeString(text);
+				} else {
+					writeTag(BAR_SYMBOL, n);
+					writeString(text);
+					writeString(value);
+				}
+			} else if (n instanceof INumeral) {
+				INumeral num = (INumeral)n;
+				if (num.fitsInLong()) {
+					writeTag(NUMERAL, n);
+					writeVarint(num.longValue());
+				} else {
+					writeTag(BIG_NUMERAL, n);
+					writeString(num.value().toString());
+				}
+			} else if (n instanceof IDecimal) {
+				writeTag(DECIMAL, n);
+				writeString(((IDecimal)n).value().toString());
+			} else if (n instanceof IStringLiteral) {
+				writeTag(STRING, n);
+				writeString(((IStringLiteral)n).value());
+			} else if (n instanceof IBinaryLiteral) {
+				writeTag(BINARY, n);
+				writeString(((IBinaryLiteral)n).value());
+			} else if (n instanceof IHexLiteral) {
+				writeTag(HEX, n);
+				writeString(((IHexLiteral)n).value());
+			} else if (n instanceof IKeyword) {
+				writeTag(KEYWORD, n);
+				writeString(((IKeyword)n).value());
+			} else if (n instanceof IParameterizedIdentifier) {
+				writeTag(PARAMETERIZED_ID, n);
+				return new EncodeFrame(n).node(((IParameterizedIdentifier)n).headSymbol()).list(((IParameterizedIdentifier)n).numerals());
+			} else if (n instanceof IAsIdentifier) {
+				writeTag(AS_ID, n);
+				return new EncodeFrame(n).node(((IAsIdentifier)n).head()).node(((IAsIdentifier)n).qualifier());
+			} else if (n instanceof IFcnExpr) {
+				writeTag(FCN, n);
+				return new EncodeFrame(n).node(((IFcnExpr)n).head()).list(((IFcnExpr)n).args());
+			} else if (n instanceof ILet) {
+				writeTag(LET, n);
+				return new EncodeFrame(n).list(((ILet)n).bindings()).node(((ILet)n).expr());
+			} else if (n instanceof IBinding) {
+				writeTag(BINDING, n);
+				return new EncodeFrame(n).node(((IBinding)n).parameter()).node(((IBinding)n).expr());
+			} else if (n instanceof IForall) {
+				writeTag(FORALL, n);
+				return new EncodeFrame(n).list(((IForall)n).parameters()).node(((IForall)n).expr());
+			} else if (n instanceof IExists) {
+				writeTag(EXISTS, n);
+				return new EncodeFrame(n).list(((IExists)n).parameters()).node(((IExists)n).expr());
+			} else if (n instanceof IDeclaration) {
+				writeTag(DECLARATION, n);
+				return new EncodeFrame(n).node(((IDeclaration)n).parameter()).node(((IDeclaration)n).sort());
+			} else if (n instanceof IAttributedExpr) {
+				writeTag(ATTRIBUTED, n);
+				return new EncodeFrame(n).node(((IAttributedExpr)n).expr()).list(((IAttributedExpr)n).attributes());
+			} else if (n instanceof IAttribute) {
+				writeTag(ATTRIBUTE, n);
+				return new EncodeFrame(n).node(((IAttribute<?>)n).keyword()).node(((IAttribute<?>)n).attrValue());
+			} else if (n instanceof ISort.IApplication) {
+				writeTag(SORT, n);
+				return new EncodeFrame(n).node(((ISort.IApplication)n).family()).list(((ISort.IApplication)n).parameters());
+			} else if (n instanceof ISort.IParameter) {
+				writeTag(SORT_PARAMETER, n);
+				return new EncodeFrame(n).node(((ISort.IParameter)n).symbol());
+			} else {
+				throw new EncodingException("Cannot encode a node of class " + n.getClass().getName());
+			}
+			nodes.put(n, nodes.size());
+			return null;
+		}
+
+		/** Writes the tag and position of a node */
+		protected void writeTag(int tag, Object n) {
+			writeVarint(tag);
+			writePos(n instanceof IPosable ? ((IPosable)n).pos() : null);
+		}
+	}
+
+	/** A node whose children are being written: the items to write, in order, are the children
+	 * and the lengths of the lists of children */
+	static protected class EncodeFrame {
+		/** Stands for a null child */
+		static final Object NONE = new Object();
+
+		/** The length of a list of children */
+		static class Length {
+			final int n;
+			Length(int n) { this.n = n; }
+		}
+
+		/** The node */
+		final Object node;
+
+		/** The children (NONE for null) and list lengths */
+		final List<Object> items = new ArrayList<Object>();
+
+		/** The index of the next item to write */
+		int next = 0;
+
+		EncodeFrame(Object node) {
+			this.node = node;
+		}
+
+		/** Adds a child to write */
+		EncodeFrame node(/*@Nullable*/ Object n) {
+			items.add(n == null ? NONE : n);
+			return this;
+		}
+
+		/** Adds a list of children to write, after its length */
+		EncodeFrame list(List<?> list) {
+			items.add(new Length(list.size()));
+			for (Object n: list) node(n);
+			return this;
+		}
+	}
+
+	/** Reads commands from their encoding */
+	static public class Decoder {
+		/** The configuration whose factories create the nodes */
+		final protected SMT.Configuration smtConfig;
+
+		/** The source in which the positions of the nodes are */
+		final protected /*@Nullable*/ ISource source;
+
+		/** The encoding */
+		final protected ByteBuffer in;
+
+		/** The strings read so far, in order */
+		final protected List<String> strings = new ArrayList<String>();
+
+		/** The nodes read so far, in order */
+		final protected List<Object> nodes = new ArrayList<Object>();
+
+		/** The start of the last position read */
+		protected long lastStart = 0;
+
+		/** Creates a decoder of the given encoding, whose nodes are given positions in the given source */
+		public Decoder(SMT.Configuration smtConfig, /*@Nullable*/ ISource source, ByteBuffer in) {
+			this.smtConfig = smtConfig;
+			this.source = source;
+			this.in = in;
+		}
+
+		/** Reads the list of commands; throws an IOException if the encoding is not valid */
+		public List<ICommand> decode() throws IOException {
+			try {
+				if (in.remaining() < 4 || in.getInt() != MAGIC) throw new IOException("Not an encoding of commands");
+				long version = readVarint();
+				if (version != VERSION) throw new IOException("Unsupported version of encoded commands: " + version);
+				List<ICommand> commands = readCommands();
+				if (commands == null || in.hasRemaining()) throw new IOException("Malformed encoding of commands");
+				return commands;
+			} catch (BufferUnderflowException e) {
+				throw new IOException("Truncated encoding of commands");
+			} catch (IllegalArgumentException e) {
+				// From the parsing of a malformed numeral, for instance
+				throw malformed(e.getMessage());
+			}
+		}
+
+		protected long readVarint() throws IOException {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				byte b = in.get();
+				v |= (long)(b & 0x7F) << shift;
+				if (b >= 0) return v;
+			}
+			throw new IOException("Malformed varint in encoded commands");
+		}
+
+		protected int readInt() throws IOException {
+			long v = readVarint();
+			if (v < 0 || v > Integer.MAX_VALUE) throw malformed(Long.toUnsignedString(v) + " is too large");
+			return (int)v;
+		}
+
+		/** Reads the length of a list; since each element takes at least one byte, the length
+		 * cannot be more than the number of bytes left */
+		protected int readLength() throws IOException {
+			int n = readInt();
+			if (n > in.remaining()) throw malformed("a list of " + n + " elements in " + in.remaining() + " bytes");
+			return n;
+		}
+
+		protected /*@Nullable*/ String readString() throws IOException {
+			int k = readInt();
+			if (k == 0) return null;
+			if (k > 1) {
+				if (k - 2 >= strings.size()) throw malformed("a reference to string " + (k - 2) + " of " + strings.size());
+				return strings.get(k - 2);
+			}
+			int length = readInt();
+			if (length > in.remaining()) throw malformed("a string of " + length + " bytes in " + in.remaining());
+			byte[] bytes = new byte[length];
+			in.get(bytes);
+			String s = new String(bytes, StandardCharsets.UTF_8);
+			strings.add(s);
+			return s;
+		}
+
+		/** Reads a string that may not be null */
+		protected String readNonNullString() throws IOException {
+			String s = readString();
+			if (s == null) throw malformed("a missing string");
+			return s;
+		}
+
+		/** A string for a symbol or keyword, taken from the configuration's pool */
+		protected String readPooledString() throws IOException {
+			return smtConfig.symbolPool.intern(readNonNullString());
+		}
+
+		/** Reads a position, which must be within the source */
+		protected /*@Nullable*/ IPos readPos() throws IOException {
+			long v = readVarint();
+			if (v == 0) return null;
+			v--;
+			long start = lastStart + ((v >>> 1) ^ -(v & 1));
+			long length = readVarint();
+			int limit = source == null ? Integer.MAX_VALUE : source.chars().length();
+			if (start < 0 || start > limit || length < 0 || length > limit - start) {
+				throw malformed("a position out of range");
+			}
+			lastStart = start;
+			return new Pos((int)start, (int)(start + length), source);
+		}
+
+		protected /*@Nullable*/ List<ICommand> readCommands() throws IOException {
+			int n = readInt();
+			if (n == 0) return null;
+			if (n - 1 > in.remaining()) throw malformed("a list of " + (n - 1) + " commands in " + in.remaining() + " bytes");
+			List<ICommand> commands = new ArrayList<ICommand>(n - 1);
+			for (int i = 1; i < n; i++) commands.add(readCommand());
+			return commands;
+		}
+
+		/** Reads a list of (non-null) nodes of the given class */
+		protected <T> List<T> readList(Class<?> c) throws IOException {
+			int n = readLength();
+			List<Object> list = new ArrayList<Object>(n);
+			for (int i = 0; i < n; i++) list.add(readNode());
+			return list(list, c);
+		}
+
+		/** Reads a node that is null or of the given class */
+		protected <T> /*@Nullable*/ T readNode(Class<T> c) throws IOException {
+			Object n = readNode();
+			return n == null ? null : node(n, c);
+		}
+
+		protected Command readCommand() throws IOException {
+			int code = readInt();
+			if (code >= commandClasses.size()) throw malformed("unknown command " + code);
+			Class<? extends ICommand> clazz = commandClasses.get(code);
+			IPos pos = readPos();
+			String prefixText = readString();
+			Command c;
+			if (clazz == C_assert.class) {
+				c = new C_assert(node(readNode(), IExpr.class));
+			} else if (clazz == C_declare_const.class) {
+				c = new C_declare_const(node(readNode(), ISymbol.class), node(readNode(), ISort.class));
+			} else if (clazz == C_declare_fun.class) {
+				c = new C_declare_fun(node(readNode(), ISymbol.class), this.<ISort>readList(ISort.class), node(readNode(), ISort.class));
+			} else if (clazz == C_declare_sort.class) {
+				c = new C_declare_sort(node(readNode(), ISymbol.class), node(readNode(), INumeral.class));
+			} else if (clazz == C_define_fun.class) {
+				c = new C_define_fun(node(readNode(), ISymbol.class), this.<IDeclaration>readList(IDeclaration.class), node(readNode(), ISort.class), node(readNode(), IExpr.class));
+			} else if (clazz == C_define_sort.class) {
+				c = new C_define_sort(node(readNode(), ISymbol.class), this.<ISort.IParameter>readList(ISort.IParameter.class), node(readNode(), ISort.class));
+			} else if (clazz == C_echo.class) {
+				c = new C_echo(node(readNode(), IStringLiteral.class));
+			} else if (clazz == C_get_info.class) {
+				c = new C_get_info(node(readNode(), IKeyword.class));
+			} else if (clazz == C_get_option.class) {
+				c = new C_get_option(node(readNode(), IKeyword.class));
+			} else if (clazz == C_get_value.class) {
+				c = new C_get_value(this.<IExpr>readList(IExpr.class));
+			} else if (clazz == C_pop.class) {
+				c = new C_pop(node(readNode(), INumeral.class));
+			} else if (clazz == C_push.class) {
+				c = new C_push(node(readNode(), INumeral.class));
+			} else if (clazz == C_set_info.class) {
+				c = new C_set_info(node(readNode(), IKeyword.class), readNode(IAttributeValue.class));
+			} else if (clazz == C_set_logic.class) {
+				c = new C_set_logic(node(readNode(), ISymbol.class));
+			} else if (clazz == C_set_option.class) {
+				c = new C_set_option(node(readNode(), IKeyword.class), readNode(IAttributeValue.class));
+			} else if (clazz == C_exec.class) {
+				IStringLiteral filename = readNode(IStringLiteral.class);
+				c = new C_exec(new Script(filename, readCommands()));
+			} else if (clazz == C_what.class) {
+				c = new C_what(this.<IIdentifier>readList(IIdentifier.class));
+			} else {
+				try {
+					// The commands without arguments
+					c = (Command)clazz.getConstructor().newInstance();
+				} catch (ReflectiveOperationException e) {
+					throw new IOException("Could not create a " + clazz.getName() + ": " + e);
+				}
+			}
+			c.setPos(pos);
+			c.prefixText = prefixText;
+			return c;
+		}
+
+		/** Reads a (possibly null) node. The nodes whose children are being read are kept on an
+		 * explicit stack (of DecodeFrame objects) rather than by recursion, so that the depth of a
+		 * term is not limited by the size of the Java stack.
+		 */
+		protected /*@Nullable*/ Object readNode() throws IOException {
+			Deque<DecodeFrame> stack = new ArrayDeque<DecodeFrame>();
+			while (true) {
+				Object n;
+				int tag = readInt();
+				if (tag == NULL) {
+					n = null;
+				} else if (tag == REF) {
+					int k = readInt();
+					if (k >= nodes.size()) throw malformed("a reference to node " + k + " of " + nodes.size());
+					n = nodes.get(k);
+				} else {
+					IPos pos = readPos();
+					String shape = tag < shapes.length ? shapes[tag] : null;
+					if (shape == null) {
+						n = readLeaf(tag, pos);
+					} else {
+						stack.push(new DecodeFrame(tag, pos, shape));
+						n = DecodeFrame.PENDING;
+					}
+				}
+				// Give the node to the innermost frame, and make each frame that then has all its children into a node
+				while (true) {
+					if (n != DecodeFrame.PENDING) {
+						if (stack.isEmpty()) return n;
+						stack.peek().add(n);
+					}
+					if (stack.peek().needsChild(this)) break;
+					n = build(stack.pop());
+				}
+			}
+		}
+
+		/** Reads the value of a node without children, given its tag and position */
+		protected IPosable readLeaf(int tag, /*@Nullable*/ IPos pos) throws IOException {
+			IPosable n;
+			switch (tag) {
+				case SYMBOL:
+					String text = readPooledString();
+					n = Lexer.symbolToken(text, text);
+					break;
+				case BAR_SYMBOL:
+					text = readPooledString();
+					n = Lexer.symbolToken(text, readPooledString());
+					break;
+				case NUMERAL:
+					long v = readVarint();
+					if (v < 0) throw malformed("a negative numeral");
+					n = Lexer.numeralToken(v);
+					break;
+				case BIG_NUMERAL:
+					BigInteger b = new BigInteger(readNonNullString());
+					if (b.signum() < 0) throw malformed("a negative numeral");
+					n = Lexer.numeralToken(b);
+					break;
+				case DECIMAL:
+					n = Lexer.decimalToken(new BigDecimal(readNonNullString()));
+					break;
+				case STRING:
+					n = Lexer.stringToken(readNonNullString());
+					break;
+				case BINARY:
+					n = Lexer.binaryToken(readNonNullString());
+					break;
+				case HEX:
+					n = Lexer.hexToken(readNonNullString());
+					break;
+				case KEYWORD:
+					n = Lexer.keywordToken(readPooledString());
+					break;
+				default:
+					throw malformed("unknown tag " + tag);
+			}
+			n.setPos(pos);
+			nodes.add(n);
+			return n;
+		}
+
+		/** Makes the node for a frame whose children have all been read. A node made by the
+		 * expression factory is not given a position if it is shared by all the occurrences of
+		 * the expression (as with a hash-consing factory), just as when it is parsed.
+		 */
+		protected IPosable build(DecodeFrame frame) throws IOException {
+			IExpr.IFactory f = smtConfig.exprFactory;
+			Object[] p = frame.parts;
+			IPosable n;
+			switch (frame.tag) {
+				case SEQ:
+					n = new Sexpr.Seq(ASTCodec.<ISexpr>list(p[0], ISexpr.class));
+					break;
+				case PARAMETERIZED_ID:
+					n = f.id(node(p[0], ISymbol.class), ASTCodec.<INumeral>list(p[1], INumeral.class));
+					break;
+				case AS_ID:
+					n = f.id(node(p[0], IIdentifier.class), node(p[1], ISort.class));
+					break;
+				case FCN:
+					n = f.fcn(node(p[0], IQualifiedIdentifier.class), ASTCodec.<IExpr>list(p[1], IExpr.class));
+					break;
+				case LET:
+					n = f.let(ASTCodec.<IBinding>list(p[0], IBinding.class), node(p[1], IExpr.class));
+					break;
+				case BINDING:
+					n = f.binding(node(p[0], ISymbol.class), node(p[1], IExpr.class));
+					break;
+				case FORALL:
+					n = f.forall(ASTCodec.<IDeclaration>list(p[0], IDeclaration.class), node(p[1], IExpr.class));
+					break;
+				case EXISTS:
+					n = f.exists(ASTCodec.<IDeclaration>list(p[0], IDeclaration.class), node(p[1], IExpr.class));
+					break;
+				case DECLARATION:
+					n = f.declaration(node(p[0], ISymbol.class), node(p[1], ISort.class));
+					break;
+				case ATTRIBUTED:
+					n = f.attributedExpr(node(p[0], IExpr.class), ASTCodec.<IAttribute<?>>list(p[1], IAttribute.class));
+					break;
+				case ATTRIBUTE:
+					IKeyword keyword = node(p[0], IKeyword.class);
+					n = p[1] == null ? f.attribute(keyword) : f.attribute(keyword, node(p[1], IAttributeValue.class));
+					break;
+				case SORT:
+					n = new Sort.Application(node(p[0], IIdentifier.class), ASTCodec.<ISort>list(p[1], ISort.class));
+					break;
+				case SORT_PARAMETER:
+					n = smtConfig.sortFactory.createSortParameter(node(p[0], ISymbol.class));
+					break;
+				default:
+					throw malformed("unknown tag " + frame.tag);
+			}
+			if (!(n instanceof IExpr) || !f.isShared((IExpr)n)) n.setPos(frame.pos);
+			nodes.add(n);
+			return n;
+		}
+	}
+
+	/** The children of the nodes made from their children when decoded, indexed by tag: 'n' for
+	 * a node and 'l' for a list of nodes; null for the other tags */
+	static protected final String[] shapes = new String[BAR_SYMBOL + 1];
+	static {
+		shapes[SEQ] = "l";
+		shapes[PARAMETERIZED_ID] = "nl";
+		shapes[AS_ID] = "nn";
+		shapes[FCN] = "nl";
+		shapes[LET] = "ln";
+		shapes[BINDING] = "nn";
+		shapes[FORALL] = "ln";
+		shapes[EXISTS] = "ln";
+		shapes[DECLARATION] = "nn";
+		shapes[ATTRIBUTED] = "nl";
+		shapes[ATTRIBUTE] = "nn";
+		shapes[SORT] = "nl";
+		shapes[SORT_PARAMETER] = "n";
+	}
+
+	/** A node whose children are being read */
+	static protected class DecodeFrame {
+		/** Stands for a node whose children are still to be read */
+		static final Object PENDING = new Object();
+
+		/** The tag of the node */
+		final int tag;
+
+		/** The position of the node */
+		final /*@Nullable*/ IPos pos;
+
+		/** The kinds of the children (see shapes) */
+		final String shape;
+
+		/** The children read so far: nodes, and lists of nodes */
+		final Object[] parts;
+
+		/** The index in parts of the child being read */
+		int part = 0;
+
+		/** The list being read, if any */
+		/*@Nullable*/ List<Object> list = null;
+
+		/** The number of elements of the list still to be read */
+		int remaining = 0;
+
+		DecodeFrame(int tag, /*@Nullable*/ IPos pos, String shape) {
+			this.tag = tag;
+			this.pos = pos;
+			this.shape = shape;
+			this.parts = new Object[shape.length()];
+		}
+
+		/** Adds the next child */
+		void add(/*@Nullable*/ Object n) {
+			if (list != null) {
+				list.add(n);
+				remaining--;
+			} else {
+				parts[part++] = n;
+			}
+		}
+
+		/** True if another node is to be read for this frame; the lengths of lists are read as they are reached */
+		boolean needsChild(Decoder d) throws IOException {
+			while (true) {
+				if (list != null) {
+					if (remaining > 0) return true;
+					parts[part++] = list;
+					list = null;
+				}
+				if (part == shape.length()) return false;
+				if (shape.charAt(part) == 'n') return true;
+				remaining = d.readLength();
+				list = new ArrayList<Object>(remaining);
+			}
+		}
+	}
+
+	/** Returns an exception for a malformed encoding */
+	static protected IOException malformed(String msg) {
+		return new IOException("Malformed encoding of commands: " + msg);
+	}
+
+	/** Returns the given node, checking that it is not null and is of the given class */
+	static protected <T> T node(/*@Nullable*/ Object n, Class<T> c) throws IOException {
+		if (n == null) throw malformed("a missing " + c.getSimpleName());
+		if (!c.isInstance(n)) throw malformed("a " + n.getClass().getSimpleName() + " where a " + c.getSimpleName() + " is expected");
+		return c.cast(n);
+	}
+
+	/** Returns the given list, checking that its elements are not null and are of the given class */
+	@SuppressWarnings("unchecked")
+	static protected <T> List<T> list(Object l, Class<?> c) throws IOException {
+		for (Object n: (List<Object>)l) node(n, c);
+		return (List<T>)l;
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.smtlib.IParser.ParserException;
+import org.smtlib.command.*;
+import org.smtlib.ext.C_exec;
+import org.smtlib.ext.C_what;
+import org.smtlib.impl.Command;
+
+/** A table from command names to the functions that parse those commands, which the Parser
+ * consults before (reflectively) using SMT.Configuration.commandFinder. A registry holds the
+ * standard SMT-LIB commands and, separately, extension commands that are only recognized
+ * when SMT.Configuration.relax is true; a standard command hides an extension with the same name.
+ * Plugins may add their own commands to the registry in a configuration.
+ */
+public class CommandRegistry {
+
+	/** A function that parses the arguments of a command, as the static 'parse' method of
+	 * a command class does: it consumes the arguments, but not the final right parenthesis,
+	 * from the parser, returning null (after logging an error) if the command is not valid.
+	 */
+	public static interface IParse {
+		/*@Nullable*/ Command parse(Parser p) throws IOException, ParserException;
+	}
+
+	/** The parse functions for standard commands */
+	final protected Map<String,IParse> commands = new HashMap<String,IParse>();
+
+	/** The parse functions for extension commands */
+	final protected Map<String,IParse> extensions = new HashMap<String,IParse>();
+
+	/** Creates an empty registry */
+	public CommandRegistry() {}
+
+	/** Creates a copy of the given registry */
+	public CommandRegistry(CommandRegistry r) {
+		commands.putAll(r.commands);
+		extensions.putAll(r.extensions);
+	}
+
+	/** Adds (or replaces) a standard command */
+	public void register(String name, IParse parser) {
+		commands.put(name, parser);
+	}
+
+	/** Adds (or replaces) an extension command, recognized only if relax is true */
+	public void registerExtension(String name, IParse parser) {
+		extensions.put(name, parser);
+	}
+
+	/** Returns the parse function for the named command, or null if there is none */
+	public /*@Nullable*/ IParse lookup(String name, boolean relax) {
+		IParse p = commands.get(name);
+		if (p == null && relax) p = extensions.get(name);
+		return p;
+	}
+
+	/** Creates a registry holding all the built-in commands, from org.smtlib.command and
+	 * (as extensions) org.smtlib.ext */
+	static public CommandRegistry builtin() {
+		CommandRegistry r = new CommandRegistry();
+		r.register(C_assert.commandName, C_assert::parse);
+		r.register(C_check_sat.commandName, C_check_sat::parse);
+		r.register(C_check_sat_assuming.commandName, C_check_sat_assuming::parse);
+		r.register(C_declare_const.commandName, C_declare_const::parse);
+		r.register(C_declare_fun.commandName, C_declare_fun::parse);
+		r.register(C_declare_sort.commandName, C_declare_sort::parse);
+		r.register(C_define_fun.commandName, C_define_fun::parse);
+		r.register(C_define_sort.commandName, C_define_sort::parse);
+		r.register(C_echo.commandName, C_echo::parse);
+		r.register(C_exit.commandName, C_exit::parse);
+		r.register(C_get_assertions.commandName, C_get_assertions::parse);
+		r.register(C_get_assignment.commandName, C_get_assignment::parse);
+		r.register(C_get_info.commandName, C_get_info::parse);
+		r.register(C_get_model.commandName, C_get_model::parse);
+		r.register(C_get_option.commandName, C_get_option::parse);
+		r.register(C_get_proof.commandName, C_get_proof::parse);
+		r.register(C_get_unsat_core.commandName, C_get_unsat_core::parse);
+		r.register(C_get_value.commandName, C_get_value::parse);
+		r.register(C_pop.commandName, C_pop::parse);
+		r.register(C_push.commandName, C_push::parse);
+		r.register(C_reset.commandName, C_reset::parse);
+		r.register(C_reset_assertions.commandName, C_reset_assertions::parse);
+		r.register(C_set_info.commandName, C_set_info::parse);
+		r.register(C_set_logic.commandName, C_set_logic::parse);
+		r.register(C_set_option.commandName, C_set_option::parse);
+
+		r.registerExtension(C_exec.commandName, C_exec::parse);
+		r.registerExtension(C_what.commandName, C_what::parse);
+		// Hidden by the standard get-model command, just as it is by the order of commandExtensionPrefixes
+		r.registerExtension(org.smtlib.ext.C_get_model.commandName, org.smtlib.ext.C_get_model::parse);
+		return r;
+	}
+}
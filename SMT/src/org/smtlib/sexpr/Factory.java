@@ -53,6 +53,7 @@ public class Factory implements IParser.IFactory {
 	static public void initFactories(SMT.Configuration config) {
 		config.defaultPrinter = new Printer(new StringWriter());
 		config.smtFactory = new Factory();
+		config.commandRegistry = CommandRegistry.builtin();
 	}
 
 }
\ No newline at end of file
@@ -38,23 +38,35 @@ public class Lexer {
 		@Override String kind();
 	}
 	
-	/** Skips the rest of the current line, resetting the matcher to point to the line termination character */
+	/** Skips the rest of the current line, resetting the scanner to point to the line termination character */
 	public void abortLine() {
-		int i = matcher.regionStart();
+		int i = currentPos();
 		char c;
 		while ((c=csr.charAt(i))!= '\r' && c != '\n') ++i;
-		matcher.region(i,csr.length());
+		setCurrentPos(i);
+	}
+	
+	/** Releases the input before the lookahead token, if there is one, or else before the next
+	 * character to be read; this only has an effect for sliding-window sources (see CharSequenceInfinite) */
+	public void releaseConsumedInput() {
+		if (csr instanceof CharSequenceInfinite) {
+			ILexToken t = nextToken;
+			((CharSequenceInfinite)csr).release(t != null && t.pos() != null ? t.pos().charStart() : currentPos());
+		}
 	}
 	
 	/** Creates a Lexer using an SMT configuration object and a source for
-	 * characters
+	 * characters; if smtConfig.fastLexer is true, the hand-coded scanner is used
+	 * instead of the regular expression in 'combined'.
 	 */
 	public Lexer(SMT.Configuration smtConfig, ISource src) {
 		this.smtConfig = smtConfig;
 		this.source = src;
+		this.positions = !smtConfig.noPositions;
+		this.symbolPool = smtConfig.symbolPool;
 		if (src != null) {
 			this.csr = src.chars();
-			this.matcher = combined.matcher(this.csr);
+			this.matcher = smtConfig.fastLexer ? null : combined.matcher(this.csr);
 		} else {
 			this.csr = null;
 			this.matcher = null;
@@ -67,9 +79,9 @@ public class Lexer {
 		private IPos pos;
 		@Override
 		public IPos pos() { return pos; }
-		public LexToken(String s, int cp) { // FIXME - factory? or Lexer.pos?
-			chars = s.intern(); 
-			pos = new Pos(cp,cp+1,source); 
+		public LexToken(String s, int cp) { // FIXME - factory?
+			chars = s; // One of the (interned) constants in IPLexToken
+			pos = Lexer.this.pos(cp,cp+1); 
 		} 
 		@Override
 		public boolean isError() { return false; }
@@ -79,10 +91,32 @@ public class Lexer {
 		public String kind() { return chars; }
 	}
 	
+	/** Shared parenthesis tokens, used when positions are not recorded */
+	private /*@Nullable*/ LexToken sharedLP, sharedRP;
+
 	/** Creates a lexical token for a left parenthesis at the given position */
-	public LexToken LP(int cpos) { return new LexToken(IPLexToken.LP,cpos); }
+	public LexToken LP(int cpos) {
+		if (positions) return new LexToken(IPLexToken.LP,cpos);
+		return sharedLP != null ? sharedLP : (sharedLP = new LexToken(IPLexToken.LP,cpos));
+	}
 	/** Creates a lexical token for a right parenthesis at the given position */
-	public LexToken RP(int cpos) { return new LexToken(IPLexToken.RP,cpos); }
+	public LexToken RP(int cpos) {
+		if (positions) return new LexToken(IPLexToken.RP,cpos);
+		return sharedRP != null ? sharedRP : (sharedRP = new LexToken(IPLexToken.RP,cpos));
+	}
+	/** Shared tokens for small numerals, used when positions are not recorded */
+	private /*@Nullable*/ LexNumeral[] sharedNumerals;
+
+	/** Creates a lexical token for a numeral with the given digits, given also its value if that
+	 * fits in a long, or else -1 */
+	protected ILexToken numeral(long value, String digits, /*@Nullable*/ IPos pos) {
+		if (value < 0) return setPos(new LexNumeral(new BigInteger(digits)),pos);
+		if (positions || value >= 256) return setPos(new LexNumeral(value),pos);
+		if (sharedNumerals == null) sharedNumerals = new LexNumeral[256];
+		LexNumeral n = sharedNumerals[(int)value];
+		return n != null ? n : (sharedNumerals[(int)value] = new LexNumeral(value));
+	}
+
 	/** Creates a lexical token for a end-of-data at the given position */
 	public LexToken EOD(int cpos) { return new EOD(cpos); }
 
@@ -107,10 +141,16 @@ public class Lexer {
 	 * etc. that are fields of smtConfig */
 	final private SMT.Configuration smtConfig;
 
-	/** The Matcher used to do lexical scanning */
-	final protected Matcher matcher;
+	/** The Matcher used to do lexical scanning; null if the hand-coded scanner is used */
+	final protected /*@Nullable*/ Matcher matcher;
 	
-	/** Any comment text found before the current token */
+	/** The position of the next character to be read by the hand-coded scanner
+	 * (not used if the Matcher is used) */
+	private int cpos = 0;
+	
+	/** Any comment text found before the current token; the hand-coded scanner
+	 * only records this text for left parentheses, since that is the only place
+	 * it is used (as the prefix text of a command). */
 	public String prefixCommentText;
 	
 	/** The source of input used in this lexer; typically a different
@@ -141,7 +181,7 @@ public class Lexer {
 	/** Pattern regular expression for SMT-LIB whitespace */
 	private final static String rgxWhiteSpace = "[\\p{Space}]+"; // includes line termination
 	/** Pattern regular expression for SMT-LIB comment */
-	private final static String rgxComment = ";.*";              // be sure dot does not include line termination
+	private final static String rgxComment = ";[^\\n\\r\\u0085\\u2028\\u2029\\031\\004]*"; // any character but line termination or end of input
 	/** Pattern regular expression for SMT-LIB numeral */
 	private final static String rgxNumeral = "0|[1-9][0-9]*";
 	/** Pattern regular expression for an invalid SMT-LIB numeral or decimal (that has leading zeros) */
@@ -167,11 +207,11 @@ public class Lexer {
 	/** Pattern regular expression for SMT-LIB keyword (colon beginning) */
 	private final static String rgxKeyword = ":[0-9a-zA-Z_~!@$%^&*+=<>.?/\\-]+";
 	/** Pattern regular expression for SMT-LIB sequence of non-white space */
-	private final static String rgxAnyNonWS = "[\\S&&[^;\\(\\)]][\\S&&[^;\\(\\)]]*"; // Any sequence of non-whitespace, not beginning with ( ) ;
+	private final static String rgxAnyNonWS = "[\\S&&[^;\\(\\)\\031\\004]][\\S&&[^;\\(\\)\\031\\004]]*"; // Any sequence of non-whitespace, not beginning with ( ) ; and not including end of input
 	/** Pattern regular expression for detecting the end of input */
 	private final static String rgxEndOfInput = "\\z|\\031|\\004"; // FIXME - use CharSequenceReader.endChar
-	/** Pattern regular expression for checking that a sequence of digits is not followed by other non-white space, non-comment, non-parenthesis characters */
-	private final static String trailer = "(?:[\\s\\(\\);]|$)";
+	/** Pattern regular expression for checking that a sequence of digits is not followed by other non-white space, non-comment, non-parenthesis, non-end-of-input characters */
+	private final static String trailer = "(?:[\\s\\(\\);\\031\\004]|$)";
 
 	/** 
 	 * This composite regular expression matches tokens in the SMTLIB input.  It first gobbles up any
@@ -227,10 +267,12 @@ public class Lexer {
 	
 	private static class LexSymbol extends Symbol implements ILexToken, ISexpr.IToken<String> {
 		public LexSymbol(String n) { super(n); }
+		public LexSymbol(String original, String value) { super(original,value); }
 	}
 
 	private static class LexNumeral extends Numeral implements ILexToken, ISexpr.IToken<BigInteger> {
 		public LexNumeral(BigInteger n) { super(n); }
+		public LexNumeral(long n) { super(n); }
 	}
 
 	private static class LexDecimal extends Decimal implements ILexToken, ISexpr.IToken<BigDecimal> {
@@ -273,6 +315,16 @@ public class Lexer {
 		public String toString() { return "Error: " + smtConfig.utils.quote(value()); }
 	}
 
+	// Create the lexer's tokens directly, so that ASTCodec can rebuild the ASTs the parser made from them
+	static Symbol symbolToken(String text, String value) { return new LexSymbol(text,value); }
+	static Numeral numeralToken(long value) { return new LexNumeral(value); }
+	static Numeral numeralToken(BigInteger value) { return new LexNumeral(value); }
+	static Decimal decimalToken(BigDecimal value) { return new LexDecimal(value); }
+	static StringLiteral stringToken(String value) { return new LexStringLiteral(value,false); }
+	static BinaryLiteral binaryToken(String digits) { return new LexBinaryLiteral(digits); }
+	static HexLiteral hexToken(String digits) { return new LexHexLiteral(digits); }
+	static Keyword keywordToken(String text) { return new LexKeyword(text); }
+
 	/** A static helper method that sets the position of an AST node, but returns the same type */
 	protected static <T extends IPosable> T setPos(T t, IPos pos) { t.setPos(pos); return t; }
 	
@@ -304,7 +356,36 @@ public class Lexer {
 	
 	/** Returns the position of the next character to be read */
 	public int currentPos() {
-		return matcher.regionStart();
+		return matcher != null ? matcher.regionStart() : cpos;
+	}
+	
+	/** Sets the position of the next character to be read */
+	protected void setCurrentPos(int p) {
+		if (matcher != null) matcher.region(p,csr.length());
+		else cpos = p;
+	}
+	
+	/** Discards any lookahead token and starts reading again from the beginning of the source,
+	 * whose characters may have changed (see ResponseParser) */
+	protected void restart() {
+		nextToken = null;
+		setCurrentPos(0);
+	}
+	
+	/** Skips characters up to (but not including) the next line termination */
+	protected void skipRestOfLine() {
+		if (matcher != null) {
+			Matcher m = skipThroughEndOfLine.matcher(csr);
+			m.region(matcher.regionStart(),matcher.regionEnd());
+			if (m.lookingAt()) {
+				matcher.region(m.end(),matcher.regionEnd());
+			} // If the match fails, there was nothing left before the end of the line
+		} else {
+			int p = cpos;
+			char c;
+			while (!isLineEnd(c = ch(p)) && !isEnd(c)) ++p;
+			cpos = p;
+		}
 	}
 	
 	/** Returns true if the next token is the end-of-data */
@@ -341,9 +422,16 @@ public class Lexer {
 		return (token.kind() == LexToken.RP);
 	}
 	
-	/** Creates an IPos object with the given start and end and the source for this Lexer */
-	public IPos pos(int start, int end) {
-		return new Pos(start,end,source);
+	/** The canonical strings for symbols and keywords (see SMT.Configuration.symbolPool) */
+	final protected SymbolPool symbolPool;
+	
+	/** Whether source positions are recorded (see SMT.Configuration.noPositions) */
+	final protected boolean positions;
+	
+	/** Creates an IPos object with the given start and end and the source for this Lexer;
+	 * returns null if positions are not being recorded */
+	public /*@Nullable*/ IPos pos(int start, int end) {
+		return positions ? new Pos(start,end,source) : null;
 	}
 	
 	/** Returns the first token found in the given text */
@@ -365,7 +453,7 @@ public class Lexer {
 			nextToken = null;
 			return token;
 		}
-		return getToken(matcher);
+		return matcher != null ? getToken(matcher) : scanToken();
 	}
 	
 	/** Returns the next token found in the given matcher, advancing the matcher */
@@ -395,103 +483,24 @@ public class Lexer {
 			} else if ((matched = matcher.group(k=5)) != null) { // numeral
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.numeral(matched,pos);
-				token = setPos(new LexNumeral(new BigInteger(matched)),pos);
+				token = numeral(matched.length() <= 18 ? Long.parseLong(matched) : -1, matched, pos);
 				end = matcher.end(k);
 			} else if ((matched = matcher.group(k=6)) != null) { // simple symbol
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.symbol(matched,pos); 
-				token = setPos(new LexSymbol(matched),pos);
+				token = setPos(new LexSymbol(symbolPool.intern(matched)),pos);
 			} else if ((matched = matcher.group(k=8)) != null) { // bar-quoted symbol
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.symbol(matched,pos);
-				token = setPos(new LexSymbol(matched),pos);
+				token = setPos(new LexSymbol(symbolPool.intern(matched),symbolPool.intern(csr,matcher.start(k)+1,matcher.end(k)-1)),pos);
 			} else if ((matched = matcher.group(k=7)) != null) { // string 
 				// The match is just to the initial quote
-				int begin = matcher.start(k); // position of the initial quote
-				int p = begin;
-				try {
-					if (smtConfig.isVersion(SMT.Configuration.SMTLIB.V25)) { // Version 2.5ff
-						while (true) {
-							p++;
-							char c = csr.charAt(p);
-							if (c == '"') {
-								if (p+1 < csr.length() && csr.charAt(p+1) == '"') {
-									p++;
-								} else {
-									end = p+1;
-									matched = csr.subSequence(begin,end).toString();
-									pos = pos(begin,end);
-									token = setPos(new LexStringLiteral(matched,true),pos);
-									break;
-								}
-							} else {
-								if (c >= ' ' && c <= '~') continue;
-								if (c == '\t' || c == '\r' || c == '\n') continue;
-								if (c >= 128) continue; // Version 2.5, but only within comments, string literals, quoted symbols
-								if (c == 25) {
-									end = p;
-									matched = csr.subSequence(begin,end).toString();
-									pos = pos(begin,end);
-									smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
-									token = setPos(new LexError(matched),pos);
-									break; // End of data - no closing right paren
-								}
-								smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
-										pos(p,p+1)));
-								continue;
-							}
-						}
-					} else if (SMT.Configuration.SMTLIB.V20.toString().equals(Configuration.smtlib)) { // Version 2.0
-						while (true) {
-							p++;
-							char c = csr.charAt(p);
-							if (c == '\\') {
-								c = csr.charAt(++p);
-								// \\ is translated to \ and \" to "
-								// \x for anything else is just \x
-								//								if (c == '\\' || c == '"') {
-								//									continue;
-								//								} else {
-								//									smtConfig.log.logError(smtConfig.responseFactory.error("Invalid escape sequence " + (char)c + " (decimal ASCII = " + (int)c + ")",
-								//											pos(p,p+1)));
-								//								}
-							} else if (c == '"') {
-								end = p+1;
-								matched = csr.subSequence(begin,end).toString();
-								pos = pos(begin,end);
-								token = setPos(new LexStringLiteral(matched,true),pos);
-								break;
-							} else {
-								if (c >= ' ' && c <= '~') continue;
-								if (c == '\t' || c == '\r' || c == '\n') continue;
-								if (c == 25) {
-									end = p;
-									matched = csr.subSequence(begin,end).toString();
-									pos = pos(begin,end);
-									smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
-									token = setPos(new LexError(matched),pos);
-									break; // End of data - no closing right paren
-								}
-								smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
-										pos(p,p+1)));
-								continue;
-							}
-						}
-					}
-				} catch (IndexOutOfBoundsException e) {
-					// If the CharSequence does not expand itself and does not terminate 
-					// itself with an end of data character, and does not end with a
-					// quote character, we get this exception
-					end = p;
-					matched = csr.subSequence(begin,end).toString();
-					pos = pos(begin,end);
-					token = setPos(new LexError(matched),pos);
-					smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,token.pos()));
-				}
+				token = stringLiteral(matcher.start(k));
+				end = scanEnd;
 			} else if ((matched = matcher.group(k=9)) != null) { // colon-initiated keyword
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.keyword(matched,pos);
-				token = setPos(new LexKeyword(matched),pos);
+				token = setPos(new LexKeyword(symbolPool.intern(matched)),pos);
 			} else if ((matched = matcher.group(k=10)) != null) { // decimal
 				pos = pos(matcher.start(k),matcher.end(k));
 				//token = factory.decimal(matched,pos);   // FIXME - use a factory everywhere?
@@ -587,6 +596,286 @@ public class Lexer {
 		}
 		return token;
 	}
+
+	// The hand-coded scanner. It recognizes exactly the tokens of the 'combined' regular expression,
+	// in the same priority order, but classifies characters with a table and scans each token in a
+	// single forward pass, so there is no backtracking and no Matcher group String per token.
+
+	/** Character class bit for SMT-LIB whitespace */
+	private final static byte WS = 1;
+	/** Character class bit for characters that may begin a simple symbol */
+	private final static byte SYMSTART = 2;
+	/** Character class bit for characters that may continue a simple symbol or keyword */
+	private final static byte SYMCHAR = 4;
+	/** Character class bit for characters that may appear within a bar-quoted symbol */
+	private final static byte QUOTED = 8;
+	/** Character class bit for decimal digits */
+	private final static byte DIGIT = 16;
+	/** Character class bit for characters that may follow a numeral, decimal, binary or hex literal */
+	private final static byte TRAILER = 32;
+	
+	/** The class bits for each ASCII character; non-ASCII characters belong to no class */
+	private final static byte[] charClass = new byte[128];
+	static {
+		for (char c: " \t\n\u000B\f\r".toCharArray()) charClass[c] |= WS | TRAILER;
+		for (char c: "();".toCharArray()) charClass[c] |= TRAILER;
+		for (char c = 'a'; c <= 'z'; ++c) charClass[c] |= SYMSTART | SYMCHAR | QUOTED;
+		for (char c = 'A'; c <= 'Z'; ++c) charClass[c] |= SYMSTART | SYMCHAR | QUOTED;
+		for (char c = '0'; c <= '9'; ++c) charClass[c] |= DIGIT | SYMCHAR | QUOTED;
+		for (char c: "_~!@$%^&*+=<>.?/-".toCharArray()) charClass[c] |= SYMSTART | SYMCHAR | QUOTED;
+		for (char c: "\"'(),:;{}#`[] \t\r\n".toCharArray()) charClass[c] |= QUOTED;
+	}
+	
+	/** True if the character is in any of the given character classes */
+	private static boolean is(char c, byte classes) {
+		return c < 128 && (charClass[c] & classes) != 0;
+	}
+	
+	/** True if the character terminates a line (the same characters that end a comment in 'combined') */
+	private static boolean isLineEnd(char c) {
+		return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+	}
+	
+	/** True if the character marks the end of data */
+	private static boolean isEnd(char c) {
+		return c == CharSequenceInfinite.endChar || c == '\004';
+	}
+	
+	/** Returns the character at the given position, or the end-of-data character if the
+	 * position is beyond the end of a character sequence of known length. */
+	private char ch(int p) {
+		return p < csr.length() ? csr.charAt(p) : CharSequenceInfinite.endChar;
+	}
+	
+	/** Returns the next token using the hand-coded scanner, advancing the current position.
+	 * @throws ParserException if a control-X character is read (to abort the input)
+	 */
+	protected ILexToken scanToken() throws ParserException {
+		int p = cpos;
+		int begin = p;
+		char c = ch(p);
+		// first skip all whitespace and comments
+		while (true) {
+			if (is(c,WS)) {
+				c = ch(++p);
+			} else if (c == ';') {
+				do { c = ch(++p); } while (!isLineEnd(c) && !isEnd(c));
+			} else {
+				break;
+			}
+		}
+		prefixCommentText = null;
+		ILexToken token;
+		IPos pos;
+		String matched;
+		int end;
+		if (c == '(') {
+			if (p != begin) {
+				prefixCommentText = csr.subSequence(begin,p).toString();
+				if (prefixCommentText.startsWith("\n")) prefixCommentText = prefixCommentText.substring(1);
+				else if (prefixCommentText.startsWith("\r\n")) prefixCommentText = prefixCommentText.substring(2);
+			}
+			cpos = p+1;
+			return LP(p);
+		} else if (c == ')') {
+			cpos = p+1;
+			return RP(p);
+		} else if (is(c,DIGIT)) { // numeral, decimal, or leading zero error
+			end = p;
+			long value = 0;
+			while (is(c = ch(end),DIGIT)) { value = value*10 + (c-'0'); ++end; }
+			int ndigits = end - p;
+			boolean isDecimal = false;
+			if (c == '.' && is(ch(end+1),DIGIT)) {
+				isDecimal = true;
+				end += 2;
+				while (is(ch(end),DIGIT)) ++end;
+			}
+			if (!isTrailer(end)) return invalidToken(p);
+			matched = csr.subSequence(p,end).toString();
+			pos = pos(p,end);
+			if (ndigits > 1 && csr.charAt(p) == '0') {
+				String msg = "Incorrect format for a number - no leading zeros allowed: ";
+				token = setPos(new LexError(msg + matched),pos);
+				smtConfig.log.logError(smtConfig.responseFactory.error(msg + matched,token.pos()));
+			} else if (isDecimal) {
+				token = setPos(new LexDecimal(new BigDecimal(matched)),pos);
+			} else {
+				token = numeral(ndigits <= 18 ? value : -1, matched, pos);
+			}
+		} else if (is(c,SYMSTART)) { // simple symbol
+			end = p+1;
+			while (is(ch(end),SYMCHAR)) ++end;
+			token = setPos(new LexSymbol(symbolPool.intern(csr,p,end)),pos(p,end));
+		} else if (c == '"') { // string
+			token = stringLiteral(p);
+			end = scanEnd;
+		} else if (c == '|') { // bar-quoted symbol
+			end = p+1;
+			while (is(c = ch(end),QUOTED)) ++end;
+			if (c == '|') {
+				++end;
+				token = setPos(new LexSymbol(symbolPool.intern(csr,p,end),symbolPool.intern(csr,p+1,end-1)),pos(p,end));
+			} else {
+				matched = csr.subSequence(p,end).toString();
+				token = setPos(new LexError("Bar(|)-enclosed symbol is not terminated: " + matched),pos(p,end));
+				smtConfig.log.logError(smtConfig.responseFactory.error("Bar(|)-enclosed symbol is not terminated: " + matched,token.pos()));
+			}
+		} else if (c == ':' && is(ch(p+1),SYMCHAR)) { // colon-initiated keyword
+			end = p+2;
+			while (is(ch(end),SYMCHAR)) ++end;
+			token = setPos(new LexKeyword(symbolPool.intern(csr,p,end)),pos(p,end));
+		} else if (c == '#' && ch(p+1) == 'b' && isBinaryDigit(ch(p+2))) { // binary literal
+			end = p+3;
+			while (isBinaryDigit(ch(end))) ++end;
+			if (!isTrailer(end)) return invalidToken(p);
+			token = setPos(new LexBinaryLiteral(csr.subSequence(p+2,end).toString()),pos(p,end));
+		} else if (c == '#' && ch(p+1) == 'x' && isHexDigit(ch(p+2))) { // hex literal
+			end = p+3;
+			while (isHexDigit(ch(end))) ++end;
+			if (!isTrailer(end)) return invalidToken(p);
+			token = setPos(new LexHexLiteral(csr.subSequence(p+2,end).toString()),pos(p,end));
+		} else if (isEnd(c)) { // end of input
+			cpos = p < csr.length() ? p+1 : p;
+			return EOD(p);
+		} else if (c == '\030') { // the control-X character to kill input
+			cpos = p+1;
+			throw new AbortParseException();
+		} else {
+			return invalidToken(p);
+		}
+		cpos = end;
+		return token;
+	}
+	
+	/** True if the character is a binary digit */
+	private static boolean isBinaryDigit(char c) {
+		return c == '0' || c == '1';
+	}
+	
+	/** True if the character is a hexadecimal digit */
+	private static boolean isHexDigit(char c) {
+		return (c >= '0' && c <= '9') || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+	}
+	
+	/** True if the character at the given position may follow a numeral, decimal, binary or hex literal */
+	private boolean isTrailer(int p) {
+		char c = ch(p);
+		return is(c,TRAILER) || isEnd(c);
+	}
+	
+	/** Scans an error token consisting of any non-whitespace characters (not beginning with
+	 * a parenthesis or semicolon) beginning at the given position, logging an error message.
+	 */
+	private ILexToken invalidToken(int p) {
+		int end = p+1;
+		char c;
+		while (!is(c = ch(end),TRAILER) && !isEnd(c)) ++end;
+		String matched = csr.subSequence(p,end).toString();
+		IPos pos = pos(p,end);
+		if (matched.charAt(0) < ' ') matched = "(ASCII char " + (int)matched.charAt(0) + " (decimal))";
+		ILexToken token = setPos(new LexError("Invalid token: " + matched),pos);
+		smtConfig.log.logError(smtConfig.responseFactory.error("Invalid token: " + matched,
+				pos));
+		cpos = end;
+		return token;
+	}
+	
+	/** The position just past the token most recently scanned by stringLiteral */
+	private int scanEnd;
 	
+	/** Scans by hand a string literal whose opening quote is at the given position
+	 * (the regex for a string overflows the stack on long strings), setting scanEnd
+	 * to the position just past the literal.
+	 * @return a string literal token, or an error token if the literal is not terminated
+	 */
+	private /*@Nullable*/ ILexToken stringLiteral(int begin) {
+		ILexToken token = null;
+		IPos pos;
+		String matched;
+		int end = begin+1;
+		int p = begin;
+		try {
+			if (smtConfig.isVersion(SMT.Configuration.SMTLIB.V25)) { // Version 2.5ff
+				while (true) {
+					p++;
+					char c = csr.charAt(p);
+					if (c == '"') {
+						if (p+1 < csr.length() && csr.charAt(p+1) == '"') {
+							p++;
+						} else {
+							end = p+1;
+							matched = csr.subSequence(begin,end).toString();
+							pos = pos(begin,end);
+							token = setPos(new LexStringLiteral(matched,true),pos);
+							break;
+						}
+					} else {
+						if (c >= ' ' && c <= '~') continue;
+						if (c == '\t' || c == '\r' || c == '\n') continue;
+						if (c >= 128) continue; // Version 2.5, but only within comments, string literals, quoted symbols
+						if (c == 25) {
+							end = p;
+							matched = csr.subSequence(begin,end).toString();
+							pos = pos(begin,end);
+							smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
+							token = setPos(new LexError(matched),pos);
+							break; // End of data - no closing right paren
+						}
+						smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
+								pos(p,p+1)));
+						continue;
+					}
+				}
+			} else if (SMT.Configuration.SMTLIB.V20.toString().equals(Configuration.smtlib)) { // Version 2.0
+				while (true) {
+					p++;
+					char c = csr.charAt(p);
+					if (c == '\\') {
+						c = csr.charAt(++p);
+						// \\ is translated to \ and \" to "
+						// \x for anything else is just \x
+						//								if (c == '\\' || c == '"') {
+						//									continue;
+						//								} else {
+						//									smtConfig.log.logError(smtConfig.responseFactory.error("Invalid escape sequence " + (char)c + " (decimal ASCII = " + (int)c + ")",
+						//											pos(p,p+1)));
+						//								}
+					} else if (c == '"') {
+						end = p+1;
+						matched = csr.subSequence(begin,end).toString();
+						pos = pos(begin,end);
+						token = setPos(new LexStringLiteral(matched,true),pos);
+						break;
+					} else {
+						if (c >= ' ' && c <= '~') continue;
+						if (c == '\t' || c == '\r' || c == '\n') continue;
+						if (c == 25) {
+							end = p;
+							matched = csr.subSequence(begin,end).toString();
+							pos = pos(begin,end);
+							smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,pos));
+							token = setPos(new LexError(matched),pos);
+							break; // End of data - no closing right paren
+						}
+						smtConfig.log.logError(smtConfig.responseFactory.error("Invalid character: ASCII(decimal) = " + (int)c,
+								pos(p,p+1)));
+						continue;
+					}
+				}
+			}
+		} catch (IndexOutOfBoundsException e) {
+			// If the CharSequence does not expand itself and does not terminate 
+			// itself with an end of data character, and does not end with a
+			// quote character, we get this exception
+			end = p;
+			matched = csr.subSequence(begin,end).toString();
+			pos = pos(begin,end);
+			token = setPos(new LexError(matched),pos);
+			smtConfig.log.logError(smtConfig.responseFactory.error("String literal is not terminated: " + matched,token.pos()));
+		}
+		scanEnd = end;
+		return token;
+	}
 
 }
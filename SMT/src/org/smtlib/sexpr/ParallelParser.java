@@ -0,0 +1,363 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import org.smtlib.CharSequenceInfinite;
+import org.smtlib.ICommand;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.Log;
+import org.smtlib.SMT;
+import org.smtlib.impl.Command;
+import org.smtlib.impl.Script;
+
+/** A parser that parses the commands of a (large) script concurrently. Parsing is purely
+ * syntactic, so the text is split into chunks at top-level command boundaries, found by a cheap
+ * scan that balances parentheses (skipping string literals, |quoted symbols| and comments), and
+ * the chunks are parsed on a ForkJoinPool. parseCommand still returns the commands one at a time,
+ * in their original order, and any errors logged while parsing a command are sent to the log
+ * just before the command is returned, so that a caller such as SMT.doParser sees the same
+ * sequence of commands and messages as with a Parser.
+ * <P>
+ * The scan agrees with the lexer on well-formed input, but not necessarily after an invalid token
+ * (for instance, one that swallows a bar), so that a chunk could then begin in the middle of a
+ * token. So once a chunk is found whose parse reported any error, the pending chunks are discarded
+ * and the rest of the input, from the beginning of that chunk, is parsed sequentially.
+ * <P>
+ * The scan (and a copy of each chunk's text) is made by the thread calling parseCommand; only a
+ * few chunks are scanned ahead of the command being returned, so memory use stays bounded however
+ * long the script is. The source must be readable from start to end: sliding-window sources and
+ * interactive input are not supported, nor is abortLine.
+ * <P>
+ * Only the methods that return commands (parseCommand, isEOD, lastError and script) are
+ * parallel; the other parse methods are those of Parser, reading the source from its beginning.
+ */
+public class ParallelParser extends Parser {
+
+	/** The approximate number of characters in each chunk */
+	public int chunkSize = 1 << 20;
+
+	/** The pool on which chunks are parsed */
+	final protected ForkJoinPool pool;
+
+	/** The maximum number of chunks scanned but not yet returned */
+	final protected int window;
+
+	/** The chunks being parsed, in order */
+	final protected Deque<ForkJoinTask<Chunk>> pending = new ArrayDeque<ForkJoinTask<Chunk>>();
+
+	/** The position at which the next chunk begins */
+	protected int scanPos = 0;
+
+	/** True once the whole source has been scanned (or parsing has stopped at an exit command) */
+	protected boolean scanDone = false;
+
+	/** The chunk from which commands are currently being returned */
+	/*@Nullable*/ protected Chunk current = null;
+
+	/** The index in current of the next command to return */
+	protected int next = 0;
+
+	/** The parser of the rest of the input, once parsing has become sequential */
+	/*@Nullable*/ protected Parser sequential = null;
+
+	/** Creates a parser whose chunks are parsed on the given pool */
+	public ParallelParser(SMT.Configuration smtConfig, ISource src, ForkJoinPool pool) {
+		super(smtConfig, src);
+		this.pool = pool;
+		this.window = 2*pool.getParallelism() + 1;
+	}
+
+	/** The commands parsed from one chunk, with the messages logged while parsing them */
+	static protected class Chunk {
+		/** The position at which the chunk begins */
+		final int start;
+		/** Creates the (empty) result of parsing the chunk beginning at the given position */
+		Chunk(int start) { this.start = start; }
+
+		/** The parsed commands, null for a command that could not be parsed */
+		final List</*@Nullable*/ Command> commands = new ArrayList<Command>();
+		/** For each command, the parser's lastError after parsing it; as with a Parser, this may be
+		 * an earlier error, and is null if there has been no error in the chunk */
+		final List</*@Nullable*/ IResponse.IError> errors = new ArrayList<IResponse.IError>();
+		/** For each command, the number of messages recorded up to the end of its parse */
+		final List<Integer> marks = new ArrayList<Integer>();
+		/** The messages logged while parsing the chunk */
+		final ChunkRecorder recorder = new ChunkRecorder();
+		/** An unrecoverable error that stopped the parsing of the chunk after the commands above */
+		/*@Nullable*/ ParserException failure = null;
+
+		/** True if the chunk was parsed without any error */
+		boolean clean() {
+			return failure == null && recorder.size() == 0 && !commands.contains(null);
+		}
+	}
+
+	/** A recorder whose messages can be replayed a part at a time */
+	static protected class ChunkRecorder extends Log.Recorder {
+		/** The number of messages recorded */
+		public int size() {
+			return messages.size();
+		}
+
+		/** Sends messages from (inclusive) to to (exclusive) to the given log */
+		public void replay(Log log, int from, int to) {
+			for (int i = from; i < to; i++) messages.get(i).sendTo(log);
+		}
+	}
+
+	/** The characters of a chunk, presented at their original positions, so that the positions
+	 * recorded by the chunk's parser are positions in the whole source; the characters before
+	 * the chunk are never read, and read as blanks.
+	 */
+	static protected class ChunkChars implements CharSequence {
+		final private String text;
+		final private int offset;
+
+		public ChunkChars(String text, int offset) {
+			this.text = text;
+			this.offset = offset;
+		}
+
+		@Override
+		public int length() {
+			return offset + text.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < offset) return ' ';
+			index -= offset;
+			return index < text.length() ? text.charAt(index) : CharSequenceInfinite.endChar;
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			if (start >= offset) return text.subSequence(start - offset, end - offset);
+			StringBuilder sb = new StringBuilder(end - start);
+			for (int i = start; i < end; i++) sb.append(charAt(i));
+			return sb;
+		}
+
+		@Override
+		public String toString() {
+			return subSequence(0, length()).toString();
+		}
+	}
+
+	/** The source read by the parser of a chunk: its characters are those of the chunk, but
+	 * questions about lines and locations, which are asked only when the chunk's messages are
+	 * replayed by the thread calling parseCommand, are answered by the whole source.
+	 */
+	static protected class ChunkSource implements ISource {
+		final private ISource source;
+		final private ChunkChars chars;
+
+		public ChunkSource(ISource source, ChunkChars chars) {
+			this.source = source;
+			this.chars = chars;
+		}
+
+		@Override
+		public CharSequence chars() { return chars; }
+		@Override
+		public void close() {}
+		@Override
+		public /*@Nullable*/ Object location() { return source.location(); }
+		@Override
+		public char charAt(int pos) { return source.charAt(pos); }
+		@Override
+		public int lineBeginning(int pos) { return source.lineBeginning(pos); }
+		@Override
+		public String textLine(int pos) { return source.textLine(pos); }
+		@Override
+		public int lineNumber(int pos) { return source.lineNumber(pos); }
+		@Override
+		public int column(int pos) { return source.column(pos); }
+	}
+
+	/** Parses the commands of one chunk, with a copy of the configuration whose log records its messages */
+	static protected class ChunkParse implements Callable<Chunk> {
+		final private SMT.Configuration config;
+		final private ChunkSource source;
+		final private int start;
+
+		/** Creates the parse of a chunk, given a copy of the configuration made by the thread
+		 * scanning the chunks, so that it is not copied while that thread changes it */
+		public ChunkParse(SMT.Configuration config, ChunkSource source, int start) {
+			this.config = config;
+			this.source = source;
+			this.start = start;
+		}
+
+		@Override
+		public Chunk call() {
+			Chunk chunk = new Chunk(start);
+			config.log = new Log(config);
+			config.log.clearListeners();
+			config.log.addListener(chunk.recorder);
+			config.interactive = false;
+			Parser p = new Parser(config, source);
+			p.setCurrentPos(start);
+			try {
+				while (!p.isEOD()) {
+					Command c = p.parseCommand();
+					chunk.commands.add(c);
+					chunk.errors.add(p.lastError());
+					chunk.marks.add(chunk.recorder.size());
+				}
+			} catch (ParserException e) {
+				chunk.failure = e;
+			}
+			return chunk;
+		}
+	}
+
+	/** Scans the source from scanPos through the end of the first top-level command that ends
+	 * at least chunkSize characters later (or through the end of input), and starts parsing
+	 * the text scanned as a chunk.
+	 */
+	protected void scanChunk() {
+		CharSequence cs = source().chars();
+		boolean v25 = smt().isVersion(SMT.Configuration.SMTLIB.V25);
+		int start = scanPos;
+		int target = start + chunkSize;
+		int depth = 0;
+		int p = start;
+		char c;
+		while (p < cs.length() && (c = cs.charAt(p)) != CharSequenceInfinite.endChar) {
+			++p;
+			if (c == '(') {
+				++depth;
+			} else if (c == ')') {
+				// A stray right parenthesis does not end a command, since the parser then skips to the next left parenthesis
+				if (depth > 0 && --depth == 0 && p >= target) break;
+			} else if (c == ';') {
+				while (p < cs.length() && (c = cs.charAt(p)) != '\n' && c != '\r' && c != CharSequenceInfinite.endChar) ++p;
+			} else if (c == '|') {
+				while (p < cs.length() && (c = cs.charAt(p)) != '|' && c != CharSequenceInfinite.endChar) ++p;
+				if (c == '|') ++p;
+			} else if (c == '"') {
+				// In version 2.5 a quote is written "", which the scan treats as the end of one literal and the start of another
+				while (p < cs.length() && (c = cs.charAt(p)) != '"' && c != CharSequenceInfinite.endChar) {
+					if (c == '\\' && !v25) ++p;
+					++p;
+				}
+				if (c == '"') ++p;
+			}
+		}
+		if (p >= cs.length() || cs.charAt(p) == CharSequenceInfinite.endChar) {
+			// Anything unterminated has been read through the end of input
+			p = Math.min(p, cs.length());
+			scanDone = true;
+		}
+		scanPos = p;
+		ChunkChars chars = new ChunkChars(cs.subSequence(start, p).toString(), start);
+		SMT.Configuration config;
+		try {
+			config = smt().clone();
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e); // Does not happen - Configuration is Cloneable
+		}
+		pending.add(pool.submit(new ChunkParse(config, new ChunkSource(source(), chars), start)));
+	}
+
+	/** Makes current hold the next command to be returned (or, once parsing is sequential, checks
+	 * for the end of input), returning false if there is none */
+	protected boolean advance() throws ParserException {
+		while (sequential == null && (current == null || next >= current.commands.size())) {
+			while (!scanDone && pending.size() < window) scanChunk();
+			ForkJoinTask<Chunk> t = pending.poll();
+			if (t == null) return false;
+			current = t.join();
+			next = 0;
+			if (!current.clean()) {
+				int start = current.start;
+				cancel();
+				sequential = new Parser(smt(), source());
+				sequential.setCurrentPos(start);
+			}
+		}
+		return sequential == null || !sequential.isEOD();
+	}
+
+	/** Stops scanning and parsing any further chunks (and any sequential parsing) */
+	public void cancel() {
+		sequential = null;
+		for (ForkJoinTask<Chunk> t: pending) t.cancel(false);
+		pending.clear();
+		scanDone = true;
+		current = null;
+	}
+
+	@Override
+	public boolean isEOD() throws ParserException {
+		return !advance();
+	}
+
+	/** Returns the next command, in order, sending the messages logged while parsing it to the
+	 * log first; after an exit command, the rest of the source is ignored.
+	 */
+	@Override
+	public /*@Nullable*/ Command parseCommand() {
+		try {
+			if (!advance()) return null;
+		} catch (ParserException e) {
+			lastError = smt().log.logError(smt().responseFactory.error(e.getMessage(),e.pos()));
+			return null;
+		}
+		if (sequential != null) {
+			Command c = sequential.parseCommand();
+			if (sequential.lastError() != null) lastError = sequential.lastError();
+			if (c instanceof ICommand.Iexit) cancel();
+			return c;
+		}
+		Chunk chunk = current;
+		int k = next++;
+		chunk.recorder.replay(smt().log, k == 0 ? 0 : chunk.marks.get(k-1), chunk.marks.get(k));
+		Command c = chunk.commands.get(k);
+		// A Parser's lastError is not cleared by a successful command, so it stays as it was
+		// before this chunk until the chunk's parser reports an error
+		if (chunk.errors.get(k) != null) lastError = chunk.errors.get(k);
+		if (c instanceof ICommand.Iexit) cancel();
+		return c;
+	}
+
+	/** Parses all the remaining commands into a script (without executing them); returns null
+	 * (with the errors logged) if any command could not be parsed.
+	 */
+	public /*@Nullable*/ ICommand.IScript script() throws ParserException {
+		List<ICommand> commands = new LinkedList<ICommand>();
+		boolean anyError = false;
+		while (!isEOD()) {
+			ICommand c = parseCommand();
+			if (c != null) commands.add(c);
+			else anyError = true;
+		}
+		return anyError ? null : new Script(null, commands);
+	}
+
+	/** Skips the rest of the current line, if parsing has become sequential; otherwise does nothing,
+	 * since the source is not read interactively */
+	@Override
+	public void abortLine() {
+		if (sequential != null) sequential.abortLine();
+	}
+
+	/** Does nothing, since the text of the whole source is retained for error messages */
+	@Override
+	public void releaseConsumedInput() {
+	}
+}
@@ -9,7 +9,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.*;
-import java.util.regex.Matcher;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.IScript;
@@ -69,11 +68,21 @@ public class Parser extends Lexer implements IParser {
 	 * positions and including a reference to the parser's source object. 
 	 * @param start the start character position (counting from 0)
 	 * @param end the end character position (one past the last actual character to be included)
-	 * @return the IPos object representing the character range within the parser's current source
+	 * @return the IPos object representing the character range within the parser's current source,
+	 *    or null if positions are not being recorded
 	 */
 	public /*@Nullable*/ IPos pos(int start, int end) { 
-		return new Pos(start,end,source()); 
-	} // Use factory instead of new Pos?
+		return positions ? new Pos(start,end,source()) : null; 
+	}
+	
+	/** Returns an IPos object from the start of the given position to the given end
+	 * character position, or null if there is no start position (e.g. when positions
+	 * are not being recorded).
+	 */
+	public /*@Nullable*//*@ReadOnly*/ IPos pos(/*@Nullable*//*@ReadOnly*/IPos start, int end) { 
+		if (start == null) return null;
+		return pos(start.charStart(),end); 
+	}
 	
 	/** Creates a Parser using an SMT configuration object and a source for
 	 * characters; ordinarily use a factory to obtain a parser.
@@ -180,19 +189,38 @@ public class Parser extends Lexer implements IParser {
 						// If an error occurs in parsing the command, an error message should be logged and
 						// null returned (if null is returned, an error message is expected to have been logged).
 						
-						// This call translates a name to the class that implements the command with that name.
+						// The registry maps the names of the built-in commands (and any registered by
+						// plugins) directly to their parse functions; otherwise this call translates a
+						// name to the class that implements the command with that name.
 						// The user can change the lookup behavior by assigning a new command finder object in
 						// the configuration
-						Class<? extends ICommand> clazz = smt().commandFinder.findCommand(name);
-						if (clazz == null) {
+						CommandRegistry.IParse parser = smt().relax && smt().commands.containsKey(name) ? null
+								: smt().commandRegistry.lookup(name,smt().relax);
+						Class<? extends ICommand> clazz = parser != null ? null : smt().commandFinder.findCommand(name);
+						if (parser == null && clazz == null) {
 							lastError = error("Unknown command: " + name,sym.pos());
 							command = null;
 						} else {
 							// Call the static parser method of the command class; that will create an
 							// instance of the appropriate command, initialized according to the parsed data.
 							// If the parse fails, null is returned and an error will have been logged.
-							Method m = clazz.getMethod("parse",Parser.class);
-							command = (Command)m.invoke(null,this);
+							if (parser != null) {
+								try {
+									command = parser.parse(this);
+								} catch (AbortParseException ex) {
+									throw ex;
+								} catch (Exception ex) {
+									// Reported just as when the parse method is invoked reflectively
+									commandFailed(ex,sym);
+								} catch (StackOverflowError ex) {
+									commandFailed(ex,sym);
+								} catch (OutOfMemoryError ex) {
+									commandFailed(ex,sym);
+								}
+							} else {
+								Method m = clazz.getMethod("parse",Parser.class);
+								command = (Command)m.invoke(null,this);
+							}
 							rp = null;
 							if (command != null) {
 								if (!isRP()) {
@@ -205,15 +233,7 @@ public class Parser extends Lexer implements IParser {
 							}
 						}
 					} catch (InvocationTargetException ex) {
-						if (ex.getTargetException() instanceof StackOverflowError) {
-							lastError = error("Stack overflow occurred while parsing input", sym.pos());
-							throw new ParserException(null,null);
-						} else if (ex.getTargetException() instanceof OutOfMemoryError) {
-							lastError = error("Out of memory error occurred while parsing input", sym.pos());
-							throw new ParserException(null,null);
-						} else {
-							lastError = error(ex.getTargetException().toString(),sym.pos());
-						}
+						commandFailed(ex.getTargetException(),sym);
 					}
 					if (command == null) {
 						skipThruRP();
@@ -230,15 +250,8 @@ public class Parser extends Lexer implements IParser {
 					smtConfig.topLevel = true;
 					continue;
 				} catch (ParserException e) {
-					Matcher m = skipThroughEndOfLine.matcher(csr);
-					m.region(matcher.regionStart(),matcher.regionEnd());
 					if (e.getMessage() != null) lastError = smtConfig.log.logError(smtConfig.responseFactory.error(e.getMessage(),e.pos()));
-					if (m.lookingAt()) {
-						//smtConfig.log.logOut("SKIPPED " + m.start() + " " + m.end());
-						matcher.region(m.end(),matcher.regionEnd());
-					} else {
-						//smtConfig.log.logOut("NOTHING TO SKIP");
-					} // If the match fails, there was nothing left before the end of the line
+					skipRestOfLine();
 				}
 				break;
 			}
@@ -253,6 +266,19 @@ public class Parser extends Lexer implements IParser {
 		return command;
 	}
 	
+	/** Records the error for an exception thrown while parsing the arguments of a command */
+	protected void commandFailed(Throwable ex, ISymbol sym) throws ParserException {
+		if (ex instanceof StackOverflowError) {
+			lastError = error("Stack overflow occurred while parsing input", sym.pos());
+			throw new ParserException(null,null);
+		} else if (ex instanceof OutOfMemoryError) {
+			lastError = error("Out of memory error occurred while parsing input", sym.pos());
+			throw new ParserException(null,null);
+		} else {
+			lastError = error(ex.toString(),sym.pos());
+		}
+	}
+
 	/** A helper check, called by command-specific parse methods in which the commands have no arguments */
 	//@ requires savedlp != null && commandName != null;
 	public boolean checkNoArg() {
@@ -313,17 +339,27 @@ public class Parser extends Lexer implements IParser {
 	 */
 	public Sexpr.Seq parseSeq(ILexToken lp) throws ParserException {
 		Sexpr.Seq seq = new Sexpr.Seq(); // FIXME - use factory
+		// The enclosing sequences and their left parentheses; an explicit stack is used rather
+		// than recursion so that the nesting depth is not limited by the size of the Java stack
+		Deque<Sexpr.Seq> outer = new ArrayDeque<Sexpr.Seq>();
+		Deque<ILexToken> outerlp = new ArrayDeque<ILexToken>();
 		
 		while (true) {
 			ILexToken token = getToken();
 			if (token.toString() == IPLexToken.RP) {
 				seq.setPos(pos(lp.pos(),token.pos()));
-				return seq;
+				if (outer.isEmpty()) return seq;
+				ISexpr sexpr = seq;
+				seq = outer.pop();
+				lp = outerlp.pop();
+				seq.sexprs().add(sexpr);
 			} else if (token.toString() == IPLexToken.EMPTY) {
 				throw new IParser.ParserException("Unbalanced parentheses at end of input",pos(lp.pos(),lp.pos()));
 			} else if (token.toString() == IPLexToken.LP) {
-				ISexpr sexpr = parseSeq(token);
-				seq.sexprs().add(sexpr);
+				outer.push(seq);
+				outerlp.push(lp);
+				seq = new Sexpr.Seq();
+				lp = token;
 			} else if (token instanceof ISexpr) {
 				seq.sexprs().add((ISexpr)token);
 			} else {
@@ -357,6 +393,13 @@ public class Parser extends Lexer implements IParser {
 	}
 	
 //	private <T extends IPos.IPosable> T setPos(T p, IPos pos) { p.setPos(pos); return p; }
+
+	/** Sets the position of an expression made by the factory, unless it is shared by all the
+	 * occurrences of the expression (as with a hash-consing factory), which have different positions */
+	protected <T extends IExpr> T setExprPos(T e, /*@Nullable*/ IPos pos) {
+		if (!smtConfig.exprFactory.isShared(e)) e.setPos(pos);
+		return e;
+	}
 	
 	/** Parses an 'as' identifier, presuming the left-paren and the 'as' are already parsed,
 	 * from the token stream, returning null (with logged error messages) if there is not one.
@@ -369,7 +412,7 @@ public class Parser extends Lexer implements IParser {
 		ILexToken rp = parseRP();
 		if (rp == null) { skipThruRP(); return null; }
 		IPos pos = pos(lp.pos(),rp.pos());
-		return setPos(smtConfig.exprFactory.id(name,sort),pos);
+		return setExprPos(smtConfig.exprFactory.id(name,sort),pos);
 	}
 	
 	/** Parses an identifier (either symbol or parameterized identifier) from the token
@@ -406,7 +449,7 @@ public class Parser extends Lexer implements IParser {
 		List<INumeral> numerals = new LinkedList<INumeral>();
 		do {
 			if (isEOD()) { 
-				error("Unexpected end of data while parsing a parameterized identifier",pos(lp.pos().charStart(),currentPos()));
+				error("Unexpected end of data while parsing a parameterized identifier",pos(lp.pos(),currentPos()));
 				return null; 
 			}
 			INumeral num = parseNumeral();
@@ -416,14 +459,36 @@ public class Parser extends Lexer implements IParser {
 		ILexToken rp = parseRP();
 		if (rp == null)  { skipThruRP();  return null; }
 		IPos pos = pos(lp.pos(),rp.pos());
-		return setPos(smtConfig.exprFactory.id(name,numerals),pos);
+		return setExprPos(smtConfig.exprFactory.id(name,numerals),pos);
 	}
 	
 	/** Parses an expression, returning null with error messages if there is not a valid
-	 * expression in the token stream.
+	 * expression in the token stream. The parse does not recurse on the nesting of
+	 * function applications, let, quantified or attributed expressions, which are instead
+	 * kept on an explicit stack of partially parsed expressions (ExprFrame objects).
 	 */
 	@Override
 	public /*@Nullable*/IExpr parseExpr() throws ParserException {
+		Deque<ExprFrame> stack = new ArrayDeque<ExprFrame>();
+		Object next = beginExpr();
+		while (true) {
+			boolean needChild;
+			if (next instanceof ExprFrame) {
+				ExprFrame f = (ExprFrame)next;
+				stack.push(f);
+				needChild = f.advance(null,true);
+			} else {
+				if (stack.isEmpty()) return (IExpr)next;
+				needChild = stack.peek().advance((IExpr)next,false);
+			}
+			next = needChild ? beginExpr() : stack.pop().result;
+		}
+	}
+	
+	/** Begins parsing an expression: returns the (possibly null) expression if it is completely
+	 * parsed, or a new ExprFrame for it if it has subexpressions still to be parsed.
+	 */
+	protected /*@Nullable*/Object beginExpr() throws ParserException {
 		// Here we suffer a bit for using a hand-written top-down parser.
 		// An IExpr can be
 		//		literal
@@ -454,57 +519,178 @@ public class Parser extends Lexer implements IParser {
 		if (head == null) { skipThruRP(); return null; }
 		if (head instanceof ISymbol) { // in particular we want reserved words here
 			String s = ((ISymbol)head).value();
-			if (Utils.FORALL.equals(s)) {
-				List<IDeclaration> decls = parseDeclarations();
-				IExpr expr = decls == null ? null : parseExpr();
-				ILexToken rp = expr == null ? null : parseRP();
-				if (rp == null) { skipThruRP(); return null ; }
-				return setPos(smtConfig.exprFactory.forall(decls, expr), pos(lp.pos(), rp.pos()));
-			} else if (Utils.EXISTS.equals(s)) {
+			if (Utils.FORALL.equals(s) || Utils.EXISTS.equals(s)) {
 				List<IDeclaration> decls = parseDeclarations();
-				IExpr expr = decls == null ? null : parseExpr();
-				ILexToken rp = expr == null ? null : parseRP();
-				if (rp == null) { skipThruRP(); return null ; }
-				return setPos(smtConfig.exprFactory.exists(decls, expr), pos(lp.pos(), rp.pos()));
+				if (decls == null) { skipThruRP(); return null; }
+				return new QuantifierFrame(lp,Utils.FORALL.equals(s),decls);
 			} else if (Utils.LET.equals(s)) {
-				List<IBinding> decls = parseBindings();
-				IExpr expr = decls == null ? null : parseExpr();
-				ILexToken rp = expr == null ? null : parseRP();
-				if (rp == null) { skipThruRP(); return null ; }
-				return setPos(smtConfig.exprFactory.let(decls, expr), pos(lp.pos(), rp.pos()));
+				return new LetFrame(lp);
 			} else if (Utils.AS.equals(s)) {
 				return parseAsIdentifierRest(lp);
 			} else if (Utils.UNDERSCORE.equals(s)) {
 				return parseIdentifierRest(lp);
 			} else if (Utils.NAMED_EXPR.equals(s)) {
-				IExpr expr = parseExpr();
-				if (expr instanceof IExpr.IError) expr = null;
-				List<IAttribute<?>> list = parseAttributeSequence();
-				if (list == null) { skipThruRP(); return null; }
-				ILexToken rp = parseRP();
-				if (rp == null) { skipThruRP(); return null; }
-				return setPos(smtConfig.exprFactory.attributedExpr(expr,list),pos(lp.pos(), rp.pos()));
+				return new AttributedFrame(lp);
 			}
 		}
-		List<IExpr> list = new LinkedList<IExpr>();
-		boolean anyErrors = false;
-		while (!isRP()) {
-			if (isEOD()) {
-				error("Unexpected end of data while parsing a sequence of expressions",pos(lp.pos().charStart(),currentPos()));
-				return null; 
+		return new FcnFrame(lp,head);
+	}
+	
+	/** A partially parsed expression, waiting on the parse of its subexpressions */
+	protected abstract class ExprFrame {
+		/** The left parenthesis that begins the expression */
+		final protected ILexToken lp;
+		/** The parsed expression, or null if there were errors; valid once advance returns false */
+		protected /*@Nullable*/IExpr result;
+		
+		protected ExprFrame(ILexToken lp) {
+			this.lp = lp;
+		}
+		
+		/** Continues parsing the expression, given the value of the subexpression requested by the
+		 * previous call (ignored if first is true); returns true if another subexpression is to be
+		 * parsed next, or false if the expression is complete and the result is set.
+		 */
+		abstract protected boolean advance(/*@Nullable*/IExpr value, boolean first) throws ParserException;
+	}
+	
+	/** A function application: the arguments follow the head */
+	protected class FcnFrame extends ExprFrame {
+		final protected IQualifiedIdentifier head;
+		final protected List<IExpr> list = new LinkedList<IExpr>();
+		protected boolean anyErrors = false;
+		
+		protected FcnFrame(ILexToken lp, IQualifiedIdentifier head) {
+			super(lp);
+			this.head = head;
+		}
+		
+		@Override
+		protected boolean advance(/*@Nullable*/IExpr e, boolean first) throws ParserException {
+			if (!first) {
+				if (e != null) list.add(e);
+				else anyErrors = true;
 			}
-			IExpr e = parseExpr();
-			if (e != null) list.add(e);
-			else anyErrors = true;
+			if (!isRP()) {
+				if (isEOD()) {
+					error("Unexpected end of data while parsing a sequence of expressions",pos(lp.pos(),currentPos()));
+					return false; 
+				}
+				return true;
+			}
+			if (anyErrors) { skipThruRP(); return false; }
+			ILexToken rp = parseRP();
+			if (rp == null) { skipThruRP(); return false; }
+			if (list.size() == 0) {
+				error("A function expression must have at least one argument",pos(lp.pos(),rp.pos()));
+				return false;
+			}
+			result = setExprPos(smtConfig.exprFactory.fcn(head,list), pos(lp.pos(), rp.pos()));
+			return false;
 		}
-		if (anyErrors) { skipThruRP(); return null; }
-		ILexToken rp = parseRP();
-		if (rp == null) { skipThruRP(); return null; }
-		if (list.size() == 0) {
-			error("A function expression must have at least one argument",pos(lp.pos(),rp.pos()));
-			return null;
+	}
+	
+	/** A forall or exists expression, whose declarations are already parsed */
+	protected class QuantifierFrame extends ExprFrame {
+		final protected boolean forall;
+		final protected List<IDeclaration> decls;
+		
+		protected QuantifierFrame(ILexToken lp, boolean forall, List<IDeclaration> decls) {
+			super(lp);
+			this.forall = forall;
+			this.decls = decls;
+		}
+		
+		@Override
+		protected boolean advance(/*@Nullable*/IExpr expr, boolean first) throws ParserException {
+			if (first) return true;
+			ILexToken rp = expr == null ? null : parseRP();
+			if (rp == null) { skipThruRP(); return false; }
+			result = setPos(forall ? smtConfig.exprFactory.forall(decls, expr) : smtConfig.exprFactory.exists(decls, expr),
+					pos(lp.pos(), rp.pos()));
+			return false;
+		}
+	}
+	
+	/** An attributed (!) expression */
+	protected class AttributedFrame extends ExprFrame {
+		protected AttributedFrame(ILexToken lp) {
+			super(lp);
+		}
+		
+		@Override
+		protected boolean advance(/*@Nullable*/IExpr expr, boolean first) throws ParserException {
+			if (first) return true;
+			if (expr instanceof IExpr.IError) expr = null;
+			List<IAttribute<?>> list = parseAttributeSequence();
+			if (list == null) { skipThruRP(); return false; }
+			ILexToken rp = parseRP();
+			if (rp == null) { skipThruRP(); return false; }
+			result = setPos(smtConfig.exprFactory.attributedExpr(expr,list),pos(lp.pos(), rp.pos()));
+			return false;
+		}
+	}
+	
+	/** A let expression: the bindings are parsed as by parseBindings and parseBinding, but
+	 * with the bound expressions (and then the body) parsed as subexpressions of the frame */
+	protected class LetFrame extends ExprFrame {
+		final protected List<IBinding> bindings = new LinkedList<IBinding>();
+		final protected Set<ISymbol> names = new HashSet<ISymbol>();
+		/** The left parenthesis of the list of bindings */
+		protected /*@Nullable*/ILexToken bindingslp;
+		/** The left parenthesis and symbol of the binding whose expression is being parsed */
+		protected /*@Nullable*/ILexToken bindinglp;
+		protected /*@Nullable*/ISymbol sym;
+		/** True once the body is being parsed */
+		protected boolean body = false;
+		
+		protected LetFrame(ILexToken lp) {
+			super(lp);
+		}
+		
+		@Override
+		protected boolean advance(/*@Nullable*/IExpr expr, boolean first) throws ParserException {
+			if (first) {
+				bindingslp = parseLP();
+				if (bindingslp == null) { skipThruRP(); return false; }
+				return nextBinding();
+			}
+			if (body) {
+				ILexToken rp = expr == null ? null : parseRP();
+				if (rp == null) { skipThruRP(); return false; }
+				result = setPos(smtConfig.exprFactory.let(bindings, expr), pos(lp.pos(), rp.pos()));
+				return false;
+			}
+			ILexToken rp = expr == null ? null : parseRP();
+			if (rp == null) { skipThruRP(); skipThruRP(); return false; }
+			IBinding decl = setPos(smtConfig.exprFactory.binding(sym,expr), pos(bindinglp.pos(), rp.pos()));
+			bindings.add(decl);
+			if (!names.add(decl.parameter())) {
+				error("Parameter list has a duplicate name: " + smtConfig.defaultPrinter.toString(decl.parameter()),decl.parameter().pos());
+				skipThruRP();
+				return false;
+			}
+			return nextBinding();
+		}
+		
+		/** Begins the next binding, or the body if there are no more bindings */
+		protected boolean nextBinding() throws ParserException {
+			if (!isRP()) {
+				if (isEOD()) {
+					error("Unexpected end of data while parsing a sequence of parameter bindings",pos(bindingslp.pos(),currentPos()));
+					skipThruRP();
+					return false; 
+				}
+				bindinglp = parseLP();
+				sym = bindinglp == null ? null : parseSymbol();
+				if (sym == null) { skipThruRP(); skipThruRP(); return false; }
+				return true;
+			}
+			ILexToken rp = parseRP();
+			if (rp == null) { skipThruRP(); skipThruRP(); return false; }
+			body = true;
+			return true;
 		}
-		return setPos(smtConfig.exprFactory.fcn(head,list), pos(lp.pos(), rp.pos()));
 	}
 	
 	/** Parses a parenthesized sequence of IDeclaration items, returning null with error messages if an error occurs */
@@ -515,7 +701,7 @@ public class Parser extends Lexer implements IParser {
 		List<IDeclaration> decls = new LinkedList<IDeclaration>();
 		while (!isRP()) {
 			if (isEOD()) {
-				error("Unexpected end of data while parsing a sequence of declarations",pos(lp.pos().charStart(),currentPos()));
+				error("Unexpected end of data while parsing a sequence of declarations",pos(lp.pos(),currentPos()));
 				return null; 
 			}
 			IDeclaration decl = parseDeclaration();
@@ -539,7 +725,7 @@ public class Parser extends Lexer implements IParser {
 		Set<ISymbol> names = new HashSet<ISymbol>();
 		while (!isRP()) {
 			if (isEOD()) {
-				error("Unexpected end of data while parsing a sequence of parameter bindings",pos(lp.pos().charStart(),currentPos()));
+				error("Unexpected end of data while parsing a sequence of parameter bindings",pos(lp.pos(),currentPos()));
 				return null; 
 			}
 			IBinding decl = parseBinding();
@@ -895,7 +1081,7 @@ public class Parser extends Lexer implements IParser {
 		ILexToken rp = parseRP();
 		if (rp != null) {
 			if (!isEOD()) error("Expected the end of file after the right parenthesis",
-					pos(lp.pos().charStart(),currentPos()));
+					pos(lp.pos(),currentPos()));
 		}
 		String clazzName = "org.smtlib.logic." + name;
 		try {
@@ -907,19 +1093,19 @@ public class Parser extends Lexer implements IParser {
 		} catch (NoSuchMethodException e) {
 			// error - the class must have the right constructor
 			error("The constructor for the class " + clazzName + " does not have a constructor with the correct argument types",
-					pos(lp.pos().charStart(),currentPos()));
+					pos(lp.pos(),currentPos()));
 		} catch (IllegalAccessException e) {
 			// error - could not create a new instance
 			error("An exception occured when instantiating class " + clazzName + ": " + e,
-					pos(lp.pos().charStart(),currentPos()));
+					pos(lp.pos(),currentPos()));
 		} catch (InstantiationException e) {
 			// error - could not create a new instance
 			error("An exception occured when instantiating class " + clazzName + ": " + e,
-					pos(lp.pos().charStart(),currentPos()));
+					pos(lp.pos(),currentPos()));
 		} catch (InvocationTargetException e) {
 			// error - could not create a new instance
 			error("An exception occured when instantiating class " + clazzName + ": " + e,
-					pos(lp.pos().charStart(),currentPos()));
+					pos(lp.pos(),currentPos()));
 		}
 		return new SMTExpr.Logic(name,attributes);
 	}
@@ -946,7 +1132,7 @@ public class Parser extends Lexer implements IParser {
 		ILexToken rp = parseRP();
 		if (rp != null) {
 			if (!isEOD()) error("Expected the end of file after the right parenthesis",
-					pos(lp.pos().charStart(),currentPos()));
+					pos(lp.pos(),currentPos()));
 		}
 		return new SMTExpr.Theory(name,attributes);
 	}
@@ -8,7 +8,11 @@ package org.smtlib.sexpr;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.IScript;
@@ -117,7 +121,7 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 	/*@Nullable*/
 	@Override
 	public Void visit(INumeral e) throws IVisitor.VisitorException {
-		try { w.append(e.value().toString()); } catch (IOException ex) { throw new IVisitor.VisitorException(ex); }
+		try { w.append(e.fitsInLong() ? Long.toString(e.longValue()) : e.value().toString()); } catch (IOException ex) { throw new IVisitor.VisitorException(ex); }
 		return null;
 	}
 
@@ -213,17 +217,89 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 		return null;
 	}
 
+	/** The text and subexpressions still to be printed by the innermost call of printNested */
+	/*@Nullable*/ private Deque<Object> pending = null;
+
+	/** The expression that printNested is asking its visit method to expand onto pending */
+	/*@Nullable*/ private Object expanding = null;
+
+	/** The remaining elements of a list being printed by printNested, each preceded by a space,
+	 * followed by the given text */
+	static final private class Remaining {
+		final Iterator<? extends IAccept> iter;
+		final String end;
+		Remaining(Iterator<? extends IAccept> iter, String end) { this.iter = iter; this.end = end; }
+	}
+
+	/** Prints a function application, let, quantified, attributed expression or binding whose
+	 * subexpressions may be nested arbitrarily deeply: rather than recursing for each level,
+	 * the visit method for each such expression, when called from here, writes its opening text
+	 * and pushes the text and subexpressions still to be printed onto an explicit stack.
+	 * A visit method that a subclass overrides prints its expression itself, as usual.
+	 */
+	protected void printNested(IAccept top) throws IVisitor.VisitorException {
+		Deque<Object> saved = pending;
+		pending = new ArrayDeque<Object>();
+		try {
+			expand(top);
+			while (!pending.isEmpty()) {
+				Object o = pending.pop();
+				if (o instanceof String) {
+					w.append((String)o);
+				} else if (o instanceof Remaining) {
+					Remaining r = (Remaining)o;
+					if (r.iter.hasNext()) {
+						IAccept a = r.iter.next();
+						pending.push(r);
+						w.append(" ");
+						if (a == null) w.append("???");
+						else expand(a);
+					} else {
+						w.append(r.end);
+					}
+				} else {
+					expand((IAccept)o);
+				}
+			}
+		} catch (IOException ex) {
+			throw new IVisitor.VisitorException(ex,top instanceof IPos.IPosable ? ((IPos.IPosable)top).pos() : null);
+		} finally {
+			pending = saved;
+			expanding = null;
+		}
+	}
+
+	/** Visits e, so that (if it is a nested kind of expression) its visit method expands it onto pending */
+	private void expand(IAccept e) throws IVisitor.VisitorException {
+		expanding = e;
+		e.accept(this);
+		expanding = null;
+	}
+
+	/** Returns true if e is being expanded by printNested, without consuming that state; if it is
+	 * not, visiting e with this Printer's visit method will visit it again, from printNested */
+	protected boolean isExpanding(Object e) {
+		return expanding == e;
+	}
+
+	/** Returns true if e is being expanded by printNested, in which case the caller should
+	 * push its remaining parts onto pending, rather than print them */
+	private boolean expanding(Object e) {
+		if (expanding != e) return false;
+		expanding = null;
+		return true;
+	}
+
 	@Override
 	public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
+		if (!expanding(e)) {
+			printNested(e);
+			return null;
+		}
 		try {
 			w.append("(");
 			e.head().accept(this);
-			for (IExpr a: e.args()) {
-				w.append(" ");
-				if (a != null) a.accept(this);
-				else w.append("???");
-			}
-			w.append(")");
+			pending.push(new Remaining(e.args().iterator(),")"));
 		} catch (IOException ex) {
 			throw new IVisitor.VisitorException(ex,e.pos());
 		}
@@ -232,6 +308,10 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 
 	@Override
 	public Void visit(IForall e) throws IVisitor.VisitorException {
+		if (!expanding(e)) {
+			printNested(e);
+			return null;
+		}
 		try {
 			w.append("(" + Utils.FORALL + " (");
 			for (IDeclaration a: e.parameters()) {
@@ -239,8 +319,8 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 				w.append(" ");
 			}
 			w.append(") ");
-			e.expr().accept(this);
-			w.append(")");
+			pending.push(")");
+			pending.push(e.expr());
 		} catch (IOException ex) {
 			throw new IVisitor.VisitorException(ex,e.pos());
 		}
@@ -249,6 +329,10 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 
 	@Override
 	public Void visit(IExists e) throws IVisitor.VisitorException {
+		if (!expanding(e)) {
+			printNested(e);
+			return null;
+		}
 		try {
 			w.append("(" + Utils.EXISTS + " (");
 			for (IDeclaration a: e.parameters()) {
@@ -256,8 +340,8 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 				w.append(" ");
 			}
 			w.append(") ");
-			e.expr().accept(this);
-			w.append(")");
+			pending.push(")");
+			pending.push(e.expr());
 		} catch (IOException ex) {
 			throw new IVisitor.VisitorException(ex,e.pos());
 		}
@@ -266,15 +350,21 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 
 	@Override
 	public Void visit(ILet e) throws IVisitor.VisitorException {
+		if (!expanding(e)) {
+			printNested(e);
+			return null;
+		}
 		try {
 			w.append("(" + Utils.LET + " (");
-			for (IBinding a: e.bindings()) {
-				a.accept(this);
-				w.append(" ");
+			pending.push(")");
+			pending.push(e.expr());
+			pending.push(") ");
+			List<IBinding> bindings = e.bindings();
+			ListIterator<IBinding> iter = bindings.listIterator(bindings.size());
+			while (iter.hasPrevious()) {
+				pending.push(" ");
+				pending.push(iter.previous());
 			}
-			w.append(") ");
-			e.expr().accept(this);
-			w.append(")");
 		} catch (IOException ex) {
 			throw new IVisitor.VisitorException(ex,e.pos());
 		}
@@ -300,14 +390,14 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 
 	@Override
 	public Void visit(IAttributedExpr e) throws IVisitor.VisitorException {
+		if (!expanding(e)) {
+			printNested(e);
+			return null;
+		}
 		try {
 			w.append("(" + Utils.NAMED_EXPR + " ");
-			e.expr().accept(this);
-			for (IAttribute<?> a: e.attributes()) {
-				w.append(" ");
-				a.accept(this);
-			}
-			w.append(")");
+			pending.push(new Remaining(e.attributes().iterator(),")"));
+			pending.push(e.expr());
 		} catch (IOException ex) {
 			throw new VisitorException(ex,e.pos());
 		}
@@ -330,12 +420,16 @@ public class Printer implements IPrinter, org.smtlib.IVisitor</*@Nullable*/ Void
 
 	@Override
 	public Void visit(IBinding e) throws IVisitor.VisitorException {
+		if (!expanding(e)) {
+			printNested(e);
+			return null;
+		}
 		try {
 			w.append("(");
 			e.parameter().accept(this);
 			w.append(" ");
-			e.expr().accept(this);
-			w.append(")");
+			pending.push(")");
+			pending.push(e.expr());
 		} catch (IOException ex) {
 			throw new VisitorException(ex,e.pos());
 		}
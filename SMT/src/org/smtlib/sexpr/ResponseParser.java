@@ -0,0 +1,131 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.smtlib.IParser.ParserException;
+import org.smtlib.IResponse;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+
+/** The engine shared by the solver adapters for parsing the responses of solvers. A
+ * ResponseParser holds a single Parser, which is reset for each response rather than created
+ * anew, and the regular expressions used on responses are compiled only once.
+ * <P>
+ * The parser reads a buffer whose text is replaced by each response (and the source's index of
+ * lines is then cleared); so the positions in the result of parsing one response refer to the
+ * text of whichever response was parsed last.
+ * A ResponseParser is not thread-safe; each solver adapter has its own.
+ */
+public class ResponseParser {
+
+	/** Matches the old-style bit-vector literals (e.g. bv5[8]) that some solvers produce */
+	static public final Pattern oldBitVector = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
+
+	/** Matches an error response, with the message (unquoted) in group 1 */
+	// FIXME - (1) the {Print} also needs {Space}; (2) err_getValueTypes.tst returns a non-error s-expr and then an error s-expr - this fails for that case
+	static public final Pattern errorSexpr = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
+
+	/** A character sequence whose content can be replaced */
+	static protected class Text implements CharSequence {
+		/** The current content */
+		protected String text = "";
+
+		/** Replaces the content */
+		public void set(String text) { this.text = text; }
+
+		@Override
+		public int length() { return text.length(); }
+
+		@Override
+		public char charAt(int index) { return text.charAt(index); }
+
+		@Override
+		public CharSequence subSequence(int start, int end) { return text.subSequence(start, end); }
+
+		@Override
+		public String toString() { return text; }
+	}
+
+	/** The text being parsed */
+	final protected Text text = new Text();
+
+	/** The source of the parser, reading the text */
+	final protected Pos.Source source = new Pos.Source(text, null);
+
+	/** The parser of the text */
+	final protected Parser parser;
+
+	/** Creates a response parser for the given configuration */
+	public ResponseParser(SMT.Configuration smtConfig) {
+		parser = new Parser(smtConfig, source);
+	}
+
+	/** Returns the (shared) parser, set to read the given text from its beginning */
+	public Parser parser(String response) {
+		text.set(response);
+		source.reset();
+		parser.restart();
+		parser.lastError = null;
+		return parser;
+	}
+
+	/** Parses a response (see Parser.parseResponse) */
+	public /*@Nullable*/ IResponse parseResponse(String response) throws ParserException {
+		return parser(response).parseResponse(response);
+	}
+
+	/** Replaces each old-style bit-vector literal (e.g. bv5[8]) by the equivalent binary
+	 * literal (#b00000101), in one pass over the text */
+	static public String rewriteOldBitVectors(String response) {
+		if (response.indexOf("bv") < 0) return response;
+		Matcher m = oldBitVector.matcher(response);
+		if (!m.find()) return response;
+		StringBuilder sb = new StringBuilder(response.length() + 32);
+		int last = 0;
+		char[] bits = new char[0];
+		do {
+			long val = Long.parseLong(m.group(1));
+			int base = Integer.parseInt(m.group(2));
+			if (bits.length < base) bits = new char[base];
+			for (int i = base-1; i >= 0; --i) { bits[i] = (val&1) == 0 ? '0' : '1'; val = val >>> 1; }
+			sb.append(response, last, m.start()).append("#b").append(bits, 0, base);
+			last = m.end();
+		} while (m.find());
+		sb.append(response, last, response.length());
+		return sb.toString();
+	}
+
+	/** Returns the messages of the error responses at the beginning of the text, separated by
+	 * semicolons, or null if the text does not begin with an error response; if linesOffset is
+	 * not 0, a message beginning 'line N' is changed to refer to line N-linesOffset. */
+	static public /*@Nullable*/ String errorMessage(String response, int linesOffset) {
+		Matcher m = errorSexpr.matcher(response);
+		StringBuilder sb = null;
+		while (m.lookingAt()) {
+			if (sb == null) sb = new StringBuilder();
+			else sb.append("; ");
+			String matched = m.group(1);
+			String prefix = "line ";
+			int offset = prefix.length();
+			if (linesOffset != 0 && matched.startsWith(prefix)) {
+				int k = matched.indexOf(' ',offset);
+				String number = matched.substring(offset, k);
+				try {
+					int n = Integer.parseInt(number);
+					matched = prefix + (n-linesOffset) + matched.substring(k);
+				} catch (NumberFormatException e) {
+					// Just continue
+				}
+			}
+			sb.append(matched);
+			m.region(m.end(0),m.regionEnd());
+		}
+		return sb == null ? null : sb.toString();
+	}
+}
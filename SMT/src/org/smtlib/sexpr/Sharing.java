@@ -0,0 +1,288 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.sexpr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.smtlib.IExpr;
+import org.smtlib.IExpr.IAttribute;
+import org.smtlib.IExpr.IAttributedExpr;
+import org.smtlib.IExpr.IBinding;
+import org.smtlib.IExpr.IDeclaration;
+import org.smtlib.IExpr.IExists;
+import org.smtlib.IExpr.IFcnExpr;
+import org.smtlib.IExpr.IForall;
+import org.smtlib.IExpr.ILet;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.SMT;
+
+/** Rewrites a term whose subterms are shared (as a DAG) into an equivalent term in which each
+ * repeated subterm appears once, in a let binding, and is referred to by name elsewhere; printing
+ * the result takes text linear in the size of the DAG, where printing the original term as a tree
+ * may take text exponential in it. Repeated subterms are recognized by identity or, optionally,
+ * by structure (in which case function applications with the same head and structurally equal
+ * arguments are equal, while quantified and let expressions are still compared by identity).
+ * <P>
+ * The bindings are placed at the top of the term, in nested lets ordered so that each binding
+ * refers only to names bound by enclosing lets. A subterm under a quantifier or let may refer to
+ * the variables bound there, so the body of each such binder is rewritten separately, with its
+ * own lets (placed inside any :pattern annotation of a quantifier body). The names introduced
+ * do not occur elsewhere in the term.
+ */
+public class Sharing {
+
+	/** Returns e, with its repeated subterms let-bound if smtConfig.shareSubterms is set */
+	static public IExpr letForm(SMT.Configuration smtConfig, IExpr e) {
+		if (!smtConfig.shareSubterms && !smtConfig.shareStructurally) return e;
+		return new Sharing(smtConfig, smtConfig.shareStructurally).rewrite(e);
+	}
+
+	/** The configuration whose factory creates the rewritten terms */
+	final protected SMT.Configuration smtConfig;
+
+	/** Whether structurally equal subterms, and not just identical ones, are shared */
+	final protected boolean structural;
+
+	/** The prefix of the names introduced */
+	protected String prefix = "?s";
+
+	/** The number of names introduced so far */
+	protected int count = 0;
+
+	/** Creates an object that rewrites terms with the given factory */
+	public Sharing(SMT.Configuration smtConfig, boolean structural) {
+		this.smtConfig = smtConfig;
+		this.structural = structural;
+	}
+
+	/** Returns a term equivalent to e in which no (function application or binder) subterm is
+	 * repeated, or e itself if none is */
+	public IExpr rewrite(IExpr e) {
+		chooseNames(e);
+		return scope(e);
+	}
+
+	/** Makes the prefix of the introduced names one that no symbol of e begins with */
+	protected void chooseNames(IExpr e) {
+		Set<String> names = new HashSet<String>();
+		Set<IExpr> seen = java.util.Collections.newSetFromMap(new IdentityHashMap<IExpr,Boolean>());
+		Deque<IExpr> todo = new ArrayDeque<IExpr>();
+		todo.push(e);
+		while (!todo.isEmpty()) {
+			IExpr t = todo.pop();
+			if (!seen.add(t)) continue;
+			if (t instanceof ISymbol) {
+				names.add(((ISymbol)t).value());
+			} else if (t instanceof IFcnExpr) {
+				todo.push(((IFcnExpr)t).head());
+				for (IExpr a: ((IFcnExpr)t).args()) todo.push(a);
+			} else if (t instanceof IAttributedExpr) {
+				todo.push(((IAttributedExpr)t).expr());
+				for (IAttribute<?> a: ((IAttributedExpr)t).attributes()) {
+					if (a.attrValue() instanceof IExpr) todo.push((IExpr)a.attrValue());
+				}
+			} else if (t instanceof IForall) {
+				for (IDeclaration d: ((IForall)t).parameters()) names.add(d.parameter().value());
+				todo.push(((IForall)t).expr());
+			} else if (t instanceof IExists) {
+				for (IDeclaration d: ((IExists)t).parameters()) names.add(d.parameter().value());
+				todo.push(((IExists)t).expr());
+			} else if (t instanceof ILet) {
+				for (IBinding b: ((ILet)t).bindings()) {
+					names.add(b.parameter().value());
+					todo.push(b.expr());
+				}
+				todo.push(((ILet)t).expr());
+			}
+		}
+		boolean clash = true;
+		while (clash) {
+			clash = false;
+			for (String n: names) {
+				if (n.startsWith(prefix)) { prefix = prefix + "s"; clash = true; break; }
+			}
+		}
+	}
+
+	/** The subterms of e that are analyzed with it (rather than in a scope of their own) */
+	static protected List<IExpr> parts(IExpr e) {
+		if (e instanceof IFcnExpr) return ((IFcnExpr)e).args();
+		if (e instanceof IAttributedExpr) return java.util.Collections.singletonList(((IAttributedExpr)e).expr());
+		return java.util.Collections.emptyList();
+	}
+
+	/** Whether a repeated occurrence of e is worth binding to a name */
+	static protected boolean bindable(IExpr e) {
+		return e instanceof IFcnExpr || e instanceof IForall || e instanceof IExists || e instanceof ILet;
+	}
+
+	/** The structural identity of a function application: its head and the classes of its arguments */
+	static protected class Key {
+		final String head;
+		final int[] args;
+		final int hash;
+
+		Key(String head, int[] args) {
+			this.head = head;
+			this.args = args;
+			this.hash = head.hashCode() * 31 + Arrays.hashCode(args);
+		}
+
+		@Override
+		public int hashCode() { return hash; }
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) return false;
+			Key k = (Key)o;
+			return hash == k.hash && head.equals(k.head) && Arrays.equals(args, k.args);
+		}
+	}
+
+	/** Rewrites e, binding the repeated subterms that are not under a binder; each binder's
+	 * subterms are rewritten as separate scopes */
+	protected IExpr scope(IExpr e) {
+		// Number the classes of equal subterms, children before parents
+		Map<IExpr,Integer> classOf = new IdentityHashMap<IExpr,Integer>();
+		Map<Object,Integer> classOfKey = structural ? new HashMap<Object,Integer>() : null;
+		List<IExpr> reps = new ArrayList<IExpr>();
+		Deque<IExpr> todo = new ArrayDeque<IExpr>();
+		todo.push(e);
+		while (!todo.isEmpty()) {
+			IExpr t = todo.peek();
+			if (classOf.containsKey(t)) { todo.pop(); continue; }
+			List<IExpr> parts = parts(t);
+			boolean ready = true;
+			for (IExpr p: parts) {
+				if (!classOf.containsKey(p)) { todo.push(p); ready = false; }
+			}
+			if (!ready) continue;
+			todo.pop();
+			Object key = null;
+			if (structural) {
+				if (t instanceof IFcnExpr) {
+					int[] args = new int[parts.size()];
+					for (int i = 0; i < args.length; i++) args[i] = classOf.get(parts.get(i));
+					key = new Key(((IFcnExpr)t).head().toString(), args);
+				} else if (parts.isEmpty() && !bindable(t)) {
+					key = Arrays.asList(t.getClass(), t.toString());
+				}
+			}
+			Integer c = key == null ? null : classOfKey.get(key);
+			if (c == null) {
+				c = reps.size();
+				reps.add(t);
+				if (key != null) classOfKey.put(key, c);
+			}
+			classOf.put(t, c);
+		}
+
+		// Count the references to each class, from the distinct classes
+		int n = reps.size();
+		int[] refs = new int[n];
+		for (IExpr r: reps) {
+			for (IExpr p: parts(r)) refs[classOf.get(p)]++;
+		}
+		boolean[] shared = new boolean[n];
+		boolean any = false;
+		for (int c = 0; c < n; c++) {
+			shared[c] = refs[c] > 1 && bindable(reps.get(c));
+			any |= shared[c];
+		}
+
+		// Rebuild each class, children first; level[c] is the nesting depth of the let that binds
+		// c, if it is shared, or else the deepest level of the shared classes it refers to
+		IExpr[] built = new IExpr[n];
+		ISymbol[] names = new ISymbol[n];
+		int[] level = new int[n];
+		int maxLevel = 0;
+		for (int c = 0; c < n; c++) {
+			IExpr r = reps.get(c);
+			int lv = 0;
+			List<IExpr> parts = parts(r);
+			if (!parts.isEmpty()) {
+				List<IExpr> args = new ArrayList<IExpr>(parts.size());
+				boolean changed = false;
+				for (IExpr p: parts) {
+					int pc = classOf.get(p);
+					IExpr a = shared[pc] ? names[pc] : built[pc];
+					lv = Math.max(lv, level[pc]);
+					changed |= a != p;
+					args.add(a);
+				}
+				if (!changed) built[c] = r;
+				else if (r instanceof IFcnExpr) built[c] = smtConfig.exprFactory.fcn(((IFcnExpr)r).head(), args);
+				else built[c] = smtConfig.exprFactory.attributedExpr(args.get(0), ((IAttributedExpr)r).attributes());
+			} else {
+				built[c] = binder(r);
+			}
+			if (shared[c]) {
+				names[c] = smtConfig.exprFactory.symbol(prefix + (++count));
+				lv++;
+				maxLevel = Math.max(maxLevel, lv);
+			}
+			level[c] = lv;
+		}
+		IExpr result = built[classOf.get(e)];
+		if (!any) return result;
+
+		// Wrap the result in the lets, the outermost binding the lowest level
+		List<List<IBinding>> lets = new ArrayList<List<IBinding>>(maxLevel);
+		for (int i = 0; i < maxLevel; i++) lets.add(new ArrayList<IBinding>());
+		for (int c = 0; c < n; c++) {
+			if (shared[c]) lets.get(level[c]-1).add(smtConfig.exprFactory.binding(names[c], built[c]));
+		}
+		for (int i = maxLevel-1; i >= 0; i--) {
+			result = smtConfig.exprFactory.let(lets.get(i), result);
+		}
+		return result;
+	}
+
+	/** Rewrites the subterms of a quantifier or let, each as a scope of its own; other leaves
+	 * are returned unchanged */
+	protected IExpr binder(IExpr e) {
+		if (e instanceof IForall) {
+			IForall q = (IForall)e;
+			IExpr body = body(q.expr());
+			return body == q.expr() ? e : smtConfig.exprFactory.forall(q.parameters(), body);
+		}
+		if (e instanceof IExists) {
+			IExists q = (IExists)e;
+			IExpr body = body(q.expr());
+			return body == q.expr() ? e : smtConfig.exprFactory.exists(q.parameters(), body);
+		}
+		if (e instanceof ILet) {
+			ILet let = (ILet)e;
+			boolean changed = false;
+			List<IBinding> bindings = new ArrayList<IBinding>(let.bindings().size());
+			for (IBinding b: let.bindings()) {
+				IExpr x = scope(b.expr());
+				if (x != b.expr()) { changed = true; b = smtConfig.exprFactory.binding(b.parameter(), x); }
+				bindings.add(b);
+			}
+			IExpr body = scope(let.expr());
+			return !changed && body == let.expr() ? e : smtConfig.exprFactory.let(bindings, body);
+		}
+		return e;
+	}
+
+	/** Rewrites the body of a quantifier, keeping any attributes (e.g. patterns) at its top */
+	protected IExpr body(IExpr e) {
+		if (!(e instanceof IAttributedExpr)) return scope(e);
+		IAttributedExpr a = (IAttributedExpr)e;
+		IExpr x = scope(a.expr());
+		return x == a.expr() ? e : smtConfig.exprFactory.attributedExpr(x, a.attributes());
+	}
+}
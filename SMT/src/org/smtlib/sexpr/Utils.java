@@ -140,6 +140,21 @@ public class Utils extends org.smtlib.Utils {
 		return res;
 	}
 	
+	/** Returns the names of the theories loaded by loadLogic for the given logic: Core
+	 * and the theories listed in its :theories attribute */
+	@Override
+	public /*@Nullable*/List<String> theoryNames(ILogic logicExpr) {
+		IAttributeValue o = logicExpr.value(THEORIES);
+		if (!(o instanceof ISexpr.ISeq)) return null;
+		List<String> names = new LinkedList<String>();
+		names.add(CORE);
+		for (ISexpr theory: ((ISexpr.ISeq)o).sexprs()) {
+			if (!(theory instanceof IExpr.ISymbol)) return null;
+			names.add(((IExpr.ISymbol)theory).value());
+		}
+		return names;
+	}
+	
 	/** This version of loadTheory loads a theory into the symbol table,
 	 * as defined in the theory expression, if it is a valid definition
 	 * of a logic.
@@ -208,6 +223,7 @@ public class Utils extends org.smtlib.Utils {
 							key = key2;
 						} else {
 							attrs.add(setPos(smtConfig.exprFactory.attribute((IExpr.IKeyword)key,key2),
+										key.pos() == null || key2.pos() == null ? null :
 										new Pos(key.pos().charStart(),key2.pos().charEnd(),key.pos().source()))); // FIXME - factory?
 							if (!iter2.hasNext()) break;
 							key = iter2.next();
@@ -256,7 +272,9 @@ public class Utils extends org.smtlib.Utils {
 			}
 			ISort.IApplication sort = smtConfig.sortFactory.createSortExpression(def.identifier());
 			sort.definition(def);
-			return sort;
+			// The sorts in the background are canonical, as are the sorts found by the type checker
+			ISort.IApplication c = smtConfig.sortFactory.canonical(sort);
+			return c != null ? c : sort;
 //		} else if (sexpr instanceof ISexpr.ISeq) {  // FIXME - do we need to expand this ???
 //			List<ISexpr> sexprs = ((ISexpr.ISeq)sexpr).sexprs();
 		}
@@ -369,7 +369,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 			if (cmd.parameters().size() == 0) {
 				String name = encode(cmd.symbol());
 				String resultSort = translate(cmd.resultSort());
-				String def = cmd.expression() == null ? null : translate(cmd.expression());
+				String def = cmd.expression() == null ? null : typemap.accept(cmd.parameters(),cmd.expression(),new Translator(typemap,smtConfig));
 				def = name + ": " + resultSort + 
 					( def == null ? "" : (" = " + def )) + 
 					";\n";
@@ -416,7 +416,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 					}
 				}
 				def.append("): ");
-				def.append(translate(cmd.expression()));
+				def.append(typemap.accept(cmd.parameters(),cmd.expression(),new Translator(typemap,smtConfig)));
 				def.append(";\n");
 				String response = solverProcess.sendAndListen(def.toString());
 				if (response.contains(errorIndication)) {
@@ -633,10 +633,10 @@ public class Solver_cvc extends Solver_test implements ISolver {
 	
 	public class Translator extends IVisitor.NullVisitor<String> {
 		boolean isFormula = true;
-		final private Map<IExpr,ISort> typemap;
+		final private TypeMap typemap;
 		final private SMT.Configuration smtConfig;
 		
-		public Translator(Map<IExpr,ISort> typemap, SMT.Configuration smtConfig) {
+		public Translator(TypeMap typemap, SMT.Configuration smtConfig) {
 			this.typemap = typemap;
 			this.smtConfig = smtConfig;
 		}
@@ -709,7 +709,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 
 		@Override
 		public String visit(INumeral e) throws IVisitor.VisitorException {
-			return org.smtlib.sexpr.Printer.write(e);
+			return e.fitsInLong() ? Long.toString(e.longValue()) : e.value().toString();
 		}
 
 		@Override
@@ -1180,7 +1180,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				sb.append(d.sort().accept(this));
 			}
 			sb.append("): ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -1198,7 +1198,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				sb.append(d.sort().accept(this));
 			}
 			sb.append("): ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -1216,7 +1216,7 @@ public class Solver_cvc extends Solver_test implements ISolver {
 				sb.append(d.expr().accept(this));
 			}
 			sb.append(" IN ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
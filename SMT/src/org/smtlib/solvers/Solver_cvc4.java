@@ -14,6 +14,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -31,7 +32,8 @@ import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
 import org.smtlib.SMT.Configuration.SMTLIB;
-import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ResponseParser;
+import org.smtlib.sexpr.Sharing;
 import org.smtlib.impl.Response;
 import org.smtlib.sexpr.Utils;
 
@@ -55,7 +57,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 //	protected String cmds_unix_nostrict[] = new String[]{ "", "--incremental", "--interactive"};
 
 	/** The parser that parses responses from the solver */
-	protected org.smtlib.sexpr.Parser responseParser;
+	protected ResponseParser responseParser;
 	
 	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
 	private /*@Nullable*/ IResponse checkSatStatus = null;
@@ -111,7 +113,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 				return err.isEmpty() ? out : err;
 			}};
 
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responseParser = new ResponseParser(smt());
 	}
 	
 //	public Solver_cvc4(SMT.Configuration smtConfig, /*@NonNull*/ String[] executable) {
@@ -141,6 +143,31 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 		return translateSMT(sexpr);
 	}
 	
+	/** Translates an S-expression into SMT syntax, writing it to the given writer */
+	protected void translate(IAccept sexpr, Writer w) throws IVisitor.VisitorException {
+		sexpr.accept(new org.smtlib.solvers.Printer(w));
+	}
+
+	/** Translates the given commands or expressions, each preceded by the separator and all between
+	 * the prefix and the suffix, straight into the solver's input (no String is made of the command),
+	 * and then waits for the response; nothing is sent if the translation fails */
+	protected /*@Nullable*/ String sendAndListen(String prefix, String separator, String suffix, IAccept ... sexprs) throws IOException, IVisitor.VisitorException {
+		Writer w = solverProcess.writer();
+		boolean written = false;
+		try {
+			w.write(prefix);
+			for (IAccept sexpr: sexprs) {
+				w.write(separator);
+				translate(sexpr,w);
+			}
+			w.write(suffix);
+			written = true;
+		} finally {
+			if (!written) solverProcess.discardWritten();
+		}
+		return solverProcess.sendWritten(true);
+	}
+	
 	/** Translates an S-expression into standard SMT syntax */
 	protected String translateSMT(IAccept sexpr) throws IVisitor.VisitorException {
 		StringWriter sw = new StringWriter();
@@ -149,15 +176,13 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 	}
 	
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			if (cmd instanceof Ideclare_const) translatedCmd = "(declare-fun " + ((Ideclare_const)cmd).symbol() + " () " + ((Ideclare_const)cmd).resultSort() + ")";
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			if (cmd instanceof Ideclare_const) return sendCommand("(declare-fun " + ((Ideclare_const)cmd).symbol() + " () " + ((Ideclare_const)cmd).resultSort() + ")");
+			return parseResponse(sendAndListen("","","\n",cmd));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
 		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
 		}
 	}
 	
@@ -182,7 +207,6 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 				// arithmetic. We will not pass this along.
 				return smtConfig.responseFactory.success();
 			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
 			return responseParser.parseResponse(response);
 		} catch (ParserException e) {
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
@@ -201,7 +225,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse assertExpr(IExpr sexpr) {
 		try {
-			return sendCommand("(assert " + translate(sexpr) + ")");
+			return parseResponse(sendAndListen("(assert ","",")\n",Sharing.letForm(smtConfig,sexpr)));
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		} catch (Exception e) {
@@ -227,7 +251,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 				sb.append(s.replace('\n',' ').replace("\r",""));
 			} while (parens > 0);
 			s = sb.toString();
-			org.smtlib.sexpr.Parser p = new org.smtlib.sexpr.Parser(smtConfig,new org.smtlib.impl.Pos.Source(s,null));
+			org.smtlib.sexpr.Parser p = responseParser.parser(s);
 			List<IExpr> exprs = new LinkedList<IExpr>();
 			try {
 				if (p.isLP()) {
@@ -458,11 +482,7 @@ public class Solver_cvc4 extends AbstractSolver implements ISolver {
 		// Try passing in command FIXME
 		//return sendCommand(new org.smtlib.command.C_get_value(terms));
 		try {
-			solverProcess.sendNoListen("(get-value (");
-			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
-			}
-			String r = solverProcess.sendAndListen("))\n");
+			String r = sendAndListen("(get-value ("," ","))\n",terms);
 			IResponse response = parseResponse(r);
 			return response;
 		} catch (IOException e) {
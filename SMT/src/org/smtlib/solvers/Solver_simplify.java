@@ -484,11 +484,11 @@ public class Solver_simplify extends Solver_test implements ISolver {
 	
 	static public class Translator implements IVisitor<String> {
 		boolean isFormula = true;
-		final private Map<IExpr,ISort> typemap;
+		final private TypeMap typemap;
 		final private SMT.Configuration smtConfig;
 		private List<String> conjuncts = new LinkedList<String>();
 		
-		public Translator(Map<IExpr,ISort> typemap, SMT.Configuration smtConfig) {
+		public Translator(TypeMap typemap, SMT.Configuration smtConfig) {
 			this.typemap = typemap;
 			this.smtConfig = smtConfig;
 		}
@@ -505,7 +505,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 
 		@Override
 		public String visit(INumeral e) throws IVisitor.VisitorException {
-			return e.value().toString();
+			return e.fitsInLong() ? Long.toString(e.longValue()) : e.value().toString();
 		}
 
 		@Override
@@ -765,7 +765,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 				sb.append(" ");
 			}
 			sb.append(") ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -785,7 +785,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 				sb.append(" ");
 			}
 			sb.append(") ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -809,7 +809,7 @@ public class Solver_simplify extends Solver_test implements ISolver {
 				r = (s.isBool()? "(IFF " : "(EQ ") + b.parameter().accept(this) + " " + r + " )";
 				conjuncts.add(r);
 			}
-			return e.expr().accept(this);
+			return typemap.accept(e,e.expr(),this);
 			//throw new VisitorException("Use of let is not yet implemented in the Simplify adapter",e.pos()); // FIXME - let in Simplify
 		}
 
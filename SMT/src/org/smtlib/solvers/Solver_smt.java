@@ -14,12 +14,11 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -30,7 +29,8 @@ import org.smtlib.IExpr.IKeyword;
 import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
-import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ResponseParser;
+import org.smtlib.sexpr.Sharing;
 
 /** This class is an adapter that takes the SMT-LIB ASTs and translates them into SMT commands */
 public class Solver_smt extends AbstractSolver implements ISolver {
@@ -49,7 +49,7 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	protected SolverProcess solverProcess;
 	
 	/** The parser that parses responses from the solver */
-	protected org.smtlib.sexpr.Parser responseParser;
+	protected ResponseParser responseParser;
 	
 	/** The checkSatStatus returned by check-sat, if sufficiently recent, otherwise null */
 	protected /*@Nullable*/ IResponse checkSatStatus = null;
@@ -68,13 +68,13 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	public Solver_smt(SMT.Configuration smtConfig, /*@NonNull*/ String executable) {
 		this.smtConfig = smtConfig;
 		solverProcess = new SolverProcess(cmd(executable),prompt(),smtConfig.logfile); // FIXME - what prompt?
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responseParser = new ResponseParser(smt());
 	}
 	
 	public Solver_smt(SMT.Configuration smtConfig, /*@NonNull*/ String[] args) {
 		this.smtConfig = smtConfig;
 		solverProcess = new SolverProcess(args,prompt(),smtConfig.logfile); // FIXME - what prompt?
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responseParser = new ResponseParser(smt());
 	}
 	
 	public String[] cmd(String exec) {
@@ -106,6 +106,31 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 		return translateSMT(sexpr);
 	}
 	
+	/** Translates an S-expression into SMT syntax, writing it to the given writer */
+	protected void translate(IAccept sexpr, Writer w) throws IVisitor.VisitorException {
+		sexpr.accept(new org.smtlib.solvers.Printer(w));
+	}
+
+	/** Translates the given commands or expressions, each preceded by the separator and all between
+	 * the prefix and the suffix, straight into the solver's input (no String is made of the command),
+	 * and then waits for the response; nothing is sent if the translation fails */
+	protected /*@Nullable*/ String sendAndListen(String prefix, String separator, String suffix, IAccept ... sexprs) throws IOException, IVisitor.VisitorException {
+		Writer w = solverProcess.writer();
+		boolean written = false;
+		try {
+			w.write(prefix);
+			for (IAccept sexpr: sexprs) {
+				w.write(separator);
+				translate(sexpr,w);
+			}
+			w.write(suffix);
+			written = true;
+		} finally {
+			if (!written) solverProcess.discardWritten();
+		}
+		return solverProcess.sendWritten(true);
+	}
+	
 	/** Translates an S-expression into standard SMT syntax */
 	protected String translateSMT(IAccept sexpr) throws IVisitor.VisitorException {
 		StringWriter sw = new StringWriter();
@@ -114,14 +139,12 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	}
 	
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			return parseResponse(sendAndListen("","","\n",cmd));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
 		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
 		}
 	}
 	
@@ -136,33 +159,13 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	protected IResponse parseResponse(String response) {
 		try {
 			//FIXME
-			Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
-			Matcher mm = oldbv.matcher(response);
-			while (mm.find()) {
-				long val = Long.parseLong(mm.group(1));
-				int base = Integer.parseInt(mm.group(2));
-				String bits = "";
-				for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
-				response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
-				mm = oldbv.matcher(response);
-			}
+			response = ResponseParser.rewriteOldBitVectors(response);
 			if (response.contains("error")) {
 				// returns an s-expr (always?)
-				// FIXME - (1) the {Print} also needs {Space}; (2) err_getValueTypes.tst returns a non-error s-expr and then an error s-expr - this fails for that case
-				//Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Space}\\p{Print}^[\\\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)\\p{Space}*");
-				Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
-				Matcher m = p.matcher(response);
-				String concat = "";
-				while (m.lookingAt()) {
-					if (!concat.isEmpty()) concat = concat + "; ";
-					String matched = m.group(1);
-					concat = concat + matched;
-					m.region(m.end(0),m.regionEnd());
-				}
-				if (!concat.isEmpty()) response = concat;
+				String concat = ResponseParser.errorMessage(response,0);
+				if (concat != null) response = concat;
 				return smtConfig.responseFactory.error(response);
 			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
 			return responseParser.parseResponse(response);
 		} catch (ParserException e) {
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
@@ -188,7 +191,7 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	@Override
 	public IResponse assertExpr(IExpr sexpr) {
 		try {
-			return sendCommand("(assert " + translate(sexpr) + ")");
+			return parseResponse(sendAndListen("(assert ","",")\n",Sharing.letForm(smtConfig,sexpr)));
 		} catch (IVisitor.VisitorException e) {
 			return smtConfig.responseFactory.error("Failed to assert expression: " + e + " " + sexpr);
 		} catch (Exception e) {
@@ -214,7 +217,7 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 				sb.append(s.replace('\n',' ').replace("\r",""));
 			} while (parens > 0);
 			s = sb.toString();
-			org.smtlib.sexpr.Parser p = new org.smtlib.sexpr.Parser(smtConfig,new org.smtlib.impl.Pos.Source(s,null));
+			org.smtlib.sexpr.Parser p = responseParser.parser(s);
 			List<IExpr> exprs = new LinkedList<IExpr>();
 			try {
 				if (p.isLP()) {
@@ -383,11 +386,7 @@ public class Solver_smt extends AbstractSolver implements ISolver {
 	@Override 
 	public IResponse get_value(IExpr... terms) {
 		try {
-			solverProcess.sendNoListen("(get-value (");
-			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
-			}
-			String r = solverProcess.sendAndListen("))\n");
+			String r = sendAndListen("(get-value ("," ","))\n",terms);
 			IResponse response = parseResponse(r);
 			return response;
 		} catch (IOException e) {
@@ -55,9 +55,10 @@ public class Solver_test implements ISolver {
 	public /*@Nullable*/IResponse checkSatStatus() { return checkSatStatus; }
 
 	/** A map holding the sorts of subexpressions, used for distinguishing formulas and terms
-	 * for solvers for which that needs to be done.
+	 * for solvers for which that needs to be done; it is keyed by node and scope, since a shared
+	 * node may have different sorts in different scopes (e.g. a bound x and a global x).
 	 */
-	protected Map<IExpr,ISort> typemap = new HashMap<IExpr,ISort>();
+	protected TypeMap typemap = new TypeMap();
 	
 	/** The data structure that maintains the current values of options and info items for this solver. */
 	protected Map<String,IAttributeValue> options = new HashMap<String,IAttributeValue>();
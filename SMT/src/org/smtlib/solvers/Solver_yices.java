@@ -318,7 +318,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 			StringBuilder yicescmd = new StringBuilder();;
 			if (cmd.parameters().size() == 0) {
 				yicescmd.append("(define " + name + "::" + translate(cmd.resultSort()) + " " 
-								+ translate(cmd.expression()));
+								+ typemap.accept(cmd.parameters(),cmd.expression(),new Translator()));
 			} else {
 				yicescmd.append("(define " + name + "::(->");
 				for (IDeclaration d: cmd.parameters()) {
@@ -333,7 +333,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 					yicescmd.append(" ");
 				}
 				yicescmd.append(") ");
-				yicescmd.append(translate(cmd.expression()));
+				yicescmd.append(typemap.accept(cmd.parameters(),cmd.expression(),new Translator()));
 				yicescmd.append(")");
 			}
 			yicescmd.append(")");
@@ -563,7 +563,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 
 		@Override
 		public String visit(INumeral e) throws IVisitor.VisitorException {
-			return e.value().toString();
+			return e.fitsInLong() ? Long.toString(e.longValue()) : e.value().toString();
 		}
 
 		@Override
@@ -796,7 +796,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 				sb.append(" ");
 			}
 			sb.append(") ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -812,7 +812,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 				sb.append(" ");
 			}
 			sb.append(") ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -829,7 +829,7 @@ public class Solver_yices extends Solver_test implements ISolver {
 				sb.append(")");
 			}
 			sb.append(") ");
-			sb.append(e.expr().accept(this));
+			sb.append(typemap.accept(e,e.expr(),this));
 			sb.append(")");
 			return sb.toString();
 		}
@@ -1,7 +1,6 @@
 package org.smtlib.solvers;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.LinkedList;
@@ -55,11 +54,7 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 			return smtConfig.responseFactory.error("A get-value command is valid only after check-sat has returned sat or unknown");
 		}
 		try {
-			solverProcess.sendNoListen("(get-value (");
-			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
-			}
-			String r = solverProcess.sendAndListen("))\n");
+			String r = sendAndListen("(get-value ("," ","))\n",terms);
 			IResponse response = parseResponse(r);
 			if (response instanceof ISeq) {
 				List<ISexpr> valueslist = new LinkedList<ISexpr>();
@@ -83,22 +78,25 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 
 	/** Translates an S-expression into Z3 syntax */
 	@Override
-	protected String translate(IAccept sexpr) throws IVisitor.VisitorException {
+	protected void translate(IAccept sexpr, Writer w) throws IVisitor.VisitorException {
 		// The z3 solver uses the standard S-expression concrete syntax, but not quite
 		// so we have to use our own translator
-		StringWriter sw = new StringWriter();
-		sexpr.accept(new Translator(sw));
-		return sw.toString();
+		sexpr.accept(new Translator(w));
 	}
 	
 	public class Translator extends Solver_z3_4_3.Translator {
 		
 		public Translator(Writer w) { super (w); }
+
+		@Override
+		public Translator newPrinter(Writer w) {
+			return new Translator(w);
+		}
 		
 		@Override
 		public Void visit(IBinaryLiteral e) throws IVisitor.VisitorException {
 			try {
-				w.append( "bv" + e.intValue() + "[" + e.length() + "]" );
+				w.append( "bv" + (e.fitsInLong() ? Long.toString(e.longValue()) : e.intValue().toString()) + "[" + e.length() + "]" );
 			} catch (IOException ex) {
 				throw new IVisitor.VisitorException(ex,e.pos());
 			}
@@ -108,7 +106,7 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 		@Override
 		public Void visit(IHexLiteral e) throws IVisitor.VisitorException {
 			try {
-				w.append( "bv" + e.intValue() + "[" + (4*e.length()) + "]" );
+				w.append( "bv" + (e.fitsInLong() ? Long.toString(e.longValue()) : e.intValue().toString()) + "[" + (4*e.length()) + "]" );
 			} catch (IOException ex) {
 				throw new IVisitor.VisitorException(ex,e.pos());
 			}
@@ -195,6 +193,7 @@ public class Solver_z3_2_11 extends Solver_z3_4_3 {
 
 		@Override
 		public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
+			if (writeCached(e)) return null;
 			try {
 				Iterator<IExpr> iter = e.args().iterator();
 				if (!iter.hasNext()) throw new VisitorException("Did not expect an empty argument list",e.pos());
@@ -10,6 +10,7 @@ package org.smtlib.solvers;
 //   get-values get-assignment get-proof get-unsat-core
 //   some error detection and handling
 
+import java.io.CharArrayWriter;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -21,8 +22,6 @@ import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -38,7 +37,8 @@ import org.smtlib.IExpr.IQualifiedIdentifier;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
 import org.smtlib.SMT.Configuration.SMTLIB;
-import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ResponseParser;
+import org.smtlib.sexpr.Sharing;
 import org.smtlib.sexpr.Printer;
 import org.smtlib.sexpr.Utils;
 
@@ -65,7 +65,10 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	protected String cmds_unix[] = new String[]{ "", "-smt2","-in"}; 
 	
 	/** The parser that parses responses from the solver */
-	protected org.smtlib.sexpr.Parser responseParser;
+	protected ResponseParser responseParser;
+	
+	/** The translations of repeated terms, if smtConfig.translationCacheSize is positive, else null */
+	protected /*@Nullable*/ TranslationCache translationCache;
 	
 	/** Set to true once a set-logic command has been executed */
 	protected boolean logicSet = false;
@@ -109,7 +112,8 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			cmds = args.toArray(new String[args.size()]);
 		}
 		solverProcess = new SolverProcess(cmds,"\n",smtConfig.logfile);
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responseParser = new ResponseParser(smt());
+		translationCache = smtConfig.translationCacheSize > 0 ? new TranslationCache(smtConfig.translationCacheSize) : null;
 	}
 
 	/** Creates an instance of the Z3 solver */
@@ -130,18 +134,17 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			cmds = args.toArray(new String[args.size()]);
 		}
 		solverProcess = new SolverProcess(cmds,"\n",smtConfig.logfile);
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responseParser = new ResponseParser(smt());
+		translationCache = smtConfig.translationCacheSize > 0 ? new TranslationCache(smtConfig.translationCacheSize) : null;
 	}
 
 	public IResponse sendCommand(ICommand cmd) {
-		String translatedCmd = null;
 		try {
-			translatedCmd = translate(cmd);
-			return parseResponse(solverProcess.sendAndListen(translatedCmd,"\n"));
+			return parseResponse(sendAndListen("","","\n",cmd));
 		} catch (IOException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
 		} catch (IVisitor.VisitorException e) {
-			return smtConfig.responseFactory.error("Error writing to solver: " + translatedCmd + " " + e);
+			return smtConfig.responseFactory.error("Error writing to solver: " + cmd + " " + e);
 		}
 	}
 	
@@ -201,13 +204,38 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 
 	/** Translates an S-expression into Z3 syntax */
 	protected String translate(IAccept sexpr) throws IVisitor.VisitorException {
-		// The z3 solver uses the standard S-expression concrete syntax, but not quite
-		// so we have to use our own translator
 		StringWriter sw = new StringWriter();
-		sexpr.accept(new Translator(sw));
+		translate(sexpr,sw);
 		return sw.toString();
 	}
 	
+	/** Translates an S-expression into Z3 syntax, writing it to the given writer */
+	protected void translate(IAccept sexpr, Writer w) throws IVisitor.VisitorException {
+		// The z3 solver uses the standard S-expression concrete syntax, but not quite
+		// so we have to use our own translator
+		sexpr.accept(new Translator(w));
+	}
+
+	/** Translates the given commands or expressions, each preceded by the separator and all between
+	 * the prefix and the suffix, straight into the solver's input (no String is made of the command),
+	 * and then waits for the response; nothing is sent if the translation fails */
+	protected /*@Nullable*/ String sendAndListen(String prefix, String separator, String suffix, IAccept ... sexprs) throws IOException, IVisitor.VisitorException {
+		Writer w = solverProcess.writer();
+		boolean written = false;
+		try {
+			w.write(prefix);
+			for (IAccept sexpr: sexprs) {
+				w.write(separator);
+				translate(sexpr,w);
+			}
+			w.write(suffix);
+			written = true;
+		} finally {
+			if (!written) solverProcess.discardWritten();
+		}
+		return solverProcess.sendWritten(true);
+	}
+	
 	/** Translates an S-expression into standard SMT syntax */
 	protected String translateSMT(IAccept sexpr) throws IVisitor.VisitorException {
 		// The z3 solver uses the standard S-expression concrete syntax, but not quite
@@ -218,46 +246,14 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 	
 	protected IResponse parseResponse(String response) {
 		try {
-			Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
-			Matcher mm = oldbv.matcher(response);
-			while (mm.find()) {
-				long val = Long.parseLong(mm.group(1));
-				int base = Integer.parseInt(mm.group(2));
-				String bits = "";
-				for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
-				response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
-				mm = oldbv.matcher(response);
-			}
+			response = ResponseParser.rewriteOldBitVectors(response);
 			if (isMac && response.startsWith("success")) return smtConfig.responseFactory.success(); // IFXME - this is just to avoid a problem with the Mac Z3 implementation
 			if (response.contains("error")) {
 				// Z3 returns an s-expr (always?)
-				// FIXME - (1) the {Print} also needs {Space}; (2) err_getValueTypes.tst returns a non-error s-expr and then an error s-expr - this fails for that case
-				//Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Space}\\p{Print}^[\\\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)\\p{Space}*");
-				Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
-				Matcher m = p.matcher(response);
-				String concat = "";
-				while (m.lookingAt()) {
-					if (!concat.isEmpty()) concat = concat + "; ";
-					String matched = m.group(1);
-					String prefix = "line ";
-					int offset = prefix.length();
-					if (matched.startsWith(prefix)) {
-						int k = matched.indexOf(' ',offset);
-						String number = matched.substring(offset, k);
-						try {
-							int n = Integer.parseInt(number);
-							matched = prefix + (n-linesOffset) + matched.substring(k);
-						} catch (NumberFormatException e) {
-							// Just continue
-						}
-					}
-					concat = concat + matched;
-					m.region(m.end(0),m.regionEnd());
-				}
-				if (!concat.isEmpty()) response = concat;
+				String concat = ResponseParser.errorMessage(response,linesOffset);
+				if (concat != null) response = concat;
 				return smtConfig.responseFactory.error(response);
 			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
 			return responseParser.parseResponse(response);
 		} catch (ParserException e) {
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
@@ -274,7 +270,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("The logic must be set before an assert command is issued");
 		}
 		try {
-			String s = solverProcess.sendAndListen("(assert ",translate(sexpr),")\n");
+			String s = sendAndListen("(assert ","",")\n",Sharing.letForm(smtConfig,sexpr));
 			response = parseResponse(s);
 			checkSatStatus = null;
 		} catch (IVisitor.VisitorException e) {
@@ -307,7 +303,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 				sb.append(s.replace('\n',' ').replace("\r",""));
 			} while (parens > 0);
 			s = sb.toString();
-			org.smtlib.sexpr.Parser p = new org.smtlib.sexpr.Parser(smtConfig,new org.smtlib.impl.Pos.Source(s,null));
+			org.smtlib.sexpr.Parser p = responseParser.parser(s);
 			List<IExpr> exprs = new LinkedList<IExpr>();
 			try {
 				if (p.isLP()) {
@@ -524,7 +520,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return parseResponse(sendAndListen("","","\n",cmd));
 			
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
@@ -540,7 +536,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return parseResponse(sendAndListen("","","\n",cmd));
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -555,7 +551,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return parseResponse(sendAndListen("","","\n",cmd));
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -570,7 +566,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		}
 		try {
 			checkSatStatus = null;
-			return parseResponse(solverProcess.sendAndListen(translate(cmd),"\n"));
+			return parseResponse(sendAndListen("","","\n",cmd));
 		} catch (IOException e) {
 			return smtConfig.responseFactory.error("Error writing to Z3 solver: " + e);
 		} catch (IVisitor.VisitorException e) {
@@ -634,11 +630,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			return smtConfig.responseFactory.error("A get-value command is valid only after check-sat has returned sat or unknown");
 		}
 		try {
-			solverProcess.sendNoListen("(get-value (");
-			for (IExpr e: terms) {
-				solverProcess.sendNoListen(" ",translate(e));
-			}
-			String r = solverProcess.sendAndListen("))\n");
+			String r = sendAndListen("(get-value ("," ","))\n",terms);
 			IResponse response = parseResponse(r);
 //			if (response instanceof ISeq) {
 //				List<ISexpr> valueslist = new LinkedList<ISexpr>();
@@ -664,6 +656,44 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 		
 		public Translator(Writer w) { super(w); }
 
+		/** True if this translator is producing the text of a term to be cached */
+		protected boolean recording = false;
+
+		/** A term already looked up in the cache, which Printer.visit is about to visit again */
+		/*@Nullable*/ private IFcnExpr reentry = null;
+
+		@Override
+		public Translator newPrinter(Writer w) {
+			return new Translator(w);
+		}
+
+		/** Writes the cached translation of e, if there is one, returning whether it did; the
+		 * translation of a term is cached the second time the term is translated */
+		protected boolean writeCached(IFcnExpr e) throws IVisitor.VisitorException {
+			if (translationCache == null) return false;
+			if (e == reentry) {
+				reentry = null;
+				return false;
+			}
+			char[] text = recording ? translationCache.get(e) : translationCache.lookup(e);
+			if (text == TranslationCache.SEEN) {
+				// A repeated term: translate it on its own, so that its text can be kept
+				CharArrayWriter cw = new CharArrayWriter();
+				Translator t = newPrinter(cw);
+				t.recording = true;
+				e.accept(t);
+				text = cw.toCharArray();
+				translationCache.put(e,text);
+			}
+			if (text == null) return false;
+			try {
+				w.write(text);
+			} catch (IOException ex) {
+				throw new IVisitor.VisitorException(ex,e.pos());
+			}
+			return true;
+		}
+
 //		@Override
 //		public String visit(IDecimal e) throws IVisitor.VisitorException {
 //			return translateSMT(e);
@@ -691,6 +721,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 
 		@Override
 		public Void visit(IFcnExpr e) throws IVisitor.VisitorException {
+			if (writeCached(e)) return null;
 			// Only - for >=2 args is not correctly done, but we can't delegate to translateSMT because it might be a sub-expression.
 			Iterator<IExpr> iter = e.args().iterator();
 			if (!iter.hasNext()) throw new VisitorException("Did not expect an empty argument list",e.pos());
@@ -699,6 +730,7 @@ public class Solver_z3_4_3 extends AbstractSolver implements ISolver {
 			if (length > 2 && (fcn instanceof IIdentifier) && fcn.toString().equals("-")) {
 				leftassoc(fcn.toString(),length,iter);
 			} else {
+				if (!isExpanding(e)) reentry = e;
 				super.visit(e);
 			}
 			return null;
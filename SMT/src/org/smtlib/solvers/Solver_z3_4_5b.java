@@ -19,8 +19,6 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.smtlib.*;
 import org.smtlib.ICommand.Ideclare_fun;
@@ -32,7 +30,7 @@ import org.smtlib.IExpr.INumeral;
 import org.smtlib.IExpr.IStringLiteral;
 import org.smtlib.IParser.ParserException;
 import org.smtlib.SMT.Configuration.SMTLIB;
-import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.ResponseParser;
 
 /** This class is an adapter that takes the SMT-LIB ASTs and translates them into SMT commands */
 public class Solver_z3_4_5b extends Solver_smt implements ISolver {
@@ -78,7 +76,7 @@ public class Solver_z3_4_5b extends Solver_smt implements ISolver {
 			cmds = args.toArray(new String[args.size()]);
 		}
 		solverProcess = new SolverProcess(cmds,"\n",smtConfig.logfile);
-		responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source("",null));
+		responseParser = new ResponseParser(smt());
 	}
 	
 	public Solver_z3_4_5b(SMT.Configuration smtConfig, /*@NonNull*/ String[] args) {
@@ -113,48 +111,16 @@ public class Solver_z3_4_5b extends Solver_smt implements ISolver {
 
 	protected IResponse parseResponse(String response) {
 		try {
-			Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
 			if (response.startsWith("stderr")) response = response.replace("stderr", "\"stderr\"");
 			else if (response.startsWith("stdout")) response = response.replace("stdout", "\"stdout\"");
-			Matcher mm = oldbv.matcher(response);
-			while (mm.find()) {
-				long val = Long.parseLong(mm.group(1));
-				int base = Integer.parseInt(mm.group(2));
-				String bits = "";
-				for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
-				response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
-				mm = oldbv.matcher(response);
-			}
+			response = ResponseParser.rewriteOldBitVectors(response);
 			if (isMac && response.startsWith("success")) return smtConfig.responseFactory.success(); // IFXME - this is just to avoid a problem with the Mac Z3 implementation
 			if (response.contains("error") && !response.contains(":error")) {
 				// Z3 returns an s-expr (always?)
-				// FIXME - (1) the {Print} also needs {Space}; (2) err_getValueTypes.tst returns a non-error s-expr and then an error s-expr - this fails for that case
-				//Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Space}\\p{Print}^[\\\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)\\p{Space}*");
-				Pattern p = Pattern.compile("\\p{Space}*\\(\\p{Blank}*error\\p{Blank}+\"(([\\p{Print}\\p{Space}&&[^\"\\\\]]|\\\\\")*)\"\\p{Blank}*\\)");
-				Matcher m = p.matcher(response);
-				String concat = "";
-				while (m.lookingAt()) {
-					if (!concat.isEmpty()) concat = concat + "; ";
-					String matched = m.group(1);
-					String prefix = "line ";
-					int offset = prefix.length();
-					if (matched.startsWith(prefix)) {
-						int k = matched.indexOf(' ',offset);
-						String number = matched.substring(offset, k);
-						try {
-							int n = Integer.parseInt(number);
-							matched = prefix + (n-linesOffset) + matched.substring(k);
-						} catch (NumberFormatException e) {
-							// Just continue
-						}
-					}
-					concat = concat + matched;
-					m.region(m.end(0),m.regionEnd());
-				}
-				if (!concat.isEmpty()) response = concat;
+				String concat = ResponseParser.errorMessage(response,linesOffset);
+				if (concat != null) response = concat;
 				return smtConfig.responseFactory.error(response);
 			}
-			responseParser = new org.smtlib.sexpr.Parser(smt(),new Pos.Source(response,null));
 			return responseParser.parseResponse(response);
 		} catch (ParserException e) {
 			return smtConfig.responseFactory.error("ParserException while parsing response: " + response + " " + e);
@@ -0,0 +1,107 @@
+/*
+ * This file is part of the SMT project.
+ * Copyright 2010 David R. Cok
+ * Created August 2010
+ */
+package org.smtlib.solvers;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/** A bounded cache, for a solver adapter, from terms to the text they translate to. A term is
+ * keyed by the term object itself, so by identity for ordinary terms and by structure for the
+ * terms of a HashConsingFactory. The translation of a term depends only on the term (not on the
+ * declarations or assertions in effect), so entries remain valid across push, pop and reset.
+ * <P>
+ * Since most terms are translated only once, the text of a term is kept only from its second
+ * lookup on; the first lookup just records that the term has been seen. The least recently used
+ * entries are evicted to keep the total size of the text (counting each 'seen' entry as
+ * SEEN_COST characters) within the capacity. A cache is used by one adapter, on one thread.
+ */
+public class TranslationCache {
+
+	/** The value returned by lookup for a term seen before whose text is not cached */
+	static public final char[] SEEN = new char[0];
+
+	/** The size charged for an entry that holds no text */
+	static public final int SEEN_COST = 32;
+
+	/** The maximum total size of the entries */
+	final protected long capacity;
+
+	/** The current total size of the entries */
+	protected long size = 0;
+
+	/** The number of lookups that found cached text */
+	public long hits = 0;
+
+	/** The entries, least recently used first */
+	final protected LinkedHashMap<Object,char[]> map = new LinkedHashMap<Object,char[]>(1024,0.75f,true);
+
+	/** Creates a cache holding up to the given number of characters of text */
+	public TranslationCache(long capacity) {
+		this.capacity = capacity;
+	}
+
+	/** The cost of an entry with the given value */
+	static protected int cost(char[] text) {
+		return text == SEEN ? SEEN_COST : SEEN_COST + text.length;
+	}
+
+	/** Returns the cached text of the term, or SEEN if the term has been looked up before but
+	 * its text is not cached, or null (recording that the term has now been seen) if not */
+	public /*@Nullable*/ char[] lookup(Object term) {
+		char[] text = map.get(term);
+		if (text == null) {
+			add(term, SEEN);
+			return null;
+		}
+		if (text != SEEN) hits++;
+		return text;
+	}
+
+	/** Returns the cached text of the term, if there is any, without recording the term as seen */
+	public /*@Nullable*/ char[] get(Object term) {
+		char[] text = map.get(term);
+		if (text == null || text == SEEN) return null;
+		hits++;
+		return text;
+	}
+
+	/** Caches the text of the term, unless it is more than an eighth of the capacity */
+	public void put(Object term, char[] text) {
+		if (cost(text) > capacity / 8) return;
+		add(term, text);
+	}
+
+	/** Adds or replaces an entry, evicting the least recently used ones as needed */
+	protected void add(Object term, char[] text) {
+		char[] old = map.put(term, text);
+		if (old != null) size -= cost(old);
+		size += cost(text);
+		Iterator<Map.Entry<Object,char[]>> iter = map.entrySet().iterator();
+		while (size > capacity && iter.hasNext()) {
+			Map.Entry<Object,char[]> eldest = iter.next();
+			if (eldest.getKey() == term) continue;
+			size -= cost(eldest.getValue());
+			iter.remove();
+		}
+	}
+
+	/** The number of entries */
+	public int entries() {
+		return map.size();
+	}
+
+	/** The total size of the entries */
+	public long size() {
+		return size;
+	}
+
+	/** Removes all entries */
+	public void clear() {
+		map.clear();
+		size = 0;
+	}
+}
@@ -0,0 +1,96 @@
+package org.smtlib.test;
+
+import java.io.File;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.command.C_check_sat;
+import org.smtlib.command.C_get_proof;
+import org.smtlib.ext.C_what;
+import org.smtlib.impl.Command;
+import org.smtlib.sexpr.CommandRegistry;
+import org.smtlib.sexpr.Parser;
+
+/** Tests finding commands through the CommandRegistry and the commandFinder */
+public class CommandRegistryTests {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+	}
+
+	public ICommand parse(String input) throws Exception {
+		ISource source = config.smtFactory.createSource(input,null);
+		IParser p = new org.smtlib.sexpr.Parser(config,source);
+		return p.parseCommand();
+	}
+
+	public void checkError(String input, String errormsg) throws Exception {
+		Assert.assertNull(parse(input));
+		Assert.assertFalse("Expected an error message",listener.msgs.isEmpty());
+		Assert.assertEquals(errormsg,((IResponse.IError)listener.msgs.get(0)).errorMsg());
+		listener.msgs.clear();
+	}
+
+	/** Every command class in org.smtlib.command is in the registry */
+	@Test
+	public void builtin() {
+		File dir = new File("../SMT/src/org/smtlib/command");
+		if (!dir.exists()) dir = new File("SMT/src/org/smtlib/command");
+		int n = 0;
+		for (String f: dir.list()) {
+			if (!f.startsWith("C_")) continue;
+			String name = f.substring(2,f.length() - ".java".length()).replace('_','-');
+			Assert.assertNotNull(name,config.commandRegistry.lookup(name,false));
+			n++;
+		}
+		Assert.assertTrue(n > 20);
+	}
+
+	@Test
+	public void extensions() throws Exception {
+		checkError("(what a)","Unknown command: what");
+		config.relax = true;
+		Assert.assertTrue(parse("(what a)") instanceof C_what);
+		Assert.assertTrue(parse("(get-model)") instanceof org.smtlib.command.C_get_model);
+	}
+
+	@Test
+	public void plugin() throws Exception {
+		config.commandRegistry.registerExtension("ping", new CommandRegistry.IParse() {
+			public Command parse(Parser p) { return p.checkNoArg() ? new C_check_sat() : null; }
+		});
+		checkError("(ping)","Unknown command: ping");
+		config.relax = true;
+		Assert.assertTrue(parse("(ping)") instanceof C_check_sat);
+		checkError("(ping 1)","A ping command takes no arguments");
+	}
+
+	/** With relax, the commands map overrides the registry */
+	@Test
+	public void commandsMap() throws Exception {
+		config.commands.put("check-sat",C_get_proof.class);
+		Assert.assertTrue(parse("(check-sat)") instanceof C_check_sat);
+		config.relax = true;
+		Assert.assertTrue(parse("(check-sat)") instanceof C_get_proof);
+	}
+
+	/** A clone has its own copy of the registry */
+	@Test
+	public void cloned() throws Exception {
+		SMT.Configuration copy = config.clone();
+		copy.commandRegistry.register("ping",config.commandRegistry.lookup("check-sat",false));
+		Assert.assertNotNull(copy.commandRegistry.lookup("ping",false));
+		Assert.assertNull(config.commandRegistry.lookup("ping",true));
+	}
+}
@@ -0,0 +1,136 @@
+package org.smtlib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.junit.*;
+import org.smtlib.CommandIterator;
+import org.smtlib.ICommand;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+
+/** Tests iterating over and streaming the commands of a source with a CommandIterator */
+public class CommandStreams {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+	}
+
+	/** The characters of a text, recording how far into them a reader has looked */
+	static class Watched implements CharSequence {
+		final String text;
+		int max = -1;
+
+		Watched(String text) { this.text = text; }
+
+		@Override
+		public int length() { return text.length(); }
+		@Override
+		public char charAt(int index) { max = Math.max(max, index); return text.charAt(index); }
+		@Override
+		public CharSequence subSequence(int start, int end) { max = Math.max(max, end-1); return text.subSequence(start, end); }
+		@Override
+		public String toString() { return text; }
+	}
+
+	public List<String> print(CommandIterator iter) {
+		List<String> result = new ArrayList<String>();
+		while (iter.hasNext()) result.add(config.defaultPrinter.toString(iter.next()));
+		return result;
+	}
+
+	@Test
+	public void iterate() {
+		String text = "(set-logic QF_UF) (check-sat zzz) (declare-fun p () Bool)\n(assert p) (check-sat) (exit) (assert q)";
+		CommandIterator iter = new CommandIterator(config, config.smtFactory.createSource(text,null));
+		List<String> expected = new ArrayList<String>();
+		expected.add("(set-logic QF_UF)");
+		expected.add("(declare-fun p () Bool)");
+		expected.add("(assert p)");
+		expected.add("(check-sat)");
+		expected.add("(exit)");
+		Assert.assertEquals(expected,print(iter));
+		Assert.assertEquals(1,iter.errors());
+		Assert.assertEquals(1,listener.msgs.size());
+		Assert.assertNull(iter.failure());
+		try {
+			iter.next();
+			Assert.fail();
+		} catch (NoSuchElementException e) {
+			// expected
+		}
+	}
+
+	/** Commands are parsed only as they are asked for, at most lookahead at a time */
+	@Test
+	public void lazy() {
+		String command = "(check-sat)";
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) sb.append(command).append('\n');
+		Watched chars = new Watched(sb.toString());
+		int lineLength = command.length() + 1;
+		CommandIterator iter = new CommandIterator(config.smtFactory.createParser(config, config.smtFactory.createSource(chars,null)), 3);
+		Assert.assertEquals(-1,chars.max);
+		Assert.assertTrue(iter.hasNext());
+		Assert.assertTrue(chars.max < 4*lineLength);
+		iter.next();
+		iter.next();
+		iter.next();
+		Assert.assertTrue(chars.max < 4*lineLength);
+		iter.next();
+		Assert.assertTrue(chars.max >= 4*lineLength && chars.max < 7*lineLength);
+		int n = 4;
+		while (iter.hasNext()) { iter.next(); n++; }
+		Assert.assertEquals(100,n);
+	}
+
+	@Test
+	public void stream() {
+		String text = "(set-logic QF_UF) (declare-fun p () Bool) (declare-fun q () Bool) (assert (and p q)) (check-sat)";
+		ISource source = config.smtFactory.createSource(text,null);
+		List<ICommand> declarations = CommandIterator.stream(config,source).filter(new Predicate<ICommand>() {
+			@Override
+			public boolean test(ICommand c) { return c instanceof ICommand.Ideclare_fun; }
+		}).collect(Collectors.<ICommand>toList());
+		Assert.assertEquals(2,declarations.size());
+		Assert.assertEquals("(declare-fun q () Bool)",config.defaultPrinter.toString(declarations.get(1)));
+		source = config.smtFactory.createSource(text,null);
+		Assert.assertEquals(5,CommandIterator.stream(config,source).count());
+	}
+
+	/** The commands are not split among threads, even for a parallel stream */
+	@Test
+	public void noSplit() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 5000; i++) sb.append("(assert p").append(i).append(")\n");
+		CommandIterator iter = new CommandIterator(config, config.smtFactory.createSource(sb.toString(),null));
+		Spliterator<ICommand> s = iter.spliterator();
+		Assert.assertNull(s.trySplit());
+		Assert.assertTrue(s.hasCharacteristics(Spliterator.ORDERED));
+		Assert.assertEquals(5000,StreamSupport.stream(s,true).count());
+		Assert.assertEquals(0,iter.errors());
+	}
+
+	/** An unterminated literal is a (reported) error in the last command */
+	@Test
+	public void unterminated() {
+		String text = "(check-sat) (echo \"abc\n";
+		CommandIterator iter = new CommandIterator(config, config.smtFactory.createSource(text,null));
+		Assert.assertEquals(1,print(iter).size());
+		Assert.assertEquals(1,iter.errors());
+		Assert.assertEquals(1,listener.msgs.size());
+		Assert.assertNull(iter.failure());
+	}
+}
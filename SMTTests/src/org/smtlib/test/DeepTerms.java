@@ -0,0 +1,107 @@
+package org.smtlib.test;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IExpr;
+import org.smtlib.IParser;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.command.C_assert;
+import org.smtlib.solvers.Solver_test;
+
+/** Tests parsing, type-checking and printing terms that are nested too deeply for recursive
+ * descent on the Java stack */
+public class DeepTerms {
+
+	static final int DEPTH = 100000;
+
+	SMT smt;
+	ISolver solver;
+	JUnitListener listener;
+
+	@Before
+	public void init() {
+		smt = new SMT();
+		listener = new JUnitListener();
+		smt.smtConfig.log.clearListeners();
+		smt.smtConfig.log.addListener(listener);
+		solver = new Solver_test(smt.smtConfig,(String)null);
+		solver.start();
+	}
+
+	public ICommand parse(String input) throws Exception {
+		ISource source = smt.smtConfig.smtFactory.createSource(input,null);
+		IParser p = smt.smtConfig.smtFactory.createParser(smt.smtConfig,source);
+		ICommand command = p.parseCommand();
+		Assert.assertTrue(listener.msgs.isEmpty() ? "" : listener.msgs.get(0).toString(),listener.msgs.isEmpty());
+		Assert.assertNotNull(command);
+		return command;
+	}
+
+	public IResponse execute(String input) throws Exception {
+		return parse(input).execute(solver);
+	}
+
+	public void checkOK(IResponse r) {
+		Assert.assertFalse(r.isError() ? ((IResponse.IError)r).errorMsg() : "", r.isError());
+	}
+
+	/** Builds a term by wrapping the given innermost term DEPTH times in prefix ... suffix */
+	public String nest(String prefix, String innermost, String suffix) {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < DEPTH; i++) sb.append(prefix);
+		sb.append(innermost);
+		for (int i = 0; i < DEPTH; i++) sb.append(suffix);
+		return sb.toString();
+	}
+
+	@Test
+	public void functions() throws Exception {
+		checkOK(execute("(set-logic QF_UF)"));
+		checkOK(execute("(declare-fun p () Bool)"));
+		String term = nest("(and p (ite p ","true"," false))");
+		String cmd = "(assert " + term + ")";
+		ICommand c = parse(cmd);
+		Assert.assertEquals(cmd,smt.smtConfig.defaultPrinter.toString(c));
+		checkOK(c.execute(solver));
+		IResponse r = execute("(assert " + nest("(and p ","1",")") + ")");
+		Assert.assertTrue(r.isError());
+	}
+
+	@Test
+	public void lets() throws Exception {
+		checkOK(execute("(set-logic QF_UF)"));
+		// The printer writes a space after each binding
+		String term = nest("(let ((x (not (! x :named n))) ) (and x ","x","))");
+		term = "(let ((x true) ) " + term + ")";
+		IExpr e = ((C_assert)parse("(assert " + term + ")")).expr();
+		Assert.assertEquals(term,smt.smtConfig.defaultPrinter.toString(e));
+		checkOK(solver.assertExpr(smt.smtConfig.exprFactory.fcn(smt.smtConfig.exprFactory.symbol("not"),
+				smt.smtConfig.exprFactory.symbol("true"))));
+		IResponse r = solver.assertExpr(e);
+		Assert.assertTrue(r.isError());
+		Assert.assertTrue(((IResponse.IError)r).errorMsg(),((IResponse.IError)r).errorMsg().contains("already defined"));
+	}
+
+	@Test
+	public void quantifiers() throws Exception {
+		checkOK(execute("(set-logic AUFLIA)"));
+		String term = nest("(forall ((x Int)) (exists ((y Int)) (or (= x y) ","false",")))");
+		checkOK(execute("(assert " + term + ")"));
+		checkOK(execute("(set-option :print-success true)"));
+		solver = new Solver_test(smt.smtConfig,(String)null);
+		solver.start();
+		checkOK(execute("(set-logic QF_LIA)"));
+		IResponse r = execute("(assert " + term + ")");
+		Assert.assertTrue(((IResponse.IError)r).errorMsg(),((IResponse.IError)r).errorMsg().contains("quantified"));
+		checkOK(execute("(declare-fun z () Int)"));
+		checkOK(execute("(assert (> 0 " + nest("(+ 1 (* 2 z) ","z",")") + "))"));
+	}
+
+	@Test
+	public void sexprs() throws Exception {
+		checkOK(execute("(set-info :source " + nest("(a ","b",")") + ")"));
+	}
+}
@@ -0,0 +1,150 @@
+package org.smtlib.test;
+
+import java.util.List;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IExpr;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.TypeChecker;
+import org.smtlib.TypeMap;
+import org.smtlib.command.C_assert;
+import org.smtlib.impl.HashConsingFactory;
+import org.smtlib.solvers.Solver_test;
+
+/** Tests the hash-consing expression factory */
+public class HashConsingTests {
+
+	SMT smt;
+	HashConsingFactory factory;
+	JUnitListener listener;
+
+	@Before
+	public void init() {
+		smt = new SMT();
+		factory = new HashConsingFactory();
+		smt.smtConfig.exprFactory = factory;
+		listener = new JUnitListener();
+		smt.smtConfig.log.clearListeners();
+		smt.smtConfig.log.addListener(listener);
+	}
+
+	public ICommand parse(String input) throws Exception {
+		ISource source = smt.smtConfig.smtFactory.createSource(input,null);
+		IParser p = smt.smtConfig.smtFactory.createParser(smt.smtConfig,source);
+		ICommand command = p.parseCommand();
+		Assert.assertNotNull(command);
+		return command;
+	}
+
+	@Test
+	public void api() {
+		IExpr.IFactory f = factory;
+		IExpr a = f.fcn(f.symbol("f"),f.symbol("x"),f.numeral(1));
+		IExpr b = f.fcn(f.symbol("f"),f.symbol("x"),f.numeral("1"));
+		Assert.assertSame(a,b);
+		Assert.assertSame(f.symbol("x"),f.symbol("x"));
+		Assert.assertTrue(f.isShared(a));
+		Assert.assertTrue(f.isShared(f.symbol("x")));
+		Assert.assertFalse(f.isShared(new org.smtlib.impl.Factory().symbol("x")));
+		Assert.assertNotSame(a,f.fcn(f.symbol("f"),f.numeral(1),f.symbol("x")));
+		Assert.assertNotSame(a,f.fcn(f.symbol("g"),f.symbol("x"),f.numeral(1)));
+		Assert.assertSame(f.fcn(f.symbol("g"),a,a),f.fcn(f.symbol("g"),b,b));
+	}
+
+	@Test
+	public void parsed() throws Exception {
+		IExpr e = ((C_assert)parse("(assert (and (f #x0 (+ 3 1)) (f #x0 (+ 3 1)) (f #x0 (+ 3 2))))")).expr();
+		List<IExpr> args = ((IExpr.IFcnExpr)e).args();
+		Assert.assertSame(args.get(0),args.get(1));
+		Assert.assertNotSame(args.get(0),args.get(2));
+		IExpr e2 = ((C_assert)parse("(assert (f #x0 (+ 3 1)))")).expr();
+		Assert.assertSame(args.get(0),e2);
+		Assert.assertEquals("(and (f #x0 (+ 3 1)) (f #x0 (+ 3 1)) (f #x0 (+ 3 2)))",smt.smtConfig.defaultPrinter.toString(e));
+		e = ((C_assert)parse("(assert (and (f x (+ y 1)) (f x (+ y 1))))")).expr();
+		args = ((IExpr.IFcnExpr)e).args();
+		Assert.assertSame(args.get(0),args.get(1));
+		IExpr x = ((IExpr.IFcnExpr)args.get(0)).args().get(0);
+		Assert.assertSame(x,((IExpr.IFcnExpr)((C_assert)parse("(assert (g x))")).expr()).args().get(0));
+		// Shared nodes have no positions, since their occurrences are in different places
+		Assert.assertNull(args.get(0).pos());
+		Assert.assertNull(x.pos());
+		Assert.assertNull(e.pos());
+	}
+
+	/** A bound symbol that shadows a global one of another sort is the same (shared) node, but
+	 * gets its own sort in the scope of its binder in the typemap */
+	@Test
+	public void shadowing() throws Exception {
+		Solver_test s = new Solver_test(smt.smtConfig,(String)null);
+		s.start();
+		String[] script = { "(set-logic UFLIA)", "(declare-fun x () Bool)", "(declare-fun f (Int) Int)" };
+		for (String cmd: script) {
+			IResponse r = parse(cmd).execute(s);
+			Assert.assertFalse(cmd,r.isError());
+		}
+		IExpr e = ((C_assert)parse("(assert (and x (forall ((x Int)) (> (f x) 0)) (let ((x 2)) (> x 1)) x))")).expr();
+		TypeMap typemap = new TypeMap();
+		Assert.assertTrue(TypeChecker.check(s.symTable,e,typemap).isEmpty());
+		List<IExpr> args = ((IExpr.IFcnExpr)e).args();
+		IExpr.IForall forall = (IExpr.IForall)args.get(1);
+		IExpr.ILet let = (IExpr.ILet)args.get(2);
+		IExpr boundQ = ((IExpr.IFcnExpr)((IExpr.IFcnExpr)forall.expr()).args().get(0)).args().get(0);
+		IExpr boundL = ((IExpr.IFcnExpr)let.expr()).args().get(0);
+		Assert.assertSame(args.get(0),boundQ);
+		Assert.assertSame(args.get(0),boundL);
+		Assert.assertTrue(typemap.get(args.get(0)).isBool());
+		Assert.assertTrue(typemap.get(boundQ).isBool());
+		typemap.enter(forall);
+		Assert.assertEquals("Int",typemap.get(boundQ).toString());
+		Assert.assertTrue(typemap.get(forall.expr()).isBool());
+		typemap.exit();
+		typemap.enter(let);
+		Assert.assertEquals("Int",typemap.get(boundL).toString());
+		typemap.exit();
+		Assert.assertTrue(typemap.get(args.get(3)).isBool());
+	}
+
+	/** An error in a shared term is reported at the innermost enclosing expression with a position */
+	@Test
+	public void errorPositions() throws Exception {
+		ISolver s = new Solver_test(smt.smtConfig,(String)null);
+		s.start();
+		String[] script = { "(set-logic QF_UFLIA)", "(declare-fun f (Int Int) Bool)" };
+		for (String cmd: script) Assert.assertFalse(cmd,parse(cmd).execute(s).isError());
+		String text = "(assert (and (f 1 2) (! (f 1 q) :named n)))";
+		IResponse r = parse(text).execute(s);
+		Assert.assertTrue(r.isError());
+		IPos pos = ((IResponse.IError)r).pos();
+		Assert.assertNotNull(pos);
+		Assert.assertEquals(text.indexOf("(!"),pos.charStart());
+	}
+
+	@Test
+	public void typecheck() throws Exception {
+		ISolver s = new Solver_test(smt.smtConfig,(String)null);
+		s.start();
+		String[] script = { "(set-logic QF_UFLIA)", "(declare-fun f (Int Int) Bool)", "(declare-fun x () Int)",
+				"(declare-fun y () Int)", "(assert (and (f x (+ y 1)) (f x (+ y 1))))", "(check-sat)" };
+		for (String cmd: script) {
+			IResponse r = parse(cmd).execute(s);
+			Assert.assertFalse(cmd,r.isError());
+		}
+		IResponse r = parse("(assert (f (+ y 1) x true))").execute(s);
+		Assert.assertTrue(r.isError());
+		r = parse("(assert (let ((x true)) (and x (f 1 2))))").execute(s);
+		Assert.assertFalse(r.isError());
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--hashcons","a.smt2"},smt.smtConfig));
+		Assert.assertTrue(smt.smtConfig.exprFactory instanceof HashConsingFactory);
+	}
+}
@@ -0,0 +1,145 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.ISource;
+import org.smtlib.LogicCache;
+import org.smtlib.SMT;
+import org.smtlib.solvers.Solver_test;
+
+/** Tests reusing parsed logics and symbol table backgrounds from the LogicCache */
+public class LogicCacheTests {
+
+	SMT smt;
+	JUnitListener listener;
+	File dir;
+
+	@Before
+	public void init() {
+		smt = new SMT();
+		listener = new JUnitListener();
+		smt.smtConfig.log.clearListeners();
+		smt.smtConfig.log.addListener(listener);
+	}
+
+	@After
+	public void cleanup() {
+		if (dir != null) {
+			for (File f: dir.listFiles()) f.delete();
+			dir.delete();
+		}
+	}
+
+	public ISolver solver() {
+		ISolver s = new Solver_test(smt.smtConfig,(String)null);
+		s.start();
+		return s;
+	}
+
+	/** Parses and executes a command, returning the response */
+	public IResponse doCommand(ISolver solver, String input) throws Exception {
+		ISource source = smt.smtConfig.smtFactory.createSource(input,null);
+		IParser p = smt.smtConfig.smtFactory.createParser(smt.smtConfig,source);
+		ICommand command = p.parseCommand();
+		Assert.assertNotNull(command);
+		return command.execute(solver);
+	}
+
+	public void checkOK(IResponse r) {
+		Assert.assertFalse(r.isError() ? ((IResponse.IError)r).errorMsg() : "", r.isError());
+	}
+
+	@Test
+	public void reuse() throws Exception {
+		for (int i = 0; i < 3; i++) {
+			ISolver s = solver();
+			checkOK(doCommand(s,"(set-logic AUFLIRA)"));
+			checkOK(doCommand(s,"(declare-fun a () (Array Int Real))"));
+			checkOK(doCommand(s,"(assert (= (select a 0) (+ 1 (to_real 2))))"));
+			Assert.assertTrue(doCommand(s,"(declare-fun select () Int)").isError());
+		}
+	}
+
+	/** Global declarations go into the background frame, but not into the cached one */
+	@Test
+	public void globalDeclarations() throws Exception {
+		ISolver s = solver();
+		checkOK(doCommand(s,"(set-option :global-declarations true)"));
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		checkOK(doCommand(s,"(declare-fun p () Bool)"));
+		checkOK(doCommand(s,"(assert p)"));
+		s = solver();
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		Assert.assertTrue(doCommand(s,"(assert p)").isError());
+	}
+
+	/** A changed theory file is read again */
+	@Test
+	public void changedFile() throws Exception {
+		dir = Files.createTempDirectory("logics").toFile();
+		File logics = new File("../SMT/logics");
+		if (!logics.exists()) logics = new File("SMT/logics");
+		for (String name: new String[]{"QF_UF","Core"}) {
+			Files.copy(new File(logics,name + ".smt2").toPath(),new File(dir,name + ".smt2").toPath(),StandardCopyOption.REPLACE_EXISTING);
+		}
+		smt.smtConfig.logicPath = dir.getPath();
+		ISolver s = solver();
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		Assert.assertTrue(doCommand(s,"(assert (myfcn true))").isError());
+
+		File core = new File(dir,"Core.smt2");
+		long modified = core.lastModified();
+		String text = new String(Files.readAllBytes(core.toPath()),"UTF-8");
+		FileWriter w = new FileWriter(core);
+		w.write(text.replace("(not Bool Bool)","(not Bool Bool) (myfcn Bool Bool)"));
+		w.close();
+		core.setLastModified(modified + 2000);
+
+		s = solver();
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		checkOK(doCommand(s,"(assert (myfcn true))"));
+	}
+
+	/** A theory file that parses with errors is not cached, so its errors are reported every time */
+	@Test
+	public void notCachedWithErrors() throws Exception {
+		dir = Files.createTempDirectory("logics").toFile();
+		File logics = new File("../SMT/logics");
+		if (!logics.exists()) logics = new File("SMT/logics");
+		for (String name: new String[]{"QF_UF","Core"}) {
+			Files.copy(new File(logics,name + ".smt2").toPath(),new File(dir,name + ".smt2").toPath(),StandardCopyOption.REPLACE_EXISTING);
+		}
+		FileWriter w = new FileWriter(new File(dir,"Core.smt2"),true);
+		w.write("\n(extra)\n");
+		w.close();
+		smt.smtConfig.logicPath = dir.getPath();
+		for (int i = 0; i < 2; i++) {
+			listener.msgs.clear();
+			doCommand(solver(),"(set-logic QF_UF)");
+			Assert.assertFalse("Expected a parse error in Core",listener.msgs.isEmpty());
+			Assert.assertNull(LogicCache.cache.lookup(smt.smtConfig,"Core").ast());
+			Assert.assertNull(LogicCache.cache.background(smt.smtConfig,"QF_UF"));
+		}
+	}
+
+	@Test
+	public void disabled() throws Exception {
+		LogicCache.cache.clear();
+		smt.smtConfig.cacheLogics = false;
+		ISolver s = solver();
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		Assert.assertNull(LogicCache.cache.background(smt.smtConfig,"QF_UF"));
+		smt.smtConfig.cacheLogics = true;
+		s = solver();
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		Assert.assertNotNull(LogicCache.cache.background(smt.smtConfig,"QF_UF"));
+	}
+}
@@ -0,0 +1,64 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.*;
+import org.smtlib.CharSequenceMapped;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+
+/** Tests reading files through memory mapping (CharSequenceMapped) */
+public class MappedFiles {
+
+	File file;
+
+	@Before
+	public void init() throws Exception {
+		file = File.createTempFile("mapped",".smt2");
+		OutputStream out = new FileOutputStream(file);
+		out.write("(set-info :source |café ∀ 𝔸|)\n(check-sat)\n".getBytes(StandardCharsets.UTF_8));
+		out.close();
+	}
+
+	@After
+	public void cleanup() {
+		file.delete();
+	}
+
+	/** Reads the whole content of the file as a source, mapped or not */
+	public String read(long threshold) throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		config.mappedFileThreshold = threshold;
+		Assert.assertEquals(threshold >= 0,CharSequenceMapped.useFor(config,file));
+		ISource src = new Pos.Source(config,file);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; src.charAt(i) != CharSequenceMapped.endChar; ++i) sb.append(src.charAt(i));
+		src.close();
+		return sb.toString();
+	}
+
+	/** A mapped file and a file read through a Reader are both decoded as UTF-8 */
+	@Test
+	public void sameChars() throws Exception {
+		String mapped = read(0);
+		Assert.assertEquals(read(-1),mapped);
+		Assert.assertTrue(mapped,mapped.contains("café ∀ 𝔸"));
+	}
+
+	/** Once closed, the mapping is released and the sequence is empty */
+	@Test
+	public void close() throws Exception {
+		CharSequenceMapped cs = new CharSequenceMapped(file);
+		Assert.assertEquals('(',cs.charAt(0));
+		Assert.assertEquals('é',cs.charAt(22));
+		cs.close();
+		Assert.assertEquals(CharSequenceMapped.endChar,cs.charAt(0));
+		Assert.assertEquals(CharSequenceMapped.endChar,cs.charAt(22));
+		Assert.assertEquals(1,cs.length());
+		cs.close();
+	}
+}
@@ -0,0 +1,98 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.command.C_assert;
+import org.smtlib.solvers.Solver_test;
+
+/** Tests parsing with SMT.Configuration.noPositions, in which no source positions are recorded */
+public class NoPositions {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		config.noPositions = true;
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+	}
+
+	/** Parses all the commands in the given text, printing each one */
+	public List<String> parseAll(String text, boolean noPositions) throws Exception {
+		config.noPositions = noPositions;
+		ISource source = config.smtFactory.createSource(text,null);
+		IParser p = config.smtFactory.createParser(config,source);
+		List<String> result = new ArrayList<String>();
+		while (!p.isEOD()) {
+			ICommand c = p.parseCommand();
+			result.add(c == null ? null : config.defaultPrinter.toString(c));
+		}
+		return result;
+	}
+
+	/** The test scripts parse to the same commands with and without positions */
+	@Test
+	public void sameCommands() throws Exception {
+		File dir = new File("compliance");
+		if (!dir.exists()) dir = new File("SMTTests/compliance");
+		int n = 0;
+		for (File f: dir.listFiles()) {
+			if (!f.getName().endsWith(".smt2")) continue;
+			String text = new String(java.nio.file.Files.readAllBytes(f.toPath()));
+			List<String> expected = parseAll(text,false);
+			int errors = listener.msgs.size();
+			listener.msgs.clear();
+			Assert.assertEquals(f.getName(),expected,parseAll(text,true));
+			Assert.assertEquals(f.getName(),errors,listener.msgs.size());
+			listener.msgs.clear();
+			n++;
+		}
+		Assert.assertTrue(n > 0);
+	}
+
+	@Test
+	public void nullPositions() throws Exception {
+		ISource source = config.smtFactory.createSource("(assert (let ((x (! true :named n))) (and x (forall ((y Int)) (= y y)))))",null);
+		IParser p = config.smtFactory.createParser(config,source);
+		C_assert c = (C_assert)p.parseCommand();
+		Assert.assertNull(c.pos());
+		Assert.assertNull(c.expr().pos());
+		ISolver solver = new Solver_test(config,(String)null);
+		solver.start();
+		Assert.assertFalse(solver.set_logic("AUFLIA",null).isError());
+		Assert.assertFalse(c.execute(solver).isError());
+	}
+
+	/** Errors are still reported, but without a location */
+	@Test
+	public void errors() throws Exception {
+		String script = "(check-sat zzz)\n(get-value ())\n(assert (and p\n";
+		List<String> cmds = parseAll(script,true);
+		Assert.assertEquals(3,cmds.size());
+		Assert.assertEquals(3,listener.msgs.size());
+		for (IResponse r: listener.msgs) {
+			Assert.assertTrue(r.isError());
+			Assert.assertNull(((IPos.IPosable)r).pos());
+		}
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--nopositions","a.smt2"},smt.smtConfig));
+		Assert.assertTrue(smt.smtConfig.noPositions);
+	}
+}
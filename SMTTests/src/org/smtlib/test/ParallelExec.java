@@ -0,0 +1,111 @@
+package org.smtlib.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import org.smtlib.SMT;
+
+/** Tests processing several files concurrently (the --jobs option), with the test solver */
+public class ParallelExec {
+
+	JUnitListener listener;
+	List<File> files = new ArrayList<File>();
+
+	@After
+	public void cleanup() {
+		for (File f: files) f.delete();
+	}
+
+	/** Writes each script to its own file and returns the file names */
+	public List<String> write(String ... scripts) throws Exception {
+		List<String> names = new ArrayList<String>();
+		for (String script: scripts) {
+			File f = File.createTempFile("jobs",".smt2");
+			files.add(f);
+			FileWriter w = new FileWriter(f);
+			w.write(script);
+			w.close();
+			names.add(f.getPath());
+		}
+		return names;
+	}
+
+	/** Runs exec on the given files with the given number of jobs, returning the output */
+	public String exec(int jobs, List<String> names, int expectedRet) throws Exception {
+		SMT smt = new SMT();
+		listener = new JUnitListener();
+		smt.smtConfig.log.addListener(listener);
+		smt.smtConfig.solvername = "test";
+		smt.smtConfig.files = names;
+		smt.smtConfig.jobs = jobs;
+		ByteArrayOutputStream ba = new ByteArrayOutputStream();
+		smt.smtConfig.log.out = new PrintStream(ba);
+		smt.smtConfig.log.diag = smt.smtConfig.log.out;
+		Assert.assertEquals(expectedRet,smt.exec());
+		return ba.toString();
+	}
+
+	@Test
+	public void sameOutput() throws Exception {
+		List<String> scripts = new ArrayList<String>();
+		for (int i = 0; i < 20; i++) {
+			scripts.add("(set-logic QF_UF)(declare-fun p" + i + " () Bool)(assert p" + i + ")(check-sat)(exit)");
+		}
+		List<String> names = write(scripts.toArray(new String[scripts.size()]));
+		String expected = exec(1,names,0);
+		Assert.assertTrue(expected.contains("unknown"));
+		Assert.assertEquals(expected,exec(4,names,0));
+	}
+
+	@Test
+	public void errors() throws Exception {
+		List<String> names = write("(set-logic QF_UF)(check-sat)",
+				"(set-logic QF_UF)\n(assert q)\n",
+				"(set-logic QF_UF)(declare-fun p () Int)(check-sat)");  // Int is not in QF_UF
+		names.add(1,new File(files.get(0).getParentFile(),"jobs-does-not-exist.smt2").getPath());
+		String expected = exec(1,names,1);
+		Assert.assertEquals(2,listener.msgs.size());
+		Assert.assertTrue(expected.contains("(assert q)"));
+		Assert.assertTrue(expected.contains("No such sort symbol"));
+		Assert.assertTrue(expected.contains("Could not find file"));
+		Assert.assertEquals(expected,exec(3,names,1));
+		Assert.assertEquals(2,listener.msgs.size());
+	}
+
+	/** Each job loads its logics with its own configuration, so their output is recorded and
+	 * replayed in file order as usual */
+	@Test
+	public void setLogic() throws Exception {
+		String[] logics = { "QF_UF", "QF_LIA", "QF_BV", "AUFLIRA", "QF_AX", "NO_SUCH_LOGIC" };
+		List<String> scripts = new ArrayList<String>();
+		for (int i = 0; i < 24; i++) {
+			scripts.add("(set-logic " + logics[i % logics.length] + ")(declare-fun p () Bool)(assert p)(check-sat)(exit)");
+		}
+		List<String> names = write(scripts.toArray(new String[scripts.size()]));
+		String expected = exec(1,names,1);
+		Assert.assertTrue(expected.contains("unknown"));
+		Assert.assertTrue(expected.contains("NO_SUCH_LOGIC"));
+		int messages = listener.msgs.size();
+		for (int k = 0; k < 3; k++) {
+			Assert.assertEquals(expected,exec(4,names,1));
+			Assert.assertEquals(messages,listener.msgs.size());
+		}
+		SMT smt = new SMT();
+		SMT.Configuration copy = smt.smtConfig.clone();
+		Assert.assertNotSame(smt.smtConfig.utils,copy.utils);
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--jobs","8","a.smt2"},smt.smtConfig));
+		Assert.assertEquals(8,smt.smtConfig.jobs);
+		smt.smtConfig.log.clearListeners();
+		Assert.assertEquals(1,smt.processCommandLine(new String[]{"-j","0"},smt.smtConfig));
+	}
+}
@@ -0,0 +1,146 @@
+package org.smtlib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.sexpr.ParallelParser;
+
+/** Tests that a ParallelParser returns the same commands and errors, in the same order, as a Parser */
+public class ParallelParsing {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+	ForkJoinPool pool;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+		pool = new ForkJoinPool(3);
+	}
+
+	@After
+	public void close() {
+		pool.shutdownNow();
+	}
+
+	/** Parses the whole text, recording each command (printed) and, before it, the errors
+	 * logged while parsing it, with their line and column */
+	public List<String> parseAll(IParser p) throws Exception {
+		List<String> result = new ArrayList<String>();
+		while (!p.isEOD()) {
+			ICommand c = p.parseCommand();
+			for (IResponse r: listener.msgs) {
+				IPos pos = ((IResponse.IError)r).pos();
+				result.add(((IResponse.IError)r).errorMsg() + (pos == null ? "" :
+					" at " + pos.source().lineNumber(pos.charStart()) + ":" + pos.source().column(pos.charStart())));
+			}
+			listener.msgs.clear();
+			result.add(c == null ? "null " + p.lastError() : config.defaultPrinter.toString(c));
+			if (c instanceof ICommand.Iexit) break;
+		}
+		return result;
+	}
+
+	public void compare(String text, int chunkSize) throws Exception {
+		ISource source = config.smtFactory.createSource(text,null);
+		List<String> expected = parseAll(config.smtFactory.createParser(config,source));
+		Assert.assertTrue(expected.size() > 40);
+		source = config.smtFactory.createSource(text,null);
+		ParallelParser pp = new ParallelParser(config,source,pool);
+		pp.chunkSize = chunkSize;
+		Assert.assertEquals(expected,parseAll(pp));
+	}
+
+	/** A script with parentheses in strings, quoted symbols and comments, and some errors */
+	public String script(int n) {
+		return script(n,true);
+	}
+
+	/** A script with parentheses in strings, quoted symbols and comments, and optionally some errors */
+	public String script(int n, boolean errors) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("(set-logic QF_UF) ; (a comment (with parentheses\n");
+		for (int i = 0; i < n; i++) {
+			sb.append("(declare-fun |p)(").append(i).append("| () Bool)\n");
+			sb.append("(assert (! (or |p)(").append(i).append("| (not |p)(").append(i).append("|)) :named a").append(i).append("))");
+			sb.append(" ; ) comment\r\n");
+			// Not echo, after which (as after exit) no more commands are returned
+			if (i % 7 == 0) sb.append("(set-info :source \"a (string)) with \"\"quotes\"\" (\")\n");
+			if (!errors) continue;
+			if (i % 11 == 0) sb.append("(check-sat extra)\n");
+			if (i % 13 == 0) sb.append("(assert (and p q)\n  (push 1)\n");
+			if (i % 17 == 0) sb.append(") junk (pop 1)\n");
+		}
+		sb.append("(check-sat)\n");
+		return sb.toString();
+	}
+
+	@Test
+	public void chunks() throws Exception {
+		String text = script(200,false);
+		compare(text,1);
+		compare(text,100);
+		compare(text,5000);
+		compare(text,1 << 20);
+	}
+
+	/** After a chunk with an error, the rest of the input is parsed sequentially */
+	@Test
+	public void errors() throws Exception {
+		String text = script(200);
+		compare(text,1);
+		compare(text,100);
+		compare(text,5000);
+		compare(text,1 << 20);
+	}
+
+	/** Nothing after an exit command is returned */
+	@Test
+	public void exit() throws Exception {
+		String text = script(20) + "(exit)\n" + script(20);
+		compare(text,50);
+	}
+
+	/** An unterminated command or literal extends through the end of input */
+	@Test
+	public void unterminated() throws Exception {
+		compare(script(20,false) + "(declare-fun |p " + script(20,false),50);
+		compare(script(20) + "(assert (and p q)\n" + script(20),50);
+		compare(script(20) + "(echo \"abc) " + script(20),50);
+		compare(script(20) + "(declare-fun |p " + script(20),50);
+	}
+
+	@Test
+	public void script() throws Exception {
+		ISource source = config.smtFactory.createSource("(set-logic QF_UF) (declare-fun p () Bool) (assert p) (check-sat)",null);
+		ParallelParser pp = new ParallelParser(config,source,pool);
+		pp.chunkSize = 10;
+		ICommand.IScript s = pp.script();
+		Assert.assertEquals(4,s.commands().size());
+		Assert.assertTrue(listener.msgs.isEmpty());
+		source = config.smtFactory.createSource("(set-logic QF_UF) (declare-fun p () Bool 1) (assert p) (check-sat)",null);
+		pp = new ParallelParser(config,source,pool);
+		pp.chunkSize = 10;
+		Assert.assertNull(pp.script());
+		Assert.assertEquals(1,listener.msgs.size());
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--parsethreads","4","a.smt2"},smt.smtConfig));
+		Assert.assertEquals(4,smt.smtConfig.parseThreads);
+		Assert.assertEquals(1,smt.processCommandLine(new String[]{"--parsethreads","0"},new SMT.Configuration()));
+	}
+}
@@ -17,6 +17,7 @@ public class ParseExpressionErrors {
 	
 	static JUnitListener listener;
 	String version;
+	boolean fastLexer = false;
 	
 	@Before
 	public void init() {
@@ -26,6 +27,7 @@ public class ParseExpressionErrors {
 	public void testExpr(String input, String msg, int start, int end) throws Exception {
 		SMT.Configuration config = new SMT.Configuration();
 		config.smtlib = version;
+		config.fastLexer = fastLexer;
 		config.log.clearListeners();
 		config.log.addListener(listener);
 		ISource source = config.smtFactory.createSource(input,null);
@@ -43,6 +45,7 @@ public class ParseExpressionErrors {
 		try {
 			SMT.Configuration config = new SMT.Configuration();
 			config.smtlib = version;
+			config.fastLexer = fastLexer;
 			config.log.clearListeners();
 			config.log.addListener(listener);
 			ISource source = config.smtFactory.createSource(input,null);
@@ -0,0 +1,14 @@
+package org.smtlib.test;
+
+import org.junit.Before;
+
+/** Repeats the tests of ParseExpressionErrors using the hand-coded lexer instead of the regular expression lexer */
+public class ParseExpressionErrorsFastLexer extends ParseExpressionErrors {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		fastLexer = true;
+	}
+}
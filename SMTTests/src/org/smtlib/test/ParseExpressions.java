@@ -1,6 +1,7 @@
 package org.smtlib.test;
 
 import java.io.StringWriter;
+import java.math.BigInteger;
 
 import org.junit.*;
 import org.smtlib.IAttributeValue;
@@ -15,6 +16,7 @@ public class ParseExpressions {
 
 	static JUnitListener listener;
 	String version;
+	boolean fastLexer = false;
 	
 	@Before
 	public void init() {
@@ -35,6 +37,7 @@ public class ParseExpressions {
 	public void testExpr(String input, String output) throws Exception {
 		SMT.Configuration config = new SMT.Configuration();
 		config.smtlib = version;
+		config.fastLexer = fastLexer;
 		ISource source = config.smtFactory.createSource(input,null);
 		IParser p = new org.smtlib.sexpr.Parser(config,source);
 		IExpr e = p.parseExpr();
@@ -52,6 +55,7 @@ public class ParseExpressions {
 		try {
 			SMT.Configuration config = new SMT.Configuration();
 			config.smtlib = version;
+			config.fastLexer = fastLexer;
 			ISource source = config.smtFactory.createSource(input,null);
 			IParser p = new org.smtlib.sexpr.Parser(config,source);
 			IAttributeValue e = p.parseAttributeValue();
@@ -89,6 +93,61 @@ public class ParseExpressions {
 		testExpr("1");
 	} 
 
+	@Test
+	public void bigNumeral() throws Exception {
+		testExpr("123456789012345678");
+		testExpr("9223372036854775807");
+		testExpr("9223372036854775808");
+		testExpr("1234567891234567891234567890");
+	}
+
+	public IExpr parse(String input) throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		config.fastLexer = fastLexer;
+		return new org.smtlib.sexpr.Parser(config,config.smtFactory.createSource(input,null)).parseExpr();
+	}
+
+	/** Numerals, binary and hex literals hold their values as longs when they fit */
+	@Test
+	public void literalValues() throws Exception {
+		IExpr.INumeral n = (IExpr.INumeral)parse("9223372036854775807");
+		Assert.assertTrue(n.fitsInLong());
+		Assert.assertEquals(Long.MAX_VALUE,n.longValue());
+		Assert.assertEquals(BigInteger.valueOf(Long.MAX_VALUE),n.value());
+		IExpr.INumeral big = (IExpr.INumeral)parse("9223372036854775808");
+		Assert.assertFalse(big.fitsInLong());
+		Assert.assertEquals(BigInteger.valueOf(Long.MAX_VALUE).add(BigInteger.ONE),big.value());
+		IExpr.IFactory f = new SMT.Configuration().exprFactory;
+		Assert.assertEquals(f.numeral(42),parse("42"));
+		Assert.assertEquals(f.numeral(42).hashCode(),parse("42").hashCode());
+		Assert.assertEquals(new org.smtlib.impl.SMTExpr.Numeral(BigInteger.valueOf(42)),f.numeral("42"));
+		Assert.assertEquals(f.numeral("9223372036854775808"),big);
+		Assert.assertFalse(n.equals(big));
+
+		String ones = "111111111111111111111111111111111111111111111111111111111111111"; // 63 bits
+		IExpr.IBinaryLiteral b = (IExpr.IBinaryLiteral)parse("#b" + ones);
+		Assert.assertTrue(b.fitsInLong());
+		Assert.assertEquals(Long.MAX_VALUE,b.longValue());
+		b = (IExpr.IBinaryLiteral)parse("#b1" + ones);
+		Assert.assertFalse(b.fitsInLong());
+		Assert.assertEquals(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),b.intValue());
+		b = (IExpr.IBinaryLiteral)parse("#b0000000000000000000000000000000000000000000000000000000000000000000101");
+		Assert.assertTrue(b.fitsInLong());
+		Assert.assertEquals(5,b.longValue());
+		Assert.assertFalse(parse("#b01").equals(parse("#b1")));
+		Assert.assertEquals(parse("#b0101"),parse("#b0101"));
+
+		IExpr.IHexLiteral h = (IExpr.IHexLiteral)parse("#x7fffffffffffffff");
+		Assert.assertTrue(h.fitsInLong());
+		Assert.assertEquals(Long.MAX_VALUE,h.longValue());
+		h = (IExpr.IHexLiteral)parse("#xAbCdEf0123456789a");
+		Assert.assertFalse(h.fitsInLong());
+		Assert.assertEquals(new BigInteger("abcdef0123456789a",16),h.intValue());
+		Assert.assertEquals(parse("#xab"),parse("#xAB"));
+		Assert.assertEquals(parse("#xab").hashCode(),parse("#xAB").hashCode());
+		Assert.assertFalse(parse("#x0ab").equals(parse("#xab")));
+	}
+
 	@Test
 	public void decimal() throws Exception {
 		testExpr("10.02");
@@ -0,0 +1,14 @@
+package org.smtlib.test;
+
+import org.junit.Before;
+
+/** Repeats the tests of ParseExpressions using the hand-coded lexer instead of the regular expression lexer */
+public class ParseExpressionsFastLexer extends ParseExpressions {
+
+	@Override
+	@Before
+	public void init() {
+		super.init();
+		fastLexer = true;
+	}
+}
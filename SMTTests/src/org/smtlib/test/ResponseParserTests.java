@@ -0,0 +1,155 @@
+package org.smtlib.test;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.*;
+import org.smtlib.IResponse;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+import org.smtlib.sexpr.ResponseParser;
+
+/** Tests the shared engine that solver adapters use to parse responses */
+public class ResponseParserTests {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+	ResponseParser rp;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+		rp = new ResponseParser(config);
+	}
+
+	/** The rewriting the adapters used to do, with a new string for each literal */
+	public String oldRewrite(String response) {
+		Pattern oldbv = Pattern.compile("bv([0-9]+)\\[([0-9]+)\\]");
+		Matcher mm = oldbv.matcher(response);
+		while (mm.find()) {
+			long val = Long.parseLong(mm.group(1));
+			int base = Integer.parseInt(mm.group(2));
+			String bits = "";
+			for (int i=0; i<base; i++) { bits = ((val&1)==0 ? "0" : "1") + bits; val = val >>> 1; }
+			response = response.substring(0,mm.start()) + "#b" + bits + response.substring(mm.end(),response.length());
+			mm = oldbv.matcher(response);
+		}
+		return response;
+	}
+
+	/** Parses a response with a new parser, as the adapters used to do */
+	public IResponse oldParse(String response) throws Exception {
+		return new Parser(config,new Pos.Source(response,null)).parseResponse(response);
+	}
+
+	public String print(IResponse r) {
+		return config.defaultPrinter.toString(r);
+	}
+
+	@Test
+	public void rewrite() {
+		String s = "((x bv5[8]) (y bv0[1]) (z bv255[4]) (w abv1[2]z) bv[3] bv7)";
+		Assert.assertEquals(oldRewrite(s),ResponseParser.rewriteOldBitVectors(s));
+		Assert.assertEquals("((x #b00000101) (y #b0) (z #b1111) (w a#b01z) bv[3] bv7)",ResponseParser.rewriteOldBitVectors(s));
+		String t = "((x #b0101))";
+		Assert.assertSame(t,ResponseParser.rewriteOldBitVectors(t));
+		Assert.assertEquals("#b",ResponseParser.rewriteOldBitVectors("bv3[0]"));
+	}
+
+	@Test
+	public void errors() {
+		Assert.assertNull(ResponseParser.errorMessage("((x 1))",0));
+		Assert.assertEquals("msg",ResponseParser.errorMessage("(error \"msg\")",0));
+		Assert.assertEquals("a; b \\\" c",ResponseParser.errorMessage("  (error \"a\")\n(error \"b \\\" c\") (x)",0));
+		Assert.assertEquals("line 3 column 4: bad",ResponseParser.errorMessage("(error \"line 5 column 4: bad\")",2));
+		Assert.assertEquals("line 5 column 4: bad",ResponseParser.errorMessage("(error \"line 5 column 4: bad\")",0));
+	}
+
+	/** One parser gives the same results, response after response, as a new parser for each */
+	@Test
+	public void reuse() throws Exception {
+		String[] responses = { "sat", "((x 1) (y (- 2)))", "(error \"oops\")", "  ", "(:name \"z3\")",
+				"(model (define-fun x () Int 3) (define-fun f ((a Int)) Bool (> a 0)))", "unsupported",
+				"((x #b0101) (|a b| \"s\"))", "true" };
+		for (String r: responses) {
+			Assert.assertEquals(r,print(oldParse(r)),print(rp.parseResponse(r)));
+		}
+		try {
+			rp.parseResponse("((x 1)");
+			Assert.fail();
+		} catch (org.smtlib.IParser.ParserException e) {
+			// expected - and the parser is still usable
+		}
+		Assert.assertEquals(print(oldParse("(x y) (z)")),print(rp.parseResponse("(x y) (z)")));
+		Assert.assertEquals(print(oldParse("(z)")),print(rp.parseResponse("(z)")));
+	}
+
+	@Test
+	public void expressions() throws Exception {
+		Parser p = rp.parser("((x 1) (y 2))");
+		p.parseLP();
+		Assert.assertEquals("(x 1)",config.defaultPrinter.toString(p.parseExpr()));
+		p = rp.parser("(f a)");
+		Assert.assertEquals("(f a)",config.defaultPrinter.toString(p.parseExpr()));
+		Assert.assertTrue(p.isEOD());
+	}
+
+	/** A get-model response with n definitions, using old-style bit-vector literals */
+	public String model(int n) {
+		StringBuilder sb = new StringBuilder("(model\n");
+		for (int i = 0; i < n; i++) {
+			sb.append("  (define-fun x").append(i).append(" () (_ BitVec 32) bv").append(i*7919L).append("[32])\n");
+			sb.append("  (define-fun f").append(i).append(" ((a Int) (b Bool)) Int (ite (and b (> a ").append(i).append(")) (+ a ").append(i).append(") (- ").append(i).append(")))\n");
+		}
+		return sb.append(")").toString();
+	}
+
+	/** A get-value response with n values */
+	public String values(int n) {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < n; i++) sb.append("((select a ").append(i).append(") ").append(i*31).append(") (y").append(i).append(" #x").append(Integer.toHexString(i)).append(")\n");
+		return sb.append(")").toString();
+	}
+
+	/** Large responses are handled as they would be with a parser per response */
+	@Test
+	public void large() throws Exception {
+		String[] responses = { model(50), values(500) };
+		for (String response: responses) {
+			String expected = print(oldParse(oldRewrite(response)));
+			for (int i = 0; i < 2; i++) {
+				Assert.assertEquals(expected,print(rp.parseResponse(ResponseParser.rewriteOldBitVectors(response))));
+			}
+		}
+		Assert.assertEquals(0,listener.msgs.size());
+	}
+
+	/** The line of an error is found in the response being parsed, not in an earlier one */
+	@Test
+	public void positions() {
+		String[] responses = { "\n\n\n((x 1)", "   \n   ((x 1)", "((x 1)" };
+		int[] lines = { 4, 2, 1 };
+		for (int i = 0; i < responses.length; i++) {
+			try {
+				rp.parseResponse(responses[i]);
+				Assert.fail();
+			} catch (org.smtlib.IParser.ParserException e) {
+				Assert.assertEquals(responses[i],lines[i],e.pos().source().lineNumber(e.pos().charStart()));
+			}
+		}
+	}
+
+	/** Rewriting is linear in the length of the response */
+	@Test
+	public void largeRewrite() {
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < 200000; i++) sb.append("(x").append(i).append(" bv").append(i).append("[20])");
+		String s = ResponseParser.rewriteOldBitVectors(sb.append(")").toString());
+		Assert.assertTrue(s.startsWith("((x0 #b00000000000000000000)(x1 #b00000000000000000001)"));
+		Assert.assertFalse(s.contains("bv"));
+	}
+}
@@ -0,0 +1,307 @@
+package org.smtlib.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IExpr;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.IPos.IPosable;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.ScriptCache;
+import org.smtlib.command.C_assert;
+import org.smtlib.impl.HashConsingFactory;
+import org.smtlib.sexpr.ASTCodec;
+
+/** Tests the binary encoding of parsed commands and the cache of parsed scripts */
+public class ScriptCacheTests {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+	File dir;
+	List<File> files = new ArrayList<File>();
+
+	@Before
+	public void init() throws Exception {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+		dir = File.createTempFile("parsecache","");
+		dir.delete();
+		files.add(dir);
+	}
+
+	@After
+	public void cleanup() {
+		File[] cached = dir.listFiles();
+		if (cached != null) for (File f: cached) f.delete();
+		for (File f: files) f.delete();
+	}
+
+	/** Parses all the commands of the text, whatever errors there are */
+	public List<ICommand> parse(SMT.Configuration config, ISource source) throws Exception {
+		IParser p = config.smtFactory.createParser(config,source);
+		List<ICommand> commands = new ArrayList<ICommand>();
+		while (!p.isEOD()) {
+			ICommand c = p.parseCommand();
+			if (c != null) commands.add(c);
+		}
+		return commands;
+	}
+
+	/** The printed form and position of each command */
+	public List<String> print(SMT.Configuration config, List<ICommand> commands) {
+		List<String> result = new ArrayList<String>();
+		for (ICommand c: commands) {
+			IPos pos = ((IPosable)c).pos();
+			result.add(config.defaultPrinter.toString(c) + (pos == null ? "" : " @" + pos.charStart() + "-" + pos.charEnd()));
+		}
+		return result;
+	}
+
+	public List<ICommand> roundTrip(SMT.Configuration config, ISource source, List<ICommand> commands) throws Exception {
+		ByteBuffer bytes = new ASTCodec.Encoder(source).encode(commands);
+		return new ASTCodec.Decoder(config,source,bytes).decode();
+	}
+
+	/** Every command of the test scripts is decoded as it was parsed */
+	@Test
+	public void testFiles() throws Exception {
+		config.relax = true;
+		File[] tests = new File("tests").listFiles();
+		Assume.assumeTrue(tests != null);
+		int n = 0;
+		for (File f: tests) {
+			if (!f.getName().endsWith(".tst")) continue;
+			ISource source = config.smtFactory.createSource(config, f);
+			List<ICommand> commands = parse(config,source);
+			List<String> expected = print(config,commands);
+			try {
+				Assert.assertEquals(f.getName(),expected,print(config,roundTrip(config,source,commands)));
+			} catch (ASTCodec.EncodingException e) {
+				Assert.fail(f.getName() + ": " + e.getMessage());
+			}
+			n++;
+		}
+		Assert.assertTrue(n > 100);
+	}
+
+	@Test
+	public void positions() throws Exception {
+		String text = "(set-info :source |a\nsource|) (declare-sort U 0) (define-sort S (X) (Array X U))\n"
+				+ "(declare-fun f ((_ BitVec 8) S) (_ BitVec 8)) (push 1)\n"
+				+ "(assert (! (forall ((x (_ BitVec 8))) (let ((y #b00001111)) (= (f x (as a S)) #x0f y))) :named |a b| :pattern ((f x c) 12345678901234567890123)))\n"
+				+ "(set-option :opt (1.5 \"s\" ((g 3)) :k)) (get-value (a 0.25)) ; comment\n(check-sat) (exit)";
+		ISource source = config.smtFactory.createSource(text,null);
+		List<ICommand> commands = parse(config,source);
+		Assert.assertEquals(0,listener.msgs.size());
+		Assert.assertEquals(10,commands.size());
+		List<ICommand> decoded = roundTrip(config,source,commands);
+		Assert.assertEquals(print(config,commands),print(config,decoded));
+		IExpr.IAttributedExpr e = (IExpr.IAttributedExpr)((C_assert)decoded.get(5)).expr();
+		IExpr.IAttributedExpr orig = (IExpr.IAttributedExpr)((C_assert)commands.get(5)).expr();
+		Assert.assertEquals(orig.expr().pos().charStart(),e.expr().pos().charStart());
+		Assert.assertEquals(orig.attributes().get(1).pos().charEnd(),e.attributes().get(1).pos().charEnd());
+		Assert.assertSame(source,e.pos().source());
+		Assert.assertSame(config.symbolPool.intern("x"),((IExpr.IForall)e.expr()).parameters().get(0).parameter().value());
+		Assert.assertSame(((IExpr.IAttribute<?>)orig.attributes().get(0)).keyword().value(),e.attributes().get(0).keyword().value());
+	}
+
+	/** Subterms shared by a hash-consing factory are shared when decoded */
+	@Test
+	public void sharing() throws Exception {
+		config.exprFactory = new HashConsingFactory();
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 100; i++) sb.append("(assert (and (f (g 1 #b01)) (f (g 1 #b01))))\n");
+		ISource source = config.smtFactory.createSource(sb.toString(),null);
+		List<ICommand> commands = parse(config,source);
+		ByteBuffer bytes = new ASTCodec.Encoder(source).encode(commands);
+		SMT.Configuration other = new SMT.Configuration();
+		other.exprFactory = new HashConsingFactory();
+		List<ICommand> decoded = new ASTCodec.Decoder(other,source,bytes).decode();
+		Assert.assertEquals(print(config,commands),print(other,decoded));
+		IExpr.IFcnExpr a = (IExpr.IFcnExpr)((C_assert)decoded.get(0)).expr();
+		IExpr.IFcnExpr b = (IExpr.IFcnExpr)((C_assert)decoded.get(99)).expr();
+		Assert.assertSame(a,b);
+		Assert.assertSame(a.args().get(0),a.args().get(1));
+		// Each repeated command is a back-reference of a few bytes
+		Assert.assertTrue(bytes.remaining() < sb.length()/5);
+	}
+
+	@Test
+	public void badEncoding() throws Exception {
+		ISource source = config.smtFactory.createSource("(assert (f x))",null);
+		ByteBuffer bytes = new ASTCodec.Encoder(source).encode(parse(config,source));
+		byte[] truncated = Arrays.copyOf(bytes.array(),bytes.remaining() - 2);
+		try {
+			new ASTCodec.Decoder(config,source,ByteBuffer.wrap(truncated)).decode();
+			Assert.fail();
+		} catch (java.io.IOException e) {
+			// expected
+		}
+		try {
+			new ASTCodec.Decoder(config,source,ByteBuffer.wrap("(assert (f x))".getBytes())).decode();
+			Assert.fail();
+		} catch (java.io.IOException e) {
+			// expected
+		}
+	}
+
+	/** Every change to a byte of an encoding gives either some commands or an IOException */
+	@Test
+	public void corrupt() throws Exception {
+		String text = "(set-info :k |a b|) (declare-fun f (Int (_ BitVec 8)) Int)\n"
+				+ "(assert (! (forall ((x Int)) (let ((y (f x #b00001111))) (> (f y #x0f) 12345678901234567890123 2.5))) :named n))\n"
+				+ "(get-value ((f 1 #x01) \"s\")) (check-sat)";
+		ISource source = config.smtFactory.createSource(text,null);
+		ByteBuffer bytes = new ASTCodec.Encoder(source).encode(parse(config,source));
+		byte[] good = Arrays.copyOf(bytes.array(),bytes.remaining());
+		int[] values = { 0, 1, 2, 0x7F, 0x80, 0xFF };
+		for (int i = 4; i < good.length; i++) {
+			for (int v: values) {
+				byte[] bad = good.clone();
+				bad[i] = (byte)v;
+				try {
+					new ASTCodec.Decoder(config,source,ByteBuffer.wrap(bad)).decode();
+				} catch (java.io.IOException e) {
+					// expected
+				}
+			}
+		}
+		// A string said to be very long
+		// (one assert command, whose prefix text is a new string)
+		byte[] huge = { 0x53, 0x4D, 0x54, 0x42, 1, 2, 0, 0, 1, (byte)0xFF, (byte)0xFF, (byte)0xFF, (byte)0xFF, 0x07 };
+		try {
+			new ASTCodec.Decoder(config,source,ByteBuffer.wrap(huge)).decode();
+			Assert.fail();
+		} catch (java.io.IOException e) {
+			Assert.assertTrue(e.getMessage(),e.getMessage().contains("string"));
+		}
+	}
+
+	/** Terms nested more deeply than the Java stack allows recursion are encoded and decoded */
+	@Test
+	public void deep() throws Exception {
+		int depth = 50000;
+		StringBuilder sb = new StringBuilder("(assert ");
+		for (int i = 0; i < depth; i++) sb.append("(not ");
+		sb.append("p");
+		for (int i = 0; i < depth; i++) sb.append(')');
+		sb.append(")");
+		ISource source = config.smtFactory.createSource(sb.toString(),null);
+		List<ICommand> commands = parse(config,source);
+		Assert.assertEquals(0,listener.msgs.size());
+		List<ICommand> decoded = roundTrip(config,source,commands);
+		Assert.assertEquals(print(config,commands),print(config,decoded));
+		IExpr e = ((C_assert)decoded.get(0)).expr();
+		for (int i = 0; i < depth; i++) e = ((IExpr.IFcnExpr)e).args().get(0);
+		Assert.assertEquals("p",e.toString());
+		Assert.assertEquals("(assert ".length() + "(not ".length()*depth,((IPosable)e).pos().charStart());
+	}
+
+	/** Decoding does not change the positions of hash-consed terms it shares with others */
+	@Test
+	public void sharedPositions() throws Exception {
+		config.exprFactory = new HashConsingFactory();
+		ISource first = config.smtFactory.createSource("(assert (g (f 1 2)))",null);
+		C_assert cmd = (C_assert)parse(config,first).get(0);
+		IExpr.IFcnExpr term = (IExpr.IFcnExpr)((IExpr.IFcnExpr)cmd.expr()).args().get(0);
+		// A shared term has no position of its own; the command enclosing it has one
+		Assert.assertNull(term.pos());
+		Assert.assertSame(first,((IPosable)cmd).pos().source());
+		// The encoded commands are parsed without hash-consing, so nothing is shared with the first
+		SMT.Configuration plain = new SMT.Configuration();
+		ISource second = plain.smtFactory.createSource("(check-sat)\n(assert (f 1 2))",null);
+		List<ICommand> decoded = roundTrip(config,second,parse(plain,second));
+		Assert.assertSame(term,((C_assert)decoded.get(1)).expr());
+		// Decoding does not give the shared term the position of the second occurrence
+		Assert.assertNull(term.pos());
+	}
+
+	public String write(String script) throws Exception {
+		File f = File.createTempFile("parsecache",".smt2");
+		files.add(f);
+		FileWriter w = new FileWriter(f);
+		w.write(script);
+		w.close();
+		return f.getPath();
+	}
+
+	/** Runs exec on the given file with the test solver, returning the output */
+	public String exec(String name, boolean cache, int expectedRet) throws Exception {
+		SMT smt = new SMT();
+		smt.smtConfig.solvername = "test";
+		smt.smtConfig.files = Arrays.asList(name);
+		if (cache) smt.smtConfig.parseCache = dir.getPath();
+		ByteArrayOutputStream ba = new ByteArrayOutputStream();
+		smt.smtConfig.log.out = new PrintStream(ba);
+		smt.smtConfig.log.diag = smt.smtConfig.log.out;
+		Assert.assertEquals(expectedRet,smt.exec());
+		return ba.toString();
+	}
+
+	/** The output of a cached script, including the positions of its errors, is as when it is parsed */
+	@Test
+	public void exec() throws Exception {
+		String name = write("(set-logic QF_UF)\n(declare-fun p () Bool)\n(assert (and p\n   q))\n(assert p)\n(check-sat)\n(exit)\n(assert (");
+		String expected = exec(name,false,1);
+		Assert.assertTrue(expected.contains("q"));
+		Assert.assertEquals(expected,exec(name,true,1));
+		File[] cached = dir.listFiles();
+		Assert.assertEquals(1,cached.length);
+		Assert.assertTrue(cached[0].getName().endsWith(ScriptCache.SUFFIX));
+		long modified = cached[0].lastModified();
+		Assert.assertEquals(expected,exec(name,true,1));
+		Assert.assertEquals(1,dir.listFiles().length);
+		Assert.assertEquals(modified,cached[0].lastModified());
+
+		// A damaged cache file is ignored, and replaced
+		FileWriter w = new FileWriter(cached[0]);
+		w.write("garbage");
+		w.close();
+		Assert.assertEquals(expected,exec(name,true,1));
+		Assert.assertEquals(expected,exec(name,true,1));
+		Assert.assertTrue(cached[0].length() > 10);
+	}
+
+	/** A script with parse errors is not cached, and its errors are reported as usual */
+	@Test
+	public void parseErrors() throws Exception {
+		String name = write("(set-logic QF_UF)\n(declare-fun p () Bool)\n(assert (and p))) \n(check-sat)\n");
+		String expected = exec(name,false,1);
+		Assert.assertEquals(expected,exec(name,true,1));
+		File[] cached = dir.listFiles();
+		Assert.assertTrue(cached == null || cached.length == 0);
+	}
+
+	/** The key depends on the content of the file and the parsing settings */
+	@Test
+	public void keys() throws Exception {
+		ScriptCache cache = new ScriptCache(dir);
+		String a = write("(check-sat)");
+		String b = write("(check-sat)");
+		String c = write("(check-sat) ");
+		String key = cache.key(config,new File(a));
+		Assert.assertEquals(key,cache.key(config,new File(b)));
+		Assert.assertNotEquals(key,cache.key(config,new File(c)));
+		config.relax = true;
+		Assert.assertNotEquals(key,cache.key(config,new File(a)));
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--parsecache","cachedir","a.smt2"},smt.smtConfig));
+		Assert.assertEquals("cachedir",smt.smtConfig.parseCache);
+	}
+}
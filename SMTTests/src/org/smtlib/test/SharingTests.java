@@ -0,0 +1,111 @@
+package org.smtlib.test;
+
+import org.junit.*;
+import org.smtlib.IExpr;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+import org.smtlib.sexpr.Sharing;
+
+/** Tests rewriting terms so that their repeated subterms are let-bound */
+public class SharingTests {
+
+	SMT.Configuration config;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+	}
+
+	public IExpr parse(String text) throws Exception {
+		return new Parser(config,new Pos.Source(text,null)).parseExpr();
+	}
+
+	public String print(IExpr e) {
+		return config.defaultPrinter.toString(e);
+	}
+
+	public String share(String text, boolean structural) throws Exception {
+		return print(new Sharing(config,structural).rewrite(parse(text)));
+	}
+
+	/** A term of the given depth, each of whose subterms is used twice by its parent */
+	public IExpr chain(int depth) {
+		IExpr t = config.exprFactory.symbol("x");
+		for (int i = 0; i < depth; i++) t = config.exprFactory.fcn(config.exprFactory.symbol("f"),t,t);
+		return t;
+	}
+
+	@Test
+	public void identity() throws Exception {
+		Assert.assertEquals("(let ((?s1 (f x x)) ) (let ((?s2 (f ?s1 ?s1)) ) (f ?s2 ?s2)))",print(new Sharing(config,false).rewrite(chain(3))));
+		// Separately parsed subterms are not identical
+		Assert.assertEquals("(and (f (g x)) (f (g x)))",share("(and (f (g x)) (f (g x)))",false));
+	}
+
+	@Test
+	public void structural() throws Exception {
+		Assert.assertEquals("(let ((?s1 (f (g x))) ) (and ?s1 ?s1))",share("(and (f (g x)) (f (g x)))",true));
+		Assert.assertEquals("(let ((?s1 (g x)) ) (let ((?s2 (f ?s1)) ) (and ?s2 (h ?s1) ?s2)))",share("(and (f (g x)) (h (g x)) (f (g x)))",true));
+		// Symbols and literals are not bound
+		Assert.assertEquals("(and (p x 1) (q x 1))",share("(and (p x 1) (q x 1))",true));
+		// Different literals and heads are not confused
+		Assert.assertEquals("(and (f |a b| 1.0) (f |a c| 1.0) (g |a b| 1.0))",share("(and (f |a b| 1.0) (f |a c| 1.0) (g |a b| 1.0))",true));
+	}
+
+	@Test
+	public void unchanged() throws Exception {
+		IExpr e = parse("(forall ((y Int)) (and (f y) (let ((z 1)) (g z))))");
+		Assert.assertSame(e,new Sharing(config,true).rewrite(e));
+	}
+
+	/** Subterms under a binder are bound within it, inside any patterns */
+	@Test
+	public void binders() throws Exception {
+		Assert.assertEquals("(and (forall ((y Int) ) (let ((?s1 (h y)) ) (and (> ?s1 0) (< ?s1 5)))) (> (h 1) 0))",
+				share("(and (forall ((y Int)) (and (> (h y) 0) (< (h y) 5))) (> (h 1) 0))",true));
+		Assert.assertTrue(share("(forall ((y Int)) (! (= (h y) (h y)) :pattern ((h y))))",true)
+				.startsWith("(forall ((y Int) ) (! (let ((?s1 (h y)) ) (= ?s1 ?s1)) :pattern"));
+		Assert.assertEquals("(let ((z (let ((?s1 (f a)) ) (g ?s1 ?s1))) ) (let ((?s2 (f z)) ) (and ?s2 ?s2)))",
+				share("(let ((z (g (f a) (f a)))) (and (f z) (f z)))",true));
+		// A repeated quantifier is itself bound (quantifiers are recognized by identity only)
+		IExpr q = parse("(exists ((y Int)) (p y))");
+		IExpr e = config.exprFactory.fcn(config.exprFactory.symbol("and"),q,config.exprFactory.fcn(config.exprFactory.symbol("not"),q));
+		Assert.assertEquals("(let ((?s1 (exists ((y Int) ) (p y))) ) (and ?s1 (not ?s1)))",print(new Sharing(config,true).rewrite(e)));
+		Assert.assertEquals("(and (exists ((y Int) ) (p y)) (not (exists ((y Int) ) (p y))))",
+				share("(and (exists ((y Int)) (p y)) (not (exists ((y Int)) (p y))))",true));
+	}
+
+	/** The names introduced are not used in the term */
+	@Test
+	public void names() throws Exception {
+		Assert.assertEquals("(let ((?ss1 (f ?s1)) ) (and ?ss1 ?ss1))",share("(and (f ?s1) (f ?s1))",true));
+		Assert.assertEquals("(forall ((?s2 Int) ) (let ((?ss1 (f ?s2)) ) (and ?ss1 ?ss1)))",share("(forall ((?s2 Int)) (and (f ?s2) (f ?s2)))",true));
+	}
+
+	/** The text of a deeply shared term is linear in the size of its DAG */
+	@Test(timeout=10000)
+	public void large() {
+		IExpr e = new Sharing(config,false).rewrite(chain(100000));
+		String s = print(e);
+		Assert.assertTrue(s.length() < 100000 * 40);
+		Assert.assertTrue(s.endsWith("(f ?s99999 ?s99999)" + new String(new char[99999]).replace('\0',')')));
+		Assert.assertEquals(s,print(new Sharing(config,true).rewrite(chain(100000))));
+	}
+
+	@Test
+	public void letForm() throws Exception {
+		IExpr e = chain(2);
+		Assert.assertSame(e,Sharing.letForm(config,e));
+		config.shareSubterms = true;
+		Assert.assertEquals("(let ((?s1 (f x x)) ) (f ?s1 ?s1))",print(Sharing.letForm(config,e)));
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--share","--sharestructural","a.smt2"},smt.smtConfig));
+		Assert.assertTrue(smt.smtConfig.shareSubterms);
+		Assert.assertTrue(smt.smtConfig.shareStructurally);
+	}
+}
@@ -0,0 +1,127 @@
+package org.smtlib.test;
+
+import java.io.StringReader;
+
+import org.junit.*;
+import org.smtlib.CharSequenceReader;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+
+/** Tests parsing from a sliding-window source, which discards the text of commands already parsed */
+public class SlidingWindow {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+	boolean fastLexer = false;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+	}
+
+	/** Parses 'count' copies of the given command, each on its own line (with CRLF
+	 * line endings if crlf is true), from a source with a small initial buffer;
+	 * the last command is replaced by 'last'.
+	 */
+	public IParser parse(String command, int count, String last, boolean crlf) throws Exception {
+		config.fastLexer = fastLexer;
+		StringBuilder sb = new StringBuilder();
+		for (int i = 1; i < count; i++) sb.append(command).append(crlf ? "\r\n" : "\n");
+		sb.append(last).append("\n");
+		CharSequenceReader csr = new CharSequenceReader(new StringReader(sb.toString()),64,0,2);
+		csr.slidingWindow = true;
+		ISource source = config.smtFactory.createSource(csr,null);
+		IParser p = new org.smtlib.sexpr.Parser(config,source);
+		int n = 0;
+		while (!p.isEOD()) {
+			p.releaseConsumedInput();
+			ICommand c = p.parseCommand();
+			if (++n < count) {
+				Assert.assertTrue(listener.msgs.isEmpty() ? "": listener.msgs.get(0).toString(),listener.msgs.isEmpty());
+				Assert.assertNotNull(c);
+			}
+		}
+		Assert.assertEquals(count,n);
+		Assert.assertTrue("Input was not discarded", csr.windowBase() > sb.length() - 2*last.length() - command.length());
+		return p;
+	}
+
+	/** Checks that the one error message reported is at the given line and has the given text line */
+	public void checkError(String line, int lineNumber) {
+		Assert.assertEquals(1,listener.msgs.size());
+		IPos pos = ((IResponse.IError)listener.msgs.get(0)).pos();
+		Assert.assertNotNull(pos);
+		Assert.assertEquals(lineNumber,pos.source().lineNumber(pos.charStart()));
+		Assert.assertEquals(line,pos.source().textLine(pos.charStart()).trim());
+	}
+
+	@Test
+	public void manyCommands() throws Exception {
+		parse("(assert (and p (or q (not r)))) ; comment",5000,"(check-sat)",false);
+	}
+
+	@Test
+	public void errorLineNumber() throws Exception {
+		parse("(declare-fun p () Bool)",3000,"(check-sat zzz)",false);
+		checkError("(check-sat zzz)",3000);
+	}
+
+	@Test
+	public void errorLineNumberCRLF() throws Exception {
+		parse("(declare-fun p () Bool)",3000,"(check-sat zzz)",true);
+		checkError("(check-sat zzz)",3000);
+	}
+
+	@Test
+	public void longCommand() throws Exception {
+		StringBuilder sb = new StringBuilder("(assert (and");
+		for (int i = 0; i < 1000; i++) sb.append(" p").append(i);
+		sb.append("))");
+		parse(sb.toString(),20,"(check-sat zzz)",false);
+		checkError("(check-sat zzz)",20);
+	}
+
+	@Test
+	public void manyCommandsFastLexer() throws Exception {
+		fastLexer = true;
+		parse("(assert (and p (or q (not r)))) ; comment",5000,"(check-sat)",false);
+	}
+
+	@Test
+	public void errorLineNumberFastLexer() throws Exception {
+		fastLexer = true;
+		parse("(declare-fun p () Bool)",3000,"(check-sat zzz)",true);
+		checkError("(check-sat zzz)",3000);
+	}
+
+	/** A sliding-window source that has (supposedly) already discarded the given number of characters */
+	static class Discarded extends CharSequenceReader {
+		Discarded(String text, int discarded) {
+			super(new StringReader(text),64,0,2);
+			slidingWindow = true;
+			base = discarded;
+		}
+	}
+
+	/** Positions are ints, so reading past Integer.MAX_VALUE-2 characters is refused rather than wrapping around */
+	@Test
+	public void positionLimit() {
+		Discarded csr = new Discarded("(check-sat)",Integer.MAX_VALUE - 20);
+		Assert.assertEquals('(',csr.charAt(Integer.MAX_VALUE - 20));
+		Assert.assertEquals(CharSequenceReader.endChar,csr.charAt(Integer.MAX_VALUE - 9));
+		csr = new Discarded("(check-sat)",Integer.MAX_VALUE - 10);
+		try {
+			csr.charAt(Integer.MAX_VALUE - 10);
+			Assert.fail("Expected the input to be refused");
+		} catch (RuntimeException e) {
+			Assert.assertTrue(e.getMessage(),e.getMessage().contains("longer than"));
+		}
+	}
+}
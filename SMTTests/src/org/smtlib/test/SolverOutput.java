@@ -0,0 +1,163 @@
+package org.smtlib.test;
+
+import java.io.File;
+import java.io.Writer;
+import java.nio.file.Files;
+
+import org.junit.*;
+import org.smtlib.IExpr;
+import org.smtlib.SMT;
+import org.smtlib.SolverProcess;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+
+/** Tests recognizing the end of a solver response as the response arrives in pieces, and
+ * writing commands to a solver process */
+public class SolverOutput {
+
+	final String eol = "\n";
+
+	/** Feeds the pieces one at a time, as StreamGobbler does, and returns the index of the
+	 * piece after which the response was recognized as complete, or -1 */
+	public int feed(String endMarker, String ... pieces) {
+		SolverProcess.ResponseEnd r = new SolverProcess.ResponseEnd(endMarker);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < pieces.length; i++) {
+			sb.append(pieces[i]);
+			if (r.apply(sb)) return i;
+		}
+		return -1;
+	}
+
+	@Test
+	public void simple() {
+		Assert.assertEquals(0,feed(eol,"sat\n"));
+		Assert.assertEquals(1,feed(eol,"sa","t\n"));
+	}
+
+	@Test
+	public void multiline() {
+		Assert.assertEquals(3,feed(eol,"(model\n","  (define-fun x () Int 0)\n","  (define-fun y () Int 1)\n",")\n"));
+	}
+
+	@Test
+	public void prompt() {
+		Assert.assertEquals(1,feed("> ","(error \"x\")\n","> "));
+		Assert.assertEquals(-1,feed("> ","(error \"x\"","> "));
+	}
+
+	@Test
+	public void parenInString() {
+		Assert.assertEquals(2,feed(eol,"(error \"unbalanced (\n","in string\")","\n"));
+		Assert.assertEquals(1,feed(eol,"(error \"a \"\"(\"\" b\")","\n"));
+	}
+
+	@Test
+	public void parenInQuotedSymbol() {
+		Assert.assertEquals(1,feed(eol,"((|x)\ny| 1)",")\n"));
+	}
+
+	@Test
+	public void rightParenFirst() {
+		Assert.assertEquals(0,feed(eol,") unexpected\n"));
+	}
+
+	@Test
+	public void consecutive() {
+		SolverProcess.ResponseEnd r = new SolverProcess.ResponseEnd(eol);
+		StringBuilder sb = new StringBuilder("(a\n");
+		Assert.assertFalse(r.apply(sb));
+		sb.append(")\n");
+		Assert.assertTrue(r.apply(sb));
+		sb.setLength(0);
+		sb.append("(b)\n");
+		Assert.assertTrue(r.apply(sb));
+	}
+
+	/** A multi-megabyte model delivered in small pieces; rescanning the whole response for each
+	 * piece would take minutes, scanning incrementally takes well under the time limit. */
+	@Test(timeout=10000)
+	public void largeModel() {
+		SolverProcess.ResponseEnd r = new SolverProcess.ResponseEnd(eol);
+		StringBuilder sb = new StringBuilder("(model\n");
+		int pieces = 0;
+		for (int i = 0; i < 200000; i++) {
+			sb.append("  (define-fun |x ").append(i).append(")| () String \"(\")\n");
+			if (++pieces % 2 == 0) Assert.assertFalse(r.apply(sb));
+		}
+		Assert.assertTrue(sb.length() > 8000000);
+		Assert.assertFalse(r.apply(sb));
+		sb.append(")\n");
+		Assert.assertTrue(r.apply(sb));
+	}
+
+	/** Starts 'cat' as a stand-in for a solver, since it echoes each command line */
+	public SolverProcess cat(File log) {
+		Assume.assumeTrue(new File("/bin/cat").exists());
+		SolverProcess p = new SolverProcess(new String[]{"/bin/cat"},eol,log == null ? null : log.getPath());
+		p.start(false);
+		return p;
+	}
+
+	public String read(File f) throws Exception {
+		return new String(Files.readAllBytes(f.toPath()));
+	}
+
+	/** A command printed into the process's writer is sent, and logged, only when sendWritten is called */
+	@Test
+	public void writer() throws Exception {
+		File log = File.createTempFile("solver",".log");
+		try {
+			SolverProcess p = cat(log);
+			SMT.Configuration config = new SMT.Configuration();
+			IExpr e = new Parser(config,new Pos.Source("(and p (f x #b0101))",null)).parseExpr();
+			Writer w = p.writer();
+			w.write("(assert ");
+			org.smtlib.solvers.Printer.write(w,e); // which flushes the writer
+			Assert.assertFalse(read(log).contains("(assert"));
+			w.write(")\n");
+			Assert.assertEquals("(assert (and p (f x #b0101)))\n",p.sendWritten(true));
+			Assert.assertTrue(read(log).contains("(assert (and p (f x #b0101)))\n"));
+			Assert.assertSame(w,p.writer());
+			Assert.assertEquals("(check-sat)\n",p.sendAndListen("(check-sat)","\n"));
+			p.exit();
+		} finally {
+			log.delete();
+		}
+	}
+
+	/** A partly written command can be abandoned */
+	@Test
+	public void discard() throws Exception {
+		File log = File.createTempFile("solver",".log");
+		try {
+			SolverProcess p = cat(log);
+			p.writer().write("(assert (and");
+			p.discardWritten();
+			p.writer().write("(get-model)\n");
+			Assert.assertEquals("(get-model)\n",p.sendWritten(true));
+			Assert.assertFalse(read(log).contains("assert"));
+			p.exit();
+		} finally {
+			log.delete();
+		}
+	}
+
+	/** Commands are not copied to the log if teeToLog is false */
+	@Test
+	public void noTee() throws Exception {
+		File log = File.createTempFile("solver",".log");
+		try {
+			SolverProcess p = cat(log);
+			p.teeToLog = false;
+			StringBuilder sb = new StringBuilder("(assert (and");
+			for (int i = 0; i < 100000; i++) sb.append(" p").append(i);
+			sb.append("))\n");
+			Assert.assertEquals(sb.toString(),p.sendAndListen(sb.toString()));
+			Assert.assertFalse(read(log).contains("assert"));
+			p.exit();
+		} finally {
+			log.delete();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package org.smtlib.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IResponse;
+import org.smtlib.ISolver;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+import org.smtlib.SolverPool;
+
+/** Tests reusing solvers through a SolverPool (with the test solver) */
+public class SolverPoolTests {
+
+	SMT smt;
+	JUnitListener listener;
+	List<File> files = new ArrayList<File>();
+
+	@Before
+	public void init() {
+		smt = new SMT();
+		listener = new JUnitListener();
+		smt.smtConfig.log.clearListeners();
+		smt.smtConfig.log.addListener(listener);
+		smt.smtConfig.solvername = "test";
+	}
+
+	@After
+	public void cleanup() {
+		for (File f: files) f.delete();
+	}
+
+	/** Parses and executes a command, returning the response */
+	public IResponse doCommand(ISolver solver, String input) throws Exception {
+		ISource source = smt.smtConfig.smtFactory.createSource(input,null);
+		IParser p = new org.smtlib.sexpr.Parser(smt.smtConfig,source);
+		ICommand command = p.parseCommand();
+		Assert.assertNotNull(command);
+		return command.execute(solver);
+	}
+
+	public void checkOK(IResponse r) {
+		Assert.assertFalse(r.isError() ? ((IResponse.IError)r).errorMsg() : "", r.isError());
+	}
+
+	@Test
+	public void reuseAfterReset() throws Exception {
+		SolverPool pool = new SolverPool(smt,2);
+		ISolver s = pool.acquire("test",null);
+		checkOK(doCommand(s,"(set-logic QF_UF)"));
+		checkOK(doCommand(s,"(declare-fun p () Bool)"));
+		pool.release(s);
+		Assert.assertEquals(1,pool.idleCount("test",null));
+		ISolver s2 = pool.acquire("test",null);
+		Assert.assertSame(s,s2);
+		checkOK(doCommand(s2,"(set-logic QF_UF)"));
+		checkOK(doCommand(s2,"(declare-fun p () Bool)"));
+		pool.release(s2);
+		pool.close();
+		Assert.assertEquals(0,pool.idleCount("test",null));
+	}
+
+	@Test
+	public void reuseAfterPop() throws Exception {
+		smt.smtConfig.logic = "QF_UF";
+		SolverPool pool = new SolverPool(smt,2,SolverPool.Isolation.PUSH_POP);
+		Assert.assertEquals(1,pool.prestart("test",null,1));
+		ISolver s = pool.acquire("test",null);
+		Assert.assertEquals(0,pool.idleCount("test",null));
+		checkOK(doCommand(s,"(declare-fun p () Bool)"));
+		checkOK(doCommand(s,"(assert (not p))"));
+		pool.release(s);
+		ISolver s2 = pool.acquire("test",null);
+		Assert.assertSame(s,s2);
+		checkOK(doCommand(s2,"(declare-fun p () Bool)"));
+		pool.release(s2);
+		pool.close();
+	}
+
+	@Test
+	public void kinds() throws Exception {
+		SolverPool pool = new SolverPool(smt,2);
+		ISolver s = pool.acquire("test",null);
+		pool.release(s);
+		smt.smtConfig.seed = 42;
+		ISolver s2 = pool.acquire("test",null);
+		Assert.assertNotSame(s,s2);
+		pool.release(s2);
+		pool.close();
+	}
+
+	@Test
+	public void maxUses() throws Exception {
+		SolverPool pool = new SolverPool(smt,2);
+		pool.maxUses = 2;
+		ISolver s = pool.acquire("test",null);
+		pool.release(s);
+		Assert.assertSame(s,pool.acquire("test",null));
+		pool.release(s);
+		Assert.assertEquals(0,pool.idleCount("test",null));
+		Assert.assertNotSame(s,pool.acquire("test",null));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void releaseTwice() throws Exception {
+		SolverPool pool = new SolverPool(smt,2);
+		ISolver s = pool.acquire("test",null);
+		pool.release(s);
+		pool.release(s);
+	}
+
+	/** Runs exec on the given scripts, each in its own file, returning the output */
+	public String execFiles(int poolSize, String ... scripts) throws Exception {
+		return execFiles(new SMT(),poolSize,scripts);
+	}
+
+	/** Runs exec of the given SMT object on the given scripts, each in its own file, returning the output */
+	public String execFiles(SMT smt, int poolSize, String ... scripts) throws Exception {
+		this.smt = smt;
+		smt.smtConfig.solvername = "test";
+		smt.smtConfig.files = new ArrayList<String>();
+		for (String script: scripts) {
+			File f = File.createTempFile("pool",".smt2");
+			files.add(f);
+			FileWriter w = new FileWriter(f);
+			w.write(script);
+			w.close();
+			smt.smtConfig.files.add(f.getPath());
+		}
+		ByteArrayOutputStream ba = new ByteArrayOutputStream();
+		smt.smtConfig.log.out = new PrintStream(ba);
+		smt.smtConfig.log.diag = smt.smtConfig.log.out;
+		smt.smtConfig.solverPoolSize = poolSize;
+		smt.exec();
+		Assert.assertNull(smt.solverPool);
+		return ba.toString();
+	}
+
+	@Test
+	public void execWithPool() throws Exception {
+		String script = "(set-logic QF_UF)(declare-fun p () Bool)(assert p)(check-sat)(exit)";
+		String script2 = "(set-logic QF_UF)(declare-fun p () Int)(check-sat)";
+		String expected = execFiles(0,script,script2,script);
+		Assert.assertTrue(expected.contains("success"));
+		Assert.assertEquals(expected,execFiles(2,script,script2,script));
+	}
+
+	/** An echo command is executed as usual, not answered for the pool as an exit is */
+	@Test
+	public void echoWithPool() throws Exception {
+		String script = "(set-logic QF_UF)(echo \"hello\")";
+		String expected = execFiles(0,script);
+		Assert.assertTrue(expected,expected.contains("\"hello\""));
+		String pooled = execFiles(1,script,script);
+		Assert.assertEquals(expected + expected,pooled);
+	}
+
+	/** An SMT object that counts the solvers it starts and records, when the first script is
+	 * processed, how many have been started and how many of them are idle in the pool */
+	static class CountingSMT extends SMT {
+		int starts = 0;
+		int startsAtFirstScript = -1;
+		int idleAtFirstScript = -1;
+
+		@Override
+		public ISolver startSolver(SMT.Configuration smtConfig, String solvername, String executable) {
+			++starts;
+			return super.startSolver(smtConfig, solvername, executable);
+		}
+
+		@Override
+		protected int doParser(IParser p, boolean restart) {
+			if (startsAtFirstScript < 0) {
+				startsAtFirstScript = starts;
+				idleAtFirstScript = solverPool == null ? 0 : solverPool.idleCount(smtConfig.solvername, smtConfig.executable);
+			}
+			return super.doParser(p, restart);
+		}
+	}
+
+	/** The pool that exec creates is filled before the first script, which gets an already started solver */
+	@Test
+	public void execPrestarts() throws Exception {
+		String script = "(set-logic QF_UF)(declare-fun p () Bool)(assert p)(check-sat)";
+		CountingSMT counting = new CountingSMT();
+		execFiles(counting,2,script,script,script);
+		Assert.assertEquals(2,counting.startsAtFirstScript);
+		Assert.assertEquals(2,counting.idleAtFirstScript);
+		Assert.assertEquals(2,counting.starts);
+	}
+}
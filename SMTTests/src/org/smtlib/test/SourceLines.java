@@ -0,0 +1,89 @@
+package org.smtlib.test;
+
+import java.util.Random;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IParser;
+import org.smtlib.IPos;
+import org.smtlib.IResponse;
+import org.smtlib.ISource;
+import org.smtlib.SMT;
+
+/** Tests the line numbers, line beginnings and columns that sources compute for positions */
+public class SourceLines {
+
+	JUnitListener listener;
+	SMT.Configuration config;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		listener = new JUnitListener();
+		config.log.clearListeners();
+		config.log.addListener(listener);
+	}
+
+	/** Compares the source's answers, for positions asked about in random order, with a
+	 * line-by-line scan of the text, which has a mix of line terminations */
+	@Test
+	public void randomOrder() {
+		String[] terminators = { "\n", "\r\n", "\r", "\n\n" };
+		StringBuilder sb = new StringBuilder();
+		Random r = new Random(13);
+		for (int i = 0; i < 2000; i++) {
+			for (int k = r.nextInt(30); k > 0; k--) sb.append((char)('a' + r.nextInt(26)));
+			sb.append(terminators[r.nextInt(terminators.length)]);
+		}
+		sb.append("last");
+		String text = sb.toString();
+		int n = text.length();
+		int[] line = new int[n];
+		int[] begin = new int[n];
+		int ln = 1;
+		int b = 0;
+		for (int i = 0; i < n; i++) {
+			line[i] = ln;
+			begin[i] = b;
+			char c = text.charAt(i);
+			if (c == '\r' && i+1 < n && text.charAt(i+1) == '\n') {
+				line[++i] = ln;
+				begin[i] = b;
+			}
+			if (c == '\n' || c == '\r') {
+				ln++;
+				b = i+1;
+			}
+		}
+		ISource source = config.smtFactory.createSource(text,null);
+		for (int k = 0; k < 10000; k++) {
+			int p = r.nextInt(n);
+			Assert.assertEquals(line[p],source.lineNumber(p));
+			Assert.assertEquals(begin[p],source.lineBeginning(p));
+			Assert.assertEquals(p - begin[p],source.column(p));
+		}
+		Assert.assertEquals("last",source.textLine(n-1).trim());
+		Assert.assertEquals(line[n-1],source.lineNumber(n));
+	}
+
+	/** Each of many errors in one script is reported at its own line */
+	@Test
+	public void manyErrors() throws Exception {
+		StringBuilder sb = new StringBuilder();
+		int count = 5000;
+		for (int i = 1; i <= count; i++) sb.append(i % 2 == 0 ? "  (check-sat zzz)\r\n" : "(check-sat)\n");
+		ISource source = config.smtFactory.createSource(sb.toString(),null);
+		IParser p = new org.smtlib.sexpr.Parser(config,source);
+		while (!p.isEOD()) {
+			ICommand c = p.parseCommand();
+			Assert.assertTrue(c != null || !listener.msgs.isEmpty());
+		}
+		Assert.assertEquals(count/2,listener.msgs.size());
+		for (int i = listener.msgs.size() - 1; i >= 0; i--) {
+			IPos pos = ((IResponse.IError)listener.msgs.get(i)).pos();
+			Assert.assertEquals(2*(i+1),pos.source().lineNumber(pos.charStart()));
+			Assert.assertEquals(13,pos.source().column(pos.charStart()));
+			Assert.assertEquals("(check-sat zzz)",pos.source().textLine(pos.charStart()).trim());
+		}
+	}
+}
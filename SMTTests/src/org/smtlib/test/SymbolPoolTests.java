@@ -0,0 +1,87 @@
+package org.smtlib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import org.smtlib.ICommand;
+import org.smtlib.IExpr;
+import org.smtlib.IParser;
+import org.smtlib.SMT;
+import org.smtlib.SymbolPool;
+import org.smtlib.command.C_assert;
+
+/** Tests the pool of canonical symbol strings and its use by the lexers */
+public class SymbolPoolTests {
+
+	@Test
+	public void pool() {
+		SymbolPool pool = new SymbolPool();
+		String text = "xx abc abd abc";
+		String abc = pool.intern(text,3,6);
+		Assert.assertEquals("abc",abc);
+		Assert.assertSame(abc,pool.intern(text,11,14));
+		Assert.assertSame(abc,pool.intern(new String("abc")));
+		Assert.assertEquals("abd",pool.intern(text,7,10));
+		Assert.assertSame(pool.intern(text,7,10),pool.intern(text,7,10));
+		Assert.assertEquals("",pool.intern(text,0,0));
+		Assert.assertEquals(3,pool.size());
+
+		// Enough strings to grow the table several times
+		List<String> strings = new ArrayList<String>();
+		for (int i = 0; i < 10000; i++) strings.add(pool.intern("s" + i));
+		Assert.assertEquals(10003,pool.size());
+		for (int i = 0; i < 10000; i++) {
+			String s = "xs" + i;
+			Assert.assertSame(strings.get(i),pool.intern(s,1,s.length()));
+		}
+		Assert.assertSame(abc,pool.intern("abc"));
+
+		pool.clear();
+		pool.limit = 1;
+		String a = pool.intern("a");
+		Assert.assertSame(a,pool.intern(new String("a")));
+		String b = new String("b");
+		Assert.assertSame(b,pool.intern(b));
+		Assert.assertNotSame(b,pool.intern(new String("b")));
+		Assert.assertEquals(1,pool.size());
+	}
+
+	public void lexer(boolean fastLexer) throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		config.fastLexer = fastLexer;
+		IParser p = config.smtFactory.createParser(config,config.smtFactory.createSource(
+				"(assert (! (and p |p| q) :named n)) (assert (! (and p q) :named m))",null));
+		List<ICommand> commands = new ArrayList<ICommand>();
+		while (!p.isEOD()) commands.add(p.parseCommand());
+		IExpr.IAttributedExpr e1 = (IExpr.IAttributedExpr)((C_assert)commands.get(0)).expr();
+		IExpr.IAttributedExpr e2 = (IExpr.IAttributedExpr)((C_assert)commands.get(1)).expr();
+		IExpr.IFcnExpr and1 = (IExpr.IFcnExpr)e1.expr();
+		IExpr.IFcnExpr and2 = (IExpr.IFcnExpr)e2.expr();
+		String p1 = ((IExpr.ISymbol)and1.args().get(0)).value();
+		Assert.assertSame(p1,((IExpr.ISymbol)and1.args().get(1)).value());
+		Assert.assertEquals("|p|",((IExpr.ISymbol)and1.args().get(1)).toString());
+		Assert.assertSame(p1,((IExpr.ISymbol)and2.args().get(0)).value());
+		Assert.assertSame(((IExpr.ISymbol)and1.args().get(2)).value(),((IExpr.ISymbol)and2.args().get(1)).value());
+		Assert.assertSame(and1.head().headSymbol().value(),and2.head().headSymbol().value());
+		Assert.assertSame(e1.attributes().get(0).keyword().value(),e2.attributes().get(0).keyword().value());
+		Assert.assertSame(p1,config.symbolPool.intern("p"));
+	}
+
+	@Test
+	public void regexLexer() throws Exception {
+		lexer(false);
+	}
+
+	@Test
+	public void fastLexer() throws Exception {
+		lexer(true);
+	}
+
+	/** A copy of a configuration, which may be used on another thread, has its own pool */
+	@Test
+	public void cloned() throws Exception {
+		SMT.Configuration config = new SMT.Configuration();
+		Assert.assertNotSame(config.symbolPool,config.clone().symbolPool);
+	}
+}
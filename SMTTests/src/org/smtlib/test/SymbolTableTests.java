@@ -0,0 +1,184 @@
+package org.smtlib.test;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.*;
+import org.smtlib.IExpr.ISymbol;
+import org.smtlib.ISort;
+import org.smtlib.PersistentMap;
+import org.smtlib.SMT;
+import org.smtlib.SymbolTable;
+
+/** Tests the scopes of the (persistent) SymbolTable */
+public class SymbolTableTests {
+
+	SMT.Configuration config;
+	SymbolTable table;
+	ISort.IFcnSort constant;
+	ISort.IFcnSort unary;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+		table = new SymbolTable(config);
+		ISort bool = config.sortFactory.Bool();
+		constant = config.sortFactory.createFcnSort(new ISort[0],bool);
+		unary = config.sortFactory.createFcnSort(new ISort[]{bool},bool);
+	}
+
+	ISymbol sym(String name) {
+		return config.exprFactory.symbol(name);
+	}
+
+	SymbolTable.Entry entry(String name, ISort.IFcnSort sort) {
+		return new SymbolTable.Entry(sym(name),sort,null);
+	}
+
+	@Test
+	public void pushPop() {
+		Assert.assertTrue(table.add(entry("a",constant),false));
+		table.push();
+		Assert.assertFalse(table.add(entry("a",constant),false));
+		Assert.assertTrue(table.add(entry("b",constant),false));
+		Assert.assertNotNull(table.lookup(0,sym("b")));
+		table.pop();
+		Assert.assertNull(table.lookup(0,sym("b")));
+		Assert.assertNotNull(table.lookup(0,sym("a")));
+		Assert.assertTrue(table.add(entry("b",constant),false));
+	}
+
+	@Test(expected=SMT.InternalException.class)
+	public void popTooFar() {
+		table.push();
+		table.pop();
+		table.pop();
+	}
+
+	/** A symbol defined in an inner scope hides other arities from outer scopes for lookup(name),
+	 * but lookup(arity,name) finds them */
+	@Test
+	public void shadowing() {
+		table.add(entry("f",unary));
+		table.push();
+		table.add(entry("f",constant));
+		Assert.assertEquals(1,table.lookup(sym("f")).size());
+		Assert.assertSame(unary,table.lookup(1,sym("f")));
+		Assert.assertSame(constant,table.lookup(0,sym("f")));
+		table.pop();
+		Assert.assertNull(table.lookup(0,sym("f")));
+	}
+
+	@Test
+	public void background() {
+		table.push();
+		table.add(entry("t",constant));
+		table.moveToBackground();
+		Assert.assertNotNull(table.lookup(0,sym("t")));
+		config.globalDeclarations = true;
+		table.push();
+		table.add(entry("g",constant));
+		table.pop();
+		Assert.assertNotNull(table.lookup(0,sym("g")));
+		table.clear(true);
+		Assert.assertNotNull(table.lookup(0,sym("t")));
+		table.clear(false);
+		Assert.assertNull(table.lookup(0,sym("t")));
+	}
+
+	@Test
+	public void merge() {
+		table.push();
+		table.add(entry("x",constant));
+		table.push();
+		table.add(entry("y",constant));
+		table.merge();
+		Assert.assertNotNull(table.lookup(0,sym("y")));
+		table.pop();
+		Assert.assertNull(table.lookup(0,sym("x")));
+		Assert.assertNull(table.lookup(0,sym("y")));
+	}
+
+	@Test
+	public void sorts() {
+		Assert.assertTrue(table.addSortParameter(sym("S")));
+		Assert.assertFalse(table.addSortParameter(sym("S")));
+		table.push();
+		Assert.assertTrue(table.addSortParameter(sym("S")));
+		Assert.assertFalse(table.addSortDefinition(sym("S"),config.exprFactory.numeral(0)));
+		Assert.assertTrue(table.addSortDefinition(sym("T"),config.exprFactory.numeral(0)));
+		table.pop();
+		Assert.assertNull(table.lookupSort(sym("T")));
+		Assert.assertNotNull(table.lookupSort(sym("S")));
+	}
+
+	/** A copy is independent of the original, in both directions */
+	@Test
+	public void copy() {
+		table.add(entry("a",constant));
+		table.push();
+		SymbolTable copy = new SymbolTable(table);
+		copy.add(entry("b",constant));
+		table.add(entry("c",constant));
+		Assert.assertNull(table.lookup(0,sym("b")));
+		Assert.assertNull(copy.lookup(0,sym("c")));
+		copy.pop();
+		table.pop();
+		copy.add(entry("d",unary));
+		Assert.assertNull(table.lookup(1,sym("d")));
+		Assert.assertEquals(2,count(copy));
+		Assert.assertEquals(1,count(table));
+	}
+
+	int count(SymbolTable t) {
+		int n = 0;
+		for (SymbolTable.Iterator i = t.iterator(); i.hasNext(); i.next()) n++;
+		return n;
+	}
+
+	/** Lookups and push/pop do not slow down with the number of scopes */
+	@Test(timeout=10000)
+	public void deepScopes() {
+		int n = 20000;
+		for (int i = 0; i < n; i++) {
+			table.push();
+			table.add(entry("v" + i,constant));
+		}
+		for (int k = 0; k < 50; k++) {
+			for (int i = 0; i < n; i++) Assert.assertNotNull(table.lookup(0,sym("v" + i)));
+		}
+		for (int i = 0; i < n; i++) table.pop();
+		Assert.assertNull(table.lookup(0,sym("v0")));
+	}
+
+	/** Keys whose hash codes collide */
+	static class Key {
+		final int id;
+		Key(int id) { this.id = id; }
+		@Override public int hashCode() { return id % 7; }
+		@Override public boolean equals(Object o) { return o instanceof Key && ((Key)o).id == id; }
+	}
+
+	@Test
+	public void persistentMap() {
+		PersistentMap<Object,Integer> m = PersistentMap.empty();
+		PersistentMap<Object,Integer> half = null;
+		for (int i = 0; i < 2000; i++) {
+			m = m.put(i % 2 == 0 ? (Object)new Key(i) : (Object)Integer.valueOf(i), i);
+			if (i == 999) half = m;
+		}
+		Assert.assertEquals(2000,m.size());
+		Assert.assertEquals(1000,half.size());
+		for (int i = 0; i < 2000; i++) {
+			Object k = i % 2 == 0 ? (Object)new Key(i) : (Object)Integer.valueOf(i);
+			Assert.assertEquals(Integer.valueOf(i),m.get(k));
+			Assert.assertEquals(i < 1000 ? Integer.valueOf(i) : null,half.get(k));
+		}
+		PersistentMap<Object,Integer> m2 = m.put(new Key(4),-4);
+		Assert.assertEquals(2000,m2.size());
+		Assert.assertEquals(Integer.valueOf(-4),m2.get(new Key(4)));
+		Assert.assertEquals(Integer.valueOf(4),m.get(new Key(4)));
+		Set<Integer> values = new HashSet<Integer>(m.values());
+		Assert.assertEquals(2000,values.size());
+	}
+}
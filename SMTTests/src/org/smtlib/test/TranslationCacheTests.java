@@ -0,0 +1,125 @@
+package org.smtlib.test;
+
+import org.junit.*;
+import org.smtlib.IExpr;
+import org.smtlib.IVisitor;
+import org.smtlib.SMT;
+import org.smtlib.impl.Pos;
+import org.smtlib.sexpr.Parser;
+import org.smtlib.solvers.Solver_z3_4_5;
+import org.smtlib.solvers.TranslationCache;
+
+/** Tests the cache of translations of repeated terms used by the z3 adapters */
+public class TranslationCacheTests {
+
+	/** An adapter (whose solver is never started) that exposes its translation */
+	static class Z3 extends Solver_z3_4_5 {
+		Z3(SMT.Configuration smtConfig) { super(smtConfig,"z3"); }
+
+		String text(IExpr e) throws IVisitor.VisitorException { return translate(e); }
+
+		/*@Nullable*/ TranslationCache cache() { return translationCache; }
+	}
+
+	SMT.Configuration config;
+
+	@Before
+	public void init() {
+		config = new SMT.Configuration();
+	}
+
+	public IExpr parse(String text) throws Exception {
+		return new Parser(config,new Pos.Source(text,null)).parseExpr();
+	}
+
+	@Test
+	public void lookup() {
+		TranslationCache c = new TranslationCache(1000);
+		Object a = new Object();
+		Assert.assertNull(c.lookup(a));
+		Assert.assertSame(TranslationCache.SEEN,c.lookup(a));
+		Assert.assertNull(c.get(a));
+		c.put(a,"(f x)".toCharArray());
+		Assert.assertEquals("(f x)",new String(c.lookup(a)));
+		Assert.assertEquals("(f x)",new String(c.get(a)));
+		Assert.assertEquals(2,c.hits);
+		Assert.assertEquals(1,c.entries());
+		Assert.assertEquals(TranslationCache.SEEN_COST + 5,c.size());
+		// get does not record a term as seen
+		Object b = new Object();
+		Assert.assertNull(c.get(b));
+		Assert.assertNull(c.lookup(b));
+		Assert.assertSame(TranslationCache.SEEN,c.lookup(b));
+		c.clear();
+		Assert.assertEquals(0,c.entries());
+		Assert.assertEquals(0,c.size());
+	}
+
+	/** The least recently used entries are evicted to keep within the capacity; text larger than
+	 * an eighth of the capacity is not kept */
+	@Test
+	public void eviction() {
+		int capacity = 8 * (TranslationCache.SEEN_COST + 10);
+		TranslationCache c = new TranslationCache(capacity);
+		Object[] terms = new Object[8];
+		for (int i = 0; i < terms.length; i++) {
+			terms[i] = new Object();
+			c.put(terms[i],"0123456789".toCharArray());
+		}
+		Assert.assertEquals(8,c.entries());
+		Assert.assertEquals(capacity,c.size());
+		Assert.assertNotNull(c.get(terms[0]));
+		Object x = new Object();
+		c.lookup(x);
+		Assert.assertEquals(8,c.entries());
+		Assert.assertTrue(c.size() <= capacity);
+		Assert.assertNotNull(c.get(terms[0]));
+		Assert.assertNull(c.get(terms[1]));
+		Assert.assertSame(TranslationCache.SEEN,c.lookup(x));
+		Object y = new Object();
+		c.put(y,"01234567890".toCharArray());
+		Assert.assertNull(c.get(y));
+	}
+
+	/** Cached translations are the same as uncached ones, however often a term is translated */
+	@Test
+	public void translations() throws Exception {
+		String[] terms = { "(bvadd (bvmul x y) (bvmul x y) (concat #b01 (select a (bvmul x y))))",
+				"(- (- a b c) (- a b c) 1)", "(and (=> p q r) (= (select a i) (store a i v)))",
+				"(forall ((z Int)) (> (- z 1 2) (f (- z 1 2))))" };
+		Z3 plain = new Z3(config);
+		Assert.assertNull(plain.cache());
+		SMT.Configuration cachingConfig = new SMT.Configuration();
+		cachingConfig.translationCacheSize = 1 << 16;
+		Z3 caching = new Z3(cachingConfig);
+		Assert.assertNotNull(caching.cache());
+		IExpr[] exprs = new IExpr[terms.length];
+		for (int i = 0; i < terms.length; i++) exprs[i] = parse(terms[i]);
+		for (int k = 0; k < 3; k++) {
+			for (IExpr e: exprs) Assert.assertEquals(plain.text(e),caching.text(e));
+		}
+		Assert.assertTrue(caching.cache().hits > 0);
+		Assert.assertEquals("(- (- (- (- a b) c) (- (- a b) c)) 1)",caching.text(exprs[1]));
+	}
+
+	/** The text of a term with shared subterms is built from cached pieces */
+	@Test
+	public void shared() throws Exception {
+		IExpr t = config.exprFactory.symbol("x");
+		for (int i = 0; i < 12; i++) t = config.exprFactory.fcn(config.exprFactory.symbol("bvadd"),t,t);
+		Z3 plain = new Z3(config);
+		config.translationCacheSize = 1 << 20;
+		Z3 caching = new Z3(config);
+		String expected = plain.text(t);
+		Assert.assertEquals(expected,caching.text(t));
+		Assert.assertTrue(caching.cache().hits > 0);
+		Assert.assertEquals(expected,caching.text(t));
+	}
+
+	@Test
+	public void commandLine() {
+		SMT smt = new SMT();
+		Assert.assertEquals(0,smt.processCommandLine(new String[]{"--translationcache","4096","a.smt2"},smt.smtConfig));
+		Assert.assertEquals(4096,smt.smtConfig.translationCacheSize);
+	}
+}
@@ -23,5 +23,24 @@ public class TypeCheckBV extends TypeCheckRoot {
 		// Add ok and err cases for all bit-vector functions
 	}
 	
+	/** The bit-vector operators that the type checker checks itself */
+	@Test
+	public void checkBuiltins() {
+		doCommand("(declare-fun a () (_ BitVec 8))");
+		doCommand("(declare-fun q () (_ BitVec 5))");
+		doCommand("(declare-fun z () (_ BitVec 1))");
+		check("(= z (bvcomp a a))");
+		check("(= a (bvxor a (bvneg a)))");
+		check("(bvsge a a)");
+		check("(= ((_ extract 7 3) a) (bvnot q))");
+		check("(= (concat a q) ((_ zero_extend 5) a) ((_ repeat 13) z))");
+		check("(= ((_ rotate_left 2) q) q)");
+		check("(bvadd a q)","The sorts must match: (_ BitVec 8) vs. (_ BitVec 5)");
+		check("(bvcomp a)"," The bvcomp function should have two arguments");
+		check("((_ extract 2 3) a)","The end index is less than the starting index");
+		check("(bvfoo a)","Unknown predicate symbol bvfoo with argument types (_ BitVec 8)");
+		check("(|bvnot| a)","Unknown predicate symbol |bvnot| with argument types (_ BitVec 8)");
+	}
+	
 
 }
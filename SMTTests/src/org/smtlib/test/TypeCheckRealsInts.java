@@ -29,5 +29,17 @@ public class TypeCheckRealsInts extends TypeCheckRoot {
 		doCommand("(assert (< q r))");
 	}
 	
+	/** Int arguments are accepted where Real ones are expected */
+	@Test
+	public void checkMixed() {
+		doCommand("(declare-fun q () Int)");
+		doCommand("(declare-fun a () Real)");
+		check("(= q a)");
+		check("(distinct a q a)");
+		check("(< q a)");
+		check("(= (+ a q) (* q a))");
+		check("(= q true)","Mismatched sorts of arguments: Int vs. Bool");
+	}
+	
 
 }
@@ -0,0 +1,90 @@
+package org.smtlib.test;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.smtlib.ISort;
+import org.smtlib.SMT;
+import org.smtlib.TypeChecker;
+import org.smtlib.sexpr.Parser;
+
+/** Tests the canonical sorts that type-checked sorts resolve to */
+public class TypeCheckSorts extends TypeCheckRoot {
+
+	@Override
+	@Before
+	public void setup() {
+		super.setup();
+		checkResponse(solver.set_logic("QF_AUFLIA",null));
+	}
+
+	/** Parses and type-checks a sort, returning its canonical sort */
+	public ISort canonical(String text) throws Exception {
+		ISort s = new Parser(smt.smtConfig,smt.smtConfig.smtFactory.createSource(text,null)).parseSort(null);
+		Assert.assertTrue(TypeChecker.checkSort(solver.symTable,s).isEmpty());
+		return smt.smtConfig.sortFactory.canonical(s);
+	}
+
+	@Test
+	public void identity() throws Exception {
+		doCommand("(define-sort I () Int)");
+		doCommand("(define-sort J () I)");
+		doCommand("(define-sort A (X) (Array X X))");
+		doCommand("(define-sort B () Bool)");
+		ISort i = canonical("Int");
+		Assert.assertNotNull(i);
+		Assert.assertSame(i,canonical("Int"));
+		Assert.assertSame(i,canonical("I"));
+		Assert.assertSame(i,canonical("J"));
+		ISort a = canonical("(Array Int Int)");
+		Assert.assertSame(a,canonical("(Array I J)"));
+		Assert.assertSame(a,canonical("(A I)"));
+		Assert.assertNotSame(a,canonical("(Array Int Bool)"));
+		Assert.assertSame(smt.smtConfig.sortFactory.Bool(),canonical("B"));
+		Assert.assertTrue(canonical("B").isBool());
+		Assert.assertFalse(i.isBool());
+		Assert.assertTrue(i.equals(canonical("I")));
+		Assert.assertFalse(i.equals(a));
+	}
+
+	@Test
+	public void noCanonical() throws Exception {
+		ISort s = new Parser(smt.smtConfig,smt.smtConfig.smtFactory.createSource("Int",null)).parseSort(null);
+		Assert.assertNull(smt.smtConfig.sortFactory.canonical(s)); // not yet resolved
+		ISort.IParameter x = smt.smtConfig.sortFactory.createSortParameter(smt.smtConfig.exprFactory.symbol("X"));
+		Assert.assertNull(smt.smtConfig.sortFactory.canonical(x));
+	}
+
+	/** The sorts of the functions of the logic background are canonical, and are the same for
+	 * every configuration (a cached background is shared by all of them) */
+	@Test
+	public void background() throws Exception {
+		ISort i = canonical("Int");
+		ISort.IFcnSort plus = solver.symTable.lookup(2,smt.smtConfig.exprFactory.symbol("+"));
+		Assert.assertNotNull(plus);
+		Assert.assertSame(i,plus.resultSort());
+		for (ISort s: plus.argSorts()) Assert.assertSame(i,s);
+		SMT other = new SMT();
+		ISort.IApplication a = other.smtConfig.sortFactory.createSortExpression(smt.smtConfig.exprFactory.symbol("Int"));
+		a.definition(((ISort.IApplication)i).definition());
+		Assert.assertSame(i,other.smtConfig.sortFactory.canonical(a));
+	}
+
+	/** Terms whose sorts are written with different abbreviations of the same sort are compatible */
+	@Test(timeout=10000)
+	public void abbreviations() {
+		doCommand("(define-sort I () Int)");
+		doCommand("(define-sort J () I)");
+		doCommand("(define-sort B () Bool)");
+		doCommand("(declare-fun x () J)");
+		doCommand("(declare-fun y () Int)");
+		doCommand("(declare-fun a () (Array I J))");
+		doCommand("(declare-fun b () (Array Int Int))");
+		doCommand("(declare-fun p () B)");
+		doCommand("(assert (= x y))");
+		doCommand("(assert (= a b (store b x y)))");
+		doCommand("(assert (= (select a x) y))");
+		doCommand("(assert (ite p (= x 1) p))");
+		doCommand("(assert (= a y))","Mismatched sorts of arguments: (Array I J) vs. Int");
+	}
+}